@@ -44,8 +44,47 @@ public class Constants {
     public final static String WRAPPER_SCRIPT_NAME = "failify_wrapper_script";
     public final static String DO_INIT_FILE_NAME = "failify_do_init";
     public final static String CONSOLE_OUTERR_FILE_NAME = "failify_out_err";
+    public final static String RESOURCE_STATS_FILE_NAME = "failify_resource_stats.csv";
+    public final static Integer DEFAULT_RESOURCE_SAMPLING_INTERVAL = 0;
+    public final static Integer MAX_IN_MEMORY_RESOURCE_SAMPLES = 3600;
+    public final static Integer MAX_RESOURCE_SAMPLER_THREADS = 16;
+    public final static Integer MAX_NETWORK_OPERATION_THREADS = 16;
+    public final static String BLOCKED_NODES_IPSET_NAME = "failify_blocked";
+    public final static String ACCOUNTING_INPUT_CHAIN_NAME = "FAILIFY_ACCT_IN";
+    public final static String ACCOUNTING_OUTPUT_CHAIN_NAME = "FAILIFY_ACCT_OUT";
+    public final static String ACCOUNTING_DROP_CHAIN_NAME = "FAILIFY_DROP";
+    public final static String NETWORK_STATS_FILE_NAME = "failify_network_stats.csv";
+    public final static Integer DEFAULT_NETWORK_STATS_SAMPLING_INTERVAL = 0;
+    public final static String PROXY_ENV_VAR_PREFIX = "FAILIFY_PROXY_";
+    public final static Integer PROXY_BUFFER_SIZE = 64 * 1024;
+    public final static Long PROXY_MAX_BUFFERED_BYTES = 4L * 1024 * 1024;
+    public final static Integer PROXY_ACCEPT_BACKLOG = 128;
+    public final static Integer PROXY_STOP_TIMEOUT = 5000;
+    public final static Integer LOG_TAILER_POLL_INTERVAL = 250;
+    public final static Integer LOG_TAILER_MAX_LINE_LENGTH = 1024 * 1024;
+    public final static String ROTATED_LOGS_DIRECTORY_NAME = "failify_rotated";
+    public final static Integer DEFAULT_ROTATED_LOGS_RETENTION = 5;
+    public final static Integer LOG_ROTATION_CHECK_INTERVAL = 1000;
+    public final static Integer FAULT_SCHEDULER_STOP_TIMEOUT = 5000;
+    public final static String DOCKER_LOG_MAX_SIZE = "10m";
+    public final static String DOCKER_LOG_MAX_FILE = "2";
+    public final static Integer MAX_WORKSPACE_THREADS = 8;
+    public final static Integer MAX_ARCHIVE_EXTRACTION_THREADS = 8;
     public final static String DECOMPRESSED_DIRECTORIES_ROOT_NAME = "decompressed";
+    public final static String DECOMPRESSION_CACHE_DIRECTORY_NAME = "failify_decompression_cache";
+    public final static Long DEFAULT_DECOMPRESSION_CACHE_SIZE = 2L * 1024 * 1024 * 1024;
+    public final static String RUN_STATUS_FILE_NAME = "failify_run_status";
+    public final static String IN_MEMORY_WORKSPACE_ROOT = "/dev/shm";
+    public final static String DOCKER_TMPFS_OPTIONS = "rw,exec";
+    public final static String STAGED_CLASSPATH_DIRECTORY_NAME = "classpath";
+    public final static String STAGED_CLASSPATH_TARGET_PATH = "/failify_classpath";
+    public final static String APPCDS_DIRECTORY_NAME = "failify_appcds";
+    public final static String APPCDS_TARGET_PATH = "/failify_appcds";
+    public final static Integer MAX_APPCDS_ARCHIVES = 16;
+    public final static Integer MAX_APPCDS_CONTENT_HASHES = 4096;
+    public final static String CPU_SET_REGEX = "\\d+(-\\d+)?(,\\d+(-\\d+)?)*";
     public final static String DOCKER_NETWORK_NAME_PREFIX = "failify_";
+    public final static String DOCKER_CONTROL_NETWORK_NAME_SUFFIX = "_control";
     public final static String DOCKER_CONTAINER_NAME_PREFIX = "failify_";
     public final static Integer DEFAULT_SECONDS_TO_WAIT_BEFORE_FORCED_RESTART = 5;
     public final static Integer DEFAULT_SECONDS_TO_WAIT_BEFORE_FORCED_STOP = 5;
@@ -123,6 +123,9 @@ public class FailifyRunner {
                 verifier.verify();
             }
 
+            // Remove the old working directories based on the retention policies
+            workspaceManager.collectGarbage();
+
             // Setup the nodes' workspaces
             logger.info("Creating the nodes' workspaces ...");
             Map<String, NodeWorkspace> nodeWorkspaceMap = workspaceManager.createWorkspace();
@@ -142,22 +145,32 @@ public class FailifyRunner {
             runtimeEngine.start(this);
         } catch (RuntimeEngineException e) {
             logger.error("An error happened while starting the runtime engine. Stopping ...", e);
-            if (!isStopped()) {
-                stop();
-            }
+            markFailed();
+            stopAfterFailure();
             throw new RuntimeException(e);
         } catch (WorkspaceException | InstrumentationException e) {
             logger.error("An error happened while instrumenting the nodes", e);
+            markFailed();
+            stopAfterFailure();
             throw new RuntimeException(e);
         } catch (Throwable e) {
             logger.error("An unexpected error has happened. Stopping ...", e);
-            if (!isStopped()) {
-                stop();
-            }
+            markFailed();
+            stopAfterFailure();
             throw e;
         }
     }
 
+    // The run is finished even if the runtime engine is not started or has stopped itself
+    private void stopAfterFailure() {
+        if (!isStopped()) {
+            stop();
+        } else {
+            workspaceManager.releaseInMemoryWorkspace();
+            workspaceManager.markFinished();
+        }
+    }
+
     /**
      * Stops the runner by killing all the deployed nodes
      */
@@ -174,7 +187,9 @@ public class FailifyRunner {
     }
 
     /**
-     * Stops the runner by stopping or killing all the deployed nodes
+     * Stops the runner by stopping or killing all the deployed nodes. The run is recorded as finished without a known
+     * outcome unless it is marked as succeeded or failed before or after stopping the runner. Take a look at
+     * {@link #markSucceeded()} for more information.
      * @param kill the flag to require killing of the nodes
      * @param secondsUntilForcedStop if stopping the nodes is desired, the runner will wait for this amount of time in
      *                               seconds and then forces the stop by killing the nodes
@@ -184,6 +199,25 @@ public class FailifyRunner {
         if (runtimeEngine != null) {
             runtimeEngine.stop(kill, secondsUntilForcedStop);
         }
+        workspaceManager.releaseInMemoryWorkspace();
+        workspaceManager.markFinished();
+    }
+
+    /**
+     * Marks the run as succeeded, so its working directory is removed when only the failed runs are to be kept. This
+     * can be called before or after stopping the runner, e.g. when a test case passes. A run which is marked as failed
+     * can't be marked as succeeded afterwards
+     */
+    public void markSucceeded() {
+        workspaceManager.markSucceeded();
+    }
+
+    /**
+     * Marks the run as failed, so its working directory is kept when only the failed runs are to be kept. This can be
+     * called before or after stopping the runner, e.g. when a test case fails
+     */
+    public void markFailed() {
+        workspaceManager.markFailed();
     }
 
     /**
@@ -216,6 +250,8 @@ class FailifyShutdownHook extends Thread {
     public void run() {
         if (!runner.isStopped()) {
             logger.info("Shutdown signal received!");
+            // the runner is not stopped by the test case, so the run is not considered successful
+            runner.markFailed();
             runner.stop();
         }
     }
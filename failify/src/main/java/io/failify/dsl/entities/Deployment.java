@@ -42,6 +42,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 
@@ -62,6 +63,26 @@ public class Deployment extends DeploymentEntity {
     private final Map<String, BlockingEvent> blockingEvents; // map of blocking events
     private final Map<String, SchedulingEvent> blockingSchedulingEvents; // map of scheduling blocking events
     private final String runSequence;
+    private final Integer resourceSamplingInterval; // the interval between resource usage samples of nodes in milliseconds
+    private final Integer networkStatsSamplingInterval; // the interval between network stats samples of nodes in milliseconds
+    private final NetworkFaultBackend networkFaultBackend;
+    private final NetworkMode networkMode;
+    private final String networkParentInterface; // the host interface of ipvlan and macvlan networks
+    private final WorkspaceCopyStrategy workspaceCopyStrategy;
+    private final Long decompressionCacheSize; // the maximum size of the decompressed archives cache in bytes
+    private final Long logRotationMaxSize; // the size in bytes that triggers rotation of a log file
+    private final Integer logRotationInterval; // the age in seconds that triggers rotation of a log file
+    private final Integer rotatedLogsRetention; // the number of rotated segments to keep for each log file
+    private final Boolean compressRotatedLogs;
+    private final Boolean copyTruncateLogFiles;
+    private final Integer workingDirectoryRetention; // the number of runs to keep in the top level working directory
+    private final Boolean keepFailedRunsOnly;
+    private final Long workingDirectoryMaxSize; // the maximum size of the previous runs' working directories in bytes
+    private final Boolean keepOnlyLogs;
+    private final Boolean inMemoryWorkspace;
+    private final Boolean persistInMemoryLogs;
+    private final Boolean cpuPartitioning;
+    private final Integer reservedCpus; // the number of host cpus to leave out of the cpu partitioning
 
     /**
      * Private Constructor
@@ -70,6 +91,26 @@ public class Deployment extends DeploymentEntity {
     private Deployment(Builder builder) {
         super(builder.getName());
         runSequence = builder.runSequence;
+        resourceSamplingInterval = builder.resourceSamplingInterval;
+        networkStatsSamplingInterval = builder.networkStatsSamplingInterval;
+        networkFaultBackend = builder.networkFaultBackend;
+        networkMode = builder.networkMode;
+        networkParentInterface = builder.networkParentInterface;
+        workspaceCopyStrategy = builder.workspaceCopyStrategy;
+        decompressionCacheSize = builder.decompressionCacheSize;
+        logRotationMaxSize = builder.logRotationMaxSize;
+        logRotationInterval = builder.logRotationInterval;
+        rotatedLogsRetention = builder.rotatedLogsRetention;
+        compressRotatedLogs = builder.compressRotatedLogs;
+        copyTruncateLogFiles = builder.copyTruncateLogFiles;
+        workingDirectoryRetention = builder.workingDirectoryRetention;
+        keepFailedRunsOnly = builder.keepFailedRunsOnly;
+        workingDirectoryMaxSize = builder.workingDirectoryMaxSize;
+        keepOnlyLogs = builder.keepOnlyLogs;
+        inMemoryWorkspace = builder.inMemoryWorkspace;
+        persistInMemoryLogs = builder.persistInMemoryLogs;
+        cpuPartitioning = builder.cpuPartitioning;
+        reservedCpus = builder.reservedCpus;
         nodes = Collections.unmodifiableMap(builder.nodes);
         services = Collections.unmodifiableMap(builder.services);
         sharedDirectories = Collections.unmodifiableSet(builder.sharedDorectories);
@@ -218,6 +259,165 @@ public class Deployment extends DeploymentEntity {
         return runSequence;
     }
 
+    /**
+     * @return the interval between resource usage samples of nodes in milliseconds or 0 if sampling is disabled
+     */
+    public Integer getResourceSamplingInterval() {
+        return resourceSamplingInterval;
+    }
+
+    /**
+     * @return the interval between network traffic stats samples of nodes in milliseconds or 0 if sampling is disabled
+     */
+    public Integer getNetworkStatsSamplingInterval() {
+        return networkStatsSamplingInterval;
+    }
+
+    /**
+     * @return the mechanism network partitions and network operations are imposed with
+     */
+    public NetworkFaultBackend getNetworkFaultBackend() {
+        return networkFaultBackend;
+    }
+
+    /**
+     * @return the docker network driver the nodes are connected to each other with
+     */
+    public NetworkMode getNetworkMode() {
+        return networkMode;
+    }
+
+    /**
+     * @return the host interface the ipvlan or macvlan network is attached to or null if a dummy interface is used
+     */
+    public String getNetworkParentInterface() {
+        return networkParentInterface;
+    }
+
+    /**
+     * @return the way the changeable application paths are copied over to the nodes' workspaces
+     */
+    public WorkspaceCopyStrategy getWorkspaceCopyStrategy() {
+        return workspaceCopyStrategy;
+    }
+
+    /**
+     * @return the maximum size in bytes of the cache of decompressed application archives shared between the runs or 0
+     * if the cache is disabled
+     */
+    public Long getDecompressionCacheSize() {
+        return decompressionCacheSize;
+    }
+
+    /**
+     * @return the size in bytes that triggers the rotation of the console and log files of the nodes or null if
+     * size-based rotation is disabled
+     */
+    public Long getLogRotationMaxSize() {
+        return logRotationMaxSize;
+    }
+
+    /**
+     * @return the age in seconds that triggers the rotation of the console and log files of the nodes or null if
+     * time-based rotation is disabled
+     */
+    public Integer getLogRotationInterval() {
+        return logRotationInterval;
+    }
+
+    /**
+     * @return the number of rotated segments to keep for each log file
+     */
+    public Integer getRotatedLogsRetention() {
+        return rotatedLogsRetention;
+    }
+
+    /**
+     * @return true if the rotated log segments should be compressed, otherwise false
+     */
+    public Boolean isCompressRotatedLogs() {
+        return compressRotatedLogs;
+    }
+
+    /**
+     * @return true if the declared log files and the files in the declared log directories should be rotated by
+     * copying and truncating them, otherwise false
+     */
+    public Boolean isCopyTruncateLogFiles() {
+        return copyTruncateLogFiles;
+    }
+
+    /**
+     * @return the number of runs, including the current one, to keep in the top level working directory or null if the
+     * runs are not limited by number
+     */
+    public Integer getWorkingDirectoryRetention() {
+        return workingDirectoryRetention;
+    }
+
+    /**
+     * @return true if only the working directories of the failed runs should be kept, otherwise false
+     */
+    public Boolean isKeepFailedRunsOnly() {
+        return keepFailedRunsOnly;
+    }
+
+    /**
+     * @return the maximum total size in bytes of the previous runs' working directories or null if it is not limited
+     */
+    public Long getWorkingDirectoryMaxSize() {
+        return workingDirectoryMaxSize;
+    }
+
+    /**
+     * @return true if only the logs of the previous runs should be kept, otherwise false
+     */
+    public Boolean isKeepOnlyLogs() {
+        return keepOnlyLogs;
+    }
+
+    /**
+     * @return true if the nodes' working directories and the shared directories should be backed by memory, otherwise
+     * false
+     */
+    public Boolean isInMemoryWorkspace() {
+        return inMemoryWorkspace;
+    }
+
+    /**
+     * @return true if the memory-backed log directories should be persisted into the working directory when the runner
+     * is stopped, otherwise false
+     */
+    public Boolean isPersistInMemoryLogs() {
+        return persistInMemoryLogs;
+    }
+
+    /**
+     * @return true if the nodes without a cpu set should be pinned to disjoint host cpus, otherwise false
+     */
+    public Boolean isCpuPartitioning() {
+        return cpuPartitioning;
+    }
+
+    public Integer getReservedCpus() {
+        return reservedCpus;
+    }
+
+    /**
+     * @return true if any of the retention policies of the previous runs' working directories is enabled, otherwise false
+     */
+    public Boolean isWorkingDirectoryRetentionEnabled() {
+        return workingDirectoryRetention != null || keepFailedRunsOnly || workingDirectoryMaxSize != null
+                || keepOnlyLogs;
+    }
+
+    /**
+     * @return true if either size-based or time-based rotation of the logs is enabled, otherwise false
+     */
+    public Boolean isLogRotationEnabled() {
+        return logRotationMaxSize != null || logRotationInterval != null;
+    }
+
     /**
      * @param name of the referable deployment entity
      * @return the referable deployment entity object for the given name
@@ -277,6 +477,26 @@ public class Deployment extends DeploymentEntity {
     public static class Builder extends BuilderBase<Deployment, Builder> {
         private Map<String, Node> nodes;
         private String runSequence;
+        private Integer resourceSamplingInterval;
+        private Integer networkStatsSamplingInterval;
+        private NetworkFaultBackend networkFaultBackend;
+        private NetworkMode networkMode;
+        private String networkParentInterface;
+        private WorkspaceCopyStrategy workspaceCopyStrategy;
+        private Long decompressionCacheSize;
+        private Long logRotationMaxSize;
+        private Integer logRotationInterval;
+        private Integer rotatedLogsRetention;
+        private Boolean compressRotatedLogs;
+        private Boolean copyTruncateLogFiles;
+        private Integer workingDirectoryRetention;
+        private Boolean keepFailedRunsOnly;
+        private Long workingDirectoryMaxSize;
+        private Boolean keepOnlyLogs;
+        private Boolean inMemoryWorkspace;
+        private Boolean persistInMemoryLogs;
+        private Boolean cpuPartitioning;
+        private Integer reservedCpus;
         private Map<String, Service> services;
         private Set<String> sharedDorectories;
         private Map<String, TestCaseEvent> testCaseEvents;
@@ -292,6 +512,21 @@ public class Deployment extends DeploymentEntity {
             sharedDorectories = new HashSet<>();
             testCaseEvents = new HashMap<>();
             runSequence = "";
+            resourceSamplingInterval = Constants.DEFAULT_RESOURCE_SAMPLING_INTERVAL;
+            networkStatsSamplingInterval = Constants.DEFAULT_NETWORK_STATS_SAMPLING_INTERVAL;
+            networkFaultBackend = NetworkFaultBackend.IPTABLES;
+            networkMode = NetworkMode.BRIDGE;
+            workspaceCopyStrategy = WorkspaceCopyStrategy.AUTO;
+            decompressionCacheSize = Constants.DEFAULT_DECOMPRESSION_CACHE_SIZE;
+            rotatedLogsRetention = Constants.DEFAULT_ROTATED_LOGS_RETENTION;
+            compressRotatedLogs = true;
+            copyTruncateLogFiles = false;
+            keepFailedRunsOnly = false;
+            keepOnlyLogs = false;
+            inMemoryWorkspace = false;
+            persistInMemoryLogs = true;
+            cpuPartitioning = false;
+            reservedCpus = 0;
         }
 
         /**
@@ -305,6 +540,26 @@ public class Deployment extends DeploymentEntity {
             sharedDorectories = new HashSet<>(instance.sharedDirectories);
             testCaseEvents = new HashMap<>(instance.testCaseEvents);
             runSequence =  new String(instance.runSequence);
+            resourceSamplingInterval = instance.resourceSamplingInterval;
+            networkStatsSamplingInterval = instance.networkStatsSamplingInterval;
+            networkFaultBackend = instance.networkFaultBackend;
+            networkMode = instance.networkMode;
+            networkParentInterface = instance.networkParentInterface;
+            workspaceCopyStrategy = instance.workspaceCopyStrategy;
+            decompressionCacheSize = instance.decompressionCacheSize;
+            logRotationMaxSize = instance.logRotationMaxSize;
+            logRotationInterval = instance.logRotationInterval;
+            rotatedLogsRetention = instance.rotatedLogsRetention;
+            compressRotatedLogs = instance.compressRotatedLogs;
+            copyTruncateLogFiles = instance.copyTruncateLogFiles;
+            workingDirectoryRetention = instance.workingDirectoryRetention;
+            keepFailedRunsOnly = instance.keepFailedRunsOnly;
+            workingDirectoryMaxSize = instance.workingDirectoryMaxSize;
+            keepOnlyLogs = instance.keepOnlyLogs;
+            inMemoryWorkspace = instance.inMemoryWorkspace;
+            persistInMemoryLogs = instance.persistInMemoryLogs;
+            cpuPartitioning = instance.cpuPartitioning;
+            reservedCpus = instance.reservedCpus;
         }
 
         /**
@@ -385,7 +640,8 @@ public class Deployment extends DeploymentEntity {
          * So, for example, for including commons-io lib jar file as an instrumentable path you can use "**commons-io*.jar"
          * instrumentable path pattern
          * Also, it adds an environment variable named FAILIFY_JVM_CLASSPATH to the service which should be included
-         * in the java class path in the service or node start command.
+         * in the java class path in the service or node start command. The jar files in the class path which are
+         * not instrumentable are staged into a single directory which is mounted once in each node's container.
          * @param name of the service
          * @param instrumentablePathPatterns the patterns to match against the paths in the current java class path to be
          *                                   added as an instrumentable path to the service
@@ -415,6 +671,14 @@ public class Deployment extends DeploymentEntity {
 
             StringJoiner newClassPath = new StringJoiner(":");
             for (String path: classPathList) {
+                // The jar files which are not instrumentable are staged into a single mount
+                if (!instrumentablePathSet.contains(Paths.get(path).toAbsolutePath().normalize().toString())
+                        && !Files.isDirectory(Paths.get(path))) {
+                    serviceBuilder.classpathEntry(path);
+                    newClassPath.add(Service.classpathEntryTargetPath(path));
+                    continue;
+                }
+
                 // target path should be in linux format, but path may come from windows
                 String newTargetPath = "/" + path.replaceAll("\\W", "");
                 if (path.endsWith(".jar")) {
@@ -470,6 +734,303 @@ public class Deployment extends DeploymentEntity {
             return this;
         }
 
+        /**
+         * Sets the interval between two consecutive resource usage (cpu, memory, network and block I/O) samples of each
+         * node. The samples are recorded in each node's log directory and the most recent ones can be queried through
+         * the runtime engine. Every sample costs a docker stats call per node, so the sampling is disabled by default.
+         * @param interval the interval in milliseconds. 0 disables the sampling. The default is 0
+         * @return the current builder instance
+         */
+        public Builder resourceSamplingInterval(Integer interval) {
+            if (interval == null || interval < 0) {
+                throw new RuntimeException("Resource sampling interval should be a non-negative number!");
+            }
+            resourceSamplingInterval = interval;
+            return this;
+        }
+
+        /**
+         * Sets the interval between two consecutive network traffic stats (bytes and packets sent to and received from
+         * each peer and the packets dropped by network partitions) samples of each node. The samples are recorded in
+         * each node's log directory. The stats can also be queried through the runtime engine at any time regardless of
+         * this setting.
+         * @param interval the interval in milliseconds. 0 disables the sampling. The default is 0
+         * @return the current builder instance
+         */
+        public Builder networkStatsSamplingInterval(Integer interval) {
+            if (interval == null || interval < 0) {
+                throw new RuntimeException("Network stats sampling interval should be a non-negative number!");
+            }
+            networkStatsSamplingInterval = interval;
+            return this;
+        }
+
+        /**
+         * Sets the mechanism network partitions and network operations are imposed with. With the proxy backend, the
+         * nodes' containers don't get the NET_ADMIN capability, and the nodes should connect to each other's TCP ports
+         * through the proxy endpoints advertised in the FAILIFY_PROXY_&lt;NODE&gt;_&lt;PORT&gt; environment variables
+         * of their containers. The default is iptables
+         * @param backend the backend to use
+         * @return the current builder instance
+         */
+        public Builder networkFaultBackend(NetworkFaultBackend backend) {
+            if (backend == null) {
+                throw new RuntimeException("Network fault backend can't be null!");
+            }
+            networkFaultBackend = backend;
+            return this;
+        }
+
+        /**
+         * Sets the docker network driver the nodes are connected to each other with. The ipvlan and macvlan modes avoid
+         * the veth and bridge processing of the default bridge mode which is useful for throughput-sensitive test cases.
+         * By default, these networks are attached to a dummy interface. In these modes, the nodes are also connected to
+         * a control bridge network which is only used to reach the docker host. The nodes' ip addresses are the ones on
+         * the ipvlan or macvlan network, so network partitions and operations work the same as in the bridge mode. The
+         * docker host can't reach these addresses, so a test case connecting to the nodes should run inside a container.
+         * These modes are only supported on linux docker hosts.
+         * @param mode the network mode. The default is bridge
+         * @return the current builder instance
+         */
+        public Builder networkMode(NetworkMode mode) {
+            return networkMode(mode, null);
+        }
+
+        /**
+         * Sets the docker network driver the nodes are connected to each other with. Take a look at
+         * {@link #networkMode(NetworkMode)} for more information.
+         * @param mode the network mode. The default is bridge
+         * @param parentInterface the host interface to attach the ipvlan or macvlan network to or null to use a dummy
+         *                        interface. The nodes can reach the interface's network, but not the docker host itself
+         *                        through it
+         * @return the current builder instance
+         */
+        public Builder networkMode(NetworkMode mode, String parentInterface) {
+            if (mode == null) {
+                throw new RuntimeException("Network mode can't be null!");
+            }
+            if (mode == NetworkMode.BRIDGE && parentInterface != null) {
+                throw new RuntimeException("A parent interface can only be set for ipvlan and macvlan network modes!");
+            }
+            networkMode = mode;
+            networkParentInterface = parentInterface;
+            return this;
+        }
+
+        /**
+         * Sets the way the application paths that are going to be changed and the instrumentable paths are copied over
+         * to the nodes' workspaces. Take a look at {@link WorkspaceCopyStrategy} for more information.
+         * @param strategy the copy strategy. The default is auto
+         * @return the current builder instance
+         */
+        public Builder workspaceCopyStrategy(WorkspaceCopyStrategy strategy) {
+            if (strategy == null) {
+                throw new RuntimeException("Workspace copy strategy can't be null!");
+            }
+            workspaceCopyStrategy = strategy;
+            return this;
+        }
+
+        /**
+         * Enables size-based rotation of the nodes' console output and, if {@link #copyTruncateLogFiles(boolean)} is
+         * enabled, their declared log files and the files in their declared log directories. Rotated segments are
+         * stored in the failify_rotated directory of each node's log directory. By default, no rotation happens
+         * @param maxSize the size in bytes that triggers the rotation of a log file
+         * @return the current builder instance
+         */
+        public Builder logRotationMaxSize(long maxSize) {
+            if (maxSize <= 0) {
+                throw new RuntimeException("Log rotation max size should be a positive number!");
+            }
+            logRotationMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Enables time-based rotation of the nodes' console output and, if {@link #copyTruncateLogFiles(boolean)} is
+         * enabled, their declared log files and the files in their declared log directories. Rotated segments are
+         * stored in the failify_rotated directory of each node's log directory. By default, no rotation happens
+         * @param interval the age in seconds that triggers the rotation of a non-empty log file
+         * @return the current builder instance
+         */
+        public Builder logRotationInterval(int interval) {
+            if (interval <= 0) {
+                throw new RuntimeException("Log rotation interval should be a positive number!");
+            }
+            logRotationInterval = interval;
+            return this;
+        }
+
+        /**
+         * Sets the number of rotated segments to keep for each log file. Older segments are deleted. The default is 5
+         * @param count the number of rotated segments to keep for each log file
+         * @return the current builder instance
+         */
+        public Builder rotatedLogsRetention(int count) {
+            if (count < 0) {
+                throw new RuntimeException("Rotated logs retention should be a non-negative number!");
+            }
+            rotatedLogsRetention = count;
+            return this;
+        }
+
+        /**
+         * Sets whether the rotated log segments should be gzip compressed. The compression happens in the background.
+         * The default is true
+         * @param compress true to compress the rotated log segments, otherwise false
+         * @return the current builder instance
+         */
+        public Builder compressRotatedLogs(boolean compress) {
+            compressRotatedLogs = compress;
+            return this;
+        }
+
+        /**
+         * Sets whether the declared log files and the files in the declared log directories should be rotated when log
+         * rotation is enabled. These files are held open by the processes in the nodes, so they are rotated by copying
+         * them and truncating them in place. The lines that a process appends between the copy and the truncation are
+         * lost, so this is not enabled by default and only the console output, which is rotated without losing any
+         * line, is rotated
+         * @param copyTruncate true to rotate the declared log files by copying and truncating them, otherwise false
+         * @return the current builder instance
+         */
+        public Builder copyTruncateLogFiles(boolean copyTruncate) {
+            copyTruncateLogFiles = copyTruncate;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of the cache of decompressed application archives. The archives are cached by their
+         * content in the top level working directory, so the next runs with the same archives skip the decompression.
+         * When the cache grows beyond this size, the least recently used archives are removed from it. The cached
+         * archives are used as the source of the nodes' application paths, so the paths which are not marked to be
+         * changed shouldn't be written to by the nodes.
+         * @param bytes the maximum size in bytes. 0 disables the cache. The default is 2GB
+         * @return the current builder instance
+         */
+        public Builder decompressionCacheSize(long bytes) {
+            if (bytes < 0) {
+                throw new RuntimeException("Decompression cache size should be a non-negative number!");
+            }
+            decompressionCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the number of runs, including the current one, whose working directories are kept in the top level working
+         * directory. The retention policies are enforced in the background when the runner starts and apply to the
+         * working directories of all the deployments in the top level working directory, except the ones which are still
+         * in use. By default, all the runs are kept
+         * @param runs the number of runs to keep
+         * @return the current builder instance
+         */
+        public Builder workingDirectoryRetention(int runs) {
+            if (runs <= 0) {
+                throw new RuntimeException("Working directory retention should be a positive number!");
+            }
+            workingDirectoryRetention = runs;
+            return this;
+        }
+
+        /**
+         * Sets whether only the working directories of the failed runs should be kept. Only the runs which are marked
+         * as succeeded using {@link io.failify.FailifyRunner#markSucceeded()} are removed, so a test case should mark
+         * its run as succeeded when it passes. Stopping the runner doesn't mark the run as succeeded as the runner
+         * doesn't know the outcome of the test case. A run is failed if its start fails, if it is marked as failed using
+         * {@link io.failify.FailifyRunner#markFailed()}, if it is not stopped before the JVM exits or if its JVM
+         * crashes. The working directories created before the run status was recorded are considered failed. The
+         * default is false
+         * @param keepFailedOnly true to remove the working directories of the succeeded runs, otherwise false
+         * @return the current builder instance
+         */
+        public Builder keepFailedRunsOnly(boolean keepFailedOnly) {
+            keepFailedRunsOnly = keepFailedOnly;
+            return this;
+        }
+
+        /**
+         * Sets the maximum total size of the previous runs' working directories. When they grow beyond this size, the
+         * oldest ones are removed. The decompression cache is not included as it has its own limit. By default, the
+         * size is not limited
+         * @param bytes the maximum size in bytes
+         * @return the current builder instance
+         */
+        public Builder workingDirectoryMaxSize(long bytes) {
+            if (bytes < 0) {
+                throw new RuntimeException("Working directory max size should be a non-negative number!");
+            }
+            workingDirectoryMaxSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets whether only the logs of the previous runs should be kept. If set, the copied binaries, shared
+         * directories and decompressed archives of the kept runs are removed and only the log directories of their
+         * nodes are kept. The default is false
+         * @param keepOnlyLogs true to discard everything but the logs of the previous runs, otherwise false
+         * @return the current builder instance
+         */
+        public Builder keepOnlyLogs(boolean keepOnlyLogs) {
+            this.keepOnlyLogs = keepOnlyLogs;
+            return this;
+        }
+
+        /**
+         * Sets whether the nodes' working directories, including their root and log directories, and the shared
+         * directories should be backed by memory. This speeds up I/O heavy nodes and saves the disk, but the copied
+         * application paths consume memory as well. The memory-backed directories are removed when the runner is
+         * stopped. This is only supported on linux hosts when the test case is not running inside docker, otherwise the
+         * working directory stays on the disk. The default is false. To back specific paths of a node by memory, take a
+         * look at {@link Service.Builder#inMemoryPath(String)} and {@link Node.LimitedBuilder#inMemoryPath(String)}
+         * @param inMemory true to back the nodes' working directories and the shared directories by memory, otherwise false
+         * @return the current builder instance
+         */
+        public Builder inMemoryWorkspace(boolean inMemory) {
+            inMemoryWorkspace = inMemory;
+            return this;
+        }
+
+        /**
+         * Sets whether the memory-backed log directories of the nodes should be copied over to the working directory on
+         * the disk when the runner is stopped. The default is true
+         * @param persist true to persist the memory-backed logs, otherwise false
+         * @return the current builder instance
+         */
+        public Builder persistInMemoryLogs(boolean persist) {
+            persistInMemoryLogs = persist;
+            return this;
+        }
+
+        /**
+         * Sets whether the nodes should be spread over the host cpus, so each node is pinned to its own cpus and the
+         * nodes don't compete for the same cores. The cpus which are not reserved or explicitly pinned to by
+         * {@link Service.Builder#cpuSet(String)} or {@link Node.LimitedBuilder#cpuSet(String)}, out of the cpus the
+         * containers are allowed to use on the docker host, are split into equally sized groups of consecutive cpus
+         * between the rest of the nodes in the order of their names. If there are more nodes than the available cpus,
+         * the cpus are shared between the nodes in a round robin fashion. The nodes which are added after the deployment
+         * is started are not pinned. The default is false
+         * @param partitioning true to partition the host cpus between the nodes, otherwise false
+         * @return the current builder instance
+         */
+        public Builder cpuPartitioning(boolean partitioning) {
+            cpuPartitioning = partitioning;
+            return this;
+        }
+
+        /**
+         * Sets the number of the first host cpus the containers are allowed to use to be left out of the cpu
+         * partitioning, e.g. to be used by the test case and the docker daemon. The default is 0
+         * @param count the number of cpus to reserve
+         * @return the current builder instance
+         */
+        public Builder reservedCpus(int count) {
+            if (count < 0) {
+                throw new RuntimeException("The number of reserved cpus cannot be negative!");
+            }
+            reservedCpus = count;
+            return this;
+        }
+
         public Deployment build() {
             return new Deployment(this);
         }
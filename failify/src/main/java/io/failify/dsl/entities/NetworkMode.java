@@ -0,0 +1,47 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.dsl.entities;
+
+/**
+ * The docker network drivers the nodes can be connected to each other with
+ */
+public enum NetworkMode {
+    /**
+     * a docker bridge network. Every packet between the nodes crosses veth pairs and the bridge
+     */
+    BRIDGE,
+    /**
+     * a docker ipvlan network in l2 mode. The nodes share the mac address of the parent interface and their packets
+     * don't cross any bridge
+     */
+    IPVLAN,
+    /**
+     * a docker macvlan network in bridge mode. Each node gets its own mac address on the parent interface and their
+     * packets don't cross any bridge
+     */
+    MACVLAN
+}
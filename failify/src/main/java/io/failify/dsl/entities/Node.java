@@ -25,6 +25,7 @@
 
 package io.failify.dsl.entities;
 
+import io.failify.Constants;
 import io.failify.exceptions.DeploymentEntityNotFound;
 import io.failify.util.FileUtil;
 import io.failify.dsl.ReferableDeploymentEntity;
@@ -50,6 +51,7 @@ public class Node extends ReferableDeploymentEntity {
     private final Map<String, String> environmentVariables; // map of env vars name to value
     private final Set<String> logFiles; // set of target log files to be collected
     private final Set<String> logDirectories; // set of target log directories to be collected
+    private final Set<String> inMemoryPaths; // set of target paths to be backed by memory
     private final String serviceName; // the service name for the node
     private final String initCommand; // the init command of the node which will executed only once
     private final String startCommand; // the start command of the node which will executed when the node is started or restarted
@@ -57,6 +59,10 @@ public class Node extends ReferableDeploymentEntity {
     private final Map<String, InternalEvent> internalEvents; // the map of internal event names to their objects
     private final Boolean offOnStartup; // the flag to start the node on start up or not
     private final Boolean disableClockDrift; // the flag to disable clock drift capability
+    private final String cpuSet; // the host cpus to pin the node to or null to use the service's
+    private final Double cpus; // the cpu quota of the node in number of cpus or null to use the service's
+    private final Long memoryLimit; // the memory limit of the node in bytes or null to use the service's
+    private final Integer blkioWeight; // the block I/O weight of the node or null to use the service's
     private final Integer pathOrderCounter; // the counter to use for applying order to application paths
 
     public static Node.LimitedBuilder limitedBuilder(String nodeName, String serviceName) {
@@ -80,7 +86,12 @@ public class Node extends ReferableDeploymentEntity {
         environmentVariables = Collections.unmodifiableMap(builder.environmentVariables);
         logFiles = Collections.unmodifiableSet(builder.logFiles);
         logDirectories = builder.logDirectories;
+        inMemoryPaths = Collections.unmodifiableSet(builder.inMemoryPaths);
         disableClockDrift = builder.disableClockDrift;
+        cpuSet = builder.cpuSet;
+        cpus = builder.cpus;
+        memoryLimit = builder.memoryLimit;
+        blkioWeight = builder.blkioWeight;
         pathOrderCounter = builder.pathOrderCounter;
     }
 
@@ -101,7 +112,12 @@ public class Node extends ReferableDeploymentEntity {
         environmentVariables = Collections.unmodifiableMap(builder.environmentVariables);
         logFiles = Collections.unmodifiableSet(builder.logFiles);
         logDirectories = builder.logDirectories;
+        inMemoryPaths = Collections.unmodifiableSet(builder.inMemoryPaths);
         disableClockDrift = builder.disableClockDrift;
+        cpuSet = builder.cpuSet;
+        cpus = builder.cpus;
+        memoryLimit = builder.memoryLimit;
+        blkioWeight = builder.blkioWeight;
         pathOrderCounter = builder.pathOrderCounter;
     }
 
@@ -149,6 +165,10 @@ public class Node extends ReferableDeploymentEntity {
         return logDirectories;
     }
 
+    public Set<String> getInMemoryPaths() {
+        return inMemoryPaths;
+    }
+
     public Map<String, PathEntry> getApplicationPaths() {
         return applicationPaths;
     }
@@ -161,6 +181,22 @@ public class Node extends ReferableDeploymentEntity {
         return !disableClockDrift;
     }
 
+    public String getCpuSet() {
+        return cpuSet;
+    }
+
+    public Double getCpus() {
+        return cpus;
+    }
+
+    public Long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public Integer getBlkioWeight() {
+        return blkioWeight;
+    }
+
     /**
      * The builder class to build a node object
      */
@@ -172,11 +208,16 @@ public class Node extends ReferableDeploymentEntity {
         protected Map<String, String> environmentVariables;
         protected Set<String> logFiles;
         protected Set<String> logDirectories;
+        protected Set<String> inMemoryPaths;
         protected final String serviceName;
         protected String initCommand;
         protected String startCommand;
         protected String stopCommand;
         protected Boolean disableClockDrift; // the flag to disable clock drift capability
+        protected String cpuSet;
+        protected Double cpus;
+        protected Long memoryLimit;
+        protected Integer blkioWeight;
         protected Integer pathOrderCounter;
 
         /**
@@ -198,6 +239,7 @@ public class Node extends ReferableDeploymentEntity {
             environmentVariables = new HashMap<>();
             logFiles = new HashSet<>();
             logDirectories = new HashSet<>();
+            inMemoryPaths = new HashSet<>();
             disableClockDrift = false;
             pathOrderCounter = 0;
         }
@@ -227,7 +269,12 @@ public class Node extends ReferableDeploymentEntity {
             environmentVariables = new HashMap<>(instance.environmentVariables);
             logFiles = new HashSet<>(instance.logFiles);
             logDirectories = new HashSet<>(instance.logDirectories);
+            inMemoryPaths = new HashSet<>(instance.inMemoryPaths);
             disableClockDrift = new Boolean(instance.disableClockDrift);
+            cpuSet = instance.cpuSet;
+            cpus = instance.cpus;
+            memoryLimit = instance.memoryLimit;
+            blkioWeight = instance.blkioWeight;
             pathOrderCounter = new Integer(instance.pathOrderCounter);
         }
 
@@ -367,6 +414,77 @@ public class Node extends ReferableDeploymentEntity {
             return this;
         }
 
+        /**
+         * Adds an absolute target path in node's container to be backed by memory. If the path is a log directory, it is
+         * collected into a memory-backed directory which is persisted into the node's local workspace when the runner is
+         * stopped. Otherwise, a tmpfs is mounted on the path in the node's container which is discarded when the
+         * container is removed
+         * @param path an absolute target path to be backed by memory
+         * @return the current builder instance
+         */
+        public LimitedBuilder inMemoryPath(String path) {
+            if (!FileUtil.isPathAbsoluteInUnix(path)) {
+                throw new RuntimeException("The in-memory path `" + path + "` path is not absolute!");
+            }
+            inMemoryPaths.add(FilenameUtils.normalizeNoEndSeparator(path, true));
+            return this;
+        }
+
+        /**
+         * Pins the node to the given host cpus and overrides the setting of the node's service. The nodes with a cpu
+         * set are left out of the automatic cpu partitioning of the deployment
+         * @param cpuSet the host cpus in docker's cpuset format e.g. 0-3 or 0,2
+         * @return the current builder instance
+         */
+        public LimitedBuilder cpuSet(String cpuSet) {
+            if (cpuSet == null || !cpuSet.matches(Constants.CPU_SET_REGEX)) {
+                throw new RuntimeException("The cpu set `" + cpuSet + "` is not valid!");
+            }
+            this.cpuSet = cpuSet;
+            return this;
+        }
+
+        /**
+         * Limits the cpu time of the node to the given number of cpus through the cfs quota and overrides the setting of
+         * the node's service
+         * @param cpus the number of cpus e.g. 1.5
+         * @return the current builder instance
+         */
+        public LimitedBuilder cpus(double cpus) {
+            if (cpus <= 0) {
+                throw new RuntimeException("The number of cpus should be positive!");
+            }
+            this.cpus = cpus;
+            return this;
+        }
+
+        /**
+         * Limits the memory of the node to the given number of bytes without any swap space and overrides the setting of
+         * the node's service
+         * @param bytes the memory limit in bytes
+         * @return the current builder instance
+         */
+        public LimitedBuilder memoryLimit(long bytes) {
+            if (bytes <= 0) {
+                throw new RuntimeException("The memory limit should be positive!");
+            }
+            this.memoryLimit = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the relative block I/O weight of the node and overrides the setting of the node's service
+         * @param weight the block I/O weight between 10 and 1000
+         * @return the current builder instance
+         */
+        public LimitedBuilder blkioWeight(int weight) {
+            if (weight < 10 || weight > 1000) {
+                throw new RuntimeException("The block I/O weight should be between 10 and 1000!");
+            }
+            this.blkioWeight = weight;
+            return this;
+        }
+
         @Override
         public Node build() {
             return new Node(this);
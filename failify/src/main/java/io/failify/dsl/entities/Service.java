@@ -27,11 +27,13 @@ package io.failify.dsl.entities;
 
 import io.failify.Constants;
 import io.failify.util.FileUtil;
+import io.failify.util.HashingUtil;
 import io.failify.dsl.DeploymentEntity;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 
@@ -45,8 +47,10 @@ public class Service extends DeploymentEntity {
     // Library target paths in the node's container. This is useful when a directory is added as an application path which
     // is not a library but contains sub-paths that are a library
     private final Set<String> libraryPaths;
+    private final Map<String, String> classpathEntries; // ordered map of local class path entries to their staged target paths
     private final Set<String> logFiles; // set of target log files to be collected
     private final Set<String> logDirectories; // set of target log directories to be collected
+    private final Set<String> inMemoryPaths; // set of target paths to be backed by memory
     private final Set<ExposedPortDefinition> exposedPorts; // set of exposed TCP or UDP ports for the node
     private final Map<String, String> environmentVariables; // map of env vars name to value
     private final String dockerImageName; // the docker image name and tag to be used for this service
@@ -58,6 +62,11 @@ public class Service extends DeploymentEntity {
     private final String stopCommand; // the stop command of the node which will executed when the node is stopped or restarted
     private final ServiceType serviceType; // the service programming language
     private final Boolean disableClockDrift; // the flag to disable clock drift capability
+    private final Boolean appCds; // the flag to generate and use application class data sharing archives
+    private final String cpuSet; // the host cpus to pin the nodes to or null
+    private final Double cpus; // the cpu quota of the nodes in number of cpus or null
+    private final Long memoryLimit; // the memory limit of the nodes in bytes or null
+    private final Integer blkioWeight; // the block I/O weight of the nodes or null
     private Integer pathOrderCounter; // the counter to use for applying order to application paths
 
     /**
@@ -76,12 +85,19 @@ public class Service extends DeploymentEntity {
         serviceType = builder.serviceType;
         applicationPaths = Collections.unmodifiableMap(builder.applicationPaths);
         libraryPaths = Collections.unmodifiableSet(builder.libraryPaths);
+        classpathEntries = Collections.unmodifiableMap(builder.classpathEntries);
         logFiles = Collections.unmodifiableSet(builder.logFiles);
         logDirectories = builder.logDirectories;
+        inMemoryPaths = Collections.unmodifiableSet(builder.inMemoryPaths);
         exposedPorts = builder.exposedPorts;
         environmentVariables = Collections.unmodifiableMap(builder.environmentVariables);
         pathOrderCounter = builder.pathOrderCounter;
         disableClockDrift = builder.disableClockDrift;
+        appCds = builder.appCds;
+        cpuSet = builder.cpuSet;
+        cpus = builder.cpus;
+        memoryLimit = builder.memoryLimit;
+        blkioWeight = builder.blkioWeight;
     }
 
     public String getDockerImageName() {
@@ -124,6 +140,21 @@ public class Service extends DeploymentEntity {
         return libraryPaths;
     }
 
+    public Map<String, String> getClasspathEntries() {
+        return classpathEntries;
+    }
+
+    /**
+     * @param path a local class path entry
+     * @return the target path of the given class path entry in the staged class path directory
+     */
+    static String classpathEntryTargetPath(String path) {
+        String absolutePath = Paths.get(path).toAbsolutePath().normalize().toString();
+        // The hash of the path keeps the entries with the same file name apart
+        String fileName = String.valueOf(Paths.get(absolutePath).getFileName()).replaceAll("[^\\w.-]", "");
+        return Constants.STAGED_CLASSPATH_TARGET_PATH + "/" + HashingUtil.md5(absolutePath) + "_" + fileName;
+    }
+
     public Set<String> getLogFiles() {
         return logFiles;
     }
@@ -132,6 +163,10 @@ public class Service extends DeploymentEntity {
         return logDirectories;
     }
 
+    public Set<String> getInMemoryPaths() {
+        return inMemoryPaths;
+    }
+
     public Map<String, String> getEnvironmentVariables() {
         return environmentVariables;
     }
@@ -144,6 +179,26 @@ public class Service extends DeploymentEntity {
         return !disableClockDrift;
     }
 
+    public Boolean isAppCdsEnabled() {
+        return appCds;
+    }
+
+    public String getCpuSet() {
+        return cpuSet;
+    }
+
+    public Double getCpus() {
+        return cpus;
+    }
+
+    public Long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public Integer getBlkioWeight() {
+        return blkioWeight;
+    }
+
     /**
      * The builder class to build a service object
      */
@@ -152,8 +207,10 @@ public class Service extends DeploymentEntity {
 
         private Map<String, PathEntry> applicationPaths;
         private Set<String> libraryPaths;
+        private Map<String, String> classpathEntries;
         private Set<String> logFiles;
         private Set<String> logDirectories;
+        private Set<String> inMemoryPaths;
         private Set<ExposedPortDefinition> exposedPorts;
         private Map<String, String> environmentVariables;
         private String dockerImageName;
@@ -164,6 +221,11 @@ public class Service extends DeploymentEntity {
         private String startCommand;
         private String stopCommand;
         private Boolean disableClockDrift;
+        private Boolean appCds;
+        private String cpuSet;
+        private Double cpus;
+        private Long memoryLimit;
+        private Integer blkioWeight;
         private ServiceType serviceType;
         private Integer pathOrderCounter;
 
@@ -177,8 +239,10 @@ public class Service extends DeploymentEntity {
             applicationPaths = new HashMap<>();
             instrumentablePaths = new HashSet<>();
             libraryPaths = new HashSet<>();
+            classpathEntries = new LinkedHashMap<>();
             logFiles = new HashSet<>();
             logDirectories = new HashSet<>();
+            inMemoryPaths = new HashSet<>();
             exposedPorts = new HashSet<>();
             environmentVariables = new HashMap<>();
             dockerImageName = Constants.DEFAULT_BASE_DOCKER_IMAGE_NAME;
@@ -187,6 +251,7 @@ public class Service extends DeploymentEntity {
             pathOrderCounter = 0;
             serviceType = ServiceType.OTHER;
             disableClockDrift = false;
+            appCds = false;
         }
 
         /**
@@ -214,12 +279,19 @@ public class Service extends DeploymentEntity {
             serviceType = instance.serviceType;
             applicationPaths = new HashMap<>(instance.applicationPaths);
             libraryPaths = new HashSet<>(instance.libraryPaths);
+            classpathEntries = new LinkedHashMap<>(instance.classpathEntries);
             logFiles = new HashSet<>(instance.logFiles);
             logDirectories = new HashSet<>(instance.logDirectories);
+            inMemoryPaths = new HashSet<>(instance.inMemoryPaths);
             exposedPorts = new HashSet<>(instance.exposedPorts);
             environmentVariables = new HashMap<>(instance.environmentVariables);
             pathOrderCounter = new Integer(instance.pathOrderCounter);
             disableClockDrift = new Boolean(instance.disableClockDrift);
+            appCds = instance.appCds;
+            cpuSet = instance.cpuSet;
+            cpus = instance.cpus;
+            memoryLimit = instance.memoryLimit;
+            blkioWeight = instance.blkioWeight;
         }
 
         /**
@@ -352,6 +424,24 @@ public class Service extends DeploymentEntity {
             return this;
         }
 
+        /**
+         * Adds a local jar file to the class path entries of the service. The class path entries of all the services are
+         * staged once into a single directory of the workspace which is mounted read-only in the nodes' containers, so
+         * the number of mounts doesn't grow with the number of entries. The entries are library paths for the
+         * instrumentation engine. The non-existing entries are ignored. The target path of an entry is
+         * /failify_classpath/&lt;md5 of the entry's absolute path&gt;_&lt;the entry's file name&gt;
+         * @param path a local jar file
+         * @return the current builder instance
+         */
+        public Builder classpathEntry(String path) {
+            if (Files.isDirectory(Paths.get(path))) {
+                throw new RuntimeException("The class path entry `" + path + "` should be a file!");
+            }
+            String absolutePath = Paths.get(path).toAbsolutePath().normalize().toString();
+            classpathEntries.put(absolutePath, classpathEntryTargetPath(absolutePath));
+            return this;
+        }
+
         /**
          * Adds an absolute target path in the container of the node created out of this service to be collected as a
          * log file into the node's local workspace
@@ -380,6 +470,78 @@ public class Service extends DeploymentEntity {
             return this;
         }
 
+        /**
+         * Adds an absolute target path in the container of the node created out of this service to be backed by memory.
+         * If the path is a log directory, it is collected into a memory-backed directory which is persisted into the
+         * node's local workspace when the runner is stopped. Otherwise, a tmpfs is mounted on the path in the node's
+         * container which is discarded when the container is removed
+         * @param path an absolute target path to be backed by memory
+         * @return the current builder instance
+         */
+        public Builder inMemoryPath(String path) {
+            if (!FileUtil.isPathAbsoluteInUnix(path)) {
+                throw new RuntimeException("The in-memory path `" + path + "` path is not absolute!");
+            }
+            inMemoryPaths.add(FilenameUtils.normalizeNoEndSeparator(path, true));
+            return this;
+        }
+
+        /**
+         * Pins the nodes created out of this service to the given host cpus. The nodes with a cpu set are left out of
+         * the automatic cpu partitioning of the deployment. The node level setting takes precedence
+         * @param cpuSet the host cpus in docker's cpuset format e.g. 0-3 or 0,2
+         * @return the current builder instance
+         */
+        public Builder cpuSet(String cpuSet) {
+            if (cpuSet == null || !cpuSet.matches(Constants.CPU_SET_REGEX)) {
+                throw new RuntimeException("The cpu set `" + cpuSet + "` is not valid!");
+            }
+            this.cpuSet = cpuSet;
+            return this;
+        }
+
+        /**
+         * Limits the cpu time of the nodes created out of this service to the given number of cpus through the cfs
+         * quota. The node level setting takes precedence
+         * @param cpus the number of cpus e.g. 1.5
+         * @return the current builder instance
+         */
+        public Builder cpus(double cpus) {
+            if (cpus <= 0) {
+                throw new RuntimeException("The number of cpus should be positive!");
+            }
+            this.cpus = cpus;
+            return this;
+        }
+
+        /**
+         * Limits the memory of the nodes created out of this service to the given number of bytes without any swap
+         * space. The node level setting takes precedence
+         * @param bytes the memory limit in bytes
+         * @return the current builder instance
+         */
+        public Builder memoryLimit(long bytes) {
+            if (bytes <= 0) {
+                throw new RuntimeException("The memory limit should be positive!");
+            }
+            this.memoryLimit = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the relative block I/O weight of the nodes created out of this service. The node level setting takes
+         * precedence
+         * @param weight the block I/O weight between 10 and 1000
+         * @return the current builder instance
+         */
+        public Builder blkioWeight(int weight) {
+            if (weight < 10 || weight > 1000) {
+                throw new RuntimeException("The block I/O weight should be between 10 and 1000!");
+            }
+            this.blkioWeight = weight;
+            return this;
+        }
+
         /**
          * Adds an environment variable to the service
          * @param name the name of the variable
@@ -423,6 +585,32 @@ public class Service extends DeploymentEntity {
             return this;
         }
 
+        /**
+         * Enables application class data sharing (AppCDS) for the nodes created out of this service which should be
+         * started with the FAILIFY_JVM_CLASSPATH environment variable as their class path. On the first start of a node,
+         * the loaded classes are archived when the JVM exits, and the next starts and restarts of the nodes with the same
+         * docker image and class path use the archive to start faster. The archives are kept in the top level working
+         * directory, so they are reused across the runs as long as the class path entries don't change. This requires
+         * JDK 13 or later in the docker image, and the class path shouldn't contain non-empty directories. The JVM options
+         * are passed through the JDK_JAVA_OPTIONS environment variable of the start command with unrecognized options
+         * being ignored, so older JDKs are not affected.
+         * @return the current builder instance
+         */
+        public Builder enableAppCds() {
+            this.appCds = true;
+            return this;
+        }
+
+        /**
+         * Disables application class data sharing (disabled by default. Only call this if you have enabled it somewhere
+         * else)
+         * @return the current builder instance
+         */
+        public Builder disableAppCds() {
+            this.appCds = false;
+            return this;
+        }
+
         /**
          * Adds a udp port to be exposed by the container of a node created out of this service
          * @param portNumber the udp port number to be exposed
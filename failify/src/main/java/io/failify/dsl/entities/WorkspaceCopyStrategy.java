@@ -0,0 +1,53 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.dsl.entities;
+
+/**
+ * The ways the application paths that are going to be changed are copied over to the nodes' workspaces
+ */
+public enum WorkspaceCopyStrategy {
+    /**
+     * reflink copies if the file system supports them, otherwise full copies
+     */
+    AUTO,
+    /**
+     * copy-on-write reflink copies which share the data blocks with the source until a node writes to a file. Falls back
+     * to full copies if the file system doesn't support them
+     */
+    REFLINK,
+    /**
+     * hard links to the source files. The instrumentable paths and the archives decompressed into the decompression
+     * cache are always fully copied, but the nodes should only replace the files in the other paths instead of
+     * modifying them in place as the changes would be visible in the source and the other nodes. Falls back to full
+     * copies if a hard link can't be created
+     */
+    HARDLINK,
+    /**
+     * full copies of the source files
+     */
+    COPY
+}
@@ -0,0 +1,291 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution;
+
+import java.util.StringJoiner;
+
+/**
+ * This is the base class which is extended by all disk operation configuration classes e.g. {@link Throttle}
+ */
+public abstract class DiskOp {
+    /**
+     * This method should be used to define a disk throttling configuration. At least one of the read/write bps/iops
+     * limits should be specified. If no device or path is specified, the device backing the node's workspace is
+     * throttled
+     * @return an instance of {@link Throttle.Builder} class for further configuration
+     */
+    public static Throttle.Builder throttle() {
+        return new Throttle.Builder();
+    }
+
+    /**
+     * This method should be used to define a remove disk throttling operation. If no device or path is specified, all
+     * of the disk throttles of the node are removed
+     * @return an instance of {@link RemoveThrottle.Builder} class for further configuration
+     */
+    public static RemoveThrottle.Builder removeThrottle() {
+        return new RemoveThrottle.Builder();
+    }
+
+    private final String device;
+    private final String path;
+
+    /**
+     * Constructor
+     * @param device the host block device to apply the operation on
+     * @param path the path in the node whose backing block device the operation should be applied on
+     */
+    protected DiskOp(String device, String path) {
+        this.device = device;
+        this.path = path;
+    }
+
+    /**
+     * @return the host block device to apply the operation on or null if not specified
+     */
+    public String getDevice() {
+        return device;
+    }
+
+    /**
+     * @return the path in the node whose backing block device the operation should be applied on or null if not
+     * specified
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * This is the base builder class for a disk operation configuration builder
+     * @param <S> this is the class that builder is supposed to build
+     * @param <T> this is child builder class
+     */
+    public abstract static class BuilderBase<S extends DiskOp, T extends BuilderBase<S, T>> {
+        protected String device;
+        protected String path;
+
+        /**
+         * Sets the host block device e.g. /dev/sda or its major:minor number e.g. 8:0 to apply the operation on
+         * @param device the host block device to apply the operation on
+         * @return current builder instance
+         */
+        public T device(String device) {
+            this.device = device;
+            return self();
+        }
+
+        /**
+         * Sets a path in the node e.g. a log directory or a shared directory to apply the operation on. The operation
+         * will be applied on the host block device backing the path, and so it will also affect the other paths
+         * residing on the same device
+         * @param path the path in the node whose backing block device the operation should be applied on
+         * @return current builder instance
+         */
+        public T path(String path) {
+            this.path = path;
+            return self();
+        }
+
+        /**
+         * @return the current builder instance as the child builder class
+         */
+        protected abstract T self();
+
+        protected abstract S build();
+    }
+
+    /**
+     * This class contains configuration for throttling the block I/O of a node
+     */
+    public static class Throttle extends DiskOp {
+        private final Long readBps;
+        private final Long writeBps;
+        private final Integer readIops;
+        private final Integer writeIops;
+
+        /**
+         * Constructor
+         * @param builder a disk throttling configuration builder instance
+         */
+        protected Throttle(Builder builder) {
+            super(builder.device, builder.path);
+            readBps = builder.readBps;
+            writeBps = builder.writeBps;
+            readIops = builder.readIops;
+            writeIops = builder.writeIops;
+        }
+
+        /**
+         * @return the read limit in bytes per second or null if not specified
+         */
+        public Long getReadBps() {
+            return readBps;
+        }
+
+        /**
+         * @return the write limit in bytes per second or null if not specified
+         */
+        public Long getWriteBps() {
+            return writeBps;
+        }
+
+        /**
+         * @return the read limit in I/O operations per second or null if not specified
+         */
+        public Integer getReadIops() {
+            return readIops;
+        }
+
+        /**
+         * @return the write limit in I/O operations per second or null if not specified
+         */
+        public Integer getWriteIops() {
+            return writeIops;
+        }
+
+        @Override public String toString() {
+            StringJoiner throttleString = new StringJoiner(", ");
+            if (readBps != null) throttleString.add("read bps: " + readBps);
+            if (writeBps != null) throttleString.add("write bps: " + writeBps);
+            if (readIops != null) throttleString.add("read iops: " + readIops);
+            if (writeIops != null) throttleString.add("write iops: " + writeIops);
+            if (getDevice() != null) throttleString.add("device: " + getDevice());
+            if (getPath() != null) throttleString.add("path: " + getPath());
+
+            return "disk throttle (" + throttleString.toString() + ")";
+        }
+
+        /**
+         * The builder class for building a disk throttling configuration
+         */
+        public static class Builder extends BuilderBase<Throttle, Builder> {
+            private Long readBps;
+            private Long writeBps;
+            private Integer readIops;
+            private Integer writeIops;
+
+            /**
+             * Sets the read limit in bytes per second
+             * @param bytesPerSecond the maximum number of bytes per second that can be read from the device
+             * @return current builder instance
+             */
+            public Builder readBps(long bytesPerSecond) {
+                readBps = bytesPerSecond;
+                return this;
+            }
+
+            /**
+             * Sets the write limit in bytes per second
+             * @param bytesPerSecond the maximum number of bytes per second that can be written to the device
+             * @return current builder instance
+             */
+            public Builder writeBps(long bytesPerSecond) {
+                writeBps = bytesPerSecond;
+                return this;
+            }
+
+            /**
+             * Sets the read limit in I/O operations per second
+             * @param operationsPerSecond the maximum number of read operations per second on the device
+             * @return current builder instance
+             */
+            public Builder readIops(int operationsPerSecond) {
+                readIops = operationsPerSecond;
+                return this;
+            }
+
+            /**
+             * Sets the write limit in I/O operations per second. A low value translates into a high latency for each
+             * write and sync operation
+             * @param operationsPerSecond the maximum number of write operations per second on the device
+             * @return current builder instance
+             */
+            public Builder writeIops(int operationsPerSecond) {
+                writeIops = operationsPerSecond;
+                return this;
+            }
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            /**
+             * Builds the disk throttling configuration object
+             * @return the build object
+             */
+            @Override protected Throttle build() {
+                if (readBps == null && writeBps == null && readIops == null && writeIops == null) {
+                    throw new RuntimeException("At least one of the read/write bps/iops limits should be specified for"
+                            + " a disk throttle!");
+                }
+
+                for (Number limit: new Number[] {readBps, writeBps, readIops, writeIops}) {
+                    if (limit != null && limit.longValue() <= 0) {
+                        throw new RuntimeException("The limits of a disk throttle should be positive!");
+                    }
+                }
+
+                return new Throttle(this);
+            }
+        }
+    }
+
+    /**
+     * This class represents a remove disk throttling operation
+     */
+    public static class RemoveThrottle extends DiskOp {
+        /**
+         * Constructor
+         * @param builder a remove disk throttling builder instance
+         */
+        protected RemoveThrottle(Builder builder) {
+            super(builder.device, builder.path);
+        }
+
+        @Override public String toString() {
+            if (getDevice() != null) {
+                return "remove disk throttle (device: " + getDevice() + ")";
+            } else if (getPath() != null) {
+                return "remove disk throttle (path: " + getPath() + ")";
+            }
+            return "remove disk throttle";
+        }
+
+        /**
+         * The builder class for building a remove disk throttling instance
+         */
+        public static class Builder extends BuilderBase<RemoveThrottle, Builder> {
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            @Override protected RemoveThrottle build() {
+                return new RemoveThrottle(this);
+            }
+        }
+    }
+}
@@ -20,26 +20,20 @@
  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
+ *
  */
 
-package io.failify.util;
-
-import net.lingala.zip4j.core.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+package io.failify.execution;
 
-public class ZipUtil {
+import io.failify.exceptions.RuntimeEngineException;
 
-    public static void unzip(String src, String dest) throws IOException, InterruptedException, ZipException {
-        if (OsUtil.getOS() == null || OsUtil.getOS() == OsUtil.OS.WINDOWS) {
-            ZipFile zipFile = new ZipFile(src);
-            zipFile.extractAll(dest);
-        } else {
-            Files.createDirectories(Paths.get(dest));
-            Runtime.getRuntime().exec("unzip -uqq " + src + " -d " + dest).waitFor();
-        }
-    }
+@FunctionalInterface
+public interface FaultAction {
+    /**
+     * This method is called by a {@link FaultScheduler} when the action is due according to its {@link FaultSchedule}
+     * @param runtimeEngine the runtime engine to inject the fault through
+     * @throws RuntimeEngineException if something goes wrong
+     */
+    void apply(LimitedRuntimeEngine runtimeEngine) throws RuntimeEngineException;
 }
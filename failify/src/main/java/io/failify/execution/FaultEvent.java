@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import java.time.Instant;
+
+/**
+ * This class represents a single execution of an action of a {@link FaultSchedule}. The planned and actual times are in
+ * milliseconds since the start of the schedule
+ */
+public class FaultEvent {
+    private final String name; // the name of the schedule entry the action belongs to
+    private final String action; // the description of the executed action
+    private final int occurrence; // the occurrence number of the schedule entry starting from zero
+    private final Instant timestamp; // the time the action is started
+    private final double plannedTime; // the planned time of the action since the start of the schedule
+    private final double actualTime; // the time the action is started since the start of the schedule
+    private final double duration; // the time the action took in milliseconds
+    private final Throwable error; // the error thrown by the action, if any
+
+    public FaultEvent(String name, String action, int occurrence, Instant timestamp, double plannedTime,
+                      double actualTime, double duration, Throwable error) {
+        this.name = name;
+        this.action = action;
+        this.occurrence = occurrence;
+        this.timestamp = timestamp;
+        this.plannedTime = plannedTime;
+        this.actualTime = actualTime;
+        this.duration = duration;
+        this.error = error;
+    }
+
+    /**
+     * @return the csv header matching the output of {@link #toCsvLine()}
+     */
+    public static String csvHeader() {
+        return "timestamp,name,action,occurrence,planned_ms,actual_ms,lateness_ms,duration_ms,error";
+    }
+
+    /**
+     * @return a csv line representing this event where the timestamp is in epoch milliseconds
+     */
+    public String toCsvLine() {
+        return timestamp.toEpochMilli() + "," + csvField(name) + "," + csvField(action) + "," + occurrence + ","
+                + String.format("%.3f,%.3f,%.3f,%.3f", plannedTime, actualTime, lateness(), duration) + ","
+                + (error == null ? "" : csvField(String.valueOf(error.getMessage())));
+    }
+
+    private static String csvField(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * @return the name of the schedule entry the action belongs to
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the description of the executed action
+     */
+    public String action() {
+        return action;
+    }
+
+    /**
+     * @return the occurrence number of the schedule entry starting from zero
+     */
+    public int occurrence() {
+        return occurrence;
+    }
+
+    /**
+     * @return the time the action is started
+     */
+    public Instant timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the planned time of the action in milliseconds since the start of the schedule
+     */
+    public double plannedTime() {
+        return plannedTime;
+    }
+
+    /**
+     * @return the time the action is started in milliseconds since the start of the schedule
+     */
+    public double actualTime() {
+        return actualTime;
+    }
+
+    /**
+     * @return the difference between the actual and the planned time of the action in milliseconds
+     */
+    public double lateness() {
+        return actualTime - plannedTime;
+    }
+
+    /**
+     * @return the time the action took in milliseconds
+     */
+    public double duration() {
+        return duration;
+    }
+
+    /**
+     * @return the error thrown by the action or null if the action succeeded
+     */
+    public Throwable error() {
+        return error;
+    }
+
+    /**
+     * @return true if the action succeeded, otherwise false
+     */
+    public boolean succeeded() {
+        return error == null;
+    }
+
+    @Override public String toString() {
+        return name + " (" + action + ", occurrence " + occurrence + ") planned at " + String.format("%.3f",
+                plannedTime) + "ms, started at " + String.format("%.3f", actualTime) + "ms"
+                + (error == null ? "" : ", failed: " + error.getMessage());
+    }
+}
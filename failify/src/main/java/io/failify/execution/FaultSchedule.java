@@ -0,0 +1,328 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import java.util.*;
+
+/**
+ * This class represents a declarative timeline of fault injections to be executed by a {@link FaultScheduler}. The
+ * times are in milliseconds since the start of the schedule. An entry's actions are executed sequentially, and its
+ * occurrences are planned relative to the start of the schedule, so a slow action doesn't shift the next occurrences
+ * of the entry.
+ */
+public class FaultSchedule {
+    private final List<Entry> entries;
+    private final Long duration;
+
+    private FaultSchedule(Builder builder) {
+        entries = Collections.unmodifiableList(new ArrayList<>(builder.entries));
+        duration = builder.duration;
+    }
+
+    /**
+     * This method should be used to define a fault schedule
+     * @return an instance of {@link Builder} class for further configuration
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the entries of the schedule
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the amount of time in milliseconds after which the schedule is stopped, or null if the schedule is only
+     * stopped when its entries are finished or it is stopped explicitly
+     */
+    Long getDuration() {
+        return duration;
+    }
+
+    /**
+     * This class represents a single entry of a fault schedule. The entry's actions are executed in a cycle, one per
+     * occurrence, and if the schedule is stopped after an action with an undo action, the undo action is executed
+     */
+    static final class Entry {
+        private final String name;
+        private final long start;
+        private final long period;
+        private final Integer occurrences;
+        private final List<String> actionNames;
+        private final List<FaultAction> actions;
+        private final List<FaultAction> undoActions;
+
+        private Entry(String name, long start, long period, Integer occurrences, List<String> actionNames,
+                      List<FaultAction> actions, List<FaultAction> undoActions) {
+            this.name = name;
+            this.start = start;
+            this.period = period;
+            this.occurrences = occurrences;
+            this.actionNames = actionNames;
+            this.actions = actions;
+            this.undoActions = undoActions;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @param occurrence the occurrence number starting from zero
+         * @return the planned time of the occurrence in milliseconds since the start of the schedule
+         */
+        long getPlannedTime(int occurrence) {
+            return start + occurrence * period;
+        }
+
+        /**
+         * @return the number of the occurrences of the entry or null if the entry repeats until the schedule is stopped
+         */
+        Integer getOccurrences() {
+            return occurrences;
+        }
+
+        String getActionName(int occurrence) {
+            return actionNames.get(occurrence % actions.size());
+        }
+
+        FaultAction getAction(int occurrence) {
+            return actions.get(occurrence % actions.size());
+        }
+
+        /**
+         * @return the action which reverts the given occurrence's action, or null if it doesn't need to be reverted
+         */
+        FaultAction getUndoAction(int occurrence) {
+            return undoActions.get(occurrence % actions.size());
+        }
+    }
+
+    /**
+     * The builder class for building a fault schedule
+     */
+    public static class Builder {
+        private final List<Entry> entries;
+        private final Set<String> entryNames;
+        private Long duration;
+
+        private Builder() {
+            entries = new ArrayList<>();
+            entryNames = new HashSet<>();
+        }
+
+        /**
+         * Executes an action once at the given time
+         * @param time the time of the action in milliseconds since the start of the schedule
+         * @param name the name of the entry to be used in the event log
+         * @param action the action to be executed
+         * @return current builder instance
+         */
+        public Builder at(long time, String name, FaultAction action) {
+            return addEntry(name, time, 0, 1, Collections.singletonList("apply"),
+                    Collections.singletonList(action), Collections.singletonList(null));
+        }
+
+        /**
+         * Applies a network partition at the given time
+         * @param time the time of the network partition in milliseconds since the start of the schedule
+         * @param netPart the network partition to be applied
+         * @return current builder instance
+         */
+        public Builder networkPartition(long time, NetPart netPart) {
+            return at(time, "network partition " + netPart.getPartitionsString(),
+                    runtimeEngine -> runtimeEngine.networkPartition(netPart));
+        }
+
+        /**
+         * Removes a network partition at the given time
+         * @param time the time of the network partition removal in milliseconds since the start of the schedule
+         * @param netPart the network partition to be removed
+         * @return current builder instance
+         */
+        public Builder removeNetworkPartition(long time, NetPart netPart) {
+            return at(time, "remove network partition " + netPart.getPartitionsString(),
+                    runtimeEngine -> runtimeEngine.removeNetworkPartition(netPart));
+        }
+
+        /**
+         * Applies network operations on a node at the given time
+         * @param time the time of the network operations in milliseconds since the start of the schedule
+         * @param nodeName the node to apply the network operations on
+         * @param netOpBuilders the network operations to be applied
+         * @return current builder instance
+         */
+        public Builder networkOperation(long time, String nodeName, NetOp.BuilderBase<?, ?>... netOpBuilders) {
+            return at(time, "network operation on " + nodeName,
+                    runtimeEngine -> runtimeEngine.networkOperation(nodeName, netOpBuilders));
+        }
+
+        /**
+         * Executes an action periodically
+         * @param start the time of the first execution in milliseconds since the start of the schedule
+         * @param period the time between the starts of two consecutive executions in milliseconds
+         * @param times the number of executions or null to repeat until the schedule is stopped
+         * @param name the name of the entry to be used in the event log
+         * @param action the action to be executed
+         * @return current builder instance
+         */
+        public Builder every(long start, long period, Integer times, String name, FaultAction action) {
+            return addEntry(name, start, period, times, Collections.singletonList("apply"),
+                    Collections.singletonList(action), Collections.singletonList(null));
+        }
+
+        /**
+         * Toggles a fault periodically by alternately executing the given actions starting with the on action. If the
+         * schedule is stopped while the fault is on, the off action is executed to leave the fault off
+         * @param start the time of the first on action in milliseconds since the start of the schedule
+         * @param period the time between two consecutive toggles in milliseconds
+         * @param times the number of on/off cycles or null to repeat until the schedule is stopped
+         * @param name the name of the entry to be used in the event log
+         * @param on the action which turns the fault on
+         * @param off the action which turns the fault off
+         * @return current builder instance
+         */
+        public Builder toggle(long start, long period, Integer times, String name, FaultAction on, FaultAction off) {
+            return addEntry(name, start, period, times == null ? null : times * 2, Arrays.asList("on", "off"),
+                    Arrays.asList(on, off), Arrays.asList(off, null));
+        }
+
+        /**
+         * Makes a network partition flap by periodically applying and removing it
+         * @param start the time of the first network partition in milliseconds since the start of the schedule
+         * @param period the time between two consecutive toggles in milliseconds
+         * @param times the number of apply/remove cycles or null to repeat until the schedule is stopped
+         * @param netPart the network partition to be toggled
+         * @return current builder instance
+         */
+        public Builder toggleNetworkPartition(long start, long period, Integer times, NetPart netPart) {
+            return toggle(start, period, times, "network partition " + netPart.getPartitionsString(),
+                    runtimeEngine -> runtimeEngine.networkPartition(netPart),
+                    runtimeEngine -> runtimeEngine.removeNetworkPartition(netPart));
+        }
+
+        /**
+         * Periodically toggles network operations on a node e.g. to impose latency spikes or bursts of packet loss
+         * @param start the time of the first on operations in milliseconds since the start of the schedule
+         * @param period the time between two consecutive toggles in milliseconds
+         * @param times the number of on/off cycles or null to repeat until the schedule is stopped
+         * @param nodeName the node to apply the network operations on
+         * @param on the network operation which turns the fault on e.g. NetOp.loss(30)
+         * @param off the network operation which turns the fault off e.g. NetOp.removeLoss()
+         * @return current builder instance
+         */
+        public Builder toggleNetworkOperation(long start, long period, Integer times, String nodeName,
+                                              NetOp.BuilderBase<?, ?> on, NetOp.BuilderBase<?, ?> off) {
+            return toggle(start, period, times, "network operation on " + nodeName,
+                    runtimeEngine -> runtimeEngine.networkOperation(nodeName, on),
+                    runtimeEngine -> runtimeEngine.networkOperation(nodeName, off));
+        }
+
+        /**
+         * Restarts the given nodes one at a time in a round-robin fashion
+         * @param start the time of the first restart in milliseconds since the start of the schedule
+         * @param period the time between the starts of two consecutive restarts in milliseconds
+         * @param times the number of restarts or null to repeat until the schedule is stopped
+         * @param secondsUntilForcedStop the number of seconds to wait for each node to stop before killing it
+         * @param nodeNames the nodes to be restarted
+         * @return current builder instance
+         */
+        public Builder restartRoundRobin(long start, long period, Integer times, Integer secondsUntilForcedStop,
+                                         String... nodeNames) {
+            if (nodeNames.length == 0) {
+                throw new RuntimeException("At least one node is required for a round-robin restart!");
+            }
+
+            List<String> actionNames = new ArrayList<>();
+            List<FaultAction> actions = new ArrayList<>();
+            for (String nodeName: nodeNames) {
+                actionNames.add("restart " + nodeName);
+                actions.add(runtimeEngine -> runtimeEngine.restartNode(nodeName, secondsUntilForcedStop));
+            }
+            return addEntry("round-robin restart " + Arrays.toString(nodeNames), start, period, times, actionNames,
+                    actions, Collections.nCopies(actions.size(), null));
+        }
+
+        /**
+         * Sets the amount of time after which the schedule is stopped. This is useful for schedules with infinitely
+         * repeating entries
+         * @param duration the duration of the schedule in milliseconds
+         * @return current builder instance
+         */
+        public Builder duration(long duration) {
+            if (duration <= 0) {
+                throw new RuntimeException("The duration of a fault schedule should be positive!");
+            }
+            this.duration = duration;
+            return this;
+        }
+
+        private Builder addEntry(String name, long start, long period, Integer occurrences, List<String> actionNames,
+                                 List<FaultAction> actions, List<FaultAction> undoActions) {
+            if (name == null) {
+                throw new RuntimeException("The name of a fault schedule entry cannot be null!");
+            }
+            if (start < 0) {
+                throw new RuntimeException("The start time of fault schedule entry " + name + " cannot be negative!");
+            }
+            if (occurrences != null && occurrences <= 0) {
+                throw new RuntimeException("The number of repetitions of fault schedule entry " + name
+                        + " should be positive!");
+            }
+            if ((occurrences == null || occurrences > 1) && period <= 0) {
+                throw new RuntimeException("The period of fault schedule entry " + name + " should be positive!");
+            }
+            for (FaultAction action: actions) {
+                if (action == null) {
+                    throw new RuntimeException("The actions of fault schedule entry " + name + " cannot be null!");
+                }
+            }
+
+            // Entry names are used to distinguish the entries in the event log
+            String entryName = name;
+            for (int i = 2; !entryNames.add(entryName); i++) {
+                entryName = name + " #" + i;
+            }
+            entries.add(new Entry(entryName, start, period, occurrences, actionNames, actions, undoActions));
+            return this;
+        }
+
+        /**
+         * Builds the fault schedule object
+         * @return the built object
+         */
+        public FaultSchedule build() {
+            if (entries.isEmpty()) {
+                throw new RuntimeException("A fault schedule should have at least one entry!");
+            }
+            return new FaultSchedule(this);
+        }
+    }
+}
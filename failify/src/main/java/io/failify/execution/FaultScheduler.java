@@ -0,0 +1,315 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import io.failify.Constants;
+import io.failify.exceptions.RuntimeEngineException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * This class executes a {@link FaultSchedule} on dedicated threads and records the planned and actual times of the
+ * executed actions. Each entry of the schedule has its own thread so a slow action only delays the next occurrences of
+ * its own entry, and the occurrences are scheduled against a monotonic clock to avoid drift.
+ */
+public class FaultScheduler {
+    private final static Logger logger = LoggerFactory.getLogger(FaultScheduler.class);
+    private final static AtomicInteger schedulerCounter = new AtomicInteger();
+
+    private final FaultSchedule schedule;
+    private final LimitedRuntimeEngine runtimeEngine;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Set<Thread> executorThreads;
+    private final List<FaultEvent> events;
+    private final Map<FaultSchedule.Entry, Integer> lastOccurrenceMap;
+    private final CountDownLatch finishLatch;
+    private final Consumer<FaultScheduler> finishListener;
+    private final boolean finite;
+    private final long startNanos;
+    private boolean stopped;
+
+    /**
+     * Constructor. The schedule is started immediately
+     * @param schedule the schedule to be executed
+     * @param runtimeEngine the runtime engine to inject the faults through
+     */
+    FaultScheduler(FaultSchedule schedule, LimitedRuntimeEngine runtimeEngine) {
+        this(schedule, runtimeEngine, null);
+    }
+
+    /**
+     * Constructor. The schedule is started immediately
+     * @param schedule the schedule to be executed
+     * @param runtimeEngine the runtime engine to inject the faults through
+     * @param finishListener the listener to be called once when the schedule finishes or is stopped or null
+     */
+    FaultScheduler(FaultSchedule schedule, LimitedRuntimeEngine runtimeEngine,
+                   Consumer<FaultScheduler> finishListener) {
+        this.schedule = schedule;
+        this.runtimeEngine = runtimeEngine;
+        this.finishListener = finishListener;
+        events = new ArrayList<>();
+        lastOccurrenceMap = new HashMap<>();
+
+        int schedulerId = schedulerCounter.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        executorThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        executor = new ScheduledThreadPoolExecutor(schedule.getEntries().size(), runnable -> {
+            Thread thread = new Thread(runnable, "failify-fault-scheduler-" + schedulerId + "-"
+                    + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            executorThreads.add(thread);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.setRemoveOnCancelPolicy(true);
+
+        int finiteEntries = 0;
+        for (FaultSchedule.Entry entry: schedule.getEntries()) {
+            if (entry.getOccurrences() != null) {
+                finiteEntries++;
+            }
+        }
+        // A schedule with an infinite entry only finishes when it is stopped
+        finite = finiteEntries == schedule.getEntries().size();
+        finishLatch = new CountDownLatch(finite ? finiteEntries : 1);
+
+        logger.info("Starting fault schedule with {} entries ...", schedule.getEntries().size());
+        startNanos = System.nanoTime();
+        for (FaultSchedule.Entry entry: schedule.getEntries()) {
+            scheduleOccurrence(entry, 0);
+        }
+        if (schedule.getDuration() != null) {
+            executor.schedule(() -> stopInBackground(schedulerId), schedule.getDuration(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // The stop waits for the running actions which may be running on the other executor threads before undoing their
+    // faults, so it cannot run on the executor itself
+    private void stopInBackground(int schedulerId) {
+        Thread thread = new Thread(this::stop, "failify-fault-schedule-stopper-" + schedulerId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private synchronized void scheduleOccurrence(FaultSchedule.Entry entry, int occurrence) {
+        if (stopped) {
+            return;
+        }
+        long delay = TimeUnit.MILLISECONDS.toNanos(entry.getPlannedTime(occurrence)) - (System.nanoTime() - startNanos);
+        executor.schedule(() -> executeOccurrence(entry, occurrence), Math.max(0, delay), TimeUnit.NANOSECONDS);
+    }
+
+    private void executeOccurrence(FaultSchedule.Entry entry, int occurrence) {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            lastOccurrenceMap.put(entry, occurrence);
+        }
+
+        recordEvent(entry.getName(), entry.getActionName(occurrence), occurrence,
+                entry.getPlannedTime(occurrence), entry.getAction(occurrence));
+
+        if (entry.getOccurrences() == null || occurrence + 1 < entry.getOccurrences()) {
+            scheduleOccurrence(entry, occurrence + 1);
+        } else if (finite) {
+            finishLatch.countDown();
+            if (finishLatch.getCount() == 0) {
+                finish();
+            }
+        }
+    }
+
+    // The executor threads of a finished schedule are released even if nobody waits for the schedule
+    private void finish() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            executor.shutdown();
+        }
+        logger.info("Fault schedule is finished!");
+        notifyFinishListener();
+    }
+
+    private void notifyFinishListener() {
+        if (finishListener != null) {
+            finishListener.accept(this);
+        }
+    }
+
+    private void recordEvent(String name, String action, int occurrence, double plannedTime, FaultAction faultAction) {
+        Instant timestamp = Instant.now();
+        long actionStartNanos = System.nanoTime();
+        Throwable error = null;
+        try {
+            faultAction.apply(runtimeEngine);
+        } catch (Throwable e) {
+            error = e;
+        }
+        long actionEndNanos = System.nanoTime();
+
+        FaultEvent event = new FaultEvent(name, action, occurrence, timestamp, plannedTime,
+                (actionStartNanos - startNanos) / 1e6, (actionEndNanos - actionStartNanos) / 1e6, error);
+        if (error == null) {
+            logger.info("Fault schedule event: {}", event);
+        } else {
+            logger.error("Fault schedule event: {}", event, error);
+        }
+        synchronized (events) {
+            events.add(event);
+        }
+    }
+
+    /**
+     * Stops the schedule, waits for the running actions to finish and reverts the faults that are left on e.g. a
+     * toggled partition that is applied
+     */
+    public void stop() {
+        stop(false);
+    }
+
+    /**
+     * Stops the schedule without reverting the faults, interrupts the running actions and waits for them to finish
+     * for a bounded time. This is used when the runtime engine is stopping
+     */
+    void stopNow() {
+        stop(true);
+    }
+
+    private void stop(boolean now) {
+        Map<FaultSchedule.Entry, Integer> lastOccurrences;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            lastOccurrences = new HashMap<>(lastOccurrenceMap);
+        }
+
+        logger.info("Stopping fault schedule ...");
+        // The stop may be called by one of the actions which is itself running on the executor
+        boolean calledFromAction = executorThreads.contains(Thread.currentThread());
+        try {
+            if (now) {
+                executor.shutdownNow();
+                if (calledFromAction) {
+                    // Only the other actions are interrupted, so the caller can go on with stopping the engine
+                    Thread.interrupted();
+                }
+                if (!executor.awaitTermination(calledFromAction ? 0 : Constants.FAULT_SCHEDULER_STOP_TIMEOUT,
+                        TimeUnit.MILLISECONDS) && !calledFromAction) {
+                    logger.warn("Fault schedule actions didn't finish in time after being interrupted!");
+                }
+            } else {
+                executor.shutdown();
+                if (!executor.awaitTermination(calledFromAction ? 0 : Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+                    logger.warn("Fault schedule is stopped from one of its own actions. The faults are undone "
+                            + "without waiting for the other running actions!");
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the fault schedule actions to finish!", e);
+            Thread.currentThread().interrupt();
+        }
+
+        if (!now) {
+            for (FaultSchedule.Entry entry: schedule.getEntries()) {
+                Integer occurrence = lastOccurrences.get(entry);
+                if (occurrence != null && entry.getUndoAction(occurrence) != null) {
+                    recordEvent(entry.getName(), "undo " + entry.getActionName(occurrence), occurrence,
+                            (System.nanoTime() - startNanos) / 1e6, entry.getUndoAction(occurrence));
+                }
+            }
+        }
+
+        while (finishLatch.getCount() > 0) {
+            finishLatch.countDown();
+        }
+        logger.info("Fault schedule is stopped!");
+        notifyFinishListener();
+    }
+
+    /**
+     * Waits for the schedule to finish, either by executing all of its entries or by being stopped
+     * @param timeout the timeout in seconds or null to wait forever
+     * @throws RuntimeEngineException if one of the actions has failed or the waiting is interrupted
+     * @throws TimeoutException if the timeout is passed before the schedule is finished
+     */
+    public void await(Integer timeout) throws RuntimeEngineException, TimeoutException {
+        try {
+            if (timeout == null) {
+                finishLatch.await();
+            } else if (!finishLatch.await(timeout, TimeUnit.SECONDS)) {
+                throw new TimeoutException("The timeout for waiting for the fault schedule to finish (" + timeout
+                        + " seconds) is passed!");
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeEngineException("Interrupted while waiting for the fault schedule to finish!", e);
+        }
+
+        synchronized (this) {
+            if (!stopped) {
+                stopped = true;
+                executor.shutdown();
+            }
+        }
+
+        for (FaultEvent event: events()) {
+            if (!event.succeeded()) {
+                throw new RuntimeEngineException("Fault schedule action " + event + " has failed!", event.error());
+            }
+        }
+    }
+
+    /**
+     * @return true if the schedule is finished, otherwise false
+     */
+    public boolean isFinished() {
+        return finishLatch.getCount() == 0;
+    }
+
+    /**
+     * @return the events of the executed actions so far ordered by their start time
+     */
+    public List<FaultEvent> events() {
+        List<FaultEvent> eventList;
+        synchronized (events) {
+            eventList = new ArrayList<>(events);
+        }
+        eventList.sort(Comparator.comparingDouble(FaultEvent::actualTime));
+        return eventList;
+    }
+}
@@ -30,6 +30,8 @@ import io.failify.exceptions.NodeIsNotRunningException;
 import io.failify.exceptions.NodeNotFoundException;
 import io.failify.exceptions.RuntimeEngineException;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
@@ -79,6 +81,42 @@ public interface LimitedRuntimeEngine {
      */
     void clockDrift(String nodeName, Integer amount) throws RuntimeEngineException;
 
+    /**
+     * Throttles the cpu time available to a node to the given number of cpus. The throttle is kept when the node is
+     * restarted until it is removed
+     * @param nodeName the node name to throttle the cpu of
+     * @param cpus the number of cpus the node can use e.g. 0.5 means half of a cpu core
+     * @throws RuntimeEngineException is something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    void throttleCpu(String nodeName, double cpus) throws RuntimeEngineException;
+
+    /**
+     * Removes a previously applied cpu throttle from a node
+     * @param nodeName the node name to remove the cpu throttle from
+     * @throws RuntimeEngineException is something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    void removeCpuThrottle(String nodeName) throws RuntimeEngineException;
+
+    /**
+     * Limits the memory available to a node. If the node exceeds the limit it will be killed by the OOM killer. The
+     * limit is kept when the node is restarted until it is removed
+     * @param nodeName the node name to limit the memory of
+     * @param bytes the maximum amount of memory the node can use in bytes
+     * @throws RuntimeEngineException is something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    void limitMemory(String nodeName, long bytes) throws RuntimeEngineException;
+
+    /**
+     * Removes a previously applied memory limit from a node
+     * @param nodeName the node name to remove the memory limit from
+     * @throws RuntimeEngineException is something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    void removeMemoryLimit(String nodeName) throws RuntimeEngineException;
+
     /**
      * Imposes a network partition based on the given partition scheme in the deployed environment
      * @param netPart the desired scheme for the partition. Take a look at {@link NetPart} class for more information
@@ -95,7 +133,58 @@ public interface LimitedRuntimeEngine {
      */
 
     /**
-     * Applies a network operation including network delay and loss addition and removal on a node
+     * Waits for a line matching the given regular expression to be appended to the console output or one of the log
+     * files of a node. Only the lines appended after calling this method are considered.
+     * @param nodeName the node name to wait for its log
+     * @param regex the regular expression to be found in a log line
+     * @return the matched log line
+     * @throws RuntimeEngineException if something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    String waitForLog(String nodeName, String regex) throws RuntimeEngineException;
+
+    /**
+     * Waits for a line matching the given regular expression to be appended to the console output or one of the log
+     * files of a node. Only the lines appended after calling this method are considered.
+     * @param nodeName the node name to wait for its log
+     * @param regex the regular expression to be found in a log line
+     * @param timeout the timeout amount in seconds or null to wait without a timeout
+     * @return the matched log line
+     * @throws RuntimeEngineException if something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     * @throws TimeoutException if the timeout is passed before a matching line is appended
+     */
+    String waitForLog(String nodeName, String regex, Integer timeout) throws RuntimeEngineException, TimeoutException;
+
+    /**
+     * Subscribes a listener to the new lines of the console output and log files of all of the nodes. The nodes' logs
+     * are only tailed after they are first subscribed to or waited for, so the lines appended before that are not
+     * delivered
+     * @param listener the listener to be called for each new log line. It is called in the log tailer thread and thus,
+     *                 it should return quickly
+     */
+    void subscribeToLogs(LogListener listener);
+
+    /**
+     * Subscribes a listener to the new lines of the console output and log files of a node. The node's logs are only
+     * tailed after they are first subscribed to or waited for, so the lines appended before that are not delivered
+     * @param nodeName the node name to subscribe to its logs
+     * @param listener the listener to be called for each new log line. It is called in the log tailer thread and thus,
+     *                 it should return quickly
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    void subscribeToLogs(String nodeName, LogListener listener) throws RuntimeEngineException;
+
+    /**
+     * Removes all of the log subscriptions of a listener
+     * @param listener the listener to be unsubscribed
+     */
+    void unsubscribeFromLogs(LogListener listener);
+
+    /**
+     * Applies a network operation including network delay, loss, bandwidth limit, packet reordering, duplication and
+     * corruption addition and removal on a node. When multiple operations are given, they are applied in order and
+     * the result is applied on the node at once
      * @param netOpBuilder the specifics of the network operation. Take a look a {@link NetOp} class for more information.
      *                     {@link NetOp} static methods should be used to create objects of this type.
      * @param nodeName the node to apply the network operation on
@@ -103,8 +192,40 @@ public interface LimitedRuntimeEngine {
      */
     void networkOperation(String nodeName, NetOp.BuilderBase... netOpBuilder) throws RuntimeEngineException;
 
+    /**
+     * Applies a disk operation including block I/O throttling addition and removal on a node. The operations are kept
+     * when the node is restarted until they are removed
+     * @param diskOpBuilder the specifics of the disk operation. Take a look a {@link DiskOp} class for more information.
+     *                     {@link DiskOp} static methods should be used to create objects of this type.
+     * @param nodeName the node to apply the disk operation on
+     * @throws RuntimeEngineException if something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    void diskOperation(String nodeName, DiskOp.BuilderBase<?, ?>... diskOpBuilder) throws RuntimeEngineException;
+
     void removeNetworkPartition(NetPart netPart) throws RuntimeEngineException;
 
+    /**
+     * Replaces a network partition with another one in one step. Only the blockages that differ between the two
+     * partitions are changed in each node and the changes are applied atomically in each node, so there is no moment
+     * in which the nodes are fully connected
+     * @param from the currently applied partition scheme to be removed or null if there is none
+     * @param to the partition scheme to be applied or null to only remove the current one
+     * @throws RuntimeEngineException if something goes wrong
+     * @throws NodeNotFoundException if one of partitions includes a node that doesn't exist
+     */
+    void transitionPartition(NetPart from, NetPart to) throws RuntimeEngineException;
+
+    /**
+     * Starts executing a fault schedule on dedicated threads. The schedule is stopped when the runtime engine is
+     * stopped, if it is not finished or stopped before. Take a look at {@link FaultSchedule} class for more information.
+     * @param faultSchedule the fault schedule to be executed
+     * @return the scheduler executing the fault schedule which can be used to stop or wait for the schedule and to get
+     * the planned and actual times of the executed actions
+     * @throws RuntimeEngineException if the runtime engine is not running
+     */
+    FaultScheduler scheduleFaults(FaultSchedule faultSchedule) throws RuntimeEngineException;
+
     /**
      * Executes a shell command in the given node
      * @param nodeName the node name to execute the shell command into
@@ -138,6 +259,60 @@ public interface LimitedRuntimeEngine {
      */
     Integer portMapping(String nodeName, Integer portNumber, PortType portType);
 
+    /**
+     * Returns the address the other nodes should use to connect to a tcp port of a node when the proxy network fault
+     * backend is in use. The same address is advertised to the nodes in the FAILIFY_PROXY_&lt;NODE&gt;_&lt;PORT&gt;
+     * environment variable
+     * @param nodeName the node name
+     * @param portNumber the tcp port number of the node
+     * @return the proxy address in the form of host:port or null if the node port is not proxied
+     */
+    String proxyAddress(String nodeName, Integer portNumber);
+
+    /**
+     * Resets all of the connections from or to a node. This is only supported by the proxy network fault backend
+     * @param nodeName the node name to reset the connections of
+     * @throws RuntimeEngineException if the proxy network fault backend is not in use or something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    void resetConnections(String nodeName) throws RuntimeEngineException;
+
+    /**
+     * Returns the resource usage samples taken from a node so far. Only the most recent samples are kept in memory, but
+     * all of the samples are recorded in the node's log directory. Take a look at {@link ResourceSample} class for more
+     * information.
+     * @param nodeName the node name to return the samples for
+     * @return the list of the node's resource usage samples sorted by time
+     * @throws RuntimeEngineException if something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    List<ResourceSample> resourceSamples(String nodeName) throws RuntimeEngineException;
+
+    /**
+     * Returns the current network traffic counters of a node including the bytes and packets sent to and received from
+     * each peer node and the packets from each peer dropped by network partitions. The counting rules are installed in
+     * the node on the first call after the node's container is started, so the counters are cumulative since that call.
+     * Take a look at {@link NetworkStats} class for more information.
+     * @param nodeName the node name to return the stats for
+     * @return the network stats of the node
+     * @throws RuntimeEngineException if something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     * @throws NodeIsNotRunningException if the node is not running
+     */
+    NetworkStats networkStats(String nodeName) throws RuntimeEngineException;
+
+    /**
+     * Returns the resource usage samples taken from a node in the given time window out of the most recent samples kept
+     * in memory. This is useful to correlate a fault injection with the resource usage of the nodes
+     * @param nodeName the node name to return the samples for
+     * @param from the inclusive start of the time window or null for no lower bound
+     * @param to the inclusive end of the time window or null for no upper bound
+     * @return the list of the node's resource usage samples in the given time window sorted by time
+     * @throws RuntimeEngineException if something goes wrong
+     * @throws NodeNotFoundException if the node doesn't exist
+     */
+    List<ResourceSample> resourceSamples(String nodeName, Instant from, Instant to) throws RuntimeEngineException;
+
     // Events
 
     /**
@@ -0,0 +1,418 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution;
+
+import io.failify.Constants;
+import io.failify.workspace.NodeWorkspace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class bounds the size of the nodes' logs by size and/or time based rotation. The files that are written by
+ * Failify itself e.g. the console output are written through a {@link RotatingLogWriter} and rotated by renaming them
+ * between two writes which doesn't lose any line. The declared log files and the files in the declared log directories
+ * are held open by the processes in the nodes, so they can only be rotated by copying and truncating them in place which
+ * loses the lines appended between the copy and the truncation. They are only rotated if copy-truncate is enabled. The
+ * rotated segments are stored in the failify_rotated directory of each node's log directory and are compressed and
+ * pruned in the background.
+ */
+public class LogRotator {
+    private final static Logger logger = LoggerFactory.getLogger(LogRotator.class);
+    private final static DateTimeFormatter SEGMENT_TIMESTAMP_FORMAT = DateTimeFormatter
+            .ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+    // The groups are the timestamp and the counter of the segments that are rotated in the same millisecond
+    private final static String SEGMENT_SUFFIX_REGEX = "\\.(\\d{8}-\\d{6}-\\d{3})(?:-(\\d+))?(?:\\.gz)?";
+
+    private final Long maxSize;
+    private final Integer interval;
+    private final int retention;
+    private final boolean compress;
+    private final boolean copyTruncate;
+    private final LogTailer logTailer;
+    private final Map<Path, RotatedFile> rotatedFileMap; // local file path -> copy-truncate rotated file
+    private final List<LogDirectory> logDirectories;
+    private final Set<RotatingLogWriter> writers;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService compressionExecutor;
+
+    /**
+     * Constructor
+     * @param maxSize the size in bytes that triggers the rotation of a log file or null to disable size-based rotation
+     * @param interval the age in seconds that triggers the rotation of a non-empty log file or null to disable
+     *                 time-based rotation
+     * @param retention the number of rotated segments to keep for each log file
+     * @param compress true to gzip the rotated segments, otherwise false
+     * @param copyTruncate true to rotate the declared log files and the files in the declared log directories by
+     *                     copying and truncating them, otherwise false
+     * @param logTailer the log tailer of the nodes which is notified of the truncations
+     */
+    public LogRotator(Long maxSize, Integer interval, int retention, boolean compress, boolean copyTruncate,
+                      LogTailer logTailer) {
+        this.maxSize = maxSize;
+        this.interval = interval;
+        this.retention = retention;
+        this.compress = compress;
+        this.copyTruncate = copyTruncate;
+        this.logTailer = logTailer;
+        rotatedFileMap = new LinkedHashMap<>();
+        logDirectories = new ArrayList<>();
+        writers = Collections.synchronizedSet(new LinkedHashSet<>());
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "failify-log-rotator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compressionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "failify-log-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rotateIfNeeded, Constants.LOG_ROTATION_CHECK_INTERVAL,
+                Constants.LOG_ROTATION_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts rotating the declared log files and the files in the declared log directories of the given node if
+     * copy-truncate is enabled
+     * @param nodeWorkspace the workspace of the node
+     */
+    public synchronized void addNode(NodeWorkspace nodeWorkspace) {
+        if (!copyTruncate) {
+            return;
+        }
+
+        Path logDirectory = Paths.get(nodeWorkspace.getLogDirectory()).toAbsolutePath().normalize();
+        for (String logFile: nodeWorkspace.getLogFilesMap().keySet()) {
+            addFile(logDirectory, Paths.get(logFile).toAbsolutePath().normalize());
+        }
+        for (String localLogDirectory: nodeWorkspace.getLogDirectoriesMap().keySet()) {
+            logDirectories.add(new LogDirectory(logDirectory,
+                    Paths.get(localLogDirectory).toAbsolutePath().normalize()));
+        }
+    }
+
+    /**
+     * Creates a writer for a log file owned by Failify which is rotated without losing any line
+     * @param file the log file to write into. New content is appended if the file exists
+     * @param logDirectory the log directory of the node the file belongs to
+     * @return the created writer
+     * @throws IOException if the file cannot be opened
+     */
+    public RotatingLogWriter createWriter(Path file, Path logDirectory) throws IOException {
+        RotatingLogWriter writer = new RotatingLogWriter(file.toAbsolutePath().normalize(),
+                logDirectory.toAbsolutePath().normalize());
+        writers.add(writer);
+        return writer;
+    }
+
+    /**
+     * Stops the rotation checks and waits for the pending compressions to finish. The writers should be closed by
+     * their owners
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the log rotator to stop!");
+        }
+
+        compressionExecutor.shutdown();
+        try {
+            if (!compressionExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warn("Compression of the rotated logs didn't finish in time!");
+                compressionExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for compression of the rotated logs to finish!");
+            compressionExecutor.shutdownNow();
+        }
+    }
+
+    private void addFile(Path logDirectory, Path file) {
+        if (!rotatedFileMap.containsKey(file)) {
+            rotatedFileMap.put(file, new RotatedFile(logDirectory, file));
+        }
+    }
+
+    private boolean shouldRotate(long size, Instant lastRotation) {
+        if (size <= 0) {
+            return false;
+        }
+        return (maxSize != null && size >= maxSize)
+                || (interval != null && !lastRotation.plusSeconds(interval).isAfter(Instant.now()));
+    }
+
+    private synchronized void rotateIfNeeded() {
+        for (LogDirectory logDirectory: logDirectories) {
+            if (!Files.isDirectory(logDirectory.path)) {
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(logDirectory.path)) {
+                paths.filter(Files::isRegularFile).forEach(path -> addFile(logDirectory.nodeLogDirectory, path));
+            } catch (IOException | UncheckedIOException e) {
+                logger.debug("Error while scanning log directory {}", logDirectory.path, e);
+            }
+        }
+
+        for (RotatedFile rotatedFile: rotatedFileMap.values()) {
+            try {
+                if (Files.isRegularFile(rotatedFile.path)
+                        && shouldRotate(Files.size(rotatedFile.path), rotatedFile.lastRotation)) {
+                    copyTruncate(rotatedFile);
+                }
+            } catch (IOException e) {
+                logger.warn("Error while rotating log file {}!", rotatedFile.path, e);
+            }
+        }
+
+        for (RotatingLogWriter writer: new ArrayList<>(writers)) {
+            try {
+                writer.rotateIfNeeded();
+            } catch (IOException e) {
+                logger.warn("Error while rotating log file {}!", writer.file, e);
+            }
+        }
+    }
+
+    private void copyTruncate(RotatedFile rotatedFile) throws IOException {
+        Path segment = createSegmentPath(rotatedFile.nodeLogDirectory, rotatedFile.path);
+        try (FileChannel source = FileChannel.open(rotatedFile.path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+             FileChannel target = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long copiedSize = transfer(source, target, 0);
+            // The bytes appended during the copy are copied right before the truncation to keep the window for losing a
+            // line minimal. The tailer reads the file up to the truncation, so the waiters don't skip any line
+            logTailer.truncate(rotatedFile.path, () -> {
+                transfer(source, target, copiedSize);
+                source.truncate(0);
+            });
+        }
+        rotatedFile.lastRotation = Instant.now();
+        logger.debug("Log file {} is rotated to {}", rotatedFile.path, segment);
+        scheduleCompression(segment, rotatedFile.path);
+    }
+
+    private long transfer(FileChannel source, FileChannel target, long position) throws IOException {
+        while (position < source.size()) {
+            position += source.transferTo(position, source.size() - position, target);
+        }
+        return position;
+    }
+
+    private Path createSegmentPath(Path nodeLogDirectory, Path file) throws IOException {
+        Path relativePath = file.startsWith(nodeLogDirectory) ? nodeLogDirectory.relativize(file) : file.getFileName();
+        Path segmentDirectory = nodeLogDirectory.resolve(Constants.ROTATED_LOGS_DIRECTORY_NAME)
+                .resolve(relativePath).getParent();
+        Files.createDirectories(segmentDirectory);
+
+        String segmentName = file.getFileName() + "." + SEGMENT_TIMESTAMP_FORMAT.format(Instant.now());
+        Path segment = segmentDirectory.resolve(segmentName);
+        for (int i = 1; Files.exists(segment) || Files.exists(Paths.get(segment + ".gz")); i++) {
+            segment = segmentDirectory.resolve(segmentName + "-" + i);
+        }
+        return segment;
+    }
+
+    private void scheduleCompression(Path segment, Path file) {
+        if (compressionExecutor.isShutdown()) {
+            logger.debug("Log rotator is stopped. Rotated log segment {} is left as is", segment);
+            return;
+        }
+
+        compressionExecutor.submit(() -> {
+            if (compress) {
+                Path compressedSegment = Paths.get(segment + ".gz");
+                try (OutputStream outputStream = new GZIPOutputStream(
+                        new FileOutputStream(compressedSegment.toFile()))) {
+                    Files.copy(segment, outputStream);
+                } catch (IOException e) {
+                    logger.warn("Error while compressing rotated log segment {}!", segment, e);
+                    return;
+                }
+                try {
+                    Files.delete(segment);
+                } catch (IOException e) {
+                    logger.warn("Error while deleting rotated log segment {}!", segment, e);
+                }
+            }
+            pruneSegments(segment.getParent(), file.getFileName().toString());
+        });
+    }
+
+    void pruneSegments(Path segmentDirectory, String fileName) {
+        Pattern segmentPattern = Pattern.compile(Pattern.quote(fileName) + SEGMENT_SUFFIX_REGEX);
+        List<Segment> segments = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(segmentDirectory)) {
+            paths.forEach(path -> {
+                Matcher matcher = segmentPattern.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(new Segment(path, matcher.group(1),
+                            matcher.group(2) == null ? 0 : Long.parseLong(matcher.group(2))));
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Error while listing rotated log segments in {}!", segmentDirectory, e);
+            return;
+        }
+
+        // Newest segments first
+        segments.sort(Comparator.comparing((Segment segment) -> segment.timestamp)
+                .thenComparingLong(segment -> segment.counter).reversed());
+        for (Segment segment: segments.subList(Math.min(retention, segments.size()), segments.size())) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                logger.warn("Error while deleting rotated log segment {}!", segment.path, e);
+            }
+        }
+    }
+
+    /**
+     * This class writes into a log file owned by Failify and rotates it by renaming between two writes, so no line is
+     * lost
+     */
+    public class RotatingLogWriter {
+        private final Path file;
+        private final Path nodeLogDirectory;
+        private OutputStream outputStream;
+        private long size;
+        private Instant lastRotation;
+
+        private RotatingLogWriter(Path file, Path nodeLogDirectory) throws IOException {
+            this.file = file;
+            this.nodeLogDirectory = nodeLogDirectory;
+            this.lastRotation = Instant.now();
+            open();
+        }
+
+        /**
+         * Appends the given bytes to the log file and rotates the file if needed
+         * @param bytes the bytes to be written
+         * @throws IOException if writing or rotation fails
+         */
+        public synchronized void write(byte[] bytes) throws IOException {
+            if (outputStream == null) {
+                throw new IOException("Log file " + file + " is closed!");
+            }
+            outputStream.write(bytes);
+            outputStream.flush();
+            size += bytes.length;
+            rotateIfNeeded();
+        }
+
+        /**
+         * Closes the log file. The writer cannot be used afterwards
+         */
+        public synchronized void close() {
+            writers.remove(this);
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    logger.warn("Error while closing log file {}!", file, e);
+                }
+                outputStream = null;
+            }
+        }
+
+        private synchronized void rotateIfNeeded() throws IOException {
+            if (outputStream == null || !shouldRotate(size, lastRotation)) {
+                return;
+            }
+
+            outputStream.close();
+            outputStream = null;
+            Path segment = createSegmentPath(nodeLogDirectory, file);
+            Files.move(file, segment);
+            lastRotation = Instant.now();
+            open();
+            logger.debug("Log file {} is rotated to {}", file, segment);
+            scheduleCompression(segment, file);
+        }
+
+        private void open() throws IOException {
+            outputStream = new FileOutputStream(file.toFile(), true);
+            size = Files.size(file);
+        }
+    }
+
+    private static class RotatedFile {
+        private final Path nodeLogDirectory;
+        private final Path path;
+        private Instant lastRotation;
+
+        private RotatedFile(Path nodeLogDirectory, Path path) {
+            this.nodeLogDirectory = nodeLogDirectory;
+            this.path = path;
+            this.lastRotation = Instant.now();
+        }
+    }
+
+    private static class LogDirectory {
+        private final Path nodeLogDirectory;
+        private final Path path;
+
+        private LogDirectory(Path nodeLogDirectory, Path path) {
+            this.nodeLogDirectory = nodeLogDirectory;
+            this.path = path;
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final String timestamp;
+        private final long counter;
+
+        private Segment(Path path, String timestamp, long counter) {
+            this.path = path;
+            this.timestamp = timestamp;
+            this.counter = counter;
+        }
+    }
+}
@@ -0,0 +1,634 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution;
+
+import io.failify.Constants;
+import io.failify.exceptions.RuntimeEngineException;
+import io.failify.workspace.NodeWorkspace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
+
+/**
+ * This class incrementally tails the console output and the declared log files and directories of the nodes and
+ * dispatches the new lines to the subscribed listeners and log waiters. A node is only tailed after the first
+ * subscription to its logs or the first wait for its log, so the deployments that don't use the logs pay nothing. Only
+ * the appended bytes of the files are read using file channels. File system notifications are used to pick up new
+ * lines immediately, and the files are also polled periodically for the file systems that don't deliver notifications
+ * e.g. some bind mounts. The listeners are called outside of the tailer's lock in the order of the lines.
+ */
+public class LogTailer {
+    private final static Logger logger = LoggerFactory.getLogger(LogTailer.class);
+
+    private final Map<String, NodeWorkspace> nodeWorkspaceMap; // the added nodes which may be tailed later
+    private final Set<String> tailedNodes;
+    private final Map<Path, TailedFile> tailedFileMap; // local file path -> tailed file
+    private final List<LogDirectory> logDirectories;
+    private final Map<WatchKey, Path> watchKeyMap; // watch key -> local directory path
+    private final Set<Path> watchedDirectories;
+    private final List<Subscription> subscriptions;
+    private final List<LogWaiter> logWaiters;
+    private final Deque<LogLine> pendingLines; // the lines to be delivered to the subscriptions
+    private final Object deliveryLock; // serializes the delivery of the pending lines to keep them in order
+    private final ByteBuffer readBuffer;
+    private WatchService watchService;
+    private Thread tailerThread;
+    private boolean tailAllNodes; // true if there is a subscription to all of the nodes
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    public LogTailer() {
+        nodeWorkspaceMap = new HashMap<>();
+        tailedNodes = new HashSet<>();
+        tailedFileMap = new LinkedHashMap<>();
+        logDirectories = new ArrayList<>();
+        watchKeyMap = new ConcurrentHashMap<>();
+        watchedDirectories = new HashSet<>();
+        subscriptions = new ArrayList<>();
+        logWaiters = new ArrayList<>();
+        pendingLines = new ArrayDeque<>();
+        deliveryLock = new Object();
+        readBuffer = ByteBuffer.allocate(64 * 1024);
+    }
+
+    /**
+     * Adds the console output file, log files and log directories of the given node to be tailed when its logs are
+     * subscribed to or waited for. If there is a subscription to all of the nodes, the node is tailed immediately.
+     * @param nodeName the name of the node
+     * @param nodeWorkspace the workspace of the node
+     */
+    public synchronized void addNode(String nodeName, NodeWorkspace nodeWorkspace) {
+        nodeWorkspaceMap.put(nodeName, nodeWorkspace);
+        if (tailAllNodes) {
+            tailNode(nodeName);
+        }
+    }
+
+    /**
+     * Starts tailing the files of the given node if it is not already tailed. The lines that already exist in the
+     * files are skipped. The tailer thread is started with the first tailed node.
+     * @param nodeName the name of the node
+     */
+    private void tailNode(String nodeName) {
+        NodeWorkspace nodeWorkspace = nodeWorkspaceMap.get(nodeName);
+        if (stopped || nodeWorkspace == null || !tailedNodes.add(nodeName)) {
+            return;
+        }
+
+        startIfNeeded();
+        addFile(nodeName, Paths.get(nodeWorkspace.getLogDirectory(), Constants.CONSOLE_OUTERR_FILE_NAME),
+                "/" + Constants.CONSOLE_OUTERR_FILE_NAME);
+        for (Map.Entry<String, String> logFileEntry: nodeWorkspace.getLogFilesMap().entrySet()) {
+            addFile(nodeName, Paths.get(logFileEntry.getKey()), logFileEntry.getValue());
+        }
+        for (Map.Entry<String, String> logDirectoryEntry: nodeWorkspace.getLogDirectoriesMap().entrySet()) {
+            LogDirectory logDirectory = new LogDirectory(nodeName,
+                    Paths.get(logDirectoryEntry.getKey()).toAbsolutePath().normalize(),
+                    Paths.get(logDirectoryEntry.getValue()));
+            logDirectories.add(logDirectory);
+            scanLogDirectory(logDirectory);
+        }
+        // Opens the existing files, so their current content is skipped right away
+        readFiles(nodeName);
+    }
+
+    /**
+     * Subscribes a listener to the new log lines of a node or all of the nodes. Only the lines appended after the node
+     * is first subscribed to or waited for are delivered
+     * @param nodeName the node name to subscribe to or null for all of the nodes
+     * @param listener the listener to be called for each new line
+     */
+    public synchronized void subscribe(String nodeName, LogListener listener) {
+        subscriptions.add(new Subscription(nodeName, listener));
+        if (nodeName == null) {
+            tailAllNodes = true;
+            for (String currentNodeName: nodeWorkspaceMap.keySet()) {
+                tailNode(currentNodeName);
+            }
+        } else {
+            tailNode(nodeName);
+        }
+    }
+
+    /**
+     * Removes all of the subscriptions of the given listener
+     * @param listener the listener to be removed
+     */
+    public synchronized void unsubscribe(LogListener listener) {
+        subscriptions.removeIf(subscription -> subscription.listener == listener);
+    }
+
+    /**
+     * Waits for a line matching the given regular expression to be appended to the console output or the log files of
+     * the given node. Only the lines appended after calling this method are considered.
+     * @param nodeName the node name to wait for its log
+     * @param regex the regular expression to be found in a log line
+     * @return the matched log line
+     * @throws RuntimeEngineException if the regular expression is invalid or the tailer is stopped
+     */
+    public String waitForLog(String nodeName, String regex) throws RuntimeEngineException {
+        LogWaiter logWaiter = addLogWaiter(nodeName, regex);
+        try {
+            return logWaiter.future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            removeLogWaiter(logWaiter);
+            throw new RuntimeEngineException("Error while waiting for log pattern " + regex + " in node "
+                    + nodeName + "!", e);
+        }
+    }
+
+    /**
+     * Waits for a line matching the given regular expression to be appended to the console output or the log files of
+     * the given node with a timeout. Only the lines appended after calling this method are considered.
+     * @param nodeName the node name to wait for its log
+     * @param regex the regular expression to be found in a log line
+     * @param timeout the timeout in seconds
+     * @return the matched log line
+     * @throws RuntimeEngineException if the regular expression is invalid or the tailer is stopped
+     * @throws TimeoutException if the timeout is passed before a matching line is found
+     */
+    public String waitForLog(String nodeName, String regex, int timeout)
+            throws RuntimeEngineException, TimeoutException {
+        LogWaiter logWaiter = addLogWaiter(nodeName, regex);
+        try {
+            return logWaiter.future.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            removeLogWaiter(logWaiter);
+            throw new TimeoutException("The timeout for waiting for log pattern " + regex + " in node " + nodeName
+                    + " (" + timeout + " seconds) is passed!");
+        } catch (InterruptedException | ExecutionException e) {
+            removeLogWaiter(logWaiter);
+            throw new RuntimeEngineException("Error while waiting for log pattern " + regex + " in node "
+                    + nodeName + "!", e);
+        }
+    }
+
+    private LogWaiter addLogWaiter(String nodeName, String regex) throws RuntimeEngineException {
+        LogWaiter logWaiter;
+        try {
+            logWaiter = new LogWaiter(nodeName, Pattern.compile(regex));
+        } catch (PatternSyntaxException e) {
+            throw new RuntimeEngineException("Invalid log pattern " + regex + "!", e);
+        }
+
+        synchronized (this) {
+            if (stopped) {
+                throw new RuntimeEngineException("The log tailer is stopped!");
+            }
+            tailNode(nodeName);
+            // The lines appended before this call shouldn't match, so they are consumed first
+            for (LogDirectory logDirectory: logDirectories) {
+                if (logDirectory.nodeName.equals(nodeName)) {
+                    scanLogDirectory(logDirectory);
+                }
+            }
+            readFiles(nodeName);
+            logWaiters.add(logWaiter);
+        }
+        deliverPendingLines();
+
+        return logWaiter;
+    }
+
+    /**
+     * Reads the remaining lines of the files, stops the tailer thread and fails the pending log waiters
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            running = false;
+            thread = tailerThread;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(Constants.LOG_TAILER_POLL_INTERVAL * 4);
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while waiting for the log tailer thread to stop!");
+            }
+        }
+
+        synchronized (this) {
+            for (LogDirectory logDirectory: logDirectories) {
+                scanLogDirectory(logDirectory);
+            }
+            readFiles(null);
+
+            for (TailedFile tailedFile: tailedFileMap.values()) {
+                tailedFile.close();
+            }
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    logger.warn("Error while closing the log tailer watch service!", e);
+                }
+            }
+            for (LogWaiter logWaiter: logWaiters) {
+                logWaiter.future.completeExceptionally(new RuntimeEngineException("The log tailer is stopped!"));
+            }
+            logWaiters.clear();
+        }
+        deliverPendingLines();
+    }
+
+    /**
+     * Runs the truncation of a log file while the file is not being read. The lines appended to the file before the
+     * truncation are read first and the file is read from its beginning afterwards, so the lines that are written after
+     * the truncation are not skipped
+     * @param localPath the local path of the log file
+     * @param truncation the truncation of the file
+     * @throws IOException if the truncation fails
+     */
+    void truncate(Path localPath, FileTruncation truncation) throws IOException {
+        synchronized (this) {
+            TailedFile tailedFile = tailedFileMap.get(localPath.toAbsolutePath().normalize());
+            if (tailedFile == null || tailedFile.channel == null) {
+                truncation.truncate();
+                return;
+            }
+
+            readAppendedBytes(tailedFile);
+            truncation.truncate();
+            tailedFile.position = 0;
+        }
+        deliverPendingLines();
+    }
+
+    private void startIfNeeded() {
+        if (tailerThread != null) {
+            return;
+        }
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            logger.warn("Cannot create a watch service for the log files. Falling back to polling!", e);
+        }
+
+        running = true;
+        tailerThread = new Thread(this::tail, "failify-log-tailer");
+        tailerThread.setDaemon(true);
+        tailerThread.start();
+    }
+
+    private void tail() {
+        while (running) {
+            boolean timedOut = true;
+            Set<Path> changedDirectories = new HashSet<>();
+
+            try {
+                if (watchService != null) {
+                    WatchKey watchKey = watchService.poll(Constants.LOG_TAILER_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    while (watchKey != null) {
+                        timedOut = false;
+                        Path directory = watchKeyMap.get(watchKey);
+                        for (WatchEvent<?> event: watchKey.pollEvents()) {
+                            if (directory != null && event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+                                changedDirectories.add(directory);
+                            }
+                        }
+                        if (!watchKey.reset()) {
+                            watchKeyMap.remove(watchKey);
+                        }
+                        watchKey = watchService.poll();
+                    }
+                } else {
+                    Thread.sleep(Constants.LOG_TAILER_POLL_INTERVAL);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+
+            synchronized (this) {
+                if (!running) {
+                    break;
+                }
+                for (LogDirectory logDirectory: logDirectories) {
+                    if (timedOut || changedDirectories.stream()
+                            .anyMatch(directory -> directory.startsWith(logDirectory.localPath))) {
+                        scanLogDirectory(logDirectory);
+                    }
+                }
+                readFiles(null);
+            }
+            deliverPendingLines();
+        }
+    }
+
+    private void addFile(String nodeName, Path localPath, String nodePath) {
+        localPath = localPath.toAbsolutePath().normalize();
+        if (tailedFileMap.containsKey(localPath)) {
+            return;
+        }
+
+        // The existing content of a file is skipped only if the file exists when the tailing is started
+        tailedFileMap.put(localPath, new TailedFile(nodeName, localPath, nodePath, Files.exists(localPath)));
+        watchDirectory(localPath.getParent());
+    }
+
+    private void scanLogDirectory(LogDirectory logDirectory) {
+        if (!Files.isDirectory(logDirectory.localPath)) {
+            logDirectory.scanned = true;
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(logDirectory.localPath)) {
+            paths.forEach(path -> {
+                if (Files.isDirectory(path)) {
+                    watchDirectory(path);
+                } else if (!tailedFileMap.containsKey(path)) {
+                    String nodePath = logDirectory.nodePath.resolve(logDirectory.localPath.relativize(path)).toString();
+                    TailedFile tailedFile = new TailedFile(logDirectory.nodeName, path, nodePath,
+                            !logDirectory.scanned);
+                    tailedFileMap.put(path, tailedFile);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            logger.debug("Error while scanning log directory {}", logDirectory.localPath, e);
+        }
+        logDirectory.scanned = true;
+    }
+
+    private void watchDirectory(Path directory) {
+        if (watchService == null || directory == null || watchedDirectories.contains(directory)
+                || !Files.isDirectory(directory)) {
+            return;
+        }
+
+        try {
+            watchKeyMap.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY), directory);
+            watchedDirectories.add(directory);
+        } catch (IOException e) {
+            logger.debug("Cannot watch directory {}. Polling will be used instead!", directory, e);
+        }
+    }
+
+    private void readFiles(String nodeName) {
+        for (TailedFile tailedFile: tailedFileMap.values()) {
+            if (nodeName == null || tailedFile.nodeName.equals(nodeName)) {
+                readFile(tailedFile);
+            }
+        }
+    }
+
+    private void readFile(TailedFile tailedFile) {
+        try {
+            if (!Files.isRegularFile(tailedFile.localPath)) {
+                // The file is deleted or not created yet. The remaining bytes of a deleted file are still readable
+                if (tailedFile.channel != null) {
+                    readAppendedBytes(tailedFile);
+                    tailedFile.close();
+                    tailedFile.position = 0;
+                }
+                return;
+            }
+
+            Object fileKey = Files.readAttributes(tailedFile.localPath, BasicFileAttributes.class).fileKey();
+            if (tailedFile.channel == null || (fileKey != null && !fileKey.equals(tailedFile.fileKey))) {
+                if (tailedFile.channel != null) {
+                    // The file is replaced by a new one
+                    readAppendedBytes(tailedFile);
+                    tailedFile.close();
+                    tailedFile.position = 0;
+                }
+                tailedFile.channel = FileChannel.open(tailedFile.localPath, StandardOpenOption.READ);
+                tailedFile.fileKey = fileKey;
+                if (tailedFile.skipExistingContent) {
+                    tailedFile.position = tailedFile.channel.size();
+                    tailedFile.skipExistingContent = false;
+                }
+            }
+
+            if (tailedFile.channel.size() < tailedFile.position) {
+                // The file is truncated
+                tailedFile.position = 0;
+            }
+            readAppendedBytes(tailedFile);
+        } catch (IOException e) {
+            logger.debug("Error while reading log file {}", tailedFile.localPath, e);
+        }
+    }
+
+    private void readAppendedBytes(TailedFile tailedFile) throws IOException {
+        byte[] bytes = readBuffer.array();
+        int readBytes;
+        do {
+            readBuffer.clear();
+            readBytes = tailedFile.channel.read(readBuffer, tailedFile.position);
+            if (readBytes > 0) {
+                tailedFile.position += readBytes;
+                int lineStart = 0;
+                for (int i = 0; i < readBytes; i++) {
+                    if (bytes[i] == '\n') {
+                        appendToLine(tailedFile, bytes, lineStart, i - lineStart);
+                        dispatchLine(tailedFile);
+                        lineStart = i + 1;
+                    }
+                }
+                appendToLine(tailedFile, bytes, lineStart, readBytes - lineStart);
+            }
+        } while (readBytes > 0);
+    }
+
+    // The lines longer than the maximum line length are split into multiple lines
+    private void appendToLine(TailedFile tailedFile, byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            int chunkLength = Math.min(length, Constants.LOG_TAILER_MAX_LINE_LENGTH - tailedFile.partialLine.size());
+            tailedFile.partialLine.write(bytes, offset, chunkLength);
+            offset += chunkLength;
+            length -= chunkLength;
+            if (tailedFile.partialLine.size() >= Constants.LOG_TAILER_MAX_LINE_LENGTH) {
+                dispatchLine(tailedFile);
+            }
+        }
+    }
+
+    // The log waiters are completed here, but the subscriptions are called later by deliverPendingLines
+    private void dispatchLine(TailedFile tailedFile) {
+        String line = new String(tailedFile.partialLine.toByteArray(), StandardCharsets.UTF_8);
+        tailedFile.partialLine.reset();
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+
+        if (!subscriptions.isEmpty()) {
+            pendingLines.add(new LogLine(tailedFile.nodeName, tailedFile.nodePath, line));
+        }
+
+        Iterator<LogWaiter> logWaiterIterator = logWaiters.iterator();
+        while (logWaiterIterator.hasNext()) {
+            LogWaiter logWaiter = logWaiterIterator.next();
+            if (logWaiter.nodeName.equals(tailedFile.nodeName) && logWaiter.pattern.matcher(line).find()) {
+                logWaiter.future.complete(line);
+                logWaiterIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Delivers the pending lines to the subscribed listeners without holding the tailer's lock, so the listeners can
+     * subscribe, unsubscribe or wait for logs. The delivery lock keeps the lines in order when they are read by
+     * different threads
+     */
+    private void deliverPendingLines() {
+        synchronized (deliveryLock) {
+            while (true) {
+                LogLine logLine;
+                List<Subscription> currentSubscriptions;
+                synchronized (this) {
+                    logLine = pendingLines.poll();
+                    if (logLine == null) {
+                        return;
+                    }
+                    currentSubscriptions = new ArrayList<>(subscriptions);
+                }
+
+                for (Subscription subscription: currentSubscriptions) {
+                    if (subscription.nodeName == null || subscription.nodeName.equals(logLine.nodeName)) {
+                        try {
+                            subscription.listener.onLogLine(logLine.nodeName, logLine.nodePath, logLine.line);
+                        } catch (RuntimeException e) {
+                            logger.warn("Log listener {} failed on a line from node {}!", subscription.listener,
+                                    logLine.nodeName, e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized void removeLogWaiter(LogWaiter logWaiter) {
+        logWaiters.remove(logWaiter);
+    }
+
+    private static class LogLine {
+        private final String nodeName;
+        private final String nodePath;
+        private final String line;
+
+        private LogLine(String nodeName, String nodePath, String line) {
+            this.nodeName = nodeName;
+            this.nodePath = nodePath;
+            this.line = line;
+        }
+    }
+
+    /**
+     * The truncation of a log file which is run by {@link #truncate(Path, FileTruncation)}
+     */
+    interface FileTruncation {
+        void truncate() throws IOException;
+    }
+
+    private static class TailedFile {
+        private final String nodeName;
+        private final Path localPath;
+        private final String nodePath;
+        private final ByteArrayOutputStream partialLine;
+        private boolean skipExistingContent;
+        private FileChannel channel;
+        private Object fileKey;
+        private long position;
+
+        private TailedFile(String nodeName, Path localPath, String nodePath, boolean skipExistingContent) {
+            this.nodeName = nodeName;
+            this.localPath = localPath;
+            this.nodePath = nodePath;
+            this.skipExistingContent = skipExistingContent;
+            this.partialLine = new ByteArrayOutputStream();
+        }
+
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.debug("Error while closing log file {}", localPath, e);
+                }
+                channel = null;
+            }
+        }
+    }
+
+    private static class LogDirectory {
+        private final String nodeName;
+        private final Path localPath;
+        private final Path nodePath;
+        private boolean scanned;
+
+        private LogDirectory(String nodeName, Path localPath, Path nodePath) {
+            this.nodeName = nodeName;
+            this.localPath = localPath;
+            this.nodePath = nodePath;
+        }
+    }
+
+    private static class Subscription {
+        private final String nodeName;
+        private final LogListener listener;
+
+        private Subscription(String nodeName, LogListener listener) {
+            this.nodeName = nodeName;
+            this.listener = listener;
+        }
+    }
+
+    private static class LogWaiter {
+        private final String nodeName;
+        private final Pattern pattern;
+        private final CompletableFuture<String> future;
+
+        private LogWaiter(String nodeName, Pattern pattern) {
+            this.nodeName = nodeName;
+            this.pattern = pattern;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
@@ -1,11 +1,21 @@
 package io.failify.execution;
 
-import java.util.StringJoiner;
+import java.util.*;
 
 /**
  * This is the base class which is extended by all network operation configuration classes e.g. {@link Delay}
  */
 public abstract class NetOp {
+    private final Scope scope;
+
+    /**
+     * Constructor
+     * @param builder the builder instance of the network operation
+     */
+    protected NetOp(BuilderBase<?, ?> builder) {
+        scope = new Scope(builder.destinationNodes, builder.destinationPorts);
+    }
+
     /**
      * This method should be used to define a network delay configuration
      * @param delay the amount of the delay to be applied. If jitter is specified later, this amount will be used as the
@@ -41,11 +51,107 @@ public abstract class NetOp {
         return new Loss.Builder(percentage);
     }
 
+    /**
+     * This method should be used to define a network bandwidth limit configuration. The limit is applied using a token
+     * bucket filter after the other network operations of the node
+     * @param rate the maximum bandwidth in kbit/s
+     * @return an instance of {@link Bandwidth.Builder} class for further configuration
+     */
+    public static Bandwidth.Builder bandwidth(int rate) {
+        return new Bandwidth.Builder(rate);
+    }
+
+    /**
+     * This method should be used to define a remove network bandwidth limit operation
+     * @return an instance of {@link RemoveBandwidth.Builder} class
+     */
+    public static RemoveBandwidth.Builder removeBandwidth() {
+        return new RemoveBandwidth.Builder();
+    }
+
+    /**
+     * This method should be used to define a packet reordering configuration. This requires a network delay to be
+     * in place for the same traffic as the reordered packets are the ones which are sent without the delay
+     * @param percentage the percentage of the packets to be sent immediately
+     * @return an instance of {@link Reorder.Builder} class for further configuration
+     */
+    public static Reorder.Builder reorder(int percentage) {
+        return new Reorder.Builder(percentage);
+    }
+
+    /**
+     * This method should be used to define a remove packet reordering operation
+     * @return an instance of {@link RemoveReorder.Builder} class
+     */
+    public static RemoveReorder.Builder removeReorder() {
+        return new RemoveReorder.Builder();
+    }
+
+    /**
+     * This method should be used to define a packet duplication configuration
+     * @param percentage the percentage of the packets to be duplicated
+     * @return an instance of {@link Duplicate.Builder} class for further configuration
+     */
+    public static Duplicate.Builder duplicate(int percentage) {
+        return new Duplicate.Builder(percentage);
+    }
+
+    /**
+     * This method should be used to define a remove packet duplication operation
+     * @return an instance of {@link RemoveDuplicate.Builder} class
+     */
+    public static RemoveDuplicate.Builder removeDuplicate() {
+        return new RemoveDuplicate.Builder();
+    }
+
+    /**
+     * This method should be used to define a packet corruption configuration
+     * @param percentage the percentage of the packets to have a random bit error
+     * @return an instance of {@link Corrupt.Builder} class for further configuration
+     */
+    public static Corrupt.Builder corrupt(int percentage) {
+        return new Corrupt.Builder(percentage);
+    }
+
+    /**
+     * This method should be used to define a remove packet corruption operation
+     * @return an instance of {@link RemoveCorrupt.Builder} class
+     */
+    public static RemoveCorrupt.Builder removeCorrupt() {
+        return new RemoveCorrupt.Builder();
+    }
+
     /**
      * @return the netem string to be added to tc command for the operation
      */
     abstract String getNetemString();
 
+    /**
+     * @return the kind of the operation. Operations of the same kind and scope replace each other on a node
+     */
+    abstract Kind getKind();
+
+    /**
+     * @return true if the operation removes the previous operation of the same kind and scope, otherwise false
+     */
+    boolean isRemoval() {
+        return false;
+    }
+
+    /**
+     * @return the traffic the operation is applied on
+     */
+    Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * @return the string representation of the operation's scope to be used in toString methods
+     */
+    protected String getScopeString() {
+        return scope.isGlobal() ? "" : " " + scope.toString();
+    }
+
     /**
      * List of available statistical distributions for network operations, if applicable
      */
@@ -56,15 +162,118 @@ public abstract class NetOp {
         PARETONORMAL
     }
 
+    /**
+     * List of the kinds of network operations. The netem options of the operations applied on the same traffic are
+     * composed in this order
+     */
+    enum Kind {
+        DELAY,
+        REORDER,
+        LOSS,
+        DUPLICATE,
+        CORRUPT,
+        BANDWIDTH
+    }
+
     /**
      * This is the base builder class for a network operation configuration builder
      * @param <S> this is the class that builder is supposed to build
      * @param <T> this is child builder class
      */
-    public abstract static class BuilderBase<S extends NetOp, T extends BuilderBase> {
+    public abstract static class BuilderBase<S extends NetOp, T extends BuilderBase<S, T>> {
+        private final Set<String> destinationNodes = new TreeSet<>();
+        private final Set<Integer> destinationPorts = new TreeSet<>();
+
+        /**
+         * Limits the operation to the traffic going to the given nodes. If not specified, the operation is applied on
+         * the traffic going to all of the destinations. The operations with the same scope replace each other, and the
+         * operations without a scope apply to the scoped traffic as well unless overridden by a scoped operation of
+         * the same type
+         * @param nodeNames the name of the destination nodes
+         * @return current builder instance
+         */
+        public T toNodes(String... nodeNames) {
+            destinationNodes.addAll(Arrays.asList(nodeNames));
+            return self();
+        }
+
+        /**
+         * Limits the operation to the traffic going to the given destination ports. If combined with
+         * {@link #toNodes(String...)}, only the traffic going to the given ports of the given nodes is affected
+         * @param ports the destination ports
+         * @return current builder instance
+         */
+        public T toPorts(Integer... ports) {
+            destinationPorts.addAll(Arrays.asList(ports));
+            return self();
+        }
+
+        /**
+         * @return the current builder instance as the child builder class
+         */
+        protected abstract T self();
+
         protected abstract S build();
     }
 
+    /**
+     * This class represents the traffic a network operation is applied on
+     */
+    static final class Scope {
+        static final Scope GLOBAL = new Scope(Collections.emptySet(), Collections.emptySet());
+
+        private final Set<String> destinationNodes;
+        private final Set<Integer> destinationPorts;
+
+        private Scope(Set<String> destinationNodes, Set<Integer> destinationPorts) {
+            this.destinationNodes = Collections.unmodifiableSet(new TreeSet<>(destinationNodes));
+            this.destinationPorts = Collections.unmodifiableSet(new TreeSet<>(destinationPorts));
+        }
+
+        /**
+         * @return the destination nodes of the traffic or an empty set for all of the nodes
+         */
+        Set<String> getDestinationNodes() {
+            return destinationNodes;
+        }
+
+        /**
+         * @return the destination ports of the traffic or an empty set for all of the ports
+         */
+        Set<Integer> getDestinationPorts() {
+            return destinationPorts;
+        }
+
+        /**
+         * @return true if the scope includes all of the traffic, otherwise false
+         */
+        boolean isGlobal() {
+            return destinationNodes.isEmpty() && destinationPorts.isEmpty();
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Scope scope = (Scope) o;
+            return destinationNodes.equals(scope.destinationNodes) && destinationPorts.equals(scope.destinationPorts);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(destinationNodes, destinationPorts);
+        }
+
+        @Override public String toString() {
+            StringJoiner scopeString = new StringJoiner(" ");
+            if (!destinationNodes.isEmpty()) {
+                scopeString.add("to nodes " + destinationNodes);
+            }
+            if (!destinationPorts.isEmpty()) {
+                scopeString.add("to ports " + destinationPorts);
+            }
+            return scopeString.toString();
+        }
+    }
+
     /**
      * This class contains configuration for imposing a network delay in a node
      */
@@ -78,11 +287,20 @@ public abstract class NetOp {
          * @param builder a network delay configuration builder instance
          */
         protected Delay(Builder builder) {
+            super(builder);
             distribution = builder.distribution;
             delay = builder.delay;
             jitter = builder.jitter;
         }
 
+        int getDelay() {
+            return delay;
+        }
+
+        Integer getJitter() {
+            return jitter;
+        }
+
         /**
          * @return the netem string to be added to tc command for the operation
          */
@@ -102,6 +320,10 @@ public abstract class NetOp {
             return netem.toString();
         }
 
+        @Override Kind getKind() {
+            return Kind.DELAY;
+        }
+
         @Override public String toString() {
             StringJoiner delayString = new StringJoiner(", ");
             delayString.add(String.valueOf(delay));
@@ -113,7 +335,7 @@ public abstract class NetOp {
                 }
             }
 
-            return "network delay (" + delayString.toString() + ")";
+            return "network delay (" + delayString.toString() + ")" + getScopeString();
         }
 
         /**
@@ -155,6 +377,10 @@ public abstract class NetOp {
                 return this;
             }
 
+            @Override protected Builder self() {
+                return this;
+            }
+
             /**
              * Builds the network delay configuration object
              * @return the build object
@@ -176,8 +402,24 @@ public abstract class NetOp {
             return "";
         }
 
+        /**
+         * Constructor
+         * @param builder a remove network delay builder instance
+         */
+        protected RemoveDelay(Builder builder) {
+            super(builder);
+        }
+
+        @Override Kind getKind() {
+            return Kind.DELAY;
+        }
+
+        @Override boolean isRemoval() {
+            return true;
+        }
+
         @Override public String toString() {
-            return "remove network delay";
+            return "remove network delay" + getScopeString();
         }
 
         /**
@@ -185,8 +427,12 @@ public abstract class NetOp {
          */
         public static class Builder extends BuilderBase<RemoveDelay, Builder> {
 
+            @Override protected Builder self() {
+                return this;
+            }
+
             @Override protected RemoveDelay build() {
-                return new RemoveDelay();
+                return new RemoveDelay(this);
             }
         }
     }
@@ -202,18 +448,23 @@ public abstract class NetOp {
          * @param builder a network loss configuration builder instance
          */
         protected Loss(Builder builder) {
+            super(builder);
             percentage = builder.percentage;
         }
 
+        @Override Kind getKind() {
+            return Kind.LOSS;
+        }
+
         @Override public String toString() {
-            return "network loss (" + percentage + "%)";
+            return "network loss (" + percentage + "%)" + getScopeString();
         }
 
         /**
          * @return the netem string to be added to tc command for the operation
          */
         @Override String getNetemString() {
-            return "loss " + percentage;
+            return "loss " + percentage + "%";
         }
 
         /**
@@ -230,6 +481,10 @@ public abstract class NetOp {
                 this.percentage = percentage;
             }
 
+            @Override protected Builder self() {
+                return this;
+            }
+
             /**
              * Builds the network loss configuration object
              * @return the build object
@@ -251,8 +506,24 @@ public abstract class NetOp {
             return "";
         }
 
+        /**
+         * Constructor
+         * @param builder a remove network loss builder instance
+         */
+        protected RemoveLoss(Builder builder) {
+            super(builder);
+        }
+
+        @Override Kind getKind() {
+            return Kind.LOSS;
+        }
+
+        @Override boolean isRemoval() {
+            return true;
+        }
+
         @Override public String toString() {
-            return "remove network loss";
+            return "remove network loss" + getScopeString();
         }
 
         /**
@@ -260,10 +531,489 @@ public abstract class NetOp {
          */
         public static class Builder extends BuilderBase<RemoveLoss, Builder> {
 
+            @Override protected Builder self() {
+                return this;
+            }
+
             @Override protected RemoveLoss build() {
-                return new RemoveLoss();
+                return new RemoveLoss(this);
             }
         }
     }
-}
 
+    /**
+     * This class contains configuration for imposing a network bandwidth limit in a node
+     */
+    public static class Bandwidth extends NetOp {
+        private final int rate;
+        private final int burst;
+        private final int latency;
+
+        /**
+         * Constructor
+         * @param builder a network bandwidth limit configuration builder instance
+         */
+        protected Bandwidth(Builder builder) {
+            super(builder);
+            rate = builder.rate;
+            burst = builder.burst != null ? builder.burst : (int) Math.min(Builder.MAX_BURST,
+                    Math.max(Builder.MIN_BURST, rate * 1000L / 8 / 100));
+            latency = builder.latency;
+        }
+
+        int getRate() {
+            return rate;
+        }
+
+        int getBurst() {
+            return burst;
+        }
+
+        @Override Kind getKind() {
+            return Kind.BANDWIDTH;
+        }
+
+        @Override public String toString() {
+            return "network bandwidth (" + rate + "kbit, " + burst + "b, " + latency + "ms)" + getScopeString();
+        }
+
+        /**
+         * @return the netem string to be added to tc command for the operation. The bandwidth limit is not applied
+         * using netem
+         */
+        @Override String getNetemString() {
+            return "";
+        }
+
+        /**
+         * @return the tbf string to be added to tc command for the operation
+         */
+        String getTbfString() {
+            return "rate " + rate + "kbit burst " + burst + " latency " + latency + "ms";
+        }
+
+        /**
+         * The builder class for building a network bandwidth limit configuration
+         */
+        public static class Builder extends BuilderBase<Bandwidth, Builder> {
+            private final static int MIN_BURST = 1600; // a bucket smaller than the mtu blocks the traffic
+            private final static int MAX_BURST = Integer.MAX_VALUE;
+            private final static int DEFAULT_LATENCY = 50;
+            private final int rate;
+            private Integer burst;
+            private int latency;
+
+            /**
+             * Constructor
+             * @param rate the maximum bandwidth in kbit/s
+             */
+            protected Builder(int rate) {
+                this.rate = rate;
+                latency = DEFAULT_LATENCY;
+            }
+
+            /**
+             * Sets the size of the bucket which is the amount of bytes that can be sent at once at the full speed of the
+             * interface. If not specified, the default is the amount of bytes to be sent in 10ms with the given rate
+             * with a minimum of 1600 bytes
+             * @param bytes the size of the bucket in bytes
+             * @return current builder instance
+             */
+            public Builder burst(int bytes) {
+                burst = bytes;
+                return this;
+            }
+
+            /**
+             * Sets the maximum amount of time a packet can wait to be sent before being dropped. If not specified, the
+             * default is 50ms
+             * @param latency the maximum latency in milliseconds
+             * @return current builder instance
+             */
+            public Builder latency(int latency) {
+                this.latency = latency;
+                return this;
+            }
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            /**
+             * Builds the network bandwidth limit configuration object
+             * @return the build object
+             */
+            @Override protected Bandwidth build() {
+                if (rate <= 0) {
+                    throw new RuntimeException("The bandwidth rate should be positive!");
+                }
+                if (burst != null && burst <= 0) {
+                    throw new RuntimeException("The bandwidth burst should be positive!");
+                }
+                if (latency <= 0) {
+                    throw new RuntimeException("The bandwidth latency should be positive!");
+                }
+                return new Bandwidth(this);
+            }
+        }
+    }
+
+    /**
+     * This class represents a remove network bandwidth network operation
+     */
+    public static class RemoveBandwidth extends NetOp {
+        /**
+         * @return the netem string to be added to tc command for the operation
+         */
+        @Override String getNetemString() {
+            return "";
+        }
+
+        /**
+         * Constructor
+         * @param builder a remove network bandwidth builder instance
+         */
+        protected RemoveBandwidth(Builder builder) {
+            super(builder);
+        }
+
+        @Override Kind getKind() {
+            return Kind.BANDWIDTH;
+        }
+
+        @Override boolean isRemoval() {
+            return true;
+        }
+
+        @Override public String toString() {
+            return "remove network bandwidth" + getScopeString();
+        }
+
+        /**
+         * The builder class for building a remove network bandwidth instance
+         */
+        public static class Builder extends BuilderBase<RemoveBandwidth, Builder> {
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            @Override protected RemoveBandwidth build() {
+                return new RemoveBandwidth(this);
+            }
+        }
+    }
+
+    /**
+     * This is the base class of the network operations which affect a percentage of the packets with an optional
+     * correlation between the decisions made for consecutive packets e.g. {@link Reorder}
+     */
+    public abstract static class PercentageOp extends NetOp {
+        private final Kind kind;
+        private final String netemKeyword;
+        private final String description;
+        private final int percentage;
+        private final Integer correlation;
+
+        /**
+         * Constructor
+         * @param builder a percentage operation configuration builder instance
+         * @param kind the kind of the operation
+         * @param netemKeyword the netem option of the operation
+         * @param description the description of the operation to be used in the messages
+         */
+        protected PercentageOp(PercentageBuilder<?, ?> builder, Kind kind, String netemKeyword, String description) {
+            super(builder);
+            if (builder.percentage < 0 || builder.percentage > 100) {
+                throw new RuntimeException("The " + description + " percentage should be between 0 and 100!");
+            }
+            if (builder.correlation != null && (builder.correlation < 0 || builder.correlation > 100)) {
+                throw new RuntimeException("The " + description + " correlation should be between 0 and 100!");
+            }
+            this.kind = kind;
+            this.netemKeyword = netemKeyword;
+            this.description = description;
+            percentage = builder.percentage;
+            correlation = builder.correlation;
+        }
+
+        @Override Kind getKind() {
+            return kind;
+        }
+
+        @Override public String toString() {
+            return description + " (" + percentage + "%" + (correlation == null ? "" : ", " + correlation + "%") + ")"
+                    + getScopeString();
+        }
+
+        /**
+         * @return the netem string to be added to tc command for the operation
+         */
+        @Override String getNetemString() {
+            return netemKeyword + " " + percentage + "%" + (correlation == null ? "" : " " + correlation + "%");
+        }
+
+        /**
+         * This is the base builder class for a percentage operation configuration builder
+         * @param <S> this is the class that builder is supposed to build
+         * @param <T> this is child builder class
+         */
+        public abstract static class PercentageBuilder<S extends PercentageOp, T extends PercentageBuilder<S, T>>
+                extends BuilderBase<S, T> {
+            private final int percentage;
+            private Integer correlation;
+
+            /**
+             * Constructor
+             * @param percentage the percentage of the packets to be affected
+             */
+            protected PercentageBuilder(int percentage) {
+                this.percentage = percentage;
+            }
+
+            /**
+             * Sets the correlation of the decision made for each packet with the previous packet
+             * @param percentage the correlation percentage
+             * @return current builder instance
+             */
+            public T correlation(int percentage) {
+                correlation = percentage;
+                return self();
+            }
+        }
+    }
+
+    /**
+     * This is the base class of the operations which remove a {@link PercentageOp}
+     */
+    public abstract static class RemovePercentageOp extends NetOp {
+        private final Kind kind;
+        private final String description;
+
+        /**
+         * Constructor
+         * @param builder a remove operation builder instance
+         * @param kind the kind of the operation to be removed
+         * @param description the description of the operation to be removed
+         */
+        protected RemovePercentageOp(BuilderBase<?, ?> builder, Kind kind, String description) {
+            super(builder);
+            this.kind = kind;
+            this.description = description;
+        }
+
+        /**
+         * @return the netem string to be added to tc command for the operation
+         */
+        @Override String getNetemString() {
+            return "";
+        }
+
+        @Override Kind getKind() {
+            return kind;
+        }
+
+        @Override boolean isRemoval() {
+            return true;
+        }
+
+        @Override public String toString() {
+            return "remove " + description + getScopeString();
+        }
+    }
+
+    /**
+     * This class contains configuration for imposing packet reordering in a node
+     */
+    public static class Reorder extends PercentageOp {
+        /**
+         * Constructor
+         * @param builder a packet reordering configuration builder instance
+         */
+        protected Reorder(Builder builder) {
+            super(builder, Kind.REORDER, "reorder", "packet reordering");
+        }
+
+        /**
+         * The builder class for building a packet reordering configuration
+         */
+        public static class Builder extends PercentageBuilder<Reorder, Builder> {
+            /**
+             * Constructor
+             * @param percentage the percentage of the packets to be sent immediately
+             */
+            protected Builder(int percentage) {
+                super(percentage);
+            }
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            /**
+             * Builds the packet reordering configuration object
+             * @return the build object
+             */
+            @Override protected Reorder build() {
+                return new Reorder(this);
+            }
+        }
+    }
+
+    /**
+     * This class represents a remove packet reordering network operation
+     */
+    public static class RemoveReorder extends RemovePercentageOp {
+        /**
+         * Constructor
+         * @param builder a remove packet reordering builder instance
+         */
+        protected RemoveReorder(Builder builder) {
+            super(builder, Kind.REORDER, "packet reordering");
+        }
+
+        /**
+         * The builder class for building a remove packet reordering instance
+         */
+        public static class Builder extends BuilderBase<RemoveReorder, Builder> {
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            @Override protected RemoveReorder build() {
+                return new RemoveReorder(this);
+            }
+        }
+    }
+
+    /**
+     * This class contains configuration for imposing packet duplication in a node
+     */
+    public static class Duplicate extends PercentageOp {
+        /**
+         * Constructor
+         * @param builder a packet duplication configuration builder instance
+         */
+        protected Duplicate(Builder builder) {
+            super(builder, Kind.DUPLICATE, "duplicate", "packet duplication");
+        }
+
+        /**
+         * The builder class for building a packet duplication configuration
+         */
+        public static class Builder extends PercentageBuilder<Duplicate, Builder> {
+            /**
+             * Constructor
+             * @param percentage the percentage of the packets to be duplicated
+             */
+            protected Builder(int percentage) {
+                super(percentage);
+            }
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            /**
+             * Builds the packet duplication configuration object
+             * @return the build object
+             */
+            @Override protected Duplicate build() {
+                return new Duplicate(this);
+            }
+        }
+    }
+
+    /**
+     * This class represents a remove packet duplication network operation
+     */
+    public static class RemoveDuplicate extends RemovePercentageOp {
+        /**
+         * Constructor
+         * @param builder a remove packet duplication builder instance
+         */
+        protected RemoveDuplicate(Builder builder) {
+            super(builder, Kind.DUPLICATE, "packet duplication");
+        }
+
+        /**
+         * The builder class for building a remove packet duplication instance
+         */
+        public static class Builder extends BuilderBase<RemoveDuplicate, Builder> {
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            @Override protected RemoveDuplicate build() {
+                return new RemoveDuplicate(this);
+            }
+        }
+    }
+
+    /**
+     * This class contains configuration for imposing packet corruption in a node
+     */
+    public static class Corrupt extends PercentageOp {
+        /**
+         * Constructor
+         * @param builder a packet corruption configuration builder instance
+         */
+        protected Corrupt(Builder builder) {
+            super(builder, Kind.CORRUPT, "corrupt", "packet corruption");
+        }
+
+        /**
+         * The builder class for building a packet corruption configuration
+         */
+        public static class Builder extends PercentageBuilder<Corrupt, Builder> {
+            /**
+             * Constructor
+             * @param percentage the percentage of the packets to have a random bit error
+             */
+            protected Builder(int percentage) {
+                super(percentage);
+            }
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            /**
+             * Builds the packet corruption configuration object
+             * @return the build object
+             */
+            @Override protected Corrupt build() {
+                return new Corrupt(this);
+            }
+        }
+    }
+
+    /**
+     * This class represents a remove packet corruption network operation
+     */
+    public static class RemoveCorrupt extends RemovePercentageOp {
+        /**
+         * Constructor
+         * @param builder a remove packet corruption builder instance
+         */
+        protected RemoveCorrupt(Builder builder) {
+            super(builder, Kind.CORRUPT, "packet corruption");
+        }
+
+        /**
+         * The builder class for building a remove packet corruption instance
+         */
+        public static class Builder extends BuilderBase<RemoveCorrupt, Builder> {
+
+            @Override protected Builder self() {
+                return this;
+            }
+
+            @Override protected RemoveCorrupt build() {
+                return new RemoveCorrupt(this);
+            }
+        }
+    }
+}
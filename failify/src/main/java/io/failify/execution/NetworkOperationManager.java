@@ -1,96 +1,322 @@
 package io.failify.execution;
 
+import io.failify.exceptions.NodeNotFoundException;
 import io.failify.exceptions.RuntimeEngineException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 public class NetworkOperationManager {
     private final static Logger logger = LoggerFactory.getLogger(NetworkOperationManager.class);
-    private final Map<String, NetOp.Delay> netDelayMap;
-    private final Map<String, NetOp.Loss> netLossMap;
+    private final static int MAX_PRIO_BANDS = 16; // the maximum number of bands supported by the prio qdisc
+    // The root qdiscs get a new handle out of this range on each change, so replacing them always swaps the whole tree.
+    // The handles of the child qdiscs are below this range
+    private final static int ROOT_HANDLE_BASE = 0x1000;
+    private final static int ROOT_HANDLE_COUNT = 0x1000;
+    // node -> scope -> kind -> operation
+    private final Map<String, Map<NetOp.Scope, Map<NetOp.Kind, NetOp>>> netOpMap;
+    private final Map<String, List<String>> interfaceMap;
+    private final Map<String, Integer> rootHandleMap; // node -> the last root qdisc handle applied or attempted
+    private final Set<String> unknownStateNodes; // the nodes whose qdiscs may not match their network operations
     private final LimitedRuntimeEngine runtimeEngine;
     private final static String IFACE_LIST_COMMAND = "ip -o link | sed 's/[0-9]*: \\([A-Za-z0-9@\\-]*\\):.*/\\1/; s/@.*//;"
             + " /^\\(lo\\|\\)$/d'";
 
     public NetworkOperationManager(LimitedRuntimeEngine runtimeEngine) {
-        netDelayMap = new HashMap<>();
-        netLossMap = new HashMap<>();
+        netOpMap = new HashMap<>();
+        interfaceMap = new HashMap<>();
+        rootHandleMap = new HashMap<>();
+        unknownStateNodes = new HashSet<>();
         this.runtimeEngine = runtimeEngine;
     }
 
-    public void reApplyNetworkOperations(String nodeName) throws RuntimeEngineException {
-        NetOp netDelay = netDelayMap.get(nodeName);
-        NetOp netLoss = netLossMap.get(nodeName);
-        netDelayMap.remove(nodeName);
-        netLossMap.remove(nodeName);
+    /**
+     * Drops the cached network interfaces of a node. This should be called whenever the node's container is started or
+     * restarted as its interfaces may have changed
+     * @param nodeName the node to drop the interfaces of
+     */
+    public synchronized void invalidateInterfaces(String nodeName) {
+        interfaceMap.remove(nodeName);
+    }
+
+    public synchronized void reApplyNetworkOperations(String nodeName) throws RuntimeEngineException {
+        if (netOpMap.getOrDefault(nodeName, Collections.emptyMap()).isEmpty()) {
+            return;
+        }
 
         try {
-            networkOperation(nodeName, netDelay);
-            networkOperation(nodeName, netLoss);
+            applyTcCommand(nodeName, netOpMap.get(nodeName), "re-applying network operations");
         } catch (RuntimeEngineException e) {
             throw new RuntimeEngineException("Error while re-applying tc rules on node " + nodeName, e);
         }
     }
 
-    public void networkOperation(String nodeName, NetOp netOp) throws RuntimeEngineException {
-        if (nodeName == null || netOp == null) return;
-
-        String command = "";
-        StringBuilder addCommand = new StringBuilder(IFACE_LIST_COMMAND +
-                " | xargs -I % sh -c 'tc qdisc replace dev % root netem ");
-        String removeCommand = IFACE_LIST_COMMAND + " | xargs -I % sh -c 'tc qdisc del dev % root";
-        if (netOp instanceof NetOp.Delay) {
-            if (netLossMap.containsKey(nodeName)) {
-                addCommand.append(netOp.getNetemString());
-                addCommand.append(" ");
-                addCommand.append(netLossMap.get(nodeName).getNetemString());
-            } else {
-                addCommand.append(netOp.getNetemString());
+    /**
+     * Applies a sequence of network operations on a node. The operations are folded into the node's current network
+     * operations in the given order and the result is applied in one go. If applying the result fails, the node's
+     * network operations are left unchanged
+     * @param nodeName the node to apply the network operations on
+     * @param netOps the network operations to be applied
+     * @throws RuntimeEngineException if a destination node is not found or something goes wrong in applying the result
+     */
+    public synchronized void networkOperation(String nodeName, NetOp... netOps) throws RuntimeEngineException {
+        if (nodeName == null || netOps.length == 0) return;
+
+        for (NetOp netOp: netOps) {
+            for (String destinationNode: netOp.getScope().getDestinationNodes()) {
+                if (runtimeEngine.ip(destinationNode) == null) {
+                    throw new NodeNotFoundException(destinationNode);
+                }
             }
-            command = addCommand.toString();
-            netDelayMap.put(nodeName, (NetOp.Delay) netOp);
-        } else if (netOp instanceof NetOp.RemoveDelay) {
-            if (!netDelayMap.containsKey(nodeName)) return;
-            if (netLossMap.containsKey(nodeName)) {
-                addCommand.append(netLossMap.get(nodeName).getNetemString());
-                command = addCommand.toString();
+        }
+
+        Map<NetOp.Scope, Map<NetOp.Kind, NetOp>> nodeOps = new HashMap<>();
+        for (Map.Entry<NetOp.Scope, Map<NetOp.Kind, NetOp>> entry:
+                netOpMap.getOrDefault(nodeName, Collections.emptyMap()).entrySet()) {
+            nodeOps.put(entry.getKey(), new EnumMap<>(entry.getValue()));
+        }
+        for (NetOp netOp: netOps) {
+            if (netOp.isRemoval()) {
+                Map<NetOp.Kind, NetOp> scopeOps = nodeOps.get(netOp.getScope());
+                if (scopeOps != null) {
+                    scopeOps.remove(netOp.getKind());
+                    if (scopeOps.isEmpty()) {
+                        nodeOps.remove(netOp.getScope());
+                    }
+                }
             } else {
-                command = removeCommand;
+                nodeOps.computeIfAbsent(netOp.getScope(), k -> new EnumMap<>(NetOp.Kind.class))
+                        .put(netOp.getKind(), netOp);
             }
-            netDelayMap.remove(nodeName);
-        } else if (netOp instanceof NetOp.Loss) {
-            if (netDelayMap.containsKey(nodeName)) {
-                addCommand.append(netDelayMap.get(nodeName).getNetemString());
-                addCommand.append(" ");
-                addCommand.append(netOp.getNetemString());
-            } else {
-                addCommand.append(netOp.getNetemString());
+        }
+
+        Map<NetOp.Scope, Map<NetOp.Kind, NetOp>> currentOps = netOpMap.getOrDefault(nodeName, Collections.emptyMap());
+        if (nodeOps.equals(currentOps) && !unknownStateNodes.contains(nodeName)) {
+            logger.info("Network operations {} cause no change on node {}", Arrays.toString(netOps), nodeName);
+            return;
+        }
+
+        // The new state is only kept if it can be applied. Otherwise, the current state is applied again in case the
+        // failed command has partially changed the node's qdiscs
+        try {
+            applyTcCommand(nodeName, nodeOps, "network operations " + Arrays.toString(netOps));
+        } catch (RuntimeEngineException e) {
+            try {
+                applyTcCommand(nodeName, currentOps, "the current network operations");
+            } catch (RuntimeEngineException restoreException) {
+                logger.warn("Error while restoring the network operations of node {}", nodeName, restoreException);
             }
-            command = addCommand.toString();
-            netLossMap.put(nodeName, (NetOp.Loss)netOp);
-        } else if (netOp instanceof NetOp.RemoveLoss) {
-            if (!netLossMap.containsKey(nodeName)) return;
-            if (netDelayMap.containsKey(nodeName)) {
-                addCommand.append(netDelayMap.get(nodeName).getNetemString());
-                command = addCommand.toString();
-            } else {
-                command = removeCommand;
+            throw e;
+        }
+        netOpMap.put(nodeName, nodeOps);
+    }
+
+    /**
+     * Applies the network operations of a node on all of its interfaces. The first command of each interface replaces
+     * the root qdisc with a new tree under a new handle, so the traffic is never left unshaped while the change is
+     * being applied. The root qdisc of an interface is only deleted if the node has no network operation. If the
+     * command fails, the node is marked to have an unknown state until a command succeeds
+     */
+    private void applyTcCommand(String nodeName, Map<NetOp.Scope, Map<NetOp.Kind, NetOp>> nodeOps,
+                                String description) throws RuntimeEngineException {
+        List<String> interfaces = getInterfaces(nodeName);
+        if (interfaces.isEmpty()) {
+            logger.warn("Node {} has no network interface to apply the network operations on!", nodeName);
+            return;
+        }
+
+        int rootHandleIndex = (rootHandleMap.getOrDefault(nodeName, -1) + 1) % ROOT_HANDLE_COUNT;
+        String rootHandle = Integer.toHexString(ROOT_HANDLE_BASE + rootHandleIndex);
+        StringJoiner deleteCommands = new StringJoiner(" ");
+        StringJoiner batchCommands = new StringJoiner(" ");
+        for (String iface: interfaces) {
+            List<String> ifaceCommands = generateTcCommands(nodeName, nodeOps, iface, rootHandle);
+            if (ifaceCommands.isEmpty()) {
+                // The interface may have no root qdisc to delete
+                deleteCommands.add("tc qdisc del dev " + iface + " root 2>/dev/null || true;");
+            }
+            for (String batchCommand: ifaceCommands) {
+                batchCommands.add("'" + batchCommand + "'");
             }
-            netLossMap.remove(nodeName);
         }
 
-        command += "'";
+        // All of the changes are applied by a single tc process
+        String command = (deleteCommands + (batchCommands.length() == 0 ? " true"
+                : " printf '%s\\n' " + batchCommands + " | tc -batch -")).trim();
 
-        logger.info("Applying network operation " + netOp + " on node " + nodeName);
+        logger.info("Applying " + description + " on node " + nodeName);
 
+        rootHandleMap.put(nodeName, rootHandleIndex);
+        unknownStateNodes.add(nodeName);
         CommandResults commandResults = runtimeEngine.runCommandInNode(nodeName, command);
         if (commandResults.exitCode() != 0) {
             throw new RuntimeEngineException("Error while applying tc rules on node " + nodeName + "! command: "
                     + command + " exit code: " + commandResults.exitCode() + " out: "
                     + commandResults.stdOut() + " err: " + commandResults.stdErr());
         }
+        unknownStateNodes.remove(nodeName);
+    }
+
+    // The interfaces are discovered once per container start
+    private List<String> getInterfaces(String nodeName) throws RuntimeEngineException {
+        List<String> interfaces = interfaceMap.get(nodeName);
+        if (interfaces != null) {
+            return interfaces;
+        }
+
+        CommandResults commandResults = runtimeEngine.runCommandInNode(nodeName, IFACE_LIST_COMMAND);
+        if (commandResults.exitCode() != 0) {
+            throw new RuntimeEngineException("Error while listing the network interfaces of node " + nodeName
+                    + "! exit code: " + commandResults.exitCode() + " err: " + commandResults.stdErr());
+        }
+
+        interfaces = new ArrayList<>();
+        for (String iface: commandResults.stdOut().split("\\s+")) {
+            if (!iface.isEmpty()) {
+                interfaces.add(iface);
+            }
+        }
+        interfaceMap.put(nodeName, interfaces);
+        return interfaces;
+    }
+
+    /**
+     * Generates the tc commands for the current network operations of a node. If there is no scoped operation, the
+     * operations are applied on the root qdisc. Otherwise, a prio qdisc with a band for each scope is set as the root
+     * qdisc. The scoped traffic is classified into the bands using u32 filters on the destination ip address and port,
+     * and the rest of the traffic goes to the first band.
+     * @param nodeName the node to generate the commands for
+     * @param nodeOps the network operations of the node
+     * @param iface the interface to generate the commands for
+     * @param rootHandle the handle of the root qdisc which should differ from the current one
+     * @return the list of the tc batch commands starting with the replacement of the root qdisc or an empty list if
+     * the root qdisc should be deleted
+     * @throws RuntimeEngineException if there are too many scopes or the operations cannot be composed
+     */
+    private List<String> generateTcCommands(String nodeName, Map<NetOp.Scope, Map<NetOp.Kind, NetOp>> nodeOps,
+                                            String iface, String rootHandle) throws RuntimeEngineException {
+        List<String> commands = new ArrayList<>();
+
+        // The scopes are sorted to always have the same band for the same scope
+        Set<NetOp.Scope> scopes = new TreeSet<>(Comparator.comparing(NetOp.Scope::toString));
+        scopes.addAll(nodeOps.keySet());
+        boolean hasGlobalScope = scopes.remove(NetOp.Scope.GLOBAL);
+
+        if (scopes.isEmpty()) {
+            if (hasGlobalScope) {
+                commands.addAll(generateQdiscCommands(nodeName, nodeOps, NetOp.Scope.GLOBAL, iface, "root", rootHandle,
+                        "2"));
+            }
+            return commands;
+        }
+
+        if (scopes.size() + 1 > MAX_PRIO_BANDS) {
+            throw new RuntimeEngineException("Node " + nodeName + " cannot have network operations with more than "
+                    + (MAX_PRIO_BANDS - 1) + " different scopes!");
+        }
+
+        StringJoiner priomap = new StringJoiner(" ");
+        for (int i = 0; i < 16; i++) {
+            priomap.add("0");
+        }
+        commands.add("qdisc replace dev " + iface + " root handle " + rootHandle + ": prio bands " + (scopes.size() + 1)
+                + " priomap " + priomap);
+        if (hasGlobalScope) {
+            commands.addAll(generateQdiscCommands(nodeName, nodeOps, NetOp.Scope.GLOBAL, iface,
+                    "parent " + rootHandle + ":1", "11", "31"));
+        }
+
+        int band = 2;
+        for (NetOp.Scope scope: scopes) {
+            commands.addAll(generateQdiscCommands(nodeName, nodeOps, scope, iface, "parent " + rootHandle + ":" + band,
+                    String.valueOf(10 + band), String.valueOf(30 + band)));
+            for (String match: generateU32Matches(scope)) {
+                commands.add("filter add dev " + iface + " parent " + rootHandle + ": protocol ip prio 1 u32 " + match
+                        + " flowid " + rootHandle + ":" + band);
+            }
+            band++;
+        }
+
+        return commands;
+    }
+
+    /**
+     * Generates the commands to add the qdiscs of a scope. The netem options of the operations are composed into a
+     * netem qdisc and the bandwidth limit, if any, is applied by a tbf qdisc as the child of the netem qdisc
+     * @param nodeName the node to generate the commands for
+     * @param nodeOps the network operations of the node
+     * @param scope the scope to generate the commands for
+     * @param iface the interface to generate the commands for
+     * @param parent the parent of the first qdisc. The root qdisc is replaced and the others are added
+     * @param handle the handle of the first qdisc
+     * @param childHandle the handle of the tbf qdisc when it is a child of the netem qdisc
+     * @return the list of the tc batch commands
+     * @throws RuntimeEngineException if the operations cannot be composed
+     */
+    private List<String> generateQdiscCommands(String nodeName, Map<NetOp.Scope, Map<NetOp.Kind, NetOp>> nodeOps,
+                                               NetOp.Scope scope, String iface, String parent, String handle,
+                                               String childHandle) throws RuntimeEngineException {
+        Map<NetOp.Kind, NetOp> ops = composeOperations(nodeName, nodeOps, scope);
+        List<String> commands = new ArrayList<>();
+
+        StringJoiner netem = new StringJoiner(" ");
+        for (NetOp op: ops.values()) {
+            if (!op.getNetemString().isEmpty()) {
+                netem.add(op.getNetemString());
+            }
+        }
+        NetOp.Bandwidth bandwidth = (NetOp.Bandwidth) ops.get(NetOp.Kind.BANDWIDTH);
+
+        String qdiscCommand = parent.equals("root") ? "qdisc replace dev " : "qdisc add dev ";
+        if (netem.length() > 0) {
+            commands.add(qdiscCommand + iface + " " + parent + " handle " + handle + ": netem " + netem);
+            if (bandwidth != null) {
+                commands.add("qdisc add dev " + iface + " parent " + handle + ":1 handle " + childHandle + ": tbf "
+                        + bandwidth.getTbfString());
+            }
+        } else if (bandwidth != null) {
+            commands.add(qdiscCommand + iface + " " + parent + " handle " + handle + ": tbf "
+                    + bandwidth.getTbfString());
+        }
+
+        return commands;
+    }
+
+    // The operations of the global scope apply to scoped traffic unless an operation of the same kind overrides them
+    private Map<NetOp.Kind, NetOp> composeOperations(String nodeName, Map<NetOp.Scope, Map<NetOp.Kind, NetOp>> nodeOps,
+                                                     NetOp.Scope scope) throws RuntimeEngineException {
+        Map<NetOp.Kind, NetOp> ops = new EnumMap<>(NetOp.Kind.class);
+        ops.putAll(nodeOps.getOrDefault(NetOp.Scope.GLOBAL, Collections.emptyMap()));
+        ops.putAll(nodeOps.getOrDefault(scope, Collections.emptyMap()));
+
+        if (ops.containsKey(NetOp.Kind.REORDER) && !ops.containsKey(NetOp.Kind.DELAY)) {
+            throw new RuntimeEngineException("Packet reordering on node " + nodeName + (scope.isGlobal() ? "" : " "
+                    + scope) + " requires a network delay to be in place!");
+        }
+
+        return ops;
+    }
+
+    private List<String> generateU32Matches(NetOp.Scope scope) {
+        List<String> destinationMatches = new ArrayList<>();
+        for (String destinationNode: scope.getDestinationNodes()) {
+            destinationMatches.add("match ip dst " + runtimeEngine.ip(destinationNode) + "/32");
+        }
+        if (destinationMatches.isEmpty()) {
+            destinationMatches.add("");
+        }
+
+        List<String> matches = new ArrayList<>();
+        for (String destinationMatch: destinationMatches) {
+            if (scope.getDestinationPorts().isEmpty()) {
+                matches.add(destinationMatch);
+            } else {
+                for (Integer port: scope.getDestinationPorts()) {
+                    matches.add((destinationMatch + " match ip dport " + port + " 0xffff").trim());
+                }
+            }
+        }
+        return matches;
     }
 }
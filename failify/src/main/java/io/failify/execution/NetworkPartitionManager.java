@@ -1,17 +1,25 @@
 package io.failify.execution;
 
+import io.failify.Constants;
 import io.failify.dsl.entities.Node;
 import io.failify.exceptions.NodeIsNotRunningException;
 import io.failify.exceptions.RuntimeEngineException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class NetworkPartitionManager {
 
     private final static Logger logger = LoggerFactory.getLogger(NetworkPartitionManager.class);
+    // matches the counters of a rule in the iptables-save output e.g. [10:840] -A FAILIFY_DROP -s 10.0.0.2/32
+    private final static Pattern COUNTER_RULE_PATTERN = Pattern.compile(
+            "^\\[(\\d+):(\\d+)\\] -A (\\S+)(?: -[sd] ([0-9.]+)(?:/32)?)?(?: -j \\S+)?\\s*$");
     private final Object synchronizer;
 
     enum IpTablesCommand {
@@ -30,17 +38,51 @@ public class NetworkPartitionManager {
     }
 
     private final LimitedRuntimeEngine runtimeEngine;
-    private Map<String, Map<String, Integer>> blockedNodesMap;
+    private final ThreadPoolExecutor executorService;
+    private final List<String> nodeNames; // node index -> node name
+    private final Map<String, Integer> nodeIndexMap; // node name -> node index
+    private int[][] blockCounts; // [host index][blocked node index] -> number of partitions blocking the node in host
+    private final Map<String, Boolean> ipSetSupportMap; // host -> whether ipset can be used in the host
+    private final Map<String, Set<String>> accountedPeersMap; // host -> peers with accounting rules in the host
+    private final Set<String> accountingDisabledHosts; // hosts in which the accounting chains couldn't be installed
 
     public NetworkPartitionManager(LimitedRuntimeEngine runtimeEngine) {
         this.runtimeEngine = runtimeEngine;
-        blockedNodesMap = new HashMap<>();
         synchronizer = new Object();
+        nodeNames = new ArrayList<>();
+        nodeIndexMap = new HashMap<>();
+        ipSetSupportMap = new ConcurrentHashMap<>();
+        accountedPeersMap = new ConcurrentHashMap<>();
+        accountingDisabledHosts = ConcurrentHashMap.newKeySet();
+        blockCounts = new int[0][0];
+        // The blockage of different hosts are updated in parallel
+        executorService = new ThreadPoolExecutor(Constants.MAX_NETWORK_OPERATION_THREADS,
+                Constants.MAX_NETWORK_OPERATION_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "failify-network-partition");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executorService.allowCoreThreadTimeOut(true);
+
+        // indexes the nodes
+        for (String nodeName: new TreeSet<>(runtimeEngine.nodeNames())) {
+            indexNode(nodeName);
+        }
+    }
+
+    private void indexNode(String nodeName) {
+        if (nodeIndexMap.containsKey(nodeName)) {
+            return;
+        }
 
-        // initializes blocked nodes for each node
-        for (String nodeName: runtimeEngine.nodeNames()) {
-            blockedNodesMap.put(nodeName, new HashMap<>());
+        nodeIndexMap.put(nodeName, nodeNames.size());
+        nodeNames.add(nodeName);
+        int[][] newBlockCounts = new int[nodeNames.size()][nodeNames.size()];
+        for (int i = 0; i < blockCounts.length; i++) {
+            System.arraycopy(blockCounts[i], 0, newBlockCounts[i], 0, blockCounts[i].length);
         }
+        blockCounts = newBlockCounts;
     }
 
     private List<Set<String>> generateThePartitionsList(NetPart netPart) {
@@ -63,6 +105,46 @@ public class NetworkPartitionManager {
         return partitions;
     }
 
+    /**
+     * Calculates the nodes that should be blocked in each host based on the given partition scheme. A host in a
+     * partition blocks all of the nodes in another partition unless the other partition is connected to the host's
+     * partition
+     * @param netPart the partition scheme
+     * @return an array indexed by host index containing the indexes of the nodes to be blocked in that host or null if
+     * nothing should be blocked in the host
+     */
+    private BitSet[] calculateBlockedNodes(NetPart netPart) {
+        List<int[]> partitions = new ArrayList<>();
+        for (Set<String> partition: generateThePartitionsList(netPart)) {
+            partitions.add(partition.stream().filter(nodeIndexMap::containsKey).mapToInt(nodeIndexMap::get).toArray());
+        }
+
+        BitSet[] blockedNodes = new BitSet[nodeNames.size()];
+        for (int partNum1 = 0; partNum1 < partitions.size(); partNum1++) {
+            if (partitions.get(partNum1).length == 0) {
+                continue;
+            }
+            // The nodes in partition 1 are blocked in hosts of partition 2
+            BitSet partition1 = new BitSet(nodeNames.size());
+            for (int node: partitions.get(partNum1)) {
+                partition1.set(node);
+            }
+            Set<Integer> connections = netPart.getConnections().getOrDefault(partNum1, Collections.emptySet());
+            for (int partNum2 = 0; partNum2 < partitions.size(); partNum2++) {
+                if (partNum1 != partNum2 && !connections.contains(partNum2)) {
+                    for (int host: partitions.get(partNum2)) {
+                        if (blockedNodes[host] == null) {
+                            blockedNodes[host] = new BitSet(nodeNames.size());
+                        }
+                        blockedNodes[host].or(partition1);
+                    }
+                }
+            }
+        }
+
+        return blockedNodes;
+    }
+
     public void networkPartition(NetPart netPart) throws RuntimeEngineException {
         logger.info("Applying network partition {} ...", netPart.getPartitionsString());
         synchronized (synchronizer) {
@@ -79,126 +161,523 @@ public class NetworkPartitionManager {
 
     private void networkPartitionOpetation(NetPart netPart, boolean removePartition)
             throws RuntimeEngineException {
-        List<Set<String>> partitions = generateThePartitionsList(netPart);
+        BitSet[] blockedNodes = calculateBlockedNodes(netPart);
 
-        Map<String, Set<String>> tempBlockedMap = new HashMap<>();
+        // Only the transitions of block counts from/to zero need a change in the hosts
+        Map<String, BlockUpdate> hostUpdateMap = new HashMap<>();
+        for (int host = 0; host < blockedNodes.length; host++) {
+            if (blockedNodes[host] == null) {
+                continue;
+            }
+            if (removePartition && Arrays.stream(blockCounts[host]).allMatch(count -> count <= 0)) {
+                logger.warn("Node {} has no network blockage for nodes {} to be removed!", nodeNames.get(host),
+                        blockedNodes[host].stream().mapToObj(nodeNames::get).collect(Collectors.toSet()));
+                blockedNodes[host] = null;
+                continue;
+            }
 
-        for (int partNum1 = 0; partNum1 < partitions.size(); partNum1++) {
-            for (int partNum2 = 0; partNum2 < partitions.size(); partNum2++) {
-                if (partNum1 != partNum2 && !partitions.get(partNum1).isEmpty() &&
-                        !partitions.get(partNum2).isEmpty() &&
-                        !netPart.getConnections().getOrDefault(partNum1, new HashSet<>()).contains(partNum2)) {
-                    for (String node: partitions.get(partNum1)) {
-                        for (String blockedNode: partitions.get(partNum2)) {
-                            // Calculate what nodes have blocked the blocked node
-                            tempBlockedMap.computeIfAbsent(blockedNode, (k) -> new HashSet<>()).add(node);
-                        }
+            BlockUpdate blockUpdate = new BlockUpdate();
+            BitSet hostBlockedNodes = blockedNodes[host];
+            for (int node = hostBlockedNodes.nextSetBit(0); node >= 0; node = hostBlockedNodes.nextSetBit(node + 1)) {
+                if (removePartition) {
+                    if (blockCounts[host][node] == 1) {
+                        blockUpdate.removedNodes.add(nodeNames.get(node));
+                    } else if (blockCounts[host][node] <= 0) {
+                        logger.warn("Node {} has no network blockage for node {} to be removed!", nodeNames.get(host),
+                                nodeNames.get(node));
                     }
+                } else if (blockCounts[host][node] == 0) {
+                    blockUpdate.addedNodes.add(nodeNames.get(node));
                 }
             }
+            hostUpdateMap.put(nodeNames.get(host), blockUpdate);
         }
 
+        Map<String, RuntimeEngineException> failedHosts = executeBlockUpdates(hostUpdateMap);
 
-        for (String blockedNode: tempBlockedMap.keySet()) {
-            if (removePartition) {
-                removeIpTablesRules(blockedNode, tempBlockedMap.get(blockedNode));
-            } else {
-                addIpTablesRules(blockedNode, tempBlockedMap.get(blockedNode));
+        // Only the block counters of the hosts whose blockage is updated are changed
+        for (int host = 0; host < blockedNodes.length; host++) {
+            if (blockedNodes[host] == null || failedHosts.containsKey(nodeNames.get(host))) {
+                continue;
+            }
+            BitSet hostBlockedNodes = blockedNodes[host];
+            for (int node = hostBlockedNodes.nextSetBit(0); node >= 0; node = hostBlockedNodes.nextSetBit(node + 1)) {
+                if (removePartition) {
+                    blockCounts[host][node] = Math.max(0, blockCounts[host][node] - 1);
+                } else {
+                    blockCounts[host][node]++;
+                }
             }
         }
 
+        throwIfFailed(failedHosts);
     }
 
-    private Set<String> calculateBlockedNodesThatNeedRuleAddition(String host, Set<String> originalList) {
-        Set<String> finalList = new HashSet<>();
-        for (String node: originalList) {
-            if (blockedNodesMap.get(host).getOrDefault(node, 0) == 0) {
-                finalList.add(node);
+    public void transitionPartition(NetPart from, NetPart to) throws RuntimeEngineException {
+        logger.info("Transitioning network partition {} to {} ...", from == null ? "[]" : from.getPartitionsString(),
+                to == null ? "[]" : to.getPartitionsString());
+        synchronized (synchronizer) {
+            BitSet[] unblockedNodes = from == null ? new BitSet[nodeNames.size()] : calculateBlockedNodes(from);
+            BitSet[] blockedNodes = to == null ? new BitSet[nodeNames.size()] : calculateBlockedNodes(to);
+
+            // Calculates the new block counts of the affected hosts and the hosts whose blocked nodes actually change
+            Map<Integer, int[]> newBlockCountsMap = new HashMap<>();
+            Map<String, BlockUpdate> hostUpdateMap = new HashMap<>();
+            for (int host = 0; host < nodeNames.size(); host++) {
+                if (unblockedNodes[host] == null && blockedNodes[host] == null) {
+                    continue;
+                }
+
+                int[] newBlockCounts = blockCounts[host].clone();
+                if (unblockedNodes[host] != null) {
+                    BitSet hostUnblockedNodes = unblockedNodes[host];
+                    for (int node = hostUnblockedNodes.nextSetBit(0); node >= 0;
+                         node = hostUnblockedNodes.nextSetBit(node + 1)) {
+                        if (newBlockCounts[node] <= 0) {
+                            logger.warn("Node {} has no network blockage for node {} to be removed!",
+                                    nodeNames.get(host), nodeNames.get(node));
+                        } else {
+                            newBlockCounts[node]--;
+                        }
+                    }
+                }
+                if (blockedNodes[host] != null) {
+                    BitSet hostBlockedNodes = blockedNodes[host];
+                    for (int node = hostBlockedNodes.nextSetBit(0); node >= 0;
+                         node = hostBlockedNodes.nextSetBit(node + 1)) {
+                        newBlockCounts[node]++;
+                    }
+                }
+                newBlockCountsMap.put(host, newBlockCounts);
+
+                BlockUpdate blockUpdate = new BlockUpdate();
+                blockUpdate.blockedNodes = new HashSet<>();
+                for (int node = 0; node < newBlockCounts.length; node++) {
+                    if (newBlockCounts[node] > 0) {
+                        blockUpdate.blockedNodes.add(nodeNames.get(node));
+                        if (blockCounts[host][node] <= 0) {
+                            blockUpdate.addedNodes.add(nodeNames.get(node));
+                        }
+                    } else if (blockCounts[host][node] > 0) {
+                        blockUpdate.removedNodes.add(nodeNames.get(node));
+                    }
+                }
+                hostUpdateMap.put(nodeNames.get(host), blockUpdate);
+            }
+
+            Map<String, RuntimeEngineException> failedHosts = executeBlockUpdates(hostUpdateMap);
+
+            for (Map.Entry<Integer, int[]> newBlockCountsEntry: newBlockCountsMap.entrySet()) {
+                if (!failedHosts.containsKey(nodeNames.get(newBlockCountsEntry.getKey()))) {
+                    blockCounts[newBlockCountsEntry.getKey()] = newBlockCountsEntry.getValue();
+                }
             }
+
+            throwIfFailed(failedHosts);
+        }
+    }
+
+    // TODO this should add new iptables rules for already introduced network partitions
+    public void addNewNode(Node node) {
+        synchronized (synchronizer) {
+            indexNode(node.getName());
         }
+    }
+
+    // This is useful when start/restarting a node when a network partition is in place
+    public void reApplyNetworkPartition(String nodeName) throws RuntimeEngineException {
+        synchronized (synchronizer) {
+            Integer host = nodeIndexMap.get(nodeName);
+            if (host == null) {
+                return;
+            }
 
-        return finalList;
+            // The accounting chains are gone with the node's previous network namespace. They are installed again on
+            // the next network stats call
+            accountedPeersMap.remove(nodeName);
+            accountingDisabledHosts.remove(nodeName);
+
+            BlockUpdate blockUpdate = new BlockUpdate();
+            for (int node = 0; node < blockCounts[host].length; node++) {
+                if (blockCounts[host][node] > 0) {
+                    blockUpdate.addedNodes.add(nodeNames.get(node));
+                }
+            }
+            if (!blockUpdate.isEmpty()) {
+                executeBlockUpdate(nodeName, blockUpdate);
+            }
+        }
     }
 
-    private Set<String> calculateBlockedNodesThatNeedRuleRemoval(String host, Set<String> originalList) {
-        Set<String> finalList = new HashSet<>();
-        for (String node: originalList) {
-            if (blockedNodesMap.get(host).getOrDefault(node, 0) - 1 == 0) {
-                finalList.add(node);
-            } else if (blockedNodesMap.get(host).getOrDefault(node, 0) <= 0) {
-                logger.warn("Node {} has no network blockage for node {} to be removed!", host, node);
+    /**
+     * Applies the given blockage updates on all of the given hosts in parallel and waits for all of them to finish
+     * @param hostUpdateMap a map of hosts to the blockage updates to be applied on them
+     * @return a sorted map of the failed hosts to their failure
+     */
+    private Map<String, RuntimeEngineException> executeBlockUpdates(Map<String, BlockUpdate> hostUpdateMap) {
+        Map<String, RuntimeEngineException> failedHosts = new TreeMap<>();
+        Map<String, BlockUpdate> nonEmptyUpdateMap = hostUpdateMap.entrySet().stream()
+                .filter(entry -> !entry.getValue().isEmpty())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+        if (nonEmptyUpdateMap.size() == 1) {
+            // No need to go through the thread pool
+            Map.Entry<String, BlockUpdate> hostUpdate = nonEmptyUpdateMap.entrySet().iterator().next();
+            try {
+                executeBlockUpdate(hostUpdate.getKey(), hostUpdate.getValue());
+            } catch (RuntimeEngineException e) {
+                failedHosts.put(hostUpdate.getKey(), e);
+            }
+            return failedHosts;
+        }
+
+        Map<String, Future<?>> futureMap = new HashMap<>();
+        for (Map.Entry<String, BlockUpdate> hostUpdate: nonEmptyUpdateMap.entrySet()) {
+            futureMap.put(hostUpdate.getKey(), executorService.submit(() -> {
+                executeBlockUpdate(hostUpdate.getKey(), hostUpdate.getValue());
+                return null;
+            }));
+        }
+
+        for (Map.Entry<String, Future<?>> futureEntry: futureMap.entrySet()) {
+            try {
+                futureEntry.getValue().get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeEngineException) {
+                    failedHosts.put(futureEntry.getKey(), (RuntimeEngineException) e.getCause());
+                } else {
+                    failedHosts.put(futureEntry.getKey(), new RuntimeEngineException("Error while updating network"
+                            + " blockage of node " + futureEntry.getKey() + "!", e.getCause()));
+                }
+            } catch (InterruptedException e) {
+                failedHosts.put(futureEntry.getKey(), new RuntimeEngineException("Interrupted while updating network"
+                        + " blockage of node " + futureEntry.getKey() + "!", e));
             }
         }
 
-        return finalList;
+        return failedHosts;
+    }
+
+    private void throwIfFailed(Map<String, RuntimeEngineException> failedHosts) throws RuntimeEngineException {
+        if (failedHosts.isEmpty()) {
+            return;
+        }
+
+        Iterator<RuntimeEngineException> exceptionIterator = failedHosts.values().iterator();
+        RuntimeEngineException exception = exceptionIterator.next();
+        while (exceptionIterator.hasNext()) {
+            exception.addSuppressed(exceptionIterator.next());
+        }
+        throw exception;
+    }
+
+    /**
+     * Applies a blockage update on the host. If ipset is available in the host, the blocked nodes are kept in an ipset
+     * which is matched by a single iptables rule, and so the update only changes the set membership. If the update
+     * includes the complete set of blocked nodes, the set is rebuilt aside and swapped in atomically. Otherwise, one
+     * iptables rule per blocked node is added or deleted in one atomic iptables-restore transaction.
+     * @param host the node to apply the update on
+     * @param blockUpdate the nodes to be blocked and unblocked in the host
+     * @throws RuntimeEngineException if applying the update fails
+     */
+    private void executeBlockUpdate(String host, BlockUpdate blockUpdate) throws RuntimeEngineException {
+        try {
+            if (isIpSetSupported(host)) {
+                executeIpSetRestore(host, blockUpdate);
+            } else {
+                List<String> rules = new ArrayList<>();
+                rules.addAll(generateIpTablesBlockRules(host, IpTablesCommand.APPEND, blockUpdate.addedNodes));
+                rules.addAll(generateIpTablesBlockRules(host, IpTablesCommand.DELETE, blockUpdate.removedNodes));
+                executeIpTablesRestore(host, rules);
+            }
+        } catch (NodeIsNotRunningException e) {
+            logger.debug("Cannot apply network blockage rules on node {} because it is not running", host);
+        }
     }
 
-    private void addIpTablesRules(String host, Set<String> blockedNodes) throws RuntimeEngineException {
-        executeIpTablesBlockCommand(IpTablesCommand.APPEND, host,
-                calculateBlockedNodesThatNeedRuleAddition(host, blockedNodes));
+    private boolean isIpSetSupported(String host) throws RuntimeEngineException {
+        Boolean ipSetSupported = ipSetSupportMap.get(host);
+        if (ipSetSupported == null) {
+            CommandResults commandResults = runtimeEngine.runCommandInNode(host, "ipset -exist create "
+                    + Constants.BLOCKED_NODES_IPSET_NAME + " hash:ip");
+            ipSetSupported = commandResults.exitCode() == 0;
+            if (!ipSetSupported) {
+                logger.info("ipset is not available in node {}. Falling back to plain iptables rules!", host);
+            }
+            ipSetSupportMap.put(host, ipSetSupported);
+        }
+        return ipSetSupported;
+    }
 
-        for (String blockedNode : blockedNodes) {
-            blockedNodesMap.get(host).put(blockedNode, blockedNodesMap.get(host).getOrDefault(blockedNode, 0) + 1);
+    private List<String> generateIpTablesBlockRules(String host, IpTablesCommand command, Set<String> blockedNodes) {
+        List<String> rules = new ArrayList<>();
+        for (String blockedNode: blockedNodes) {
+            rules.add("-" + command.option() + " INPUT -s " + runtimeEngine.ip(blockedNode) + " -j " + dropTarget(host));
         }
+        return rules;
     }
 
-    private void removeIpTablesRules(String host, Set<String> blockedNodes) throws RuntimeEngineException {
-        if (!blockedNodesMap.get(host).isEmpty()) {
-            executeIpTablesBlockCommand(IpTablesCommand.DELETE, host,
-                    calculateBlockedNodesThatNeedRuleRemoval(host, blockedNodes));
+    // The blocked packets go through the counting drop chain, if installed, so their counters survive the partitions
+    private String dropTarget(String host) {
+        return accountedPeersMap.containsKey(host) ? Constants.ACCOUNTING_DROP_CHAIN_NAME : "DROP";
+    }
 
-            for (String blockedNode: blockedNodes) {
-                Integer currentBlockCounter = blockedNodesMap.get(host).getOrDefault(blockedNode, 0);
+    /**
+     * Makes sure the accounting chains of the host include all of the current peers. The input and output chains are
+     * jumped to at the beginning of the INPUT and OUTPUT chains and have a counting rule per peer and a final counting
+     * rule for all of the traffic. The drop chain is the target of the partition rules and has a counting rule per
+     * peer before dropping the packets. The partition rules applied before the chains are installed are moved to the
+     * drop chain. If the chains cannot be installed, the partitions drop the packets directly. The chains are only
+     * installed on demand as each install costs an iptables-restore in the node. This method should be called while
+     * holding the synchronizer so the partition rules don't change in the meantime.
+     * @param host the node to install the accounting chains in
+     * @throws RuntimeEngineException if the node is not running
+     */
+    private void ensureAccounting(String host) throws RuntimeEngineException {
+        if (accountingDisabledHosts.contains(host)) {
+            return;
+        }
 
-                if (currentBlockCounter == 1) {
-                    blockedNodesMap.get(host).remove(blockedNode);
-                } else if (currentBlockCounter > 1){
-                    blockedNodesMap.get(host).put(blockedNode, currentBlockCounter - 1);
-                }
+        Set<String> accountedPeers = accountedPeersMap.get(host);
+        Set<String> newPeers = new TreeSet<>();
+        for (String peer: runtimeEngine.nodeNames()) {
+            if (!peer.equals(host) && runtimeEngine.ip(peer) != null
+                    && (accountedPeers == null || !accountedPeers.contains(peer))) {
+                newPeers.add(peer);
             }
+        }
+        if (accountedPeers != null && newPeers.isEmpty()) {
+            return;
+        }
+
+        String inChain = Constants.ACCOUNTING_INPUT_CHAIN_NAME;
+        String outChain = Constants.ACCOUNTING_OUTPUT_CHAIN_NAME;
+        String dropChain = Constants.ACCOUNTING_DROP_CHAIN_NAME;
+        List<String> rules = new ArrayList<>();
+        String command;
+        if (accountedPeers == null) {
+            rules.add(":" + inChain + " - [0:0]");
+            rules.add(":" + outChain + " - [0:0]");
+            rules.add(":" + dropChain + " - [0:0]");
+            rules.add("-I INPUT 1 -j " + inChain);
+            rules.add("-I OUTPUT 1 -j " + outChain);
+            for (String peer: newPeers) {
+                rules.add("-A " + inChain + " -s " + runtimeEngine.ip(peer));
+                rules.add("-A " + outChain + " -d " + runtimeEngine.ip(peer));
+                rules.add("-A " + dropChain + " -s " + runtimeEngine.ip(peer));
+            }
+            rules.add("-A " + inChain);
+            rules.add("-A " + outChain);
+            rules.add("-A " + dropChain + " -j DROP");
+            // The jumps are removed first, in case the chains are already there, to not be duplicated
+            command = "iptables -D INPUT -j " + inChain + " 2>/dev/null; iptables -D OUTPUT -j " + outChain
+                    + " 2>/dev/null; ";
         } else {
-            logger.warn("Node {} has no network blockage for nodes {} to be removed!", host, blockedNodes);
+            for (String peer: newPeers) {
+                rules.add("-I " + inChain + " 1 -s " + runtimeEngine.ip(peer));
+                rules.add("-I " + outChain + " 1 -d " + runtimeEngine.ip(peer));
+                rules.add("-I " + dropChain + " 1 -s " + runtimeEngine.ip(peer));
+            }
+            command = "";
         }
-    }
 
-    // TODO this should add new iptables rules for already introduced network partitions
-    public void addNewNode(Node node) {
-        blockedNodesMap.put(node.getName(), new HashMap<>());
+        StringJoiner payload = new StringJoiner("\\n", "*filter\\n", "\\nCOMMIT\\n");
+        for (String rule: rules) {
+            payload.add(rule);
+        }
+        CommandResults commandResults = runtimeEngine.runCommandInNode(host, command + "printf '"
+                + payload.toString() + "' | iptables-restore --noflush");
+        if (commandResults.exitCode() != 0) {
+            logger.warn("Unable to install the network accounting chains in node {}. Network stats won't be"
+                    + " available for the node! err: {}", host, commandResults.stdErr());
+            accountingDisabledHosts.add(host);
+            return;
+        }
+
+        Set<String> peers = accountedPeers == null ? ConcurrentHashMap.newKeySet() : accountedPeers;
+        peers.addAll(newPeers);
+        accountedPeersMap.put(host, peers);
+
+        if (accountedPeers == null) {
+            moveBlockRulesToDropChain(host);
+        }
     }
 
-    // This is useful when start/restarting a node when a network partition is in place
-    public void reApplyNetworkPartition(String nodeName) throws RuntimeEngineException {
-        if (!blockedNodesMap.get(nodeName).isEmpty()) {
-            executeIpTablesBlockCommand(IpTablesCommand.APPEND, nodeName, blockedNodesMap.get(nodeName).keySet());
+    /**
+     * Replaces the partition rules of the host that drop the packets directly with rules that jump to the drop chain.
+     * The new rule is added before the old one is deleted so the blocked packets are never let through.
+     * @param host the node to move the partition rules of
+     * @throws RuntimeEngineException if the node is not running
+     */
+    private void moveBlockRulesToDropChain(String host) throws RuntimeEngineException {
+        List<String> matches = new ArrayList<>();
+        if (Boolean.TRUE.equals(ipSetSupportMap.get(host))) {
+            matches.add("INPUT -m set --match-set " + Constants.BLOCKED_NODES_IPSET_NAME + " src");
+        } else {
+            Integer hostIndex = nodeIndexMap.get(host);
+            for (int node = 0; hostIndex != null && node < blockCounts[hostIndex].length; node++) {
+                if (blockCounts[hostIndex][node] > 0) {
+                    matches.add("INPUT -s " + runtimeEngine.ip(nodeNames.get(node)));
+                }
+            }
+        }
+        if (matches.isEmpty()) {
+            return;
+        }
+
+        StringJoiner command = new StringJoiner("; ");
+        for (String match: matches) {
+            command.add("if iptables -C " + match + " -j DROP 2>/dev/null; then iptables -A " + match + " -j "
+                    + Constants.ACCOUNTING_DROP_CHAIN_NAME + " && iptables -D " + match + " -j DROP; fi");
+        }
+        CommandResults commandResults = runtimeEngine.runCommandInNode(host, command.toString());
+        if (commandResults.exitCode() != 0) {
+            logger.warn("Unable to move the network partition rules of node {} to the accounting drop chain. The"
+                    + " dropped packets may not be counted! err: {}", host, commandResults.stdErr());
         }
     }
 
-    private void executeIpTablesBlockCommand(IpTablesCommand command, String host, Set<String> blockedNodes)
-            throws RuntimeEngineException {
+    /**
+     * Reads the traffic counters of the host's accounting chains
+     * @param host the node to read the counters of
+     * @return the network stats of the host
+     * @throws RuntimeEngineException if the accounting chains are not available or reading the counters fails
+     */
+    public NetworkStats networkStats(String host) throws RuntimeEngineException {
+        synchronized (synchronizer) {
+            ensureAccounting(host);
+        }
+        if (accountingDisabledHosts.contains(host)) {
+            throw new RuntimeEngineException("Network accounting chains are not available in node " + host + "!");
+        }
+
+        Instant timestamp = Instant.now();
+        CommandResults commandResults = runtimeEngine.runCommandInNode(host, "iptables-save -c -t filter");
+        if (commandResults.exitCode() != 0) {
+            throw new RuntimeEngineException("Error while reading the network counters of node " + host
+                    + "! exit code: " + commandResults.exitCode() + " err: " + commandResults.stdErr());
+        }
+
+        Map<String, String> ipToPeerMap = new HashMap<>();
+        for (String peer: accountedPeersMap.getOrDefault(host, Collections.emptySet())) {
+            ipToPeerMap.put(runtimeEngine.ip(peer), peer);
+        }
+        // peer or * -> in bytes, in packets, out bytes, out packets, dropped bytes, dropped packets
+        Map<String, long[]> countersMap = new HashMap<>();
+        for (String line: commandResults.stdOut().split("\\n")) {
+            Matcher matcher = COUNTER_RULE_PATTERN.matcher(line.trim());
+            if (!matcher.matches()) {
+                continue;
+            }
+            int offset;
+            if (matcher.group(3).equals(Constants.ACCOUNTING_INPUT_CHAIN_NAME)) {
+                offset = 0;
+            } else if (matcher.group(3).equals(Constants.ACCOUNTING_OUTPUT_CHAIN_NAME)) {
+                offset = 2;
+            } else if (matcher.group(3).equals(Constants.ACCOUNTING_DROP_CHAIN_NAME)) {
+                offset = 4;
+            } else {
+                continue;
+            }
+            String peer = matcher.group(4) == null ? "*" : ipToPeerMap.get(matcher.group(4));
+            if (peer == null) {
+                continue;
+            }
+            long[] counters = countersMap.computeIfAbsent(peer, k -> new long[6]);
+            counters[offset] = Long.parseLong(matcher.group(2));
+            counters[offset + 1] = Long.parseLong(matcher.group(1));
+        }
+
+        Map<String, NetworkStats.PeerStats> peerStatsMap = new HashMap<>();
+        NetworkStats.PeerStats totalStats = new NetworkStats.PeerStats("*", 0, 0, 0, 0, 0, 0);
+        for (Map.Entry<String, long[]> countersEntry: countersMap.entrySet()) {
+            long[] counters = countersEntry.getValue();
+            NetworkStats.PeerStats peerStats = new NetworkStats.PeerStats(countersEntry.getKey(), counters[0],
+                    counters[1], counters[2], counters[3], counters[4], counters[5]);
+            if (countersEntry.getKey().equals("*")) {
+                totalStats = peerStats;
+            } else {
+                peerStatsMap.put(countersEntry.getKey(), peerStats);
+            }
+        }
 
-        if (blockedNodes.isEmpty()) {
+        return new NetworkStats(host, timestamp, peerStatsMap, totalStats);
+    }
+
+    /**
+     * Applies all of the given iptables rules on the host in one atomic iptables-restore transaction
+     * @param host the node to apply the rules on
+     * @param rules the iptables rules in iptables-save format e.g. -A INPUT -s 10.0.0.2 -j DROP
+     * @throws RuntimeEngineException if applying the rules fails
+     */
+    private void executeIpTablesRestore(String host, List<String> rules) throws RuntimeEngineException {
+        if (rules.isEmpty()) {
             return;
         }
 
-        StringJoiner sources = new StringJoiner(",");
+        StringJoiner payload = new StringJoiner("\\n", "*filter\\n", "\\nCOMMIT\\n");
+        for (String rule: rules) {
+            payload.add(rule);
+        }
 
-        for (String blockedNode: blockedNodes) {
-            sources.add(runtimeEngine.ip(blockedNode));
+        executeCommand(host, "printf '" + payload.toString() + "' | iptables-restore --noflush");
+    }
+
+    /**
+     * Updates the membership of the host's blocked nodes ipset and makes sure the set is matched by an iptables rule
+     * @param host the node to apply the update on
+     * @param blockUpdate the nodes to be added to and removed from the set
+     * @throws RuntimeEngineException if applying the update fails
+     */
+    private void executeIpSetRestore(String host, BlockUpdate blockUpdate) throws RuntimeEngineException {
+        String setName = Constants.BLOCKED_NODES_IPSET_NAME;
+        StringJoiner payload = new StringJoiner("\\n", "", "\\n");
+        payload.add("create " + setName + " hash:ip");
+        if (blockUpdate.blockedNodes != null) {
+            String tempSetName = setName + "_tmp";
+            payload.add("create " + tempSetName + " hash:ip");
+            payload.add("flush " + tempSetName);
+            for (String blockedNode: blockUpdate.blockedNodes) {
+                payload.add("add " + tempSetName + " " + runtimeEngine.ip(blockedNode));
+            }
+            payload.add("swap " + tempSetName + " " + setName);
+            payload.add("destroy " + tempSetName);
+        } else {
+            for (String addedNode: blockUpdate.addedNodes) {
+                payload.add("add " + setName + " " + runtimeEngine.ip(addedNode));
+            }
+            for (String removedNode: blockUpdate.removedNodes) {
+                payload.add("del " + setName + " " + runtimeEngine.ip(removedNode));
+            }
         }
 
-        String outputCommand = "iptables -" + command.option() + " INPUT -s " + sources.toString() + " -j DROP";
+        String rule = "INPUT -m set --match-set " + setName + " src -j " + dropTarget(host);
+        executeCommand(host, "printf '" + payload.toString() + "' | ipset restore -exist && (iptables -C " + rule
+                + " 2>/dev/null || iptables -A " + rule + ")");
+    }
+
+    private void executeCommand(String host, String command) throws RuntimeEngineException {
         try {
-            CommandResults commandResults = runtimeEngine.runCommandInNode(host, outputCommand);
+            CommandResults commandResults = runtimeEngine.runCommandInNode(host, command);
             if (commandResults.exitCode() != 0) {
-                throw new RuntimeEngineException("Error while adding iptables rules to node " + host + "! command: "
-                        + outputCommand + " exit code: " + commandResults.exitCode() + " out: "
+                throw new RuntimeEngineException("Error while applying network blockage rules to node " + host
+                        + "! command: " + command + " exit code: " + commandResults.exitCode() + " out: "
                         + commandResults.stdOut() + " err: " + commandResults.stdErr());
             }
         } catch (NodeIsNotRunningException e) {
-            logger.debug("Cannot apply network blockage rules on node {} because it is not running", host);
+            throw e;
         } catch (RuntimeEngineException e) {
-            throw new RuntimeEngineException("Error while adding iptables rules to node " + host + "!", e);
+            throw new RuntimeEngineException("Error while applying network blockage rules to node " + host + "!", e);
         }
     }
 
+    private static class BlockUpdate {
+        private final Set<String> addedNodes = new HashSet<>();
+        private final Set<String> removedNodes = new HashSet<>();
+        private Set<String> blockedNodes; // the complete set of blocked nodes after the update, if known
+
+        private boolean isEmpty() {
+            return addedNodes.isEmpty() && removedNodes.isEmpty();
+        }
+    }
 }
@@ -0,0 +1,210 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * This class represents the network traffic counters of a node at a specific point of time. The counters are taken from
+ * the node's iptables accounting chains and are cumulative since the node's container is started. The received
+ * traffic includes the packets which are dropped by network partitions.
+ */
+public class NetworkStats {
+    private final String nodeName; // the node name the stats are taken from
+    private final Instant timestamp; // the time the stats are taken
+    private final Map<String, PeerStats> peerStatsMap; // peer node name -> traffic counters of the peer
+    private final PeerStats totalStats; // the traffic counters of all of the traffic including non-peer traffic
+
+    public NetworkStats(String nodeName, Instant timestamp, Map<String, PeerStats> peerStatsMap, PeerStats totalStats) {
+        this.nodeName = nodeName;
+        this.timestamp = timestamp;
+        this.peerStatsMap = Collections.unmodifiableMap(new TreeMap<>(peerStatsMap));
+        this.totalStats = totalStats;
+    }
+
+    /**
+     * @return the csv header matching the output of {@link #toCsvLines()}
+     */
+    public static String csvHeader() {
+        return "timestamp,peer,received_bytes,received_packets,sent_bytes,sent_packets,dropped_bytes,dropped_packets";
+    }
+
+    /**
+     * @return csv lines representing these stats, one per peer plus a line with * as the peer for the total traffic,
+     * where the timestamp is in epoch milliseconds
+     */
+    public List<String> toCsvLines() {
+        List<String> lines = new ArrayList<>();
+        for (PeerStats peerStats: peerStatsMap.values()) {
+            lines.add(timestamp.toEpochMilli() + "," + peerStats.toCsvFields());
+        }
+        lines.add(timestamp.toEpochMilli() + "," + totalStats.toCsvFields());
+        return lines;
+    }
+
+    /**
+     * @return the node name the stats are taken from
+     */
+    public String nodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @return the time the stats are taken
+     */
+    public Instant timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return a map of the peer node names to their traffic counters
+     */
+    public Map<String, PeerStats> peers() {
+        return peerStatsMap;
+    }
+
+    /**
+     * @param peerName the peer node name
+     * @return the traffic counters of the given peer or null if the peer is not accounted in the node
+     */
+    public PeerStats peer(String peerName) {
+        return peerStatsMap.get(peerName);
+    }
+
+    /**
+     * @return the traffic counters of all of the traffic of the node including the traffic of non-peer addresses
+     */
+    public PeerStats total() {
+        return totalStats;
+    }
+
+    /**
+     * Sums the dropped packets of the given peers. As a network partition blocks a set of peers in each node, this
+     * can be used to get the number of packets dropped by a partition in the node
+     * @param peerNames the peer node names
+     * @return the total number of packets from the given peers dropped by network partitions
+     */
+    public long droppedPackets(Collection<String> peerNames) {
+        long droppedPackets = 0;
+        for (String peerName: peerNames) {
+            PeerStats peerStats = peerStatsMap.get(peerName);
+            if (peerStats != null) {
+                droppedPackets += peerStats.droppedPackets();
+            }
+        }
+        return droppedPackets;
+    }
+
+    @Override public String toString() {
+        return "network stats of node " + nodeName + " at " + timestamp + ": " + peerStatsMap.values()
+                + ", total: " + totalStats;
+    }
+
+    /**
+     * This class represents the traffic counters of a node for a single peer
+     */
+    public static class PeerStats {
+        private final String peerName; // the peer node name or * for the total traffic
+        private final long receivedBytes; // the number of bytes received from the peer
+        private final long receivedPackets; // the number of packets received from the peer
+        private final long sentBytes; // the number of bytes sent to the peer
+        private final long sentPackets; // the number of packets sent to the peer
+        private final long droppedBytes; // the number of bytes from the peer dropped by network partitions
+        private final long droppedPackets; // the number of packets from the peer dropped by network partitions
+
+        public PeerStats(String peerName, long receivedBytes, long receivedPackets, long sentBytes, long sentPackets,
+                         long droppedBytes, long droppedPackets) {
+            this.peerName = peerName;
+            this.receivedBytes = receivedBytes;
+            this.receivedPackets = receivedPackets;
+            this.sentBytes = sentBytes;
+            this.sentPackets = sentPackets;
+            this.droppedBytes = droppedBytes;
+            this.droppedPackets = droppedPackets;
+        }
+
+        private String toCsvFields() {
+            return peerName + "," + receivedBytes + "," + receivedPackets + "," + sentBytes + "," + sentPackets + ","
+                    + droppedBytes + "," + droppedPackets;
+        }
+
+        /**
+         * @return the peer node name or * for the total traffic
+         */
+        public String peerName() {
+            return peerName;
+        }
+
+        /**
+         * @return the number of bytes received from the peer
+         */
+        public long receivedBytes() {
+            return receivedBytes;
+        }
+
+        /**
+         * @return the number of packets received from the peer
+         */
+        public long receivedPackets() {
+            return receivedPackets;
+        }
+
+        /**
+         * @return the number of bytes sent to the peer
+         */
+        public long sentBytes() {
+            return sentBytes;
+        }
+
+        /**
+         * @return the number of packets sent to the peer
+         */
+        public long sentPackets() {
+            return sentPackets;
+        }
+
+        /**
+         * @return the number of bytes from the peer dropped by network partitions
+         */
+        public long droppedBytes() {
+            return droppedBytes;
+        }
+
+        /**
+         * @return the number of packets from the peer dropped by network partitions
+         */
+        public long droppedPackets() {
+            return droppedPackets;
+        }
+
+        @Override public String toString() {
+            return peerName + " (received " + receivedBytes + "b/" + receivedPackets + "p, sent " + sentBytes + "b/"
+                    + sentPackets + "p, dropped " + droppedBytes + "b/" + droppedPackets + "p)";
+        }
+    }
+}
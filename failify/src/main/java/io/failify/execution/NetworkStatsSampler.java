@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import io.failify.Constants;
+import io.failify.exceptions.NodeIsNotRunningException;
+import io.failify.exceptions.RuntimeEngineException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * This class periodically samples the network traffic counters of the nodes and records them as a csv file in each
+ * node's log directory
+ */
+public class NetworkStatsSampler {
+    private final static Logger logger = LoggerFactory.getLogger(NetworkStatsSampler.class);
+
+    private final LimitedRuntimeEngine runtimeEngine;
+    private final Integer samplingInterval;
+    private final ScheduledExecutorService executorService;
+    private final Map<String, NodeRecorder> nodeRecorderMap;
+
+    /**
+     * Constructor
+     * @param runtimeEngine the runtime engine to get the network stats through
+     * @param samplingInterval the delay between two consecutive samples of a node in milliseconds
+     * @param poolSize the number of threads to be used for sampling
+     */
+    public NetworkStatsSampler(LimitedRuntimeEngine runtimeEngine, Integer samplingInterval, Integer poolSize) {
+        this.runtimeEngine = runtimeEngine;
+        this.samplingInterval = samplingInterval;
+        this.nodeRecorderMap = new ConcurrentHashMap<>();
+        this.executorService = Executors.newScheduledThreadPool(Math.max(1, poolSize), runnable -> {
+            Thread thread = new Thread(runnable, "failify-network-stats-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sampling the given node. The stats of the node will be recorded in the given log directory
+     * @param nodeName the node name to be sampled
+     * @param logDirectory the local log directory of the node
+     */
+    public void addNode(String nodeName, String logDirectory) {
+        if (nodeRecorderMap.containsKey(nodeName)) {
+            return;
+        }
+
+        NodeRecorder nodeRecorder = new NodeRecorder(nodeName, Paths.get(logDirectory,
+                Constants.NETWORK_STATS_FILE_NAME));
+        nodeRecorderMap.put(nodeName, nodeRecorder);
+        nodeRecorder.future = executorService.scheduleWithFixedDelay(nodeRecorder::sample, 0, samplingInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling all the nodes and closes the stats files. In case of a failure, it won't throw any exception, but
+     * error logs the exception
+     */
+    public void stop() {
+        executorService.shutdownNow();
+        try {
+            executorService.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the network stats sampler to be stopped");
+        }
+
+        for (NodeRecorder nodeRecorder: nodeRecorderMap.values()) {
+            nodeRecorder.close();
+        }
+    }
+
+    private class NodeRecorder {
+        private final String nodeName;
+        private final Path statsFile;
+        private BufferedWriter writer;
+        private ScheduledFuture<?> future;
+
+        private NodeRecorder(String nodeName, Path statsFile) {
+            this.nodeName = nodeName;
+            this.statsFile = statsFile;
+        }
+
+        private void sample() {
+            NetworkStats stats;
+            try {
+                stats = runtimeEngine.networkStats(nodeName);
+            } catch (NodeIsNotRunningException e) {
+                return;
+            } catch (RuntimeEngineException e) {
+                logger.debug("Unable to get the network stats of node {}", nodeName, e);
+                return;
+            }
+
+            try {
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(statsFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                            StandardOpenOption.APPEND);
+                    writer.write(NetworkStats.csvHeader());
+                    writer.newLine();
+                }
+                for (String line: stats.toCsvLines()) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                writer.flush();
+            } catch (IOException e) {
+                logger.warn("Error while writing the network stats of node {} into {}", nodeName, statsFile, e);
+            }
+        }
+
+        private void close() {
+            if (future != null) {
+                future.cancel(true);
+            }
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    logger.warn("Error while closing the network stats file of node {}", nodeName, e);
+                }
+            }
+        }
+    }
+}
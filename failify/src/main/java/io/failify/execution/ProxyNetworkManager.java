@@ -0,0 +1,347 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import io.failify.Constants;
+import io.failify.dsl.entities.ExposedPortDefinition;
+import io.failify.dsl.entities.PortType;
+import io.failify.exceptions.NodeNotFoundException;
+import io.failify.exceptions.RuntimeEngineException;
+import io.failify.execution.proxy.FaultProxy;
+import io.failify.execution.proxy.LinkShaping;
+import io.failify.execution.proxy.ProxyPolicy;
+import io.failify.execution.proxy.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * This class imposes network partitions and network operations through a {@link FaultProxy} instead of iptables and tc
+ * rules. The nodes should connect to each other through the proxy endpoints advertised in their environment variables.
+ * Network partitions stall the proxied connections between the partitioned nodes, and delay and bandwidth network
+ * operations of a node are applied on the bytes the node sends through the proxy.
+ */
+public class ProxyNetworkManager implements ProxyPolicy {
+    private final static Logger logger = LoggerFactory.getLogger(ProxyNetworkManager.class);
+
+    private final LimitedRuntimeEngine runtimeEngine;
+    private final FaultProxy faultProxy;
+    private final Map<String, Map<String, Integer>> blockCounts; // host -> blocked node -> number of partitions
+    private final Map<String, Map<NetOp.Scope, Map<NetOp.Kind, NetOp>>> netOpMap;
+    private final Map<NetOp, TokenBucket> tokenBuckets; // each bandwidth operation has its own bucket
+    private final Map<String, Map<Integer, InetSocketAddress>> proxyAddresses; // node -> port -> proxy address
+
+    public ProxyNetworkManager(LimitedRuntimeEngine runtimeEngine) throws RuntimeEngineException {
+        this.runtimeEngine = runtimeEngine;
+        this.blockCounts = new HashMap<>();
+        this.netOpMap = new HashMap<>();
+        this.tokenBuckets = new IdentityHashMap<>();
+        this.proxyAddresses = new HashMap<>();
+        try {
+            this.faultProxy = new FaultProxy(this);
+        } catch (IOException e) {
+            throw new RuntimeEngineException("Error while starting the fault proxy!", e);
+        }
+    }
+
+    /**
+     * Opens proxy listeners for the TCP ports of a node. UDP ports are not proxied.
+     * @param nodeName the node to open the listeners for
+     * @param ports the exposed ports of the node
+     * @param bindAddress the address of the host which is reachable from the nodes
+     * @throws RuntimeEngineException if something goes wrong while opening a listener
+     */
+    public void addNode(String nodeName, Set<ExposedPortDefinition> ports, String bindAddress)
+            throws RuntimeEngineException {
+        Map<Integer, InetSocketAddress> nodeAddresses = new TreeMap<>();
+        for (ExposedPortDefinition portDefinition: ports) {
+            if (portDefinition.type() != PortType.TCP) {
+                logger.warn("Port {} of node {} is not proxied as only TCP ports are supported by the fault proxy",
+                        portDefinition, nodeName);
+                continue;
+            }
+            try {
+                InetSocketAddress address = faultProxy.addListener(nodeName, portDefinition.port(), bindAddress);
+                nodeAddresses.put(portDefinition.port(), new InetSocketAddress(bindAddress, address.getPort()));
+                logger.info("Port {} of node {} is proxied at {}:{}", portDefinition.port(), nodeName, bindAddress,
+                        address.getPort());
+            } catch (IOException e) {
+                throw new RuntimeEngineException("Error while opening the proxy listener for port "
+                        + portDefinition.port() + " of node " + nodeName + "!", e);
+            }
+        }
+        synchronized (this) {
+            proxyAddresses.put(nodeName, nodeAddresses);
+        }
+    }
+
+    /**
+     * @return the environment variables advertising the proxy endpoints of all of the nodes in the form of
+     * FAILIFY_PROXY_&lt;NODE&gt;_&lt;PORT&gt;=&lt;host&gt;:&lt;port&gt;
+     */
+    public synchronized Map<String, String> environmentVariables() {
+        Map<String, String> environment = new HashMap<>();
+        for (Map.Entry<String, Map<Integer, InetSocketAddress>> nodeEntry: proxyAddresses.entrySet()) {
+            String nodeName = nodeEntry.getKey().toUpperCase().replaceAll("[^A-Z0-9]", "_");
+            for (Map.Entry<Integer, InetSocketAddress> portEntry: nodeEntry.getValue().entrySet()) {
+                environment.put(Constants.PROXY_ENV_VAR_PREFIX + nodeName + "_" + portEntry.getKey(),
+                        portEntry.getValue().getHostString() + ":" + portEntry.getValue().getPort());
+            }
+        }
+        return environment;
+    }
+
+    /**
+     * @param nodeName the node to get the proxy address for
+     * @param port the TCP port of the node
+     * @return the proxy address of the given port of the node or null if the port is not proxied
+     */
+    public synchronized InetSocketAddress proxyAddress(String nodeName, Integer port) {
+        return proxyAddresses.getOrDefault(nodeName, Collections.emptyMap()).get(port);
+    }
+
+    public void networkPartition(NetPart netPart) throws RuntimeEngineException {
+        logger.info("Applying network partition {} through the fault proxy ...", netPart.getPartitionsString());
+        synchronized (this) {
+            updateBlockCounts(calculateBlockedNodes(netPart), 1);
+        }
+        faultProxy.policyChanged();
+    }
+
+    public void removeNetworkPartition(NetPart netPart) throws RuntimeEngineException {
+        logger.info("Removing network partition {} from the fault proxy ...", netPart.getPartitionsString());
+        synchronized (this) {
+            updateBlockCounts(calculateBlockedNodes(netPart), -1);
+        }
+        faultProxy.policyChanged();
+    }
+
+    // A null from or to partition means no partition, the same as the iptables backend
+    public void transitionPartition(NetPart from, NetPart to) throws RuntimeEngineException {
+        logger.info("Transitioning network partition {} to {} through the fault proxy ...",
+                from == null ? "[]" : from.getPartitionsString(), to == null ? "[]" : to.getPartitionsString());
+        synchronized (this) {
+            if (to != null) {
+                updateBlockCounts(calculateBlockedNodes(to), 1);
+            }
+            if (from != null) {
+                updateBlockCounts(calculateBlockedNodes(from), -1);
+            }
+        }
+        faultProxy.policyChanged();
+    }
+
+    private void updateBlockCounts(Map<String, Set<String>> blockedNodes, int delta) {
+        for (Map.Entry<String, Set<String>> entry: blockedNodes.entrySet()) {
+            Map<String, Integer> hostCounts = blockCounts.computeIfAbsent(entry.getKey(), k -> new HashMap<>());
+            for (String node: entry.getValue()) {
+                int count = hostCounts.getOrDefault(node, 0) + delta;
+                if (count < 0) {
+                    logger.warn("Node {} has no network blockage for node {} to be removed!", entry.getKey(), node);
+                    count = 0;
+                }
+                if (count == 0) {
+                    hostCounts.remove(node);
+                } else {
+                    hostCounts.put(node, count);
+                }
+            }
+            if (hostCounts.isEmpty()) {
+                blockCounts.remove(entry.getKey());
+            }
+        }
+    }
+
+    // The same as the iptables backend, the nodes not listed in the partitions definition form the partition 0 and the
+    // nodes in a partition are blocked in the hosts of another partition unless they are connected
+    private Map<String, Set<String>> calculateBlockedNodes(NetPart netPart) {
+        List<Set<String>> partitions = new ArrayList<>();
+        Set<String> restOfNodes = runtimeEngine.nodeNames();
+        partitions.add(restOfNodes);
+        for (String partition: netPart.getPartitions()) {
+            Set<String> partitionNodes = Arrays.stream(partition.split(",")).map(String::trim)
+                    .collect(Collectors.toSet());
+            restOfNodes.removeAll(partitionNodes);
+            partitions.add(partitionNodes);
+        }
+
+        Map<String, Set<String>> blockedNodes = new HashMap<>();
+        for (int partNum1 = 0; partNum1 < partitions.size(); partNum1++) {
+            Set<Integer> connections = netPart.getConnections().getOrDefault(partNum1, Collections.emptySet());
+            for (int partNum2 = 0; partNum2 < partitions.size(); partNum2++) {
+                if (partNum1 != partNum2 && !connections.contains(partNum2)) {
+                    for (String host: partitions.get(partNum2)) {
+                        blockedNodes.computeIfAbsent(host, k -> new HashSet<>()).addAll(partitions.get(partNum1));
+                    }
+                }
+            }
+        }
+        return blockedNodes;
+    }
+
+    /**
+     * Applies a sequence of network operations on the bytes a node sends through the proxy. The operations are folded
+     * into the node's current network operations in the given order. Only delay and bandwidth operations are supported
+     * @param nodeName the node to apply the network operations on
+     * @param netOps the network operations to be applied
+     * @throws RuntimeEngineException if an operation is not supported or a destination node is not found
+     */
+    public void networkOperation(String nodeName, NetOp... netOps) throws RuntimeEngineException {
+        if (nodeName == null || netOps.length == 0) return;
+
+        for (NetOp netOp: netOps) {
+            if (netOp.getKind() != NetOp.Kind.DELAY && netOp.getKind() != NetOp.Kind.BANDWIDTH) {
+                throw new RuntimeEngineException("Network operation " + netOp + " is not supported by the proxy "
+                        + "network fault backend!");
+            }
+            for (String destinationNode: netOp.getScope().getDestinationNodes()) {
+                if (runtimeEngine.ip(destinationNode) == null) {
+                    throw new NodeNotFoundException(destinationNode);
+                }
+            }
+        }
+
+        synchronized (this) {
+            Map<NetOp.Scope, Map<NetOp.Kind, NetOp>> nodeOps = netOpMap.computeIfAbsent(nodeName, k -> new HashMap<>());
+            for (NetOp netOp: netOps) {
+                if (netOp.isRemoval()) {
+                    Map<NetOp.Kind, NetOp> scopeOps = nodeOps.get(netOp.getScope());
+                    if (scopeOps != null) {
+                        scopeOps.remove(netOp.getKind());
+                        if (scopeOps.isEmpty()) {
+                            nodeOps.remove(netOp.getScope());
+                        }
+                    }
+                } else {
+                    nodeOps.computeIfAbsent(netOp.getScope(), k -> new EnumMap<>(NetOp.Kind.class))
+                            .put(netOp.getKind(), netOp);
+                }
+            }
+            if (nodeOps.isEmpty()) {
+                netOpMap.remove(nodeName);
+            }
+            logger.info("Applied network operations {} on node {} through the fault proxy", Arrays.toString(netOps),
+                    nodeName);
+        }
+        faultProxy.policyChanged();
+    }
+
+    /**
+     * Resets all of the proxied connections from or to a node
+     * @param nodeName the node to reset the connections of
+     * @throws RuntimeEngineException if the fault proxy is stopped
+     */
+    public void resetConnections(String nodeName) throws RuntimeEngineException {
+        try {
+            int count = faultProxy.resetConnections(nodeName);
+            logger.info("Reset {} proxied connections of node {}", count, nodeName);
+        } catch (IOException e) {
+            throw new RuntimeEngineException("Error while resetting the proxied connections of node " + nodeName
+                    + "!", e);
+        }
+    }
+
+    public void stop() {
+        faultProxy.stop();
+    }
+
+    @Override
+    public String nodeOf(InetAddress address) {
+        String hostAddress = address.getHostAddress();
+        String matchedNode = null;
+        for (String nodeName: runtimeEngine.nodeNames()) {
+            if (hostAddress.equals(runtimeEngine.ip(nodeName))) {
+                if (matchedNode != null) {
+                    // The nodes are not distinguishable by their address
+                    return null;
+                }
+                matchedNode = nodeName;
+            }
+        }
+        return matchedNode;
+    }
+
+    @Override
+    public InetSocketAddress upstreamAddress(String nodeName, int port) {
+        String ip = runtimeEngine.ip(nodeName);
+        Integer mappedPort = runtimeEngine.portMapping(nodeName, port, PortType.TCP);
+        if (ip == null || mappedPort == null) {
+            return null;
+        }
+        return new InetSocketAddress(ip, mappedPort);
+    }
+
+    // TCP needs both directions, so a connection is stalled if any of the two nodes blocks the other one
+    @Override
+    public synchronized boolean isBlocked(String clientNode, String serverNode) {
+        if (clientNode == null) {
+            return false;
+        }
+        return blockCounts.getOrDefault(serverNode, Collections.emptyMap()).containsKey(clientNode)
+                || blockCounts.getOrDefault(clientNode, Collections.emptyMap()).containsKey(serverNode);
+    }
+
+    // The same as the tc backend, the operations of the global scope apply unless an operation of the same kind in the
+    // first matching scope overrides them
+    @Override
+    public synchronized LinkShaping shaping(String sourceNode, String destinationNode, Integer destinationPort) {
+        Map<NetOp.Scope, Map<NetOp.Kind, NetOp>> nodeOps = sourceNode == null ? null : netOpMap.get(sourceNode);
+        if (nodeOps == null) {
+            return null;
+        }
+
+        Map<NetOp.Kind, NetOp> ops = new EnumMap<>(NetOp.Kind.class);
+        ops.putAll(nodeOps.getOrDefault(NetOp.Scope.GLOBAL, Collections.emptyMap()));
+        Set<NetOp.Scope> scopes = new TreeSet<>(Comparator.comparing(NetOp.Scope::toString));
+        scopes.addAll(nodeOps.keySet());
+        scopes.remove(NetOp.Scope.GLOBAL);
+        for (NetOp.Scope scope: scopes) {
+            if ((scope.getDestinationNodes().isEmpty() || scope.getDestinationNodes().contains(destinationNode))
+                    && (scope.getDestinationPorts().isEmpty() || scope.getDestinationPorts().contains(destinationPort))) {
+                ops.putAll(nodeOps.get(scope));
+                break;
+            }
+        }
+        if (ops.isEmpty()) {
+            return null;
+        }
+
+        NetOp.Delay delay = (NetOp.Delay) ops.get(NetOp.Kind.DELAY);
+        NetOp.Bandwidth bandwidth = (NetOp.Bandwidth) ops.get(NetOp.Kind.BANDWIDTH);
+        tokenBuckets.keySet().retainAll(netOpMap.values().stream().flatMap(scopeOps -> scopeOps.values().stream())
+                .flatMap(kindOps -> kindOps.values().stream()).collect(Collectors.toSet()));
+        TokenBucket tokenBucket = bandwidth == null ? null : tokenBuckets.computeIfAbsent(bandwidth,
+                k -> new TokenBucket(bandwidth.getRate() * 1000L / 8, bandwidth.getBurst()));
+        return new LinkShaping(delay == null ? 0 : delay.getDelay(),
+                delay == null || delay.getJitter() == null ? 0 : delay.getJitter(), tokenBucket);
+    }
+}
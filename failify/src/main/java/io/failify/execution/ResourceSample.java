@@ -0,0 +1,150 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution;
+
+import java.time.Instant;
+
+/**
+ * This class represents a single sample of the resources consumed by a node at a specific point of time
+ */
+public class ResourceSample {
+    private final String nodeName; // the node name the sample is taken from
+    private final Instant timestamp; // the time the sample is taken
+    private final double cpuPercentage; // the cpu usage percentage since the previous sample. 100% means one full core
+    private final long cpuTotalUsage; // the cumulative cpu time consumed by the node in nanoseconds
+    private final long memoryUsage; // the current memory usage of the node in bytes
+    private final long memoryLimit; // the current memory limit of the node in bytes
+    private final long networkReceivedBytes; // the cumulative number of bytes received by the node
+    private final long networkTransmittedBytes; // the cumulative number of bytes transmitted by the node
+    private final long blockReadBytes; // the cumulative number of bytes read from block devices by the node
+    private final long blockWrittenBytes; // the cumulative number of bytes written into block devices by the node
+
+    public ResourceSample(String nodeName, Instant timestamp, double cpuPercentage, long cpuTotalUsage, long memoryUsage,
+                          long memoryLimit, long networkReceivedBytes, long networkTransmittedBytes,
+                          long blockReadBytes, long blockWrittenBytes) {
+        this.nodeName = nodeName;
+        this.timestamp = timestamp;
+        this.cpuPercentage = cpuPercentage;
+        this.cpuTotalUsage = cpuTotalUsage;
+        this.memoryUsage = memoryUsage;
+        this.memoryLimit = memoryLimit;
+        this.networkReceivedBytes = networkReceivedBytes;
+        this.networkTransmittedBytes = networkTransmittedBytes;
+        this.blockReadBytes = blockReadBytes;
+        this.blockWrittenBytes = blockWrittenBytes;
+    }
+
+    /**
+     * @return the csv header matching the output of {@link #toCsvLine()}
+     */
+    public static String csvHeader() {
+        return "timestamp,cpu_percentage,cpu_total_usage_ns,memory_usage_bytes,memory_limit_bytes,"
+                + "network_rx_bytes,network_tx_bytes,block_read_bytes,block_written_bytes";
+    }
+
+    /**
+     * @return a csv line representing this sample where the timestamp is in epoch milliseconds
+     */
+    public String toCsvLine() {
+        return timestamp.toEpochMilli() + "," + String.format("%.2f", cpuPercentage) + "," + cpuTotalUsage + ","
+                + memoryUsage + "," + memoryLimit + "," + networkReceivedBytes + "," + networkTransmittedBytes + ","
+                + blockReadBytes + "," + blockWrittenBytes;
+    }
+
+    /**
+     * @return the node name the sample is taken from
+     */
+    public String nodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @return the time the sample is taken
+     */
+    public Instant timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the cpu usage percentage since the previous sample. 100% means one full core
+     */
+    public double cpuPercentage() {
+        return cpuPercentage;
+    }
+
+    /**
+     * @return the cumulative cpu time consumed by the node in nanoseconds
+     */
+    public long cpuTotalUsage() {
+        return cpuTotalUsage;
+    }
+
+    /**
+     * @return the current memory usage of the node in bytes
+     */
+    public long memoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * @return the current memory limit of the node in bytes
+     */
+    public long memoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * @return the cumulative number of bytes received by the node
+     */
+    public long networkReceivedBytes() {
+        return networkReceivedBytes;
+    }
+
+    /**
+     * @return the cumulative number of bytes transmitted by the node
+     */
+    public long networkTransmittedBytes() {
+        return networkTransmittedBytes;
+    }
+
+    /**
+     * @return the cumulative number of bytes read from block devices by the node
+     */
+    public long blockReadBytes() {
+        return blockReadBytes;
+    }
+
+    /**
+     * @return the cumulative number of bytes written into block devices by the node
+     */
+    public long blockWrittenBytes() {
+        return blockWrittenBytes;
+    }
+
+    @Override public String toString() {
+        return "resource sample (" + nodeName + ", " + toCsvLine() + ")";
+    }
+}
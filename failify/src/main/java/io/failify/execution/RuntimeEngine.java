@@ -27,17 +27,20 @@ package io.failify.execution;
 
 import io.failify.FailifyRunner;
 import io.failify.dsl.entities.Deployment;
+import io.failify.dsl.entities.NetworkFaultBackend;
 import io.failify.dsl.entities.ExposedPortDefinition;
 import io.failify.dsl.entities.Node;
 import io.failify.dsl.entities.Service;
 import io.failify.rt.Failify;
 import io.failify.workspace.NodeWorkspace;
 import io.failify.Constants;
+import io.failify.exceptions.NodeNotFoundException;
 import io.failify.exceptions.RuntimeEngineException;
 import io.failify.execution.single_node.SingleNodeRuntimeEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.TimeoutException;
 
@@ -50,6 +53,11 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
     protected boolean stopped;
     protected final NetworkPartitionManager networkPartitionManager;
     protected final NetworkOperationManager networkOperationManager;
+    protected final LogTailer logTailer;
+    protected LogRotator logRotator;
+    protected NetworkStatsSampler networkStatsSampler;
+    protected ProxyNetworkManager proxyNetworkManager;
+    private final List<FaultScheduler> faultSchedulers;
     private FailifyRunner failifyRunner;
     private EventService eventService;
     private Failify failifyClient;
@@ -63,6 +71,8 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
         eventServer = new EventServer(eventService);
         networkPartitionManager = new NetworkPartitionManager(this);
         networkOperationManager = new NetworkOperationManager(this);
+        logTailer = new LogTailer();
+        faultSchedulers = new ArrayList<>();
     }
 
     // TODO this method should use an external configuration to detect the proper runtime engine and its corresponding configs
@@ -101,21 +111,72 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
         try {
             logger.info("Starting nodes ...");
             stopped = false;
+            if (deployment.isLogRotationEnabled()) {
+                logRotator = new LogRotator(deployment.getLogRotationMaxSize(), deployment.getLogRotationInterval(),
+                        deployment.getRotatedLogsRetention(), deployment.isCompressRotatedLogs(),
+                        deployment.isCopyTruncateLogFiles(), logTailer);
+            }
+            for (String nodeName: nodeMap.keySet()) {
+                logTailer.addNode(nodeName, this.nodeWorkspaceMap.get(nodeName));
+                if (logRotator != null) {
+                    logRotator.addNode(this.nodeWorkspaceMap.get(nodeName));
+                }
+            }
             startNodes();
+            if (deployment.getNetworkStatsSamplingInterval() > 0) {
+                networkStatsSampler = new NetworkStatsSampler(this, deployment.getNetworkStatsSamplingInterval(),
+                        Math.min(nodeMap.size(), Constants.MAX_RESOURCE_SAMPLER_THREADS));
+                for (String nodeName: nodeMap.keySet()) {
+                    networkStatsSampler.addNode(nodeName, this.nodeWorkspaceMap.get(nodeName).getLogDirectory());
+                }
+            }
         } catch (RuntimeEngineException e) {
             stop(true, 0);
             throw e;
         }
     }
 
+    /**
+     * Starts the fault proxy, if the proxy network fault backend is in use, and opens the proxy listeners of all of the
+     * nodes. This should be called by the engine in {@link #startNodes()} after the event server ip address can be
+     * determined and before the nodes' containers are created as the proxy endpoints are advertised in their
+     * environment variables
+     * @throws RuntimeEngineException if something goes wrong while starting the proxy
+     */
+    protected void startFaultProxy() throws RuntimeEngineException {
+        if (deployment.getNetworkFaultBackend() != NetworkFaultBackend.PROXY) {
+            return;
+        }
+        logger.info("Starting fault proxy ...");
+        proxyNetworkManager = new ProxyNetworkManager(this);
+        String bindAddress = getEventServerIpAddress();
+        for (String nodeName: nodeMap.keySet()) {
+            proxyNetworkManager.addNode(nodeName, getNodeExposedPorts(nodeName), bindAddress);
+        }
+    }
+
     protected void startEventServer() throws RuntimeEngineException {
         eventServer.start();
     }
 
     public void stop(boolean kill, Integer secondsUntilForcedStop) {
         logger.info("Stopping the runtime engine ...");
+        stopFaultSchedulers();
+        if (networkStatsSampler != null) {
+            logger.info("Stopping network stats sampler ...");
+            networkStatsSampler.stop();
+        }
         logger.info("Stopping nodes ...");
         stopNodes(kill, secondsUntilForcedStop);
+        if (proxyNetworkManager != null) {
+            logger.info("Stopping fault proxy ...");
+            proxyNetworkManager.stop();
+        }
+        logTailer.stop();
+        if (logRotator != null) {
+            logger.info("Stopping log rotator ...");
+            logRotator.stop();
+        }
         logger.info("Stopping event server ...");
         stopEventServer();
         if (!deployment.getSharedDirectories().isEmpty()) {
@@ -128,9 +189,19 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
     public void addNewNode(Node node, NodeWorkspace nodeWorkspace) throws RuntimeEngineException {
         nodeMap.put(node.getName(), node);
         nodeWorkspaceMap.put(node.getName(), nodeWorkspace);
+        logTailer.addNode(node.getName(), nodeWorkspace);
+        if (logRotator != null) {
+            logRotator.addNode(nodeWorkspace);
+        }
+        if (proxyNetworkManager != null) {
+            proxyNetworkManager.addNode(node.getName(), getNodeExposedPorts(node.getName()), getEventServerIpAddress());
+        }
         createNodeContainer(node);
         networkPartitionManager.addNewNode(node);
         startNode(node.getName());
+        if (networkStatsSampler != null) {
+            networkStatsSampler.addNode(node.getName(), nodeWorkspace.getLogDirectory());
+        }
     }
 
     protected void stopEventServer() {
@@ -156,6 +227,9 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
             throws RuntimeEngineException {
         environment.put(Constants.FAILIFY_EVENT_SERVER_IP_ADDRESS_ENV_VAR, getEventServerIpAddress());
         environment.put(Constants.FAILIFY_EVENT_SERVER_PORT_NUMBER_ENV_VAR, String.valueOf(eventServer.getPortNumber()));
+        if (proxyNetworkManager != null) {
+            environment.putAll(proxyNetworkManager.environmentVariables());
+        }
         return environment;
     }
 
@@ -206,6 +280,46 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
         return nodeService.getStopCommand();
     }
 
+    protected String getNodeCpuSet(String nodeName) {
+        Node node = nodeMap.get(nodeName);
+        Service nodeService = deployment.getService(node.getServiceName());
+
+        if (node.getCpuSet() != null) {
+            return node.getCpuSet();
+        }
+        return nodeService.getCpuSet();
+    }
+
+    protected Double getNodeCpus(String nodeName) {
+        Node node = nodeMap.get(nodeName);
+        Service nodeService = deployment.getService(node.getServiceName());
+
+        if (node.getCpus() != null) {
+            return node.getCpus();
+        }
+        return nodeService.getCpus();
+    }
+
+    protected Long getNodeMemoryLimit(String nodeName) {
+        Node node = nodeMap.get(nodeName);
+        Service nodeService = deployment.getService(node.getServiceName());
+
+        if (node.getMemoryLimit() != null) {
+            return node.getMemoryLimit();
+        }
+        return nodeService.getMemoryLimit();
+    }
+
+    protected Integer getNodeBlkioWeight(String nodeName) {
+        Node node = nodeMap.get(nodeName);
+        Service nodeService = deployment.getService(node.getServiceName());
+
+        if (node.getBlkioWeight() != null) {
+            return node.getBlkioWeight();
+        }
+        return nodeService.getBlkioWeight();
+    }
+
     protected boolean isClockDriftEnabledInNode(String nodeName) {
         Node node = nodeMap.get(nodeName);
         Service service = deployment.getService(node.getServiceName());
@@ -253,6 +367,50 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
         }
     }
 
+    @Override
+    public String waitForLog(String nodeName, String regex) throws RuntimeEngineException {
+        if (!nodeMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+
+        logger.info("Waiting for log pattern {} in node {} ...", regex, nodeName);
+        return logTailer.waitForLog(nodeName, regex);
+    }
+
+    @Override
+    public String waitForLog(String nodeName, String regex, Integer timeout)
+            throws RuntimeEngineException, TimeoutException {
+        if (!nodeMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+
+        if (timeout == null) {
+            return waitForLog(nodeName, regex);
+        }
+
+        logger.info("Waiting for log pattern {} in node {} ...", regex, nodeName);
+        return logTailer.waitForLog(nodeName, regex, timeout);
+    }
+
+    @Override
+    public void subscribeToLogs(LogListener listener) {
+        logTailer.subscribe(null, listener);
+    }
+
+    @Override
+    public void subscribeToLogs(String nodeName, LogListener listener) throws RuntimeEngineException {
+        if (!nodeMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+
+        logTailer.subscribe(nodeName, listener);
+    }
+
+    @Override
+    public void unsubscribeFromLogs(LogListener listener) {
+        logTailer.unsubscribe(listener);
+    }
+
     private void sendEvent(String eventName) throws RuntimeEngineException {
         if (deployment.isInRunSequence(eventName)) {
             logger.info("Sending test case event {} ...", eventName);
@@ -332,18 +490,118 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
 
     @Override
     public void networkPartition(NetPart netPart) throws RuntimeEngineException {
-        networkPartitionManager.networkPartition(netPart);
+        if (proxyNetworkManager != null) {
+            proxyNetworkManager.networkPartition(netPart);
+        } else {
+            networkPartitionManager.networkPartition(netPart);
+        }
     }
 
     @Override
     public void removeNetworkPartition(NetPart netPart) throws RuntimeEngineException {
-        networkPartitionManager.removeNetworkPartition(netPart);
+        if (proxyNetworkManager != null) {
+            proxyNetworkManager.removeNetworkPartition(netPart);
+        } else {
+            networkPartitionManager.removeNetworkPartition(netPart);
+        }
+    }
+
+    @Override
+    public void transitionPartition(NetPart from, NetPart to) throws RuntimeEngineException {
+        if (proxyNetworkManager != null) {
+            proxyNetworkManager.transitionPartition(from, to);
+        } else {
+            networkPartitionManager.transitionPartition(from, to);
+        }
+    }
+
+    @Override
+    public NetworkStats networkStats(String nodeName) throws RuntimeEngineException {
+        if (!nodeMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+
+        if (proxyNetworkManager != null) {
+            throw new RuntimeEngineException("Network stats are not supported by the proxy network fault backend!");
+        }
+
+        return networkPartitionManager.networkStats(nodeName);
+    }
+
+    @Override
+    public String proxyAddress(String nodeName, Integer portNumber) {
+        if (proxyNetworkManager == null) {
+            return null;
+        }
+        InetSocketAddress address = proxyNetworkManager.proxyAddress(nodeName, portNumber);
+        return address == null ? null : address.getHostString() + ":" + address.getPort();
+    }
+
+    @Override
+    public void resetConnections(String nodeName) throws RuntimeEngineException {
+        if (!nodeMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+        if (proxyNetworkManager == null) {
+            throw new RuntimeEngineException("Resetting connections is only supported by the proxy network fault "
+                    + "backend!");
+        }
+
+        proxyNetworkManager.resetConnections(nodeName);
+    }
+
+    @Override
+    public FaultScheduler scheduleFaults(FaultSchedule faultSchedule) throws RuntimeEngineException {
+        synchronized (faultSchedulers) {
+            if (stopped) {
+                throw new RuntimeEngineException("The runtime engine is not running to schedule faults!");
+            }
+            // The listener may only be called after the scheduler is added as the lock is held during the construction
+            FaultScheduler faultScheduler = new FaultScheduler(faultSchedule, this, finishedScheduler -> {
+                synchronized (faultSchedulers) {
+                    faultSchedulers.remove(finishedScheduler);
+                }
+            });
+            faultSchedulers.add(faultScheduler);
+            return faultScheduler;
+        }
+    }
+
+    // The faults are not reverted as the nodes are going to be stopped anyway, and the running actions are interrupted
+    // so a hanging action doesn't block the engine's stop
+    private void stopFaultSchedulers() {
+        List<FaultScheduler> schedulers;
+        synchronized (faultSchedulers) {
+            schedulers = new ArrayList<>(faultSchedulers);
+            faultSchedulers.clear();
+        }
+        for (FaultScheduler faultScheduler: schedulers) {
+            faultScheduler.stopNow();
+        }
     }
 
     @Override
     public void networkOperation(String nodeName, NetOp.BuilderBase... netOpBuilders) throws RuntimeEngineException {
-        for (NetOp.BuilderBase netOpBuilder: netOpBuilders) {
-            networkOperationManager.networkOperation(nodeName, netOpBuilder.build());
+        NetOp[] netOps = new NetOp[netOpBuilders.length];
+        for (int i = 0; i < netOpBuilders.length; i++) {
+            netOps[i] = netOpBuilders[i].build();
+        }
+        if (proxyNetworkManager != null) {
+            proxyNetworkManager.networkOperation(nodeName, netOps);
+        } else {
+            networkOperationManager.networkOperation(nodeName, netOps);
+        }
+    }
+
+    @Override
+    public void diskOperation(String nodeName, DiskOp.BuilderBase<?, ?>... diskOpBuilders)
+            throws RuntimeEngineException {
+        if (!nodeMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+
+        for (DiskOp.BuilderBase<?, ?> diskOpBuilder: diskOpBuilders) {
+            applyDiskOperation(nodeName, diskOpBuilder.build());
         }
     }
 
@@ -369,7 +627,16 @@ public abstract class RuntimeEngine implements LimitedRuntimeEngine {
      */
     protected abstract void createNodeContainer(Node node) throws RuntimeEngineException;
     /**
-     * This method should start all of the nodes. In case of a problem in startup of a node, all of the started nodes should be
+     * This method should apply the given disk operation on the given node and keep it in place when the node is
+     * restarted until it is removed
+     * @param nodeName the node to apply the disk operation on
+     * @param diskOp the disk operation to be applied
+     * @throws RuntimeEngineException if something goes wrong
+     */
+    protected abstract void applyDiskOperation(String nodeName, DiskOp diskOp) throws RuntimeEngineException;
+    /**
+     * This method should start all of the nodes. The fault proxy should be started using {@link #startFaultProxy()} before
+     * creating the nodes. In case of a problem in startup of a node, all of the started nodes should be
      * stopped and a RuntimeEngine Exception should be thrown
      * @throws RuntimeEngineException
      */
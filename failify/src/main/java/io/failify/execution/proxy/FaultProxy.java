@@ -0,0 +1,558 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution.proxy;
+
+import io.failify.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class is a userspace TCP proxy which is able to impose network faults on the connections between the nodes without
+ * requiring any network administration capability. For each node port, a listener is opened on the host and the
+ * connections to the listener are forwarded to the node port. The client node of a connection is identified by its source
+ * address. A connection between two partitioned nodes is stalled until the partition is removed, and the bytes of a
+ * connection can be delayed and rate limited in each direction. All of the connections are handled by a single selector
+ * thread, and when there is no fault on a connection, the bytes are forwarded through a direct buffer without any copy in
+ * the heap.
+ */
+public class FaultProxy {
+    private final static Logger logger = LoggerFactory.getLogger(FaultProxy.class);
+
+    private final ProxyPolicy policy;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final Queue<Runnable> tasks;
+    private final Set<Connection> connections; // only accessed in the selector thread
+    private final List<ServerSocketChannel> listeners;
+    private volatile boolean policyChanged;
+    private volatile boolean running;
+
+    public FaultProxy(ProxyPolicy policy) throws IOException {
+        this.policy = policy;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.connections = new LinkedHashSet<>();
+        this.listeners = Collections.synchronizedList(new ArrayList<>());
+        this.running = true;
+        this.selectorThread = new Thread(this::run, "failify-fault-proxy");
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+    }
+
+    /**
+     * Opens a listener forwarding its connections to the given port of the given node
+     * @param nodeName the node to forward the connections to
+     * @param port the port of the node to forward the connections to
+     * @param bindAddress the address to bind the listener to
+     * @return the address of the listener
+     * @throws IOException if something goes wrong while opening the listener
+     */
+    public InetSocketAddress addListener(String nodeName, int port, String bindAddress) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(bindAddress, 0), Constants.PROXY_ACCEPT_BACKLOG);
+            serverChannel.configureBlocking(false);
+            callInSelector(() -> serverChannel.register(selector, SelectionKey.OP_ACCEPT, new Listener(nodeName, port)));
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        listeners.add(serverChannel);
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Makes the proxy re-evaluate the policy for all of the existing connections
+     */
+    public void policyChanged() {
+        policyChanged = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Resets all of the connections from or to the given node
+     * @param nodeName the node to reset the connections of
+     * @return the number of the reset connections
+     * @throws IOException if the proxy is stopped
+     */
+    public int resetConnections(String nodeName) throws IOException {
+        return callInSelector(() -> {
+            int count = 0;
+            for (Connection connection: new ArrayList<>(connections)) {
+                if (nodeName.equals(connection.clientNode) || nodeName.equals(connection.serverNode)) {
+                    connection.close(true);
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Stops the proxy and closes all of the listeners and connections
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(Constants.PROXY_STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface SelectorCall<T> {
+        T call() throws IOException;
+    }
+
+    private <T> T callInSelector(SelectorCall<T> call) throws IOException {
+        if (Thread.currentThread() == selectorThread) {
+            return call.call();
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        tasks.add(() -> {
+            try {
+                future.complete(call.call());
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        selector.wakeup();
+        if (!running) {
+            throw new IOException("The fault proxy is stopped!");
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the fault proxy!", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long now = System.nanoTime();
+                long nextDue = Long.MAX_VALUE;
+                for (Connection connection: connections) {
+                    nextDue = Math.min(nextDue, connection.nextDue());
+                }
+                if (nextDue == Long.MAX_VALUE) {
+                    selector.select();
+                } else if (nextDue > now) {
+                    selector.select(Math.max(1, (nextDue - now + 999999) / 1000000));
+                } else {
+                    selector.selectNow();
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                if (policyChanged) {
+                    policyChanged = false;
+                    for (Connection connection: new ArrayList<>(connections)) {
+                        connection.refreshPolicy();
+                    }
+                }
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.attachment() instanceof Listener) {
+                        accept(key);
+                    } else {
+                        ((Connection) key.attachment()).handle(key);
+                    }
+                }
+
+                now = System.nanoTime();
+                for (Connection connection: new ArrayList<>(connections)) {
+                    if (connection.nextDue() <= now) {
+                        connection.pump();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Unexpected error in the fault proxy", e);
+            }
+        }
+
+        for (Connection connection: new ArrayList<>(connections)) {
+            connection.close(false);
+        }
+        synchronized (listeners) {
+            for (ServerSocketChannel serverChannel: listeners) {
+                closeQuietly(serverChannel);
+            }
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+        closeQuietly(selector);
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        Listener listener = (Listener) key.attachment();
+        SocketChannel clientChannel;
+        while ((clientChannel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+            clientChannel.configureBlocking(false);
+            clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            String clientNode = policy.nodeOf(((InetSocketAddress) clientChannel.getRemoteAddress()).getAddress());
+            Connection connection = new Connection(clientNode, listener.nodeName, listener.port, clientChannel);
+            connections.add(connection);
+            connection.refreshPolicy();
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    private static class Listener {
+        final String nodeName;
+        final int port;
+
+        Listener(String nodeName, int port) {
+            this.nodeName = nodeName;
+            this.port = port;
+        }
+    }
+
+    private static class Chunk {
+        final ByteBuffer data;
+        final long due;
+
+        Chunk(ByteBuffer data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+
+    // A connection is created when the client is accepted, but the server side is connected only when the connection is
+    // not blocked. The server side is null until then.
+    private class Connection {
+        final String clientNode;
+        final String serverNode;
+        final int serverPort;
+        final SocketChannel client;
+        final SelectionKey clientKey;
+        SocketChannel server;
+        SelectionKey serverKey;
+        boolean connected;
+        boolean blocked;
+        boolean closed;
+        final Pipe upstream; // client -> server
+        final Pipe downstream; // server -> client
+
+        Connection(String clientNode, String serverNode, int serverPort, SocketChannel client) throws IOException {
+            this.clientNode = clientNode;
+            this.serverNode = serverNode;
+            this.serverPort = serverPort;
+            this.client = client;
+            this.clientKey = client.register(selector, 0, this);
+            this.upstream = new Pipe();
+            this.downstream = new Pipe();
+        }
+
+        void refreshPolicy() {
+            if (closed) {
+                return;
+            }
+            blocked = policy.isBlocked(clientNode, serverNode);
+            upstream.shaping = policy.shaping(clientNode, serverNode, serverPort);
+            downstream.shaping = policy.shaping(serverNode, clientNode, null);
+            if (!blocked && server == null) {
+                connect();
+            } else {
+                pump();
+            }
+        }
+
+        private void connect() {
+            InetSocketAddress upstreamAddress = policy.upstreamAddress(serverNode, serverPort);
+            if (upstreamAddress == null) {
+                logger.debug("Node {} is not reachable. Resetting the proxied connection from {}", serverNode, clientNode);
+                close(true);
+                return;
+            }
+            try {
+                server = SocketChannel.open();
+                server.configureBlocking(false);
+                server.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                serverKey = server.register(selector, SelectionKey.OP_CONNECT, this);
+                if (server.connect(upstreamAddress)) {
+                    onConnected();
+                }
+            } catch (IOException e) {
+                logger.debug("Error while connecting to {}:{} for {}", serverNode, serverPort, clientNode, e);
+                close(true);
+            }
+        }
+
+        private void onConnected() {
+            connected = true;
+            upstream.source = client;
+            upstream.sink = server;
+            downstream.source = server;
+            downstream.sink = client;
+            pump();
+        }
+
+        void handle(SelectionKey key) {
+            if (key == serverKey && key.isConnectable()) {
+                try {
+                    if (server.finishConnect()) {
+                        onConnected();
+                    }
+                } catch (IOException e) {
+                    logger.debug("Error while connecting to {}:{} for {}", serverNode, serverPort, clientNode, e);
+                    close(true);
+                }
+                return;
+            }
+            pump();
+        }
+
+        long nextDue() {
+            return connected && !blocked ? Math.min(upstream.nextDue, downstream.nextDue) : Long.MAX_VALUE;
+        }
+
+        void pump() {
+            if (closed || !connected) {
+                return;
+            }
+            try {
+                if (!blocked) {
+                    long now = System.nanoTime();
+                    upstream.pump(now);
+                    downstream.pump(now);
+                }
+                if (upstream.finished() && downstream.finished()) {
+                    close(false);
+                    return;
+                }
+                updateInterests();
+            } catch (IOException e) {
+                // a reset on one side is propagated to the other side
+                close(true);
+            }
+        }
+
+        private void updateInterests() {
+            int clientOps = 0;
+            int serverOps = 0;
+            if (!blocked) {
+                if (upstream.canRead()) {
+                    clientOps |= SelectionKey.OP_READ;
+                }
+                if (downstream.canRead()) {
+                    serverOps |= SelectionKey.OP_READ;
+                }
+                if (upstream.sinkFull) {
+                    serverOps |= SelectionKey.OP_WRITE;
+                }
+                if (downstream.sinkFull) {
+                    clientOps |= SelectionKey.OP_WRITE;
+                }
+            }
+            clientKey.interestOps(clientOps);
+            serverKey.interestOps(serverOps);
+        }
+
+        void close(boolean reset) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            connections.remove(this);
+            for (SocketChannel channel: Arrays.asList(client, server)) {
+                if (channel != null) {
+                    if (reset) {
+                        try {
+                            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                        } catch (IOException e) {
+                            // ignored
+                        }
+                    }
+                    closeQuietly(channel);
+                }
+            }
+        }
+    }
+
+    // The bytes are forwarded from the source to the sink through the direct buffer if the pipe has no fault. Otherwise,
+    // the read bytes are queued in chunks which are written after their due time when the bandwidth allows it.
+    private static class Pipe {
+        SocketChannel source;
+        SocketChannel sink;
+        LinkShaping shaping;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(Constants.PROXY_BUFFER_SIZE);
+        final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+        long queuedBytes;
+        long lastDue;
+        long nextDue = Long.MAX_VALUE;
+        boolean sourceClosed;
+        boolean sinkShutdown;
+        boolean sinkFull;
+
+        boolean canRead() {
+            return !sourceClosed && buffer.hasRemaining() && queuedBytes < Constants.PROXY_MAX_BUFFERED_BYTES;
+        }
+
+        boolean finished() {
+            return sinkShutdown;
+        }
+
+        void pump(long now) throws IOException {
+            read(now);
+            write(now);
+            if (sourceClosed && !sinkShutdown && buffer.position() == 0 && queue.isEmpty()) {
+                sink.shutdownOutput();
+                sinkShutdown = true;
+            }
+        }
+
+        private void read(long now) throws IOException {
+            while (canRead()) {
+                int read = source.read(buffer);
+                if (read < 0) {
+                    sourceClosed = true;
+                } else if (read == 0) {
+                    break;
+                }
+                if (shaping != null || !queue.isEmpty()) {
+                    enqueue(now);
+                }
+            }
+        }
+
+        private void enqueue(long now) {
+            if (buffer.position() == 0) {
+                return;
+            }
+            buffer.flip();
+            ByteBuffer data = ByteBuffer.allocate(buffer.remaining());
+            data.put(buffer).flip();
+            buffer.clear();
+
+            long due = now;
+            if (shaping != null && (shaping.getDelay() > 0 || shaping.getJitter() > 0)) {
+                long delay = shaping.getDelay();
+                if (shaping.getJitter() > 0) {
+                    delay += ThreadLocalRandom.current().nextLong(-shaping.getJitter(), shaping.getJitter() + 1);
+                }
+                due = now + Math.max(0, delay) * 1000000L;
+            }
+            // the bytes of a stream can't be reordered, so a chunk is never due before the previous one
+            due = Math.max(due, lastDue);
+            lastDue = due;
+            queue.add(new Chunk(data, due));
+            queuedBytes += data.remaining();
+        }
+
+        private void write(long now) throws IOException {
+            sinkFull = false;
+            nextDue = Long.MAX_VALUE;
+            if (buffer.position() > 0) {
+                buffer.flip();
+                sink.write(buffer);
+                boolean remaining = buffer.hasRemaining();
+                buffer.compact();
+                if (remaining) {
+                    sinkFull = true;
+                    return;
+                }
+            }
+
+            TokenBucket bandwidth = shaping == null ? null : shaping.getBandwidth();
+            Chunk chunk;
+            while ((chunk = queue.peek()) != null) {
+                if (chunk.due > now) {
+                    nextDue = chunk.due;
+                    return;
+                }
+                int toWrite = chunk.data.remaining();
+                if (bandwidth != null) {
+                    long available = bandwidth.available(now);
+                    if (available <= 0) {
+                        nextDue = bandwidth.nextAvailable(now);
+                        return;
+                    }
+                    toWrite = (int) Math.min(toWrite, available);
+                }
+                int limit = chunk.data.limit();
+                chunk.data.limit(chunk.data.position() + toWrite);
+                int written = sink.write(chunk.data);
+                chunk.data.limit(limit);
+                queuedBytes -= written;
+                if (bandwidth != null) {
+                    bandwidth.consume(written);
+                }
+                if (!chunk.data.hasRemaining()) {
+                    queue.poll();
+                } else if (written < toWrite) {
+                    sinkFull = true;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution.proxy;
+
+/**
+ * This class contains the faults to be imposed on the bytes flowing in one direction of a proxied connection
+ */
+public class LinkShaping {
+    private final long delay;
+    private final long jitter;
+    private final TokenBucket bandwidth;
+
+    /**
+     * Constructor
+     * @param delay the delay in milliseconds to be added to every forwarded chunk of bytes
+     * @param jitter the maximum random variation of the delay in milliseconds
+     * @param bandwidth the token bucket limiting the rate of the forwarded bytes or null for no limit
+     */
+    public LinkShaping(long delay, long jitter, TokenBucket bandwidth) {
+        this.delay = delay;
+        this.jitter = jitter;
+        this.bandwidth = bandwidth;
+    }
+
+    long getDelay() {
+        return delay;
+    }
+
+    long getJitter() {
+        return jitter;
+    }
+
+    TokenBucket getBandwidth() {
+        return bandwidth;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution.proxy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * This interface is used by the {@link FaultProxy} to find out the endpoints of the proxied connections and the faults
+ * to be imposed on them. The methods are called from the proxy's selector thread, so they should be fast.
+ */
+public interface ProxyPolicy {
+    /**
+     * @param address the source address of a proxied connection
+     * @return the name of the node with the given address or null if the address doesn't belong to a node
+     */
+    String nodeOf(InetAddress address);
+
+    /**
+     * @param nodeName the node a listener of the proxy belongs to
+     * @param port the port of the node the listener forwards to
+     * @return the address the connections of the listener should be forwarded to or null if the node is not reachable
+     */
+    InetSocketAddress upstreamAddress(String nodeName, int port);
+
+    /**
+     * @param clientNode the client node of a connection or null if the client is not a node
+     * @param serverNode the server node of a connection
+     * @return true if the connection between the two nodes should be stalled, otherwise false
+     */
+    boolean isBlocked(String clientNode, String serverNode);
+
+    /**
+     * @param sourceNode the node sending the bytes or null if the sender is not a node
+     * @param destinationNode the node receiving the bytes or null if the receiver is not a node
+     * @param destinationPort the port the bytes are sent to or null if it is an ephemeral port
+     * @return the faults to be imposed on the bytes or null if they should be forwarded as is
+     */
+    LinkShaping shaping(String sourceNode, String destinationNode, Integer destinationPort);
+}
@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution.proxy;
+
+/**
+ * This class is a token bucket which limits the rate of the bytes forwarded by the fault proxy. A bucket can be shared
+ * among multiple connections to limit their aggregated bandwidth. It is only used by the proxy's selector thread, so
+ * it is not thread-safe.
+ */
+public class TokenBucket {
+    private final double bytesPerNano;
+    private final long burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Constructor
+     * @param bytesPerSecond the rate of the bucket in bytes per second
+     * @param burst the size of the bucket in bytes
+     */
+    public TokenBucket(long bytesPerSecond, long burst) {
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * bytesPerNano);
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * @param now the current time in nanoseconds
+     * @return the number of bytes that can be sent right now
+     */
+    long available(long now) {
+        refill(now);
+        return (long) tokens;
+    }
+
+    /**
+     * @param bytes the number of sent bytes to be taken from the bucket
+     */
+    void consume(long bytes) {
+        tokens -= bytes;
+    }
+
+    /**
+     * @param now the current time in nanoseconds
+     * @return the time in nanoseconds at which at least one byte can be sent
+     */
+    long nextAvailable(long now) {
+        refill(now);
+        return tokens >= 1 ? now : now + (long) Math.ceil((1 - tokens) / bytesPerNano);
+    }
+}
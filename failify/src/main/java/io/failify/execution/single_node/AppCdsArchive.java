@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution.single_node;
+
+import io.failify.Constants;
+import io.failify.util.HashingUtil;
+import io.failify.workspace.NodeWorkspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * This class generates the wrapper script snippet which makes the JVM of a node use an application class data sharing
+ * archive. The archive is identified by the docker image and the class path of the node including the content of its
+ * local files, so a change in any of them results in a new archive. The instrumented files are woven again in each
+ * run, so they are identified by their content before the weaving and the woven aspects instead. When the archive
+ * doesn't exist, the JVM is asked to dump its loaded classes into a node specific temporary file at exit which is
+ * published as the archive on the next start of the node if the JVM can map it with the node's class path. This way, a
+ * partially dumped archive is never published and concurrent nodes never read a partially written archive.
+ */
+class AppCdsArchive {
+    // local file path, size and modification time -> content hash, so the files shared between the nodes are hashed once
+    private final static Map<String, String> contentHashMap = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > Constants.MAX_APPCDS_CONTENT_HASHES;
+        }
+    };
+
+    private final String classpath;
+    private final String archiveName;
+
+    AppCdsArchive(String imageId, String classpath, NodeWorkspace nodeWorkspace) throws IOException {
+        List<NodeWorkspace.PathMappingEntry> pathMappingList = nodeWorkspace.getPathMappingList();
+        Set<String> instrumentablePaths = nodeWorkspace.getInstrumentablePaths().stream().filter(Objects::nonNull)
+                .map(path -> Paths.get(path).toAbsolutePath().normalize().toString()).collect(Collectors.toSet());
+        // The mappings of the application paths without the copies of the instrumentable paths
+        List<NodeWorkspace.PathMappingEntry> preWeavingMappingList = pathMappingList.stream()
+                .filter(entry -> !instrumentablePaths.contains(Paths.get(entry.getSource()).toAbsolutePath()
+                        .normalize().toString())).collect(Collectors.toList());
+
+        this.classpath = classpath;
+        StringBuilder identity = new StringBuilder(imageId).append('\n').append(classpath);
+        for (String entry: classpath.split(File.pathSeparator)) {
+            identity.append('\n').append(entry);
+            File localFile = getLocalFile(entry, pathMappingList);
+            if (localFile == null || !localFile.isFile()) {
+                continue;
+            }
+
+            File preWeavingFile = getLocalFile(entry, preWeavingMappingList);
+            if (isInstrumented(localFile, instrumentablePaths) && preWeavingFile != null && preWeavingFile.isFile()) {
+                identity.append(":woven:").append(hashContent(preWeavingFile))
+                        .append(':').append(hashAspects(nodeWorkspace.getRootDirectory()));
+                // The JVM only maps the archive if the modification time of the jar files are the same as when the
+                // archive is dumped
+                if (!localFile.setLastModified(preWeavingFile.lastModified())) {
+                    throw new IOException("Unable to set the modification time of " + localFile + "!");
+                }
+            } else {
+                identity.append(':').append(hashContent(localFile));
+            }
+        }
+        archiveName = HashingUtil.md5(identity.toString()) + ".jsa";
+    }
+
+    /**
+     * @param nodeName the name of the node to generate the snippet for
+     * @return the shell snippet which exports the class data sharing options in JDK_JAVA_OPTIONS
+     */
+    String getJvmOptionsSnippet(String nodeName) {
+        String archive = Constants.APPCDS_TARGET_PATH + "/" + archiveName;
+        String tempArchive = archive + "." + nodeName + ".tmp";
+        // The dump of a JVM which is killed or fails while exiting is unusable, and -Xshare:on fails if it can't be mapped.
+        // A dynamic archive is only mapped with the class path it is dumped with, so the check uses the same class path
+        return "if [ ! -f " + archive + " ] && [ -f " + tempArchive + " ]; then\n"
+                + "  if java -cp " + quote(classpath) + " -XX:SharedArchiveFile=" + tempArchive
+                + " -Xshare:on -version > /dev/null 2>&1; then\n"
+                + "    mv -f " + tempArchive + " " + archive + "\n"
+                + "  else\n"
+                + "    rm -f " + tempArchive + "\n"
+                + "  fi\n"
+                + "fi\n"
+                + "if [ -f " + archive + " ]; then\n"
+                + "  touch " + archive + "\n"
+                + "  export JDK_JAVA_OPTIONS=\"-XX:+IgnoreUnrecognizedVMOptions -XX:SharedArchiveFile=" + archive
+                + " $JDK_JAVA_OPTIONS\"\n"
+                + "else\n"
+                + "  export JDK_JAVA_OPTIONS=\"-XX:+IgnoreUnrecognizedVMOptions -XX:ArchiveClassesAtExit=" + tempArchive
+                + " $JDK_JAVA_OPTIONS\"\n"
+                + "fi";
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    // Finds the local file of a class path entry through the longest matching path mapping of the node
+    private static File getLocalFile(String entry, List<NodeWorkspace.PathMappingEntry> pathMappingList) {
+        NodeWorkspace.PathMappingEntry match = null;
+        for (NodeWorkspace.PathMappingEntry pathMappingEntry: pathMappingList) {
+            String destination = pathMappingEntry.getDestination();
+            if ((entry.equals(destination) || entry.startsWith(destination + "/"))
+                    && (match == null || destination.length() > match.getDestination().length())) {
+                match = pathMappingEntry;
+            }
+        }
+        return match == null ? null : new File(match.getSource() + entry.substring(match.getDestination().length()));
+    }
+
+    private static boolean isInstrumented(File localFile, Set<String> instrumentablePaths) {
+        Path path = localFile.toPath().toAbsolutePath().normalize();
+        for (String instrumentablePath: instrumentablePaths) {
+            if (path.startsWith(instrumentablePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The aspects woven into the instrumentable paths are listed in the argfile of the node
+    private static String hashAspects(String rootDirectory) throws IOException {
+        Path argFile = Paths.get(rootDirectory, "argfile");
+        if (!Files.exists(argFile)) {
+            return "";
+        }
+
+        MessageDigest digest = newDigest();
+        for (String aspectFile: Files.readAllLines(argFile, StandardCharsets.UTF_8)) {
+            if (!aspectFile.trim().isEmpty()) {
+                digest.update(aspectFile.getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(Paths.get(rootDirectory).resolve(aspectFile.trim())));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String hashContent(File file) throws IOException {
+        String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        synchronized (contentHashMap) {
+            String hash = contentHashMap.get(key);
+            if (hash != null) {
+                return hash;
+            }
+        }
+
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String hash = toHex(digest.digest());
+        synchronized (contentHashMap) {
+            contentHashMap.put(key, hash);
+        }
+        return hash;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b: bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
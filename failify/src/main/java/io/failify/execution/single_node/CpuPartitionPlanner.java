@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution.single_node;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * This class partitions the host cpus the containers are allowed to use between the nodes of a deployment. The allowed
+ * cpus are not necessarily contiguous or starting from 0. The reserved cpus, which are the first allowed cpus, and the
+ * cpus the nodes are explicitly pinned to are left out, and the rest of the cpus are split into equally sized groups of
+ * consecutive allowed cpus between the nodes without a cpu set in the order of their names. If there are more nodes
+ * than the available cpus, the cpus are shared between the nodes in a round robin fashion.
+ */
+class CpuPartitionPlanner {
+    private final static Logger logger = LoggerFactory.getLogger(CpuPartitionPlanner.class);
+
+    private final SortedSet<Integer> allowedCpus;
+    private final int reservedCpus;
+
+    /**
+     * Constructor
+     * @param allowedCpus the host cpus the containers are allowed to use
+     * @param reservedCpus the number of the first allowed cpus to leave out of the partitioning
+     */
+    CpuPartitionPlanner(Collection<Integer> allowedCpus, int reservedCpus) {
+        this.allowedCpus = Collections.unmodifiableSortedSet(new TreeSet<>(allowedCpus));
+        this.reservedCpus = reservedCpus;
+    }
+
+    /**
+     * @param nodeCpuSets a map of node names to their explicit cpu sets or null if they should be partitioned
+     * @return a map of the node names without an explicit cpu set to their planned cpu sets
+     */
+    Map<String, String> plan(Map<String, String> nodeCpuSets) {
+        SortedSet<String> nodeNames = new TreeSet<>();
+        SortedSet<Integer> pinnedCpus = new TreeSet<>();
+        for (Map.Entry<String, String> nodeCpuSet: nodeCpuSets.entrySet()) {
+            if (nodeCpuSet.getValue() == null) {
+                nodeNames.add(nodeCpuSet.getKey());
+            } else {
+                pinnedCpus.addAll(parseCpuSet(nodeCpuSet.getValue()));
+            }
+        }
+
+        Map<String, String> plan = new HashMap<>();
+        if (nodeNames.isEmpty()) {
+            return plan;
+        }
+
+        List<Integer> availableCpus = new ArrayList<>();
+        int index = 0;
+        for (Integer cpu: allowedCpus) {
+            if (index++ >= reservedCpus && !pinnedCpus.contains(cpu)) {
+                availableCpus.add(cpu);
+            }
+        }
+        if (availableCpus.isEmpty()) {
+            logger.warn("No host cpu is left for partitioning after the {} reserved and the explicitly pinned cpus. " +
+                    "Partitioning all of the allowed host cpus {} ...", reservedCpus, formatCpuSet(allowedCpus));
+            availableCpus.addAll(allowedCpus);
+        }
+        if (nodeNames.size() > availableCpus.size()) {
+            logger.warn("There are more nodes than the {} available host cpus. Some of the nodes will share a cpu!",
+                    availableCpus.size());
+        }
+
+        int groupSize = availableCpus.size() / nodeNames.size();
+        int largerGroups = availableCpus.size() % nodeNames.size();
+        index = 0;
+        int next = 0;
+        for (String nodeName: nodeNames) {
+            List<Integer> group;
+            if (groupSize == 0) {
+                group = Collections.singletonList(availableCpus.get(index % availableCpus.size()));
+            } else {
+                int size = groupSize + (index < largerGroups ? 1 : 0);
+                group = availableCpus.subList(next, next + size);
+                next += size;
+            }
+            plan.put(nodeName, formatCpuSet(group));
+            logger.info("Node {} is pinned to host cpus {}", nodeName, plan.get(nodeName));
+            index++;
+        }
+
+        return plan;
+    }
+
+    /**
+     * @param cpuSet a cpu set in the cpuset list format e.g. 0-2,4
+     * @return the set of the cpus in the cpu set
+     */
+    static SortedSet<Integer> parseCpuSet(String cpuSet) {
+        SortedSet<Integer> cpus = new TreeSet<>();
+        for (String range: cpuSet.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            String[] bounds = range.split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = bounds.length > 1 ? Integer.parseInt(bounds[1]) : start;
+            for (int cpu = start; cpu <= end; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus;
+    }
+
+    // Collapses the consecutive cpus into ranges e.g. 0,1,2,4 into 0-2,4
+    static String formatCpuSet(Collection<Integer> cpus) {
+        StringJoiner ranges = new StringJoiner(",");
+        Integer start = null;
+        Integer previous = null;
+        for (Integer cpu: new TreeSet<>(cpus)) {
+            if (previous != null && cpu != previous + 1) {
+                ranges.add(start.equals(previous) ? String.valueOf(start) : start + "-" + previous);
+                start = null;
+            }
+            if (start == null) {
+                start = cpu;
+            }
+            previous = cpu;
+        }
+        if (start != null) {
+            ranges.add(start.equals(previous) ? String.valueOf(start) : start + "-" + previous);
+        }
+        return ranges.toString();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution.single_node;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.exceptions.DockerException;
+import io.failify.exceptions.RuntimeEngineException;
+import io.failify.execution.LogRotator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class collects the console output of the nodes' containers from docker into the console files of the nodes'
+ * log directories. As the console files are written by Failify, they are rotated without losing any line. The output
+ * of a container is followed every time it is started. Docker's timestamps are used to skip the lines that are already
+ * collected from the previous runs of the container.
+ */
+public class DockerConsoleCollector {
+    private final static Logger logger = LoggerFactory.getLogger(DockerConsoleCollector.class);
+    private final static long DRAIN_TIMEOUT = 5000; // in milliseconds
+
+    private final DockerClient dockerClient;
+    private final LogRotator logRotator;
+    private final Map<String, ConsoleLog> consoleLogMap;
+
+    public DockerConsoleCollector(DockerClient dockerClient, LogRotator logRotator) {
+        this.dockerClient = dockerClient;
+        this.logRotator = logRotator;
+        this.consoleLogMap = new HashMap<>();
+    }
+
+    public synchronized void addNode(String nodeName, String containerId, String consoleFile, String logDirectory)
+            throws RuntimeEngineException {
+        try {
+            consoleLogMap.put(nodeName, new ConsoleLog(nodeName, containerId,
+                    logRotator.createWriter(Paths.get(consoleFile), Paths.get(logDirectory))));
+        } catch (IOException e) {
+            throw new RuntimeEngineException("Error while opening console log file " + consoleFile + " for node "
+                    + nodeName + "!", e);
+        }
+    }
+
+    // This should be called every time the container of the node is started or restarted
+    public synchronized void follow(String nodeName) {
+        ConsoleLog consoleLog = consoleLogMap.get(nodeName);
+        if (consoleLog == null) {
+            return;
+        }
+
+        if (consoleLog.follower != null && consoleLog.follower.isAlive()) {
+            // The follower of the previous run should finish shortly as the container has been stopped
+            joinFollower(consoleLog);
+            if (consoleLog.follower.isAlive()) {
+                logger.debug("Console output of node {} is still being followed", nodeName);
+                return;
+            }
+        }
+
+        consoleLog.follower = new Thread(() -> collect(consoleLog), "failify-console-" + nodeName);
+        consoleLog.follower.setDaemon(true);
+        consoleLog.follower.start();
+    }
+
+    // Waits for the output of a stopped container to be fully collected
+    public void drain(String nodeName) {
+        ConsoleLog consoleLog;
+        synchronized (this) {
+            consoleLog = consoleLogMap.get(nodeName);
+        }
+
+        if (consoleLog != null && consoleLog.follower != null) {
+            joinFollower(consoleLog);
+            if (consoleLog.follower.isAlive()) {
+                logger.warn("Console output of node {} is not fully collected in time!", nodeName);
+                consoleLog.closeStream();
+            }
+        }
+    }
+
+    public void stop() {
+        List<String> nodeNames;
+        synchronized (this) {
+            nodeNames = new ArrayList<>(consoleLogMap.keySet());
+        }
+
+        for (String nodeName: nodeNames) {
+            drain(nodeName);
+        }
+        synchronized (this) {
+            for (ConsoleLog consoleLog: consoleLogMap.values()) {
+                consoleLog.writer.close();
+            }
+        }
+    }
+
+    private void joinFollower(ConsoleLog consoleLog) {
+        try {
+            consoleLog.follower.join(DRAIN_TIMEOUT);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the console output of node {} to be collected!",
+                    consoleLog.nodeName);
+        }
+    }
+
+    private void collect(ConsoleLog consoleLog) {
+        Instant skipUntil = consoleLog.lastTimestamp;
+        List<DockerClient.LogsParam> logsParams = new ArrayList<>(Arrays.asList(DockerClient.LogsParam.follow(),
+                DockerClient.LogsParam.stdout(), DockerClient.LogsParam.stderr(), DockerClient.LogsParam.timestamps()));
+        if (skipUntil != null) {
+            logsParams.add(DockerClient.LogsParam.since((int) skipUntil.getEpochSecond()));
+        }
+
+        try (LogStream logStream = dockerClient.logs(consoleLog.containerId,
+                logsParams.toArray(new DockerClient.LogsParam[0]))) {
+            consoleLog.stream = logStream;
+            while (logStream.hasNext()) {
+                ByteBuffer content = logStream.next().content();
+                byte[] bytes = new byte[content.remaining()];
+                content.get(bytes);
+
+                // Each log entry is prefixed by its timestamp and a space
+                int separatorIndex = 0;
+                while (separatorIndex < bytes.length && bytes[separatorIndex] != ' ') {
+                    separatorIndex++;
+                }
+                Instant timestamp;
+                try {
+                    timestamp = Instant.parse(new String(bytes, 0, separatorIndex, StandardCharsets.US_ASCII));
+                } catch (DateTimeParseException e) {
+                    consoleLog.writer.write(bytes);
+                    continue;
+                }
+
+                if (skipUntil != null && !timestamp.isAfter(skipUntil)) {
+                    continue;
+                }
+                consoleLog.lastTimestamp = timestamp;
+                consoleLog.writer.write(Arrays.copyOfRange(bytes, Math.min(separatorIndex + 1, bytes.length),
+                        bytes.length));
+            }
+        } catch (DockerException | InterruptedException | IOException | RuntimeException e) {
+            logger.debug("Console output collection of node {} is stopped", consoleLog.nodeName, e);
+        } finally {
+            consoleLog.stream = null;
+        }
+    }
+
+    private static class ConsoleLog {
+        private final String nodeName;
+        private final String containerId;
+        private final LogRotator.RotatingLogWriter writer;
+        private volatile Instant lastTimestamp;
+        private volatile LogStream stream;
+        private Thread follower;
+
+        private ConsoleLog(String nodeName, String containerId, LogRotator.RotatingLogWriter writer) {
+            this.nodeName = nodeName;
+            this.containerId = containerId;
+            this.writer = writer;
+        }
+
+        private void closeStream() {
+            LogStream logStream = stream;
+            if (logStream != null) {
+                logStream.close();
+            }
+        }
+    }
+}
@@ -30,6 +30,7 @@ import com.spotify.docker.client.messages.Ipam;
 import com.spotify.docker.client.messages.IpamConfig;
 import com.spotify.docker.client.messages.NetworkConfig;
 import io.failify.Constants;
+import io.failify.dsl.entities.NetworkMode;
 import io.failify.exceptions.RuntimeEngineException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,12 +47,15 @@ public class DockerNetworkManager {
     private final DockerClient dockerClient;
     private final String dockerNetworkId;
     private final String dockerNetworkName;
+    private final String controlNetworkId;
+    private final String controlNetworkName;
+    private String controlNetworkGateway;
     private final String ipPrefix;
     private final String hostIp;
     private Integer currentIp;
 
-    public DockerNetworkManager(String deploymentName, DockerClient dockerClient)
-            throws RuntimeEngineException {
+    public DockerNetworkManager(String deploymentName, DockerClient dockerClient, NetworkMode networkMode,
+                                String parentInterface) throws RuntimeEngineException {
         this.dockerClient = dockerClient;
 
         dockerNetworkName = Constants.DOCKER_NETWORK_NAME_PREFIX + deploymentName + "_" + Instant.now().getEpochSecond();
@@ -66,8 +70,9 @@ public class DockerNetworkManager {
 
             try {
                 tempNetworkId = dockerClient.createNetwork(NetworkConfig.builder()
-                        .driver("bridge")
+                        .driver(networkMode.name().toLowerCase())
                         .name(dockerNetworkName)
+                        .options(getDriverOptions(networkMode, parentInterface))
                         .ipam(Ipam.create("default", Arrays.asList(IpamConfig.create(subnet, null, gateway))))
                         .build()).id();
                 logger.info("Docker network {} is created!", tempNetworkId);
@@ -82,6 +87,29 @@ public class DockerNetworkManager {
         }
 
         dockerNetworkId = tempNetworkId;
+
+        // ipvlan and macvlan children can't talk to the host through their parent interface, so the nodes reach the
+        // host through a separate bridge network. The subnet of this network is chosen by docker.
+        if (networkMode != NetworkMode.BRIDGE) {
+            controlNetworkName = dockerNetworkName + Constants.DOCKER_CONTROL_NETWORK_NAME_SUFFIX;
+            try {
+                controlNetworkId = dockerClient.createNetwork(NetworkConfig.builder()
+                        .driver("bridge")
+                        .name(controlNetworkName)
+                        .build()).id();
+                logger.info("Docker control network {} is created!", controlNetworkId);
+            } catch (InterruptedException | DockerException e) {
+                try {
+                    dockerClient.removeNetwork(dockerNetworkId);
+                } catch (InterruptedException | DockerException ex) {
+                    logger.error("Error in deleting docker network {}!", dockerNetworkId, ex);
+                }
+                throw new RuntimeEngineException("Error in creating docker control network!", e);
+            }
+        } else {
+            controlNetworkName = null;
+            controlNetworkId = null;
+        }
         hostIp = dockerClient.getHost();
         ipPrefix = tempIpPrefix;
         currentIp = 2;
@@ -97,13 +125,79 @@ public class DockerNetworkManager {
         return dockerNetworkName;
     }
 
-    public void deleteDockerNetwork() throws RuntimeEngineException {
+    /**
+     * @return the id of the bridge network the nodes reach the docker host through or null if the nodes are connected
+     * to each other with a bridge network
+     */
+    public String controlNetworkId() {
+        return controlNetworkId;
+    }
+
+    /**
+     * @return the gateway address of the control network which is the host end of its bridge
+     * @throws RuntimeEngineException if the control network doesn't exist or its gateway cannot be found
+     */
+    public synchronized String getControlNetworkGateway() throws RuntimeEngineException {
+        if (controlNetworkId == null) {
+            throw new RuntimeEngineException("There is no docker control network!");
+        }
+        if (controlNetworkGateway != null) {
+            return controlNetworkGateway;
+        }
+
         try {
-            if (dockerNetworkId != null) {
-                dockerClient.removeNetwork(dockerNetworkId);
+            Ipam ipam = dockerClient.inspectNetwork(controlNetworkId).ipam();
+            if (ipam != null && ipam.config() != null) {
+                for (IpamConfig ipamConfig: ipam.config()) {
+                    // The gateway may be reported in CIDR notation
+                    if (ipamConfig.gateway() != null && ipamConfig.gateway().contains(".")) {
+                        controlNetworkGateway = ipamConfig.gateway().split("/")[0];
+                        return controlNetworkGateway;
+                    }
+                }
             }
         } catch (InterruptedException | DockerException e) {
-            throw new RuntimeEngineException("Error in deleting docker network" + dockerNetworkId + "!", e);
+            throw new RuntimeEngineException("Error in inspecting docker control network " + controlNetworkId + "!",
+                    e);
+        }
+        throw new RuntimeEngineException("Unable to find the gateway of docker control network " + controlNetworkId
+                + "!");
+    }
+
+    private Map<String, String> getDriverOptions(NetworkMode networkMode, String parentInterface) {
+        Map<String, String> options = new HashMap<>();
+        if (parentInterface != null) {
+            options.put("parent", parentInterface);
+        }
+        if (networkMode == NetworkMode.IPVLAN) {
+            options.put("ipvlan_mode", "l2");
+        } else if (networkMode == NetworkMode.MACVLAN) {
+            options.put("macvlan_mode", "bridge");
+        }
+        return options;
+    }
+
+    // Both of the networks are removed even if removing the control network fails, so the main one never leaks
+    public void deleteDockerNetwork() throws RuntimeEngineException {
+        RuntimeEngineException error = null;
+        for (String networkId: Arrays.asList(controlNetworkId, dockerNetworkId)) {
+            if (networkId == null) {
+                continue;
+            }
+            try {
+                dockerClient.removeNetwork(networkId);
+            } catch (InterruptedException | DockerException e) {
+                RuntimeEngineException networkError = new RuntimeEngineException("Error in deleting docker network "
+                        + networkId + "!", e);
+                if (error == null) {
+                    error = networkError;
+                } else {
+                    error.addSuppressed(networkError);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
         }
     }
 
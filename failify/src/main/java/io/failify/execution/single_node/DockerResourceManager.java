@@ -0,0 +1,335 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution.single_node;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ContainerUpdate;
+import com.spotify.docker.client.messages.HostConfig;
+import io.failify.exceptions.RuntimeEngineException;
+import io.failify.execution.DiskOp;
+import io.failify.util.DockerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class applies runtime resource limits e.g. cpu, memory and block I/O throttling on the nodes' containers by live
+ * updates of their cgroups and keeps track of them to be re-applied when a node is started or restarted. The limits
+ * declared in the deployment are the baseline of the nodes which is restored when a runtime limit is removed
+ */
+public class DockerResourceManager {
+    private final static Logger logger = LoggerFactory.getLogger(DockerResourceManager.class);
+    private final static long CPU_PERIOD = 100000L; // the cfs period in microseconds
+    private final static long UNLIMITED = -1L;
+    private final static String HOST_CGROUP_PATH = "/sys/fs/cgroup";
+    private final static String CGROUP_PROBE_PATH = "/failify_cgroup";
+
+    private final DockerClient dockerClient;
+    private final Map<String, DockerContainerInfo> nodeToContainerInfoMap;
+    private final Map<String, String> nodeToImageMap;
+    private final Map<String, Double> cpuThrottleMap;
+    private final Map<String, Long> memoryLimitMap;
+    private final Map<String, Map<String, DiskOp.Throttle>> diskThrottleMap; // node -> device -> throttle
+    private final Map<String, Double> baselineCpusMap;
+    private final Map<String, Long> baselineMemoryMap;
+    private Long unlimitedMemory;
+
+    /**
+     * Constructor
+     * @param dockerClient the docker client to update the containers through
+     * @param nodeToContainerInfoMap the containers of the nodes
+     * @param nodeToImageMap the docker images of the nodes which are used to run the block I/O cgroup updates in
+     */
+    public DockerResourceManager(DockerClient dockerClient, Map<String, DockerContainerInfo> nodeToContainerInfoMap,
+                                 Map<String, String> nodeToImageMap) {
+        this.dockerClient = dockerClient;
+        this.nodeToContainerInfoMap = nodeToContainerInfoMap;
+        this.nodeToImageMap = nodeToImageMap;
+        this.cpuThrottleMap = new HashMap<>();
+        this.memoryLimitMap = new HashMap<>();
+        this.diskThrottleMap = new HashMap<>();
+        this.baselineCpusMap = new HashMap<>();
+        this.baselineMemoryMap = new HashMap<>();
+    }
+
+    /**
+     * Adds the baseline cpu and memory limits of a node to the given host config of its container to be created
+     * @param nodeName the name of the node
+     * @param hostConfigBuilder the host config builder of the node's container
+     * @param cpus the baseline number of cpus or null if unlimited
+     * @param memory the baseline memory limit in bytes or null if unlimited
+     */
+    public synchronized void applyBaselineLimits(String nodeName, HostConfig.Builder hostConfigBuilder, Double cpus,
+                                                 Long memory) {
+        if (cpus != null) {
+            hostConfigBuilder.cpuPeriod(CPU_PERIOD).cpuQuota(Math.round(cpus * CPU_PERIOD));
+            baselineCpusMap.put(nodeName, cpus);
+        }
+        if (memory != null) {
+            hostConfigBuilder.memory(memory).memorySwap(memory);
+            baselineMemoryMap.put(nodeName, memory);
+        }
+    }
+
+    public synchronized void throttleCpu(String nodeName, double cpus) throws RuntimeEngineException {
+        if (cpus <= 0) {
+            throw new RuntimeEngineException("The number of cpus to throttle node " + nodeName + " to should be positive!");
+        }
+
+        logger.info("Throttling cpu of node {} to {} cpus ...", nodeName, cpus);
+        updateContainer(nodeName, cpuHostConfig(cpus).build());
+        cpuThrottleMap.put(nodeName, cpus);
+    }
+
+    public synchronized void removeCpuThrottle(String nodeName) throws RuntimeEngineException {
+        if (!cpuThrottleMap.containsKey(nodeName)) {
+            logger.warn("Node {} has no cpu throttle to be removed!", nodeName);
+            return;
+        }
+
+        logger.info("Removing cpu throttle of node {} ...", nodeName);
+        if (baselineCpusMap.containsKey(nodeName)) {
+            updateContainer(nodeName, cpuHostConfig(baselineCpusMap.get(nodeName)).build());
+        } else {
+            updateContainer(nodeName, HostConfig.builder().cpuPeriod(CPU_PERIOD).cpuQuota(UNLIMITED).build());
+        }
+        cpuThrottleMap.remove(nodeName);
+    }
+
+    public synchronized void limitMemory(String nodeName, long bytes) throws RuntimeEngineException {
+        if (bytes <= 0) {
+            throw new RuntimeEngineException("The memory limit for node " + nodeName + " should be positive!");
+        }
+
+        logger.info("Limiting memory of node {} to {} bytes ...", nodeName, bytes);
+        updateContainer(nodeName, memoryHostConfig(bytes).build());
+        memoryLimitMap.put(nodeName, bytes);
+    }
+
+    public synchronized void removeMemoryLimit(String nodeName) throws RuntimeEngineException {
+        if (!memoryLimitMap.containsKey(nodeName)) {
+            logger.warn("Node {} has no memory limit to be removed!", nodeName);
+            return;
+        }
+
+        logger.info("Removing memory limit of node {} ...", nodeName);
+        if (baselineMemoryMap.containsKey(nodeName)) {
+            updateContainer(nodeName, memoryHostConfig(baselineMemoryMap.get(nodeName)).build());
+        } else {
+            // Docker doesn't accept unsetting a memory limit on a live container, so the limit is raised to the host's
+            // memory
+            updateContainer(nodeName, HostConfig.builder().memory(getUnlimitedMemory()).memorySwap(UNLIMITED).build());
+        }
+        memoryLimitMap.remove(nodeName);
+    }
+
+    /**
+     * Throttles the block I/O of a node on a device by writing the limits into the blkio (cgroup v1) or io (cgroup v2)
+     * controller of the node's container. Docker only applies the blkio weight on a running container and silently
+     * drops the per-device limits, so the container's cgroup is updated directly. If the node is not running, the
+     * throttle is applied when it is started.
+     * @param nodeName the name of the node
+     * @param device the major:minor number of the host block device
+     * @param throttle the limits to apply. The unspecified limits are removed
+     */
+    public synchronized void throttleDisk(String nodeName, String device, DiskOp.Throttle throttle)
+            throws RuntimeEngineException {
+        logger.info("Applying {} on device {} of node {} ...", throttle, device, nodeName);
+        Map<String, DiskOp.Throttle> deviceThrottles = new HashMap<>();
+        deviceThrottles.put(device, throttle);
+        updateBlkioCgroup(nodeName, deviceThrottles, false);
+        diskThrottleMap.computeIfAbsent(nodeName, k -> new HashMap<>()).put(device, throttle);
+    }
+
+    // If device is null, all of the disk throttles of the node will be removed
+    public synchronized void removeDiskThrottle(String nodeName, String device) throws RuntimeEngineException {
+        Map<String, DiskOp.Throttle> currentThrottles = diskThrottleMap.get(nodeName);
+        if (currentThrottles == null || (device != null && !currentThrottles.containsKey(device))) {
+            logger.warn("Node {} has no disk throttle to be removed{}!", nodeName,
+                    device == null ? "" : " on device " + device);
+            return;
+        }
+
+        // A null throttle for a device removes all of the device limits
+        Map<String, DiskOp.Throttle> deviceThrottles = new HashMap<>();
+        for (String currentDevice: currentThrottles.keySet()) {
+            if (device == null || device.equals(currentDevice)) {
+                logger.info("Removing disk throttle on device {} of node {} ...", currentDevice, nodeName);
+                deviceThrottles.put(currentDevice, null);
+            }
+        }
+        updateBlkioCgroup(nodeName, deviceThrottles, false);
+        currentThrottles.keySet().removeAll(deviceThrottles.keySet());
+        if (currentThrottles.isEmpty()) {
+            diskThrottleMap.remove(nodeName);
+        }
+    }
+
+    // This is useful when start/restarting a node when a resource limit is in place
+    public synchronized void reApplyResourceLimits(String nodeName) throws RuntimeEngineException {
+        try {
+            if (cpuThrottleMap.containsKey(nodeName) || memoryLimitMap.containsKey(nodeName)) {
+                HostConfig.Builder hostConfigBuilder = HostConfig.builder();
+                if (cpuThrottleMap.containsKey(nodeName)) {
+                    hostConfigBuilder = cpuHostConfig(cpuThrottleMap.get(nodeName));
+                }
+                if (memoryLimitMap.containsKey(nodeName)) {
+                    hostConfigBuilder.memory(memoryLimitMap.get(nodeName)).memorySwap(memoryLimitMap.get(nodeName));
+                }
+                updateContainer(nodeName, hostConfigBuilder.build());
+            }
+            // A new cgroup is created for the container every time it is started
+            if (diskThrottleMap.containsKey(nodeName)) {
+                updateBlkioCgroup(nodeName, diskThrottleMap.get(nodeName), true);
+            }
+        } catch (RuntimeEngineException e) {
+            throw new RuntimeEngineException("Error while re-applying resource limits on node " + nodeName, e);
+        }
+    }
+
+    private HostConfig.Builder cpuHostConfig(double cpus) {
+        return HostConfig.builder().cpuPeriod(CPU_PERIOD).cpuQuota(Math.round(cpus * CPU_PERIOD));
+    }
+
+    private HostConfig.Builder memoryHostConfig(long bytes) {
+        // memory swap is set to the same amount to prevent the node from using the swap space instead
+        return HostConfig.builder().memory(bytes).memorySwap(bytes);
+    }
+
+    private void updateBlkioCgroup(String nodeName, Map<String, DiskOp.Throttle> deviceThrottles, boolean starting)
+            throws RuntimeEngineException {
+        String containerId = nodeToContainerInfoMap.get(nodeName).containerId();
+        if (!starting) {
+            try {
+                Boolean running = dockerClient.inspectContainer(containerId).state().running();
+                if (running == null || !running) {
+                    logger.info("Node {} is not running. The disk throttles will be applied when it is started",
+                            nodeName);
+                    return;
+                }
+            } catch (InterruptedException | DockerException e) {
+                throw new RuntimeEngineException("Error while inspecting the container for node " + nodeName + "!", e);
+            }
+        }
+
+        StringBuilder script = new StringBuilder();
+        for (Map.Entry<String, DiskOp.Throttle> deviceThrottle: deviceThrottles.entrySet()) {
+            DiskOp.Throttle throttle = deviceThrottle.getValue();
+            if (throttle == null) {
+                script.append(blkioCgroupScript(CGROUP_PROBE_PATH, containerId, deviceThrottle.getKey(),
+                        null, null, null, null));
+            } else {
+                script.append(blkioCgroupScript(CGROUP_PROBE_PATH, containerId, deviceThrottle.getKey(),
+                        throttle.getReadBps(), throttle.getWriteBps(), toLong(throttle.getReadIops()),
+                        toLong(throttle.getWriteIops())));
+            }
+        }
+
+        try {
+            DockerUtil.runProbeContainer(dockerClient, nodeToImageMap.get(nodeName),
+                    Collections.singletonList(HostConfig.Bind.from(HOST_CGROUP_PATH).to(CGROUP_PROBE_PATH).build()),
+                    true, script.toString());
+        } catch (RuntimeEngineException e) {
+            throw new RuntimeEngineException("Error while updating the block I/O cgroup of the container for node "
+                    + nodeName + "!", e);
+        }
+    }
+
+    /**
+     * Creates a shell script to write the block I/O limits of a device into the cgroup of a container. The cgroup of
+     * the container is looked up by its id as its location depends on the cgroup driver of the docker daemon. The
+     * unspecified limits are removed so a new throttle on a device replaces the previous one.
+     * @param cgroupRoot the path the cgroup hierarchy of the docker host is mounted on
+     * @param containerId the full id of the container
+     * @param device the major:minor number of the block device
+     * @param readBps the read limit in bytes per second or null to remove it
+     * @param writeBps the write limit in bytes per second or null to remove it
+     * @param readIops the read limit in I/O operations per second or null to remove it
+     * @param writeIops the write limit in I/O operations per second or null to remove it
+     * @return the shell script which exits with a non-zero status if the cgroup of the container is not found
+     */
+    static String blkioCgroupScript(String cgroupRoot, String containerId, String device, Long readBps, Long writeBps,
+                                    Long readIops, Long writeIops) {
+        // cgroup v2 has a cgroup.controllers file in its root while v1 has a directory per controller
+        return "if [ -f " + cgroupRoot + "/cgroup.controllers ]; then"
+                + " dir=$(find " + cgroupRoot + "/ -type d -name '*" + containerId + "*' | head -n 1);"
+                + " [ -n \"$dir\" ] || exit 1;"
+                + " echo '" + device + " rbps=" + v2Limit(readBps) + " wbps=" + v2Limit(writeBps)
+                + " riops=" + v2Limit(readIops) + " wiops=" + v2Limit(writeIops) + "' > \"$dir/io.max\" || exit 1;"
+                + " else"
+                + " dir=$(find " + cgroupRoot + "/blkio/ -type d -name '*" + containerId + "*' | head -n 1);"
+                + " [ -n \"$dir\" ] || exit 1;"
+                + v1Write(device, readBps, "read_bps_device")
+                + v1Write(device, writeBps, "write_bps_device")
+                + v1Write(device, readIops, "read_iops_device")
+                + v1Write(device, writeIops, "write_iops_device")
+                + " fi;";
+    }
+
+    private static Long toLong(Integer value) {
+        return value == null ? null : value.longValue();
+    }
+
+    private static String v2Limit(Long limit) {
+        return limit == null ? "max" : limit.toString();
+    }
+
+    // A zero limit removes the limit of the device on cgroup v1
+    private static String v1Write(String device, Long limit, String fileSuffix) {
+        return " echo '" + device + " " + (limit == null ? 0 : limit) + "' > \"$dir/blkio.throttle." + fileSuffix
+                + "\" || exit 1;";
+    }
+
+    private Long getUnlimitedMemory() throws RuntimeEngineException {
+        if (unlimitedMemory == null) {
+            try {
+                unlimitedMemory = dockerClient.info().memTotal();
+            } catch (InterruptedException | DockerException e) {
+                throw new RuntimeEngineException("Error while getting the total memory of the docker host!", e);
+            }
+        }
+        return unlimitedMemory;
+    }
+
+    private void updateContainer(String nodeName, HostConfig hostConfig) throws RuntimeEngineException {
+        try {
+            ContainerUpdate containerUpdate = dockerClient.updateContainer(
+                    nodeToContainerInfoMap.get(nodeName).containerId(), hostConfig);
+            if (containerUpdate != null && containerUpdate.warnings() != null) {
+                for (String warning: containerUpdate.warnings()) {
+                    logger.warn("Resource update warning for node {}: {}", nodeName, warning);
+                }
+            }
+        } catch (InterruptedException | DockerException e) {
+            throw new RuntimeEngineException("Error while updating the resources of the container for node "
+                    + nodeName + "!", e);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution.single_node;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.BlockIoStats;
+import com.spotify.docker.client.messages.ContainerStats;
+import com.spotify.docker.client.messages.CpuStats;
+import com.spotify.docker.client.messages.NetworkStats;
+import io.failify.Constants;
+import io.failify.execution.ResourceSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class periodically samples the docker stats of the nodes' containers, keeps the most recent samples in memory to
+ * be queried in the test cases and records all of them as a csv file in each node's log directory
+ */
+public class DockerStatsSampler {
+    private final static Logger logger = LoggerFactory.getLogger(DockerStatsSampler.class);
+
+    private final DockerClient dockerClient;
+    private final Integer samplingInterval;
+    private final ScheduledExecutorService executorService;
+    private final Map<String, NodeRecorder> nodeRecorderMap;
+
+    /**
+     * Constructor
+     * @param dockerClient the docker client to get the stats through
+     * @param samplingInterval the delay between two consecutive samples of a node in milliseconds
+     * @param poolSize the number of threads to be used for sampling
+     */
+    public DockerStatsSampler(DockerClient dockerClient, Integer samplingInterval, Integer poolSize) {
+        this.dockerClient = dockerClient;
+        this.samplingInterval = samplingInterval;
+        this.nodeRecorderMap = new ConcurrentHashMap<>();
+        this.executorService = Executors.newScheduledThreadPool(Math.max(1, poolSize), runnable -> {
+            Thread thread = new Thread(runnable, "failify-stats-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sampling the given container. The stats of the node will be recorded in the given log directory
+     * @param nodeName the node name the container belongs to
+     * @param containerId the container id of the node
+     * @param logDirectory the local log directory of the node
+     */
+    public void addNode(String nodeName, String containerId, String logDirectory) {
+        if (nodeRecorderMap.containsKey(nodeName)) {
+            return;
+        }
+
+        NodeRecorder nodeRecorder = new NodeRecorder(nodeName, containerId,
+                Paths.get(logDirectory, Constants.RESOURCE_STATS_FILE_NAME));
+        nodeRecorderMap.put(nodeName, nodeRecorder);
+        nodeRecorder.future = executorService.scheduleWithFixedDelay(nodeRecorder::sample, 0, samplingInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param nodeName the node name to return the samples for
+     * @param from the inclusive start of the time window or null for no lower bound
+     * @param to the inclusive end of the time window or null for no upper bound
+     * @return the list of the node's samples in the given time window sorted by time
+     */
+    public List<ResourceSample> samples(String nodeName, Instant from, Instant to) {
+        NodeRecorder nodeRecorder = nodeRecorderMap.get(nodeName);
+        if (nodeRecorder == null) {
+            return new ArrayList<>();
+        }
+
+        List<ResourceSample> retList = new ArrayList<>();
+        synchronized (nodeRecorder.samples) {
+            // samples are appended in time order, so the start of the window can be found using a binary search
+            int index = from == null ? 0 : firstIndexNotBefore(nodeRecorder.samples, from);
+            for (; index < nodeRecorder.samples.size(); index++) {
+                ResourceSample sample = nodeRecorder.samples.get(index);
+                if (to != null && sample.timestamp().isAfter(to)) {
+                    break;
+                }
+                retList.add(sample);
+            }
+        }
+        return retList;
+    }
+
+    private int firstIndexNotBefore(SampleBuffer samples, Instant from) {
+        int low = 0, high = samples.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (samples.get(mid).timestamp().isBefore(from)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Stops sampling all the nodes and closes the stats files. In case of a failure, it won't throw any exception, but
+     * error logs the exception
+     */
+    public void stop() {
+        executorService.shutdownNow();
+        try {
+            executorService.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the stats sampler to be stopped");
+        }
+
+        for (NodeRecorder nodeRecorder: nodeRecorderMap.values()) {
+            nodeRecorder.close();
+        }
+    }
+
+    private class NodeRecorder {
+        private final String nodeName;
+        private final String containerId;
+        private final Path statsFile;
+        private final SampleBuffer samples;
+        private BufferedWriter writer;
+        private ScheduledFuture<?> future;
+
+        private NodeRecorder(String nodeName, String containerId, Path statsFile) {
+            this.nodeName = nodeName;
+            this.containerId = containerId;
+            this.statsFile = statsFile;
+            this.samples = new SampleBuffer(Constants.MAX_IN_MEMORY_RESOURCE_SAMPLES);
+        }
+
+        private void sample() {
+            ContainerStats stats;
+            try {
+                stats = dockerClient.stats(containerId);
+            } catch (DockerException e) {
+                logger.debug("Unable to get the stats of node {}", nodeName, e);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // Stopped containers return empty stats
+            if (stats == null || stats.cpuStats() == null || stats.cpuStats().systemCpuUsage() == null
+                    || stats.memoryStats() == null || stats.memoryStats().usage() == null) {
+                return;
+            }
+
+            ResourceSample sample = toResourceSample(stats);
+            synchronized (samples) {
+                samples.add(sample);
+            }
+
+            try {
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(statsFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                            StandardOpenOption.APPEND);
+                    writer.write(ResourceSample.csvHeader());
+                    writer.newLine();
+                }
+                writer.write(sample.toCsvLine());
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                logger.warn("Error while writing the resource stats of node {} into {}", nodeName, statsFile, e);
+            }
+        }
+
+        private ResourceSample toResourceSample(ContainerStats stats) {
+            CpuStats cpuStats = stats.cpuStats();
+            CpuStats preCpuStats = stats.precpuStats();
+            long cpuTotalUsage = nullToZero(cpuStats.cpuUsage().totalUsage());
+            double cpuPercentage = 0;
+            if (preCpuStats != null && preCpuStats.cpuUsage() != null && preCpuStats.systemCpuUsage() != null) {
+                long cpuDelta = cpuTotalUsage - nullToZero(preCpuStats.cpuUsage().totalUsage());
+                long systemDelta = cpuStats.systemCpuUsage() - preCpuStats.systemCpuUsage();
+                int numberOfCpus = cpuStats.cpuUsage().percpuUsage() == null || cpuStats.cpuUsage().percpuUsage().isEmpty() ?
+                        1 : cpuStats.cpuUsage().percpuUsage().size();
+                if (cpuDelta > 0 && systemDelta > 0) {
+                    cpuPercentage = ((double) cpuDelta / systemDelta) * numberOfCpus * 100.0;
+                }
+            }
+
+            long rxBytes = 0, txBytes = 0;
+            if (stats.networks() != null) {
+                for (NetworkStats networkStats: stats.networks().values()) {
+                    rxBytes += nullToZero(networkStats.rxBytes());
+                    txBytes += nullToZero(networkStats.txBytes());
+                }
+            } else if (stats.network() != null) {
+                rxBytes = nullToZero(stats.network().rxBytes());
+                txBytes = nullToZero(stats.network().txBytes());
+            }
+
+            long readBytes = 0, writtenBytes = 0;
+            BlockIoStats blockIoStats = stats.blockIoStats();
+            if (blockIoStats != null && blockIoStats.ioServiceBytesRecursive() != null) {
+                for (Object entry: blockIoStats.ioServiceBytesRecursive()) {
+                    if (!(entry instanceof Map)) {
+                        continue;
+                    }
+                    Object op = ((Map) entry).get("op");
+                    Object value = ((Map) entry).get("value");
+                    if (op == null || !(value instanceof Number)) {
+                        continue;
+                    }
+                    if ("read".equalsIgnoreCase(op.toString())) {
+                        readBytes += ((Number) value).longValue();
+                    } else if ("write".equalsIgnoreCase(op.toString())) {
+                        writtenBytes += ((Number) value).longValue();
+                    }
+                }
+            }
+
+            // The client clock is used so the samples can be correlated with the operations in the test case
+            return new ResourceSample(nodeName, Instant.now(), cpuPercentage, cpuTotalUsage,
+                    nullToZero(stats.memoryStats().usage()), nullToZero(stats.memoryStats().limit()),
+                    rxBytes, txBytes, readBytes, writtenBytes);
+        }
+
+        private void close() {
+            if (future != null) {
+                future.cancel(true);
+            }
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    logger.warn("Error while closing the resource stats file of node {}", nodeName, e);
+                }
+            }
+        }
+    }
+
+    private static long nullToZero(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    // A fixed size ring buffer of samples in time order which overwrites the oldest sample when it is full
+    private static class SampleBuffer {
+        private final ResourceSample[] buffer;
+        private int start;
+        private int size;
+
+        private SampleBuffer(int capacity) {
+            buffer = new ResourceSample[capacity];
+        }
+
+        private void add(ResourceSample sample) {
+            if (size < buffer.length) {
+                buffer[(start + size++) % buffer.length] = sample;
+            } else {
+                buffer[start] = sample;
+                start = (start + 1) % buffer.length;
+            }
+        }
+
+        private ResourceSample get(int index) {
+            return buffer[(start + index) % buffer.length];
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
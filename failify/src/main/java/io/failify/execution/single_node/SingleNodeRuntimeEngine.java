@@ -41,6 +41,8 @@ import io.failify.dsl.entities.*;
 import io.failify.exceptions.NodeIsNotRunningException;
 import io.failify.exceptions.NodeNotFoundException;
 import io.failify.execution.CommandResults;
+import io.failify.execution.DiskOp;
+import io.failify.execution.ResourceSample;
 import io.failify.execution.RuntimeEngine;
 import io.failify.util.DockerUtil;
 import io.failify.util.HostUtil;
@@ -65,14 +67,26 @@ import java.util.stream.Collectors;
 
 public class SingleNodeRuntimeEngine extends RuntimeEngine {
     private static Logger logger = LoggerFactory.getLogger(SingleNodeRuntimeEngine.class);
+    private final static String BLOCK_DEVICE_PROBE_PATH = "/failify_probe";
+    // The cpus the containers are allowed to use in cgroup v2 and v1 hierarchies
+    private final static String ALLOWED_CPUS_PROBE_SCRIPT = "cat /sys/fs/cgroup/cpuset.cpus.effective 2>/dev/null"
+            + " || cat /sys/fs/cgroup/cpuset/cpuset.effective_cpus 2>/dev/null"
+            + " || cat /sys/fs/cgroup/cpuset/cpuset.cpus";
 
     private Map<String, DockerContainerInfo> nodeToContainerInfoMap;
     private DockerNetworkManager dockerNetworkManager;
+    private DockerStatsSampler dockerStatsSampler;
+    private DockerResourceManager dockerResourceManager;
+    private DockerConsoleCollector dockerConsoleCollector;
     private DockerClient dockerClient;
+    private Map<String, String> plannedCpuSets; // the cpu sets of the nodes from the automatic cpu partitioning
+    private final Map<String, String> hostBlockDeviceCache; // host path or device -> major:minor number or null
 
     public SingleNodeRuntimeEngine(Deployment deployment, Map<String, NodeWorkspace> nodeWorkspaceMap) {
         super(deployment, nodeWorkspaceMap);
         nodeToContainerInfoMap = new HashMap<>();
+        plannedCpuSets = new HashMap<>();
+        hostBlockDeviceCache = new HashMap<>();
     }
 
     public String ip(String nodeName) {
@@ -122,12 +136,29 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
             throw new RuntimeEngineException("Cannot create docker client!", e);
         }
 
+        Map<String, String> nodeToImageMap = new HashMap<>();
+        for (Node node: nodeMap.values()) {
+            nodeToImageMap.put(node.getName(), deployment.getService(node.getServiceName()).getDockerImageName());
+        }
+        dockerResourceManager = new DockerResourceManager(dockerClient, nodeToContainerInfoMap, nodeToImageMap);
+
         // Builds docker images for the services if necessary
         logger.info("Building docker images ...");
         buildDockerImages();
 
         // creates a new docker network. This will be a new one every time the runtime engine starts.
-        dockerNetworkManager = new DockerNetworkManager(deployment.getName(), dockerClient);
+        if (deployment.getNetworkMode() != NetworkMode.BRIDGE) {
+            if (!DockerUtil.isRunningInsideDocker() && OsUtil.getOS() != OsUtil.OS.LINUX) {
+                throw new RuntimeEngineException("Network mode " + deployment.getNetworkMode() + " is only supported "
+                        + "on linux docker hosts!");
+            }
+            if (!DockerUtil.isRunningInsideDocker()) {
+                logger.warn("The nodes' ip addresses in network mode {} are not reachable from the docker host!",
+                        deployment.getNetworkMode());
+            }
+        }
+        dockerNetworkManager = new DockerNetworkManager(deployment.getName(), dockerClient,
+                deployment.getNetworkMode(), deployment.getNetworkParentInterface());
 
         // If the client is a docker container, adds the container to the created docker network
         if (DockerUtil.isRunningInsideDocker()) {
@@ -152,6 +183,25 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
             }
         }
 
+        // Starts the fault proxy now that the event server ip address, which the proxy listens on, is known
+        startFaultProxy();
+
+        // Creates the resource usage sampler. Nodes will be added to it when their container is created
+        if (deployment.getResourceSamplingInterval() > 0) {
+            dockerStatsSampler = new DockerStatsSampler(dockerClient, deployment.getResourceSamplingInterval(),
+                    Math.min(nodeMap.size(), Constants.MAX_RESOURCE_SAMPLER_THREADS));
+        }
+
+        // Creates the console output collector if the logs should be rotated
+        if (logRotator != null) {
+            dockerConsoleCollector = new DockerConsoleCollector(dockerClient, logRotator);
+        }
+
+        // Partitions the host cpus between the nodes
+        if (deployment.isCpuPartitioning()) {
+            planCpuPartitions();
+        }
+
         logger.info("Creating a container for each of the nodes ...");
         for (Node node: nodeMap.values()) {
             // Creates a container for the node
@@ -287,6 +337,9 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
     @Override protected String getEventServerIpAddress() throws RuntimeEngineException {
         if (DockerUtil.isRunningInsideDocker()) {
             return dockerNetworkManager.getClientContainerIpAddress();
+        } else if (dockerNetworkManager.controlNetworkId() != null) {
+            // The nodes reach the host through the control network's bridge whose host end is the gateway
+            return dockerNetworkManager.getControlNetworkGateway();
         } else {
             try {
                 return HostUtil.getLocalIpAddress();
@@ -327,8 +380,25 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
                 wrapperFile);
         hostConfigBuilder.appendBinds(HostConfig.Bind.from(wrapperScriptAddress)
                 .to("/" + Constants.WRAPPER_SCRIPT_NAME).readOnly(true).build());
-        // Adds net admin capability to containers for iptables uses and make them connect to the created network
-        hostConfigBuilder.capAdd("NET_ADMIN").networkMode(dockerNetworkManager.dockerNetworkName());
+        // Adds net admin capability to containers for iptables uses and make them connect to the created network. The
+        // proxy network fault backend doesn't need the capability
+        if (proxyNetworkManager == null) {
+            hostConfigBuilder.capAdd("NET_ADMIN");
+        }
+        hostConfigBuilder.networkMode(dockerNetworkManager.dockerNetworkName());
+        // Sets the declared resource limits of the node
+        String cpuSet = getNodeCpuSet(node.getName());
+        if (cpuSet == null) {
+            cpuSet = plannedCpuSets.get(node.getName());
+        }
+        if (cpuSet != null) {
+            hostConfigBuilder.cpusetCpus(cpuSet);
+        }
+        if (getNodeBlkioWeight(node.getName()) != null) {
+            hostConfigBuilder.blkioWeight(getNodeBlkioWeight(node.getName()));
+        }
+        dockerResourceManager.applyBaselineLimits(node.getName(), hostConfigBuilder, getNodeCpus(node.getName()),
+                getNodeMemoryLimit(node.getName()));
         // Creates do init file in the workspace and adds a bind mount for it
         try {
             Files.write(Paths.get(nodeWorkspace.getWorkingDirectory(), Constants.DO_INIT_FILE_NAME), "1".getBytes());
@@ -342,9 +412,18 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
         // Adds all of the path mappings to the container
         for (NodeWorkspace.PathMappingEntry pathMappingEntry: nodeWorkspace.getPathMappingList()) {
             // TODO The readonly should come from path mapping. Right now docker wouldn't work with sub-path that are not readonly
+            // Only the paths shared with the other nodes or runs e.g. the decompression cache entries are read-only
             hostConfigBuilder.appendBinds(HostConfig.Bind.from(DockerUtil.mapDockerPathToHostPath(dockerClient,
                     clientContainerId, pathMappingEntry.getSource()))
-                    .to(pathMappingEntry.getDestination()).readOnly(false).build());
+                    .to(pathMappingEntry.getDestination())
+                    .readOnly(pathMappingEntry.isMountReadOnly())
+                    .build());
+        }
+        // Adds the bind mount for the class data sharing archives
+        if (nodeWorkspace.getAppCdsDirectory() != null) {
+            hostConfigBuilder.appendBinds(HostConfig.Bind.from(DockerUtil.mapDockerPathToHostPath(dockerClient,
+                    clientContainerId, nodeWorkspace.getAppCdsDirectory())).to(Constants.APPCDS_TARGET_PATH)
+                    .readOnly(false).build());
         }
         // Sets the network alias and hostname
         containerConfigBuilder.hostname(node.getName());
@@ -368,8 +447,14 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
         } catch (IOException e) {
             throw new RuntimeEngineException("Error while creating initial console log file for node " + node.getName() + "!", e);
         }
-        hostConfigBuilder.appendBinds(HostConfig.Bind.from(DockerUtil.mapDockerPathToHostPath(dockerClient,
-                clientContainerId, localConsoleFile)).to("/" + Constants.CONSOLE_OUTERR_FILE_NAME).build());
+        if (dockerConsoleCollector == null) {
+            hostConfigBuilder.appendBinds(HostConfig.Bind.from(DockerUtil.mapDockerPathToHostPath(dockerClient,
+                    clientContainerId, localConsoleFile)).to("/" + Constants.CONSOLE_OUTERR_FILE_NAME).build());
+        } else {
+            // The console output is collected from docker, so docker's own copy of it is bounded as well
+            hostConfigBuilder.logConfig(LogConfig.create("json-file", ImmutableMap.of(
+                    "max-size", Constants.DOCKER_LOG_MAX_SIZE, "max-file", Constants.DOCKER_LOG_MAX_FILE)));
+        }
         // Adds bind mounts for shared directories
         for (String localSharedDirectory: nodeWorkspace.getSharedDirectoriesMap().keySet()) {
             hostConfigBuilder.appendBinds(HostConfig.Bind.from(DockerUtil.mapDockerPathToHostPath(dockerClient,
@@ -382,6 +467,14 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
                     clientContainerId, localLogDirectory)).to(nodeWorkspace.getLogDirectoriesMap()
                     .get(localLogDirectory)).readOnly(false).build());
         }
+        // Mounts a tmpfs on the in-memory paths which are not collected
+        if (!nodeWorkspace.getTmpfsPaths().isEmpty()) {
+            Map<String, String> tmpfsMap = new HashMap<>();
+            for (String tmpfsPath: nodeWorkspace.getTmpfsPaths()) {
+                tmpfsMap.put(tmpfsPath, Constants.DOCKER_TMPFS_OPTIONS);
+            }
+            hostConfigBuilder.tmpfs(tmpfsMap);
+        }
         // Adds bind mounts for log files
         for (String localLogFile: nodeWorkspace.getLogFilesMap().keySet()) {
             hostConfigBuilder.appendBinds(HostConfig.Bind.from(DockerUtil.mapDockerPathToHostPath(dockerClient,
@@ -400,8 +493,12 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
                 clientContainerId, localLibFakeTimeFile)).to("/" + Constants.FAKETIME_CONTROLLER_FILE_NAME).build());
 
         // Sets the wrapper script as the starting command
-        containerConfigBuilder.cmd("/bin/sh", "-c", "/" + Constants.WRAPPER_SCRIPT_NAME + " >> /" +
-                Constants.CONSOLE_OUTERR_FILE_NAME + " 2>&1");
+        if (dockerConsoleCollector == null) {
+            containerConfigBuilder.cmd("/bin/sh", "-c", "/" + Constants.WRAPPER_SCRIPT_NAME + " >> /" +
+                    Constants.CONSOLE_OUTERR_FILE_NAME + " 2>&1");
+        } else {
+            containerConfigBuilder.cmd("/bin/sh", "-c", "/" + Constants.WRAPPER_SCRIPT_NAME + " 2>&1");
+        }
         // Finalizing host config
         containerConfigBuilder.hostConfig(hostConfigBuilder.build());
         // Creates the container
@@ -413,6 +510,49 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
         } catch (InterruptedException | DockerException e) {
             throw new RuntimeEngineException("Error while trying to create the container for node " + node.getName() + "!", e);
         }
+
+        // Connects the container to the control network. A container can only be created with one network.
+        if (dockerNetworkManager.controlNetworkId() != null) {
+            try {
+                dockerClient.connectToNetwork(nodeToContainerInfoMap.get(node.getName()).containerId(),
+                        dockerNetworkManager.controlNetworkId());
+            } catch (InterruptedException | DockerException e) {
+                throw new RuntimeEngineException("Error while trying to connect the container for node " + node.getName()
+                        + " to the docker control network!", e);
+            }
+        }
+
+        // Starts collecting the console output of the container
+        if (dockerConsoleCollector != null) {
+            dockerConsoleCollector.addNode(node.getName(), nodeToContainerInfoMap.get(node.getName()).containerId(),
+                    localConsoleFile, nodeWorkspace.getLogDirectory());
+        }
+
+        // Starts sampling the resource usage of the container
+        if (dockerStatsSampler != null) {
+            dockerStatsSampler.addNode(node.getName(), nodeToContainerInfoMap.get(node.getName()).containerId(),
+                    nodeWorkspace.getLogDirectory());
+        }
+    }
+
+    @Override
+    public List<ResourceSample> resourceSamples(String nodeName) throws RuntimeEngineException {
+        return resourceSamples(nodeName, null, null);
+    }
+
+    @Override
+    public List<ResourceSample> resourceSamples(String nodeName, Instant from, Instant to) throws RuntimeEngineException {
+        if (!nodeToContainerInfoMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+
+        if (dockerStatsSampler == null) {
+            logger.warn("Resource sampling is disabled in the deployment definition. No sample is available for node {}!",
+                    nodeName);
+            return new ArrayList<>();
+        }
+
+        return dockerStatsSampler.samples(nodeName, from, to);
     }
 
     private String getLocalLibFakeTimeControllerFile(String nodeName) {
@@ -420,6 +560,57 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
                 .toAbsolutePath().toString();
     }
 
+    private void planCpuPartitions() throws RuntimeEngineException {
+        SortedSet<Integer> allowedCpus = getAllowedHostCpus();
+        String allowedCpuSet = CpuPartitionPlanner.formatCpuSet(allowedCpus);
+
+        logger.info("Partitioning host cpus {} between the nodes ...", allowedCpuSet);
+        Map<String, String> nodeCpuSets = new HashMap<>();
+        for (String nodeName: nodeMap.keySet()) {
+            String cpuSet = getNodeCpuSet(nodeName);
+            if (cpuSet != null && !allowedCpus.containsAll(CpuPartitionPlanner.parseCpuSet(cpuSet))) {
+                throw new RuntimeEngineException("The cpu set " + cpuSet + " of node " + nodeName + " is not available "
+                        + "on the docker host which allows cpus " + allowedCpuSet + "!");
+            }
+            nodeCpuSets.put(nodeName, cpuSet);
+        }
+        plannedCpuSets = new CpuPartitionPlanner(allowedCpus, deployment.getReservedCpus()).plan(nodeCpuSets);
+    }
+
+    /**
+     * Finds the host cpus the containers are allowed to use by reading the effective cpu set of a probe container out
+     * of one of the nodes' images. The allowed cpus may be a subset of the host cpus, e.g. when the docker daemon is
+     * itself limited to some of the cpus. If the cpu set can't be read, all of the host cpus are considered allowed.
+     * @return the set of the allowed host cpus
+     */
+    private SortedSet<Integer> getAllowedHostCpus() throws RuntimeEngineException {
+        String imageName = deployment.getService(nodeMap.get(new TreeSet<>(nodeMap.keySet()).first()).getServiceName())
+                .getDockerImageName();
+        try {
+            SortedSet<Integer> allowedCpus = CpuPartitionPlanner.parseCpuSet(DockerUtil.runProbeContainer(dockerClient,
+                    imageName, Collections.emptyList(), ALLOWED_CPUS_PROBE_SCRIPT));
+            if (!allowedCpus.isEmpty()) {
+                return allowedCpus;
+            }
+            logger.warn("The allowed cpu set of the docker host is empty!");
+        } catch (RuntimeEngineException | NumberFormatException e) {
+            logger.warn("Unable to read the allowed cpu set of the docker host", e);
+        }
+
+        int hostCpus;
+        try {
+            hostCpus = dockerClient.info().cpus();
+        } catch (DockerException | InterruptedException e) {
+            throw new RuntimeEngineException("Error while getting the number of cpus of the docker host!", e);
+        }
+        logger.warn("Considering all of the {} docker host cpus allowed ...", hostCpus);
+        SortedSet<Integer> allowedCpus = new TreeSet<>();
+        for (int cpu = 0; cpu < hostCpus; cpu++) {
+            allowedCpus.add(cpu);
+        }
+        return allowedCpus;
+    }
+
     /**
      * This method creates a customized wrapper script for the node in its root directory
      * @return the address of wrapper script
@@ -440,6 +631,7 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
                 wrapperScriptString = wrapperScriptString.replace("{{INIT_COMMAND}}", ":");
             }
             wrapperScriptString = wrapperScriptString.replace("{{START_COMMAND}}", startCommand);
+            wrapperScriptString = wrapperScriptString.replace("{{JVM_OPTIONS}}", getNodeJvmOptionsSnippet(node));
 
             FileOutputStream fileOutputStream = new FileOutputStream(wrapperScriptFile);
             IOUtils.write(wrapperScriptString, fileOutputStream, StandardCharsets.UTF_8);
@@ -455,8 +647,46 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
         return wrapperScriptFile.toString();
     }
 
+    /**
+     * This method returns the wrapper script snippet to set the node's JVM options e.g. class data sharing
+     * @return the shell snippet to set the JVM options
+     */
+    private String getNodeJvmOptionsSnippet(Node node) throws RuntimeEngineException {
+        NodeWorkspace nodeWorkspace = nodeWorkspaceMap.get(node.getName());
+        if (nodeWorkspace.getAppCdsDirectory() == null) {
+            return ":";
+        }
+
+        String classpath = getNodeEnvironmentVariablesMap(node.getName()).get(Constants.JVM_CLASSPATH_ENVVAR_NAME);
+        if (classpath == null) {
+            logger.warn("Class data sharing is enabled for node {}, but it has no {} environment variable!",
+                    node.getName(), Constants.JVM_CLASSPATH_ENVVAR_NAME);
+            return ":";
+        }
+
+        String imageId;
+        try {
+            imageId = dockerClient.inspectImage(deployment.getService(node.getServiceName()).getDockerImageName()).id();
+        } catch (DockerException | InterruptedException e) {
+            throw new RuntimeEngineException("Error while inspecting the docker image of node " + node.getName() + "!", e);
+        }
+
+        try {
+            return new AppCdsArchive(imageId, classpath, nodeWorkspace).getJvmOptionsSnippet(node.getName());
+        } catch (IOException e) {
+            throw new RuntimeEngineException("Error while identifying the class data sharing archive of node "
+                    + node.getName() + "!", e);
+        }
+    }
+
     @Override
     protected void stopNodes(Boolean kill, Integer secondsUntilForcedStop) {
+        // stops sampling the resource usage of the containers
+        if (dockerStatsSampler != null) {
+            logger.info("Stopping resource usage sampler ...");
+            dockerStatsSampler.stop();
+        }
+
         // stops all of the running containers
         logger.info("Stopping containers ...");
         for (String nodeName: nodeToContainerInfoMap.keySet()) {
@@ -469,6 +699,9 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
             } catch (RuntimeEngineException e) {
                 logger.warn("Error while trying to stop the container for node {}!", nodeName);
             }
+            if (dockerConsoleCollector != null) {
+                dockerConsoleCollector.drain(nodeName);
+            }
             try {
                 removeContainer(nodeName);
             } catch (RuntimeEngineException e) {
@@ -476,6 +709,10 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
             }
         }
 
+        if (dockerConsoleCollector != null) {
+            dockerConsoleCollector.stop();
+        }
+
         if (dockerNetworkManager != null) {
             // If the client is a docker container, removes the container from the created docker network
             if (DockerUtil.isRunningInsideDocker()) {
@@ -590,8 +827,15 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
 
             try {
                 dockerClient.startContainer(containerId);
-                networkOperationManager.reApplyNetworkOperations(nodeName);
-                networkPartitionManager.reApplyNetworkPartition(nodeName);
+                if (dockerConsoleCollector != null) {
+                    dockerConsoleCollector.follow(nodeName);
+                }
+                dockerResourceManager.reApplyResourceLimits(nodeName);
+                if (proxyNetworkManager == null) {
+                    networkOperationManager.invalidateInterfaces(nodeName);
+                    networkOperationManager.reApplyNetworkOperations(nodeName);
+                    networkPartitionManager.reApplyNetworkPartition(nodeName);
+                }
             } catch (InterruptedException | DockerException e) {
                 throw new RuntimeEngineException("Error while trying to start the container for node " + nodeName + "!", e);
             }
@@ -631,8 +875,15 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
                     }
                 }
                 dockerClient.restartContainer(nodeToContainerInfoMap.get(nodeName).containerId());
-                networkOperationManager.reApplyNetworkOperations(nodeName);
-                networkPartitionManager.reApplyNetworkPartition(nodeName);
+                if (dockerConsoleCollector != null) {
+                    dockerConsoleCollector.follow(nodeName);
+                }
+                dockerResourceManager.reApplyResourceLimits(nodeName);
+                if (proxyNetworkManager == null) {
+                    networkOperationManager.invalidateInterfaces(nodeName);
+                    networkOperationManager.reApplyNetworkOperations(nodeName);
+                    networkPartitionManager.reApplyNetworkPartition(nodeName);
+                }
                 updateContainerPortMapping(nodeName);
                 logger.info("Node {} is restarted!", nodeName);
             } catch (InterruptedException | DockerException e) {
@@ -683,6 +934,171 @@ public class SingleNodeRuntimeEngine extends RuntimeEngine {
         }
     }
 
+    @Override
+    public void throttleCpu(String nodeName, double cpus) throws RuntimeEngineException {
+        if (!nodeToContainerInfoMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+        dockerResourceManager.throttleCpu(nodeName, cpus);
+    }
+
+    @Override
+    public void removeCpuThrottle(String nodeName) throws RuntimeEngineException {
+        if (!nodeToContainerInfoMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+        dockerResourceManager.removeCpuThrottle(nodeName);
+    }
+
+    @Override
+    public void limitMemory(String nodeName, long bytes) throws RuntimeEngineException {
+        if (!nodeToContainerInfoMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+        dockerResourceManager.limitMemory(nodeName, bytes);
+    }
+
+    @Override
+    public void removeMemoryLimit(String nodeName) throws RuntimeEngineException {
+        if (!nodeToContainerInfoMap.containsKey(nodeName)) {
+            throw new NodeNotFoundException(nodeName);
+        }
+        dockerResourceManager.removeMemoryLimit(nodeName);
+    }
+
+    @Override
+    protected void applyDiskOperation(String nodeName, DiskOp diskOp) throws RuntimeEngineException {
+        if (diskOp instanceof DiskOp.Throttle) {
+            dockerResourceManager.throttleDisk(nodeName, getNodeBlockDevice(nodeName, diskOp), (DiskOp.Throttle) diskOp);
+        } else if (diskOp instanceof DiskOp.RemoveThrottle) {
+            if (diskOp.getDevice() == null && diskOp.getPath() == null) {
+                dockerResourceManager.removeDiskThrottle(nodeName, null);
+            } else {
+                dockerResourceManager.removeDiskThrottle(nodeName, getNodeBlockDevice(nodeName, diskOp));
+            }
+        }
+    }
+
+    /**
+     * Finds the host block device a disk operation should be applied on. If the operation specifies a device, that one
+     * is used. If it specifies a path in the node, the path should be bind mounted from the node's workspace e.g. a log
+     * directory or a shared directory and the device backing the workspace path is used. Otherwise, the device backing
+     * the node's workspace is used. The device is resolved on the docker host, so it is correct when the client is
+     * running inside a container as well.
+     * @param nodeName the node to apply the disk operation on
+     * @param diskOp the disk operation to find the block device for
+     * @return the major:minor number of the block device to apply the disk operation on
+     * @throws RuntimeEngineException if the path is not bind mounted or the device cannot be determined
+     */
+    private String getNodeBlockDevice(String nodeName, DiskOp diskOp) throws RuntimeEngineException {
+        if (diskOp.getDevice() != null) {
+            return getHostDeviceNumber(nodeName, diskOp.getDevice());
+        }
+
+        NodeWorkspace nodeWorkspace = nodeWorkspaceMap.get(nodeName);
+        String localPath = nodeWorkspace.getWorkingDirectory();
+        if (diskOp.getPath() != null) {
+            // local path -> node path
+            Map<String, String> mountMap = new HashMap<>();
+            for (NodeWorkspace.PathMappingEntry pathMappingEntry: nodeWorkspace.getPathMappingList()) {
+                mountMap.put(pathMappingEntry.getSource(), pathMappingEntry.getDestination());
+            }
+            mountMap.putAll(nodeWorkspace.getSharedDirectoriesMap());
+            mountMap.putAll(nodeWorkspace.getLogDirectoriesMap());
+            mountMap.putAll(nodeWorkspace.getLogFilesMap());
+
+            localPath = null;
+            Path nodePath = Paths.get(diskOp.getPath()).normalize();
+            int longestMatch = -1;
+            for (Map.Entry<String, String> mountEntry: mountMap.entrySet()) {
+                Path destination = Paths.get(mountEntry.getValue()).normalize();
+                if (nodePath.startsWith(destination) && destination.getNameCount() > longestMatch) {
+                    localPath = Paths.get(mountEntry.getKey()).resolve(destination.relativize(nodePath)).toString();
+                    longestMatch = destination.getNameCount();
+                }
+            }
+
+            if (localPath == null) {
+                throw new RuntimeEngineException("Path " + diskOp.getPath() + " is not mounted from the workspace in"
+                        + " node " + nodeName + ". Specify the device for the disk operation instead!");
+            }
+        }
+
+        String device = getHostBlockDevice(nodeName, localPath);
+        if (device == null) {
+            throw new RuntimeEngineException("Path " + localPath + " for node " + nodeName + " is not backed by a"
+                    + " block device. Specify the device for the disk operation instead!");
+        }
+
+        return device;
+    }
+
+    /**
+     * Finds the block device backing a local path on the docker host by bind mounting the path into a probe container
+     * out of the node's image and looking up the mount's device number. If the path resides on a partition, the parent
+     * disk is returned as block I/O limits can only be applied on whole devices.
+     * @return the major:minor number of the block device e.g. 8:0 or null if the path is not backed by a block device
+     * e.g. tmpfs or overlay
+     */
+    private String getHostBlockDevice(String nodeName, String localPath) throws RuntimeEngineException {
+        String clientContainerId;
+        try {
+            clientContainerId = DockerUtil.getMyContainerId();
+        } catch (IOException e) {
+            throw new RuntimeEngineException("Cannot determine client's container id", e);
+        }
+        String hostPath = DockerUtil.mapDockerPathToHostPath(dockerClient, clientContainerId,
+                Paths.get(localPath).toAbsolutePath().toString());
+
+        synchronized (hostBlockDeviceCache) {
+            if (!hostBlockDeviceCache.containsKey(hostPath)) {
+                // Major number 0 is used for virtual file systems
+                String device = DockerUtil.runProbeContainer(dockerClient,
+                        deployment.getService(nodeMap.get(nodeName).getServiceName()).getDockerImageName(),
+                        Collections.singletonList(HostConfig.Bind.from(hostPath).to(BLOCK_DEVICE_PROBE_PATH)
+                                .readOnly(true).build()),
+                        "while read id parent number root mount rest; do"
+                        + " if [ \"$mount\" = " + BLOCK_DEVICE_PROBE_PATH + " ]; then device=$number; fi;"
+                        + " done < /proc/self/mountinfo;"
+                        + " case \"$device\" in ''|0:*) exit 0;; esac;"
+                        + " [ -e /sys/dev/block/$device ] || exit 0;"
+                        + " sys=$(readlink -f /sys/dev/block/$device);"
+                        + " if [ -e $sys/partition ]; then sys=$(dirname $sys); fi;"
+                        + " cat $sys/dev");
+                hostBlockDeviceCache.put(hostPath, device.isEmpty() ? null : device);
+            }
+            return hostBlockDeviceCache.get(hostPath);
+        }
+    }
+
+    /**
+     * Finds the major:minor number of a host block device given its name e.g. /dev/sda through the sysfs of the docker
+     * host as the block I/O cgroups only accept device numbers.
+     * @return the major:minor number of the device
+     * @throws RuntimeEngineException if the device doesn't exist on the docker host
+     */
+    private String getHostDeviceNumber(String nodeName, String device) throws RuntimeEngineException {
+        if (device.matches("\\d+:\\d+")) {
+            return device;
+        }
+
+        String deviceName = Paths.get(device).getFileName().toString();
+        synchronized (hostBlockDeviceCache) {
+            if (!hostBlockDeviceCache.containsKey(device)) {
+                String number = DockerUtil.runProbeContainer(dockerClient,
+                        deployment.getService(nodeMap.get(nodeName).getServiceName()).getDockerImageName(),
+                        Collections.emptyList(),
+                        "[ -e /sys/class/block/" + deviceName + "/dev ] || exit 0;"
+                        + " cat /sys/class/block/" + deviceName + "/dev");
+                hostBlockDeviceCache.put(device, number.isEmpty() ? null : number);
+            }
+            if (hostBlockDeviceCache.get(device) == null) {
+                throw new RuntimeEngineException("Block device " + device + " doesn't exist on the docker host!");
+            }
+            return hostBlockDeviceCache.get(device);
+        }
+    }
+
     @Override
     protected void startFileSharingService() {
         // File sharing comes for free with docker. No additional service is needed.
@@ -0,0 +1,296 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.util;
+
+import io.failify.Constants;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class extracts zip and tar.gz archives in pure java. The files of a zip archive are extracted in parallel as the
+ * entries can be read independently. A tar.gz archive is a single compressed stream, so it is extracted sequentially.
+ * The unix permissions, symbolic links and modification times of the entries are preserved, and the entries which would
+ * be extracted outside of the destination directory are rejected. This includes the symbolic links pointing outside of
+ * the destination directory and the entries which would be written through a symbolic link to outside of it.
+ */
+public class ArchiveUtil {
+    private final static int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * @param path the path to an archive
+     * @return true if the archive format is supported, otherwise false
+     */
+    public static boolean isSupported(String path) {
+        return isZip(path) || isTarGz(path);
+    }
+
+    private static boolean isZip(String path) {
+        return path.endsWith(".zip");
+    }
+
+    private static boolean isTarGz(String path) {
+        return path.endsWith(".tar.gz") || path.endsWith(".tgz");
+    }
+
+    /**
+     * Extracts an archive into the destination directory. The directory is created if it doesn't exist
+     * @param archivePath the path to the zip or tar.gz archive
+     * @param destination the directory to extract the archive into
+     * @throws IOException if the archive format is not supported, the archive is corrupted or something goes wrong while
+     * writing the extracted files
+     */
+    public static void extract(String archivePath, String destination) throws IOException {
+        Path destinationPath = Paths.get(destination).toAbsolutePath().normalize();
+        Files.createDirectories(destinationPath);
+        // The real path is used, so the entries' real paths can be checked against it
+        destinationPath = destinationPath.toRealPath();
+        if (isZip(archivePath)) {
+            extractZip(Paths.get(archivePath), destinationPath);
+        } else if (isTarGz(archivePath)) {
+            extractTarGz(Paths.get(archivePath), destinationPath);
+        } else {
+            throw new IOException("Archive " + archivePath + " is not a zip or tar.gz file!");
+        }
+    }
+
+    private static void extractZip(Path archive, Path destination) throws IOException {
+        List<ZipArchiveEntry> fileEntries = new ArrayList<>();
+        // The symbolic links are created after the files, so no file is written through a link of the archive
+        Map<Path, Path> symbolicLinks = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            for (ZipArchiveEntry entry: Collections.list(zipFile.getEntries())) {
+                Path target = resolve(destination, entry.getName());
+                if (entry.isDirectory()) {
+                    createDirectories(destination, target);
+                } else if (entry.isUnixSymlink()) {
+                    symbolicLinks.put(target, linkTarget(destination, target, zipFile.getUnixSymlink(entry)));
+                } else {
+                    fileEntries.add(entry);
+                }
+            }
+        }
+
+        extractZipFiles(archive, destination, fileEntries);
+
+        for (Map.Entry<Path, Path> symbolicLink: symbolicLinks.entrySet()) {
+            createDirectories(destination, symbolicLink.getKey().getParent());
+            Files.deleteIfExists(symbolicLink.getKey());
+            Files.createSymbolicLink(symbolicLink.getKey(), symbolicLink.getValue());
+        }
+    }
+
+    private static void extractZipFiles(Path archive, Path destination, List<ZipArchiveEntry> fileEntries)
+            throws IOException {
+
+        // The biggest files are extracted first to balance the work between the threads
+        fileEntries.sort(Comparator.comparingLong(ZipArchiveEntry::getSize).reversed());
+        Queue<ZipArchiveEntry> entryQueue = new ConcurrentLinkedQueue<>(fileEntries);
+        int threads = Math.max(1, Math.min(fileEntries.size() / 16,
+                Math.min(Constants.MAX_ARCHIVE_EXTRACTION_THREADS, Runtime.getRuntime().availableProcessors())));
+
+        // Each thread has its own zip file to read the entries without contention
+        Callable<Void> extractor = () -> {
+            try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+                ZipArchiveEntry entry;
+                while ((entry = entryQueue.poll()) != null) {
+                    Path target = resolve(destination, entry.getName());
+                    createDirectories(destination, target.getParent());
+                    try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                        writeFile(inputStream, target);
+                    }
+                    setAttributes(target, entry.getUnixMode(), entry.getLastModifiedDate().getTime());
+                }
+            }
+            return null;
+        };
+
+        if (threads == 1) {
+            try {
+                extractor.call();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Error while extracting " + archive, e);
+            }
+        } else {
+            ExecutorService executorService = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "failify-archive-extractor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executorService.submit(extractor));
+                }
+                for (Future<Void> future: futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                entryQueue.clear();
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Error while extracting " + archive, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting " + archive, e);
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+    private static void extractTarGz(Path archive, Path destination) throws IOException {
+        // The directories' attributes are set at the end as extracting their files changes their modification time
+        Map<Path, TarArchiveEntry> directories = new LinkedHashMap<>();
+        try (TarArchiveInputStream tarInputStream = new TarArchiveInputStream(new GZIPInputStream(
+                new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE), BUFFER_SIZE))) {
+            TarArchiveEntry entry;
+            while ((entry = tarInputStream.getNextTarEntry()) != null) {
+                Path target = resolve(destination, entry.getName());
+                if (entry.isDirectory()) {
+                    createDirectories(destination, target);
+                    directories.put(target, entry);
+                    continue;
+                }
+
+                createDirectories(destination, target.getParent());
+                Files.deleteIfExists(target);
+                if (entry.isSymbolicLink()) {
+                    Files.createSymbolicLink(target, linkTarget(destination, target, entry.getLinkName()));
+                } else if (entry.isLink()) {
+                    Path linkedFile = resolve(destination, entry.getLinkName());
+                    checkRealPath(destination, linkedFile.getParent(), entry.getLinkName());
+                    Files.createLink(target, linkedFile);
+                } else if (entry.isFile()) {
+                    writeFile(tarInputStream, target);
+                    setAttributes(target, entry.getMode(), entry.getModTime().getTime());
+                }
+            }
+        }
+
+        for (Map.Entry<Path, TarArchiveEntry> directory: directories.entrySet()) {
+            // The directory may have been replaced by a symbolic link of a later entry
+            if (Files.isSymbolicLink(directory.getKey())) {
+                continue;
+            }
+            setAttributes(directory.getKey(), directory.getValue().getMode(),
+                    directory.getValue().getModTime().getTime());
+        }
+    }
+
+    private static Path resolve(Path destination, String entryName) throws IOException {
+        Path target = destination.resolve(entryName).normalize();
+        if (!target.startsWith(destination)) {
+            throw new IOException("Archive entry " + entryName + " is outside of the destination directory!");
+        }
+        return target;
+    }
+
+    /**
+     * Checks a symbolic link's target doesn't point outside of the destination directory. Absolute targets are only
+     * allowed inside the destination directory
+     * @param destination the real path of the destination directory
+     * @param link the path of the symbolic link
+     * @param linkName the target of the symbolic link as stored in the archive
+     * @return the target of the symbolic link
+     * @throws IOException if the target is outside of the destination directory
+     */
+    private static Path linkTarget(Path destination, Path link, String linkName) throws IOException {
+        Path linkTarget = Paths.get(linkName);
+        if (!link.getParent().resolve(linkTarget).normalize().startsWith(destination)) {
+            throw new IOException("Symbolic link " + destination.relativize(link) + " -> " + linkName
+                    + " points outside of the destination directory!");
+        }
+        return linkTarget;
+    }
+
+    /**
+     * Creates a directory and its missing parents after checking the real path of its closest existing ancestor is
+     * inside the destination directory, so no directory is created through a symbolic link to outside of it
+     * @param destination the real path of the destination directory
+     * @param directory the directory to create
+     * @throws IOException if the directory is outside of the destination directory or creating it fails
+     */
+    private static void createDirectories(Path destination, Path directory) throws IOException {
+        Path existing = directory;
+        while (!Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+            existing = existing.getParent();
+        }
+        checkRealPath(destination, existing, destination.relativize(directory).toString());
+        Files.createDirectories(directory);
+    }
+
+    private static void checkRealPath(Path destination, Path path, String entryName) throws IOException {
+        if (!path.toRealPath().startsWith(destination)) {
+            throw new IOException("Archive entry " + entryName + " is outside of the destination directory through a"
+                    + " symbolic link!");
+        }
+    }
+
+    // The target itself is never followed if it is a symbolic link
+    private static void writeFile(InputStream inputStream, Path target) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream outputStream = Files.newOutputStream(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static void setAttributes(Path target, int mode, long modificationTime) throws IOException {
+        if (mode != 0 && Files.getFileStore(target).supportsFileAttributeView("posix")) {
+            Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+            PosixFilePermission[] permissionBits = PosixFilePermission.values(); // ordered from owner read to others execute
+            for (int i = 0; i < permissionBits.length; i++) {
+                if ((mode & (1 << (permissionBits.length - 1 - i))) != 0) {
+                    permissions.add(permissionBits[i]);
+                }
+            }
+            Files.setPosixFilePermissions(target, permissions);
+        }
+        if (modificationTime > 0) {
+            Files.setLastModifiedTime(target, FileTime.fromMillis(modificationTime));
+        }
+    }
+}
@@ -25,9 +25,13 @@
 package io.failify.util;
 
 import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.LogStream;
 import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerExit;
 import com.spotify.docker.client.messages.ContainerInfo;
 import com.spotify.docker.client.messages.ContainerMount;
+import com.spotify.docker.client.messages.HostConfig;
 import io.failify.exceptions.RuntimeEngineException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -108,6 +112,69 @@ public class DockerUtil {
         return path;
     }
 
+    /**
+     * Runs a shell script in a short-lived container on the docker host and returns its output. This is useful to
+     * inspect the docker host itself e.g. its devices and cgroups when the client is running inside a container
+     * @param dockerClient the docker client to run the container through
+     * @param imageName the docker image to run the script in. The image should contain a shell
+     * @param binds the bind mounts to add to the container
+     * @param script the shell script to run
+     * @return the trimmed standard output of the script
+     * @throws RuntimeEngineException if the container cannot be run or the script exits with a non-zero status
+     */
+    public static String runProbeContainer(DockerClient dockerClient, String imageName, List<HostConfig.Bind> binds,
+                                           String script) throws RuntimeEngineException {
+        return runProbeContainer(dockerClient, imageName, binds, false, script);
+    }
+
+    /**
+     * Runs a shell script in a short-lived container on the docker host and returns its output. A privileged container
+     * is able to change the docker host's kernel settings e.g. the cgroups of the other containers through its binds
+     * @param dockerClient the docker client to run the container through
+     * @param imageName the docker image to run the script in. The image should contain a shell
+     * @param binds the bind mounts to add to the container
+     * @param privileged if the container should be run in privileged mode
+     * @param script the shell script to run
+     * @return the trimmed standard output of the script
+     * @throws RuntimeEngineException if the container cannot be run or the script exits with a non-zero status
+     */
+    public static String runProbeContainer(DockerClient dockerClient, String imageName, List<HostConfig.Bind> binds,
+                                           boolean privileged, String script) throws RuntimeEngineException {
+        String containerId;
+        try {
+            containerId = dockerClient.createContainer(ContainerConfig.builder()
+                    .image(imageName)
+                    .entrypoint("/bin/sh", "-c", script)
+                    .hostConfig(HostConfig.builder().binds(binds.toArray(new HostConfig.Bind[0]))
+                            .privileged(privileged).build())
+                    .build()).id();
+        } catch (InterruptedException | DockerException e) {
+            throw new RuntimeEngineException("Error while creating a probe container out of image " + imageName, e);
+        }
+
+        try {
+            dockerClient.startContainer(containerId);
+            ContainerExit containerExit = dockerClient.waitContainer(containerId);
+            String output;
+            try (LogStream logStream = dockerClient.logs(containerId, DockerClient.LogsParam.stdout())) {
+                output = logStream.readFully().trim();
+            }
+            if (containerExit.statusCode() != 0) {
+                throw new RuntimeEngineException("The probe container out of image " + imageName
+                        + " exited with status " + containerExit.statusCode() + "!");
+            }
+            return output;
+        } catch (InterruptedException | DockerException e) {
+            throw new RuntimeEngineException("Error while running a probe container out of image " + imageName, e);
+        } finally {
+            try {
+                dockerClient.removeContainer(containerId, DockerClient.RemoveContainerParam.forceKill());
+            } catch (InterruptedException | DockerException e) {
+                logger.warn("Error while removing probe container {}", containerId, e);
+            }
+        }
+    }
+
     public static Boolean isRunningInsideDocker() {
         try (Stream< String > stream = Files.lines(Paths.get("/proc/1/cgroup"))) {
             return stream.anyMatch(line -> line.contains("docker"));
@@ -24,11 +24,11 @@
 
 package io.failify.util;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
@@ -141,40 +141,11 @@ public class FileUtil {
     }
 
     public static Set<String> findAllMatchingPaths(String pattern) throws IOException {
-        Set<String> matched = new HashSet<>();
-
         if (pattern == null) {
-            return matched;
-        }
-
-        // If pattern path exists, then it is not a pattern
-        if (new File(pattern).exists()) {
-            matched.add(pattern);
-            return matched;
-        }
-
-        String rootDirectory = pattern;
-        while (!rootDirectory.isEmpty() && !new File(rootDirectory).exists()) {
-            rootDirectory = rootDirectory.substring(0, rootDirectory.lastIndexOf(FileSystems.getDefault().getSeparator()));
+            return new HashSet<>();
         }
 
-        if (rootDirectory.isEmpty()) {
-            return matched;
-        }
-
-        Files.walkFileTree(Paths.get(rootDirectory), new SimpleFileVisitor<Path>() {
-            private PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
-
-            @Override
-            public FileVisitResult visitFile(Path path, BasicFileAttributes basicFileAttributes) throws IOException {
-                if (matcher.matches(path)) {
-                    matched.add(path.toAbsolutePath().normalize().toString());
-                }
-                return FileVisitResult.CONTINUE;
-            }
-        });
-
-        return matched;
+        return new HashSet<>(new GlobExpander().expand(Collections.singleton(pattern)).get(pattern));
     }
 
     public static Set<String> findAllMatchingPaths(String pattern, List<String> toBeMatched) throws IOException {
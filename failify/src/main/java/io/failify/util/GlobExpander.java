@@ -0,0 +1,244 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * This class expands glob patterns of absolute paths into the files matching them. The patterns are grouped by their
+ * literal prefix, i.e. the path components before the first one with a glob character, and the patterns whose prefixes
+ * are nested share a single walk of the file system. During the walk, the directories that can't contain a match for
+ * any of the patterns are skipped by matching their names against the corresponding components of the patterns. The
+ * expansions are cached in the instance, so an instance should live as long as the matched files are not expected to
+ * change.
+ */
+public class GlobExpander {
+    private final static String SEPARATOR = FileSystems.getDefault().getSeparator();
+
+    private final Map<String, Set<String>> cache;
+
+    public GlobExpander() {
+        cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * A glob pattern split into its literal prefix and the matchers of its remaining components
+     */
+    static class Glob {
+        final String pattern;
+        final Path root; // the literal prefix of the pattern
+        final PathMatcher matcher;
+        final List<PathMatcher> componentMatchers;
+        // the index of the first component which may match across directories, e.g. **, or -1 if there is none
+        final int unboundedComponent;
+
+        Glob(String pattern) {
+            this.pattern = pattern;
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+            String[] components = pattern.split(Pattern.quote(SEPARATOR), -1);
+            int firstGlobComponent = 0;
+            while (firstGlobComponent < components.length && !isGlob(components[firstGlobComponent])) {
+                firstGlobComponent++;
+            }
+            this.root = Paths.get(firstGlobComponent == 0 ? "" : String.join(SEPARATOR,
+                    Arrays.copyOfRange(components, 0, firstGlobComponent)) + (firstGlobComponent == 1 ? SEPARATOR : ""));
+
+            List<PathMatcher> matchers = new ArrayList<>();
+            int unbounded = -1;
+            for (int i = firstGlobComponent; i < components.length && unbounded < 0; i++) {
+                String component = components[i];
+                if (component.contains("**") || !isBalanced(component)) {
+                    unbounded = matchers.size();
+                    break;
+                }
+                try {
+                    matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + component));
+                } catch (PatternSyntaxException e) {
+                    // the component is not valid on its own, e.g. a group containing a separator
+                    unbounded = matchers.size();
+                }
+            }
+            this.componentMatchers = matchers;
+            this.unboundedComponent = unbounded;
+        }
+
+        /**
+         * @param directory a directory below the root of the pattern whose parent may contain a match
+         * @param depth the number of components of the directory below the root of the pattern
+         * @return true if the directory may contain a match, otherwise false
+         */
+        boolean mayMatchBelow(Path directory, int depth) {
+            int component = depth - 1;
+            if (unboundedComponent >= 0 && component >= unboundedComponent) {
+                return true;
+            }
+            if (unboundedComponent < 0 && depth >= componentMatchers.size()) {
+                return false;
+            }
+            return componentMatchers.get(component).matches(directory.getFileName());
+        }
+
+        private static boolean isGlob(String component) {
+            for (char c: component.toCharArray()) {
+                if (c == '*' || c == '?' || c == '[' || c == '{' || c == '\\') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isBalanced(String component) {
+            int braces = 0, brackets = 0;
+            for (char c: component.toCharArray()) {
+                braces += c == '{' ? 1 : c == '}' ? -1 : 0;
+                brackets += c == '[' ? 1 : c == ']' ? -1 : 0;
+            }
+            return braces == 0 && brackets == 0;
+        }
+    }
+
+    /**
+     * Expands the given patterns. A pattern which is the path of an existing file is not expanded. Only the files, and
+     * not the directories, are matched against the patterns
+     * @param patterns the patterns to expand
+     * @return a map from each pattern to the set of normalized absolute paths matching it
+     * @throws IOException if something goes wrong while walking the file system
+     */
+    public Map<String, Set<String>> expand(Collection<String> patterns) throws IOException {
+        Map<String, Set<String>> result = new HashMap<>();
+        List<Glob> globs = new ArrayList<>();
+        for (String pattern: new LinkedHashSet<>(patterns)) {
+            Set<String> cached = cache.get(pattern);
+            if (cached != null) {
+                result.put(pattern, cached);
+            } else if (new File(pattern).exists()) {
+                // If pattern path exists, then it is not a pattern
+                result.put(pattern, Collections.singleton(pattern));
+            } else {
+                Glob glob = new Glob(pattern);
+                if (Files.isDirectory(glob.root, LinkOption.NOFOLLOW_LINKS)) {
+                    globs.add(glob);
+                } else {
+                    result.put(pattern, Collections.emptySet());
+                }
+            }
+        }
+
+        Map<Glob, Set<String>> matches = new HashMap<>();
+        for (Map.Entry<Path, List<Glob>> walk: groupByWalkRoot(globs).entrySet()) {
+            walk(walk.getKey(), walk.getValue(), matches);
+        }
+        for (Glob glob: globs) {
+            result.put(glob.pattern, Collections.unmodifiableSet(matches.getOrDefault(glob, new HashSet<>())));
+        }
+
+        for (Map.Entry<String, Set<String>> entry: result.entrySet()) {
+            cache.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    // The roots nested in another root are walked as part of the outer root, unless there is a symbolic link between
+    // them which is not followed during the walk
+    static Map<Path, List<Glob>> groupByWalkRoot(List<Glob> globs) {
+        List<Glob> sortedGlobs = new ArrayList<>(globs);
+        sortedGlobs.sort(Comparator.comparingInt((Glob glob) -> glob.root.getNameCount()));
+        Map<Path, List<Glob>> walks = new LinkedHashMap<>();
+        for (Glob glob: sortedGlobs) {
+            Path walkRoot = glob.root;
+            for (Path candidate: walks.keySet()) {
+                if (glob.root.startsWith(candidate) && !hasSymbolicLink(candidate, glob.root)) {
+                    walkRoot = candidate;
+                    break;
+                }
+            }
+            walks.computeIfAbsent(walkRoot, k -> new ArrayList<>()).add(glob);
+        }
+        return walks;
+    }
+
+    private static boolean hasSymbolicLink(Path ancestor, Path descendant) {
+        for (Path path = descendant; path != null && !path.equals(ancestor); path = path.getParent()) {
+            if (Files.isSymbolicLink(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void walk(Path walkRoot, List<Glob> globs, Map<Glob, Set<String>> matches) throws IOException {
+        Files.walkFileTree(walkRoot, new SimpleFileVisitor<Path>() {
+            // the globs which may match in each of the directories being visited
+            private final Deque<List<Glob>> activeGlobs = new ArrayDeque<>();
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                List<Glob> parentGlobs = activeGlobs.isEmpty() ? globs : activeGlobs.peek();
+                List<Glob> directoryGlobs = new ArrayList<>();
+                for (Glob glob: parentGlobs) {
+                    if (glob.root.startsWith(directory) || (directory.startsWith(glob.root)
+                            && glob.mayMatchBelow(directory, directory.getNameCount() - glob.root.getNameCount()))) {
+                        directoryGlobs.add(glob);
+                    }
+                }
+                if (directoryGlobs.isEmpty()) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                activeGlobs.push(directoryGlobs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                for (Glob glob: activeGlobs.isEmpty() ? globs : activeGlobs.peek()) {
+                    if (glob.matcher.matches(path)) {
+                        matches.computeIfAbsent(glob, k -> new HashSet<>())
+                                .add(path.toAbsolutePath().normalize().toString());
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                activeGlobs.pop();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.workspace;
+
+import io.failify.exceptions.WorkspaceException;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * This class is a cache of decompressed application archives which is shared between the runs. The archives are keyed by
+ * the SHA-256 hash of their content, and the hash of an archive is remembered by its path, size and modification time,
+ * so an unchanged archive is not even read again. A decompressed archive is moved into the cache atomically, so
+ * concurrent runs never see a partially decompressed archive. The size of each entry is kept in a file next to it whose
+ * modification time is updated on every use and is used for evicting the least recently used entries. A run holds a
+ * shared lock on the lock file of each entry it uses until it is finished, and an entry is only evicted while its lock
+ * file can be locked exclusively, so the runs in other processes never lose the entries they are using.
+ */
+class DecompressionCache {
+    private final static Logger logger = LoggerFactory.getLogger(DecompressionCache.class);
+    private final static String ENTRIES_DIRECTORY_NAME = "entries";
+    private final static String HASHES_DIRECTORY_NAME = "hashes";
+    private final static String SIZE_FILE_SUFFIX = ".size";
+    private final static String LOCK_FILE_SUFFIX = ".lock";
+    private final static String TEMP_ENTRY_INFIX = ".tmp-";
+    private final static String DELETED_ENTRY_INFIX = ".deleted-";
+    private final static long STALE_TEMP_ENTRY_AGE = TimeUnit.DAYS.toMillis(1);
+    // The entry locks held by the runs of this JVM. A file can be locked only once per JVM and closing any channel to a
+    // file releases all the locks of the JVM on that file, so the runs of this JVM share the locks and the lock files
+    // held in this JVM are never opened by the eviction. All accesses are synchronized on the map
+    private final static Map<Path, SharedLock> heldLocks = new HashMap<>();
+
+    /**
+     * The decompressor to fill a cache entry with
+     */
+    interface Decompressor {
+        void decompress(String archivePath, String targetDirectory) throws WorkspaceException;
+    }
+
+    private final Path entriesDirectory;
+    private final Path hashesDirectory;
+    private final long maxSize;
+    private final Map<String, Object> entryLocks;
+    private final Set<String> usedEntries; // the entries used by this run whose lock files are locked by this run
+
+    DecompressionCache(Path cacheDirectory, long maxSize) {
+        this.entriesDirectory = cacheDirectory.resolve(ENTRIES_DIRECTORY_NAME);
+        this.hashesDirectory = cacheDirectory.resolve(HASHES_DIRECTORY_NAME);
+        this.maxSize = maxSize;
+        this.entryLocks = new ConcurrentHashMap<>();
+        this.usedEntries = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Returns the cached decompressed directory of an archive. If the archive is not in the cache, it is decompressed
+     * using the given decompressor and added to the cache
+     * @param archivePath the path to the archive
+     * @param decompressor the decompressor to use if the archive is not cached
+     * @return the path to the decompressed directory of the archive
+     * @throws WorkspaceException if something goes wrong while hashing or decompressing the archive
+     */
+    String get(String archivePath, Decompressor decompressor) throws WorkspaceException {
+        String hash;
+        try {
+            Files.createDirectories(entriesDirectory);
+            Files.createDirectories(hashesDirectory);
+            hash = hash(Paths.get(archivePath).toAbsolutePath().normalize());
+        } catch (IOException e) {
+            throw new WorkspaceException("Error while looking up " + archivePath + " in the decompression cache!", e);
+        }
+        lockEntry(archivePath, hash);
+
+        Path entry = entriesDirectory.resolve(hash);
+        Path sizeFile = entriesDirectory.resolve(hash + SIZE_FILE_SUFFIX);
+        synchronized (entryLocks.computeIfAbsent(hash, k -> new Object())) {
+            try {
+                if (Files.isDirectory(entry) && Files.exists(sizeFile)) {
+                    Files.setLastModifiedTime(sizeFile, FileTime.fromMillis(System.currentTimeMillis()));
+                    logger.info("Using the cached decompressed directory of {}", archivePath);
+                    return entry.toString();
+                }
+
+                Path tempEntry = entriesDirectory.resolve(hash + TEMP_ENTRY_INFIX + UUID.randomUUID());
+                try {
+                    decompressor.decompress(archivePath, tempEntry.toString());
+                    long size = directorySize(tempEntry);
+                    try {
+                        Files.move(tempEntry, entry, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                        // another run has cached the same archive in the meantime
+                        logger.debug("Archive {} is already cached by another run", archivePath);
+                    }
+                    Files.write(sizeFile, String.valueOf(size).getBytes(StandardCharsets.UTF_8));
+                } finally {
+                    FileUtils.deleteQuietly(tempEntry.toFile());
+                }
+                return entry.toString();
+            } catch (IOException e) {
+                throw new WorkspaceException("Error while adding " + archivePath + " to the decompression cache!", e);
+            }
+        }
+    }
+
+    /**
+     * Takes a shared lock on the lock file of an entry, if this run doesn't have it already, which is held until the
+     * run is finished. This waits while the entry is being evicted by another process.
+     * @param archivePath the path to the archive of the entry
+     * @param hash the hash of the entry
+     * @throws WorkspaceException if something goes wrong while locking the lock file
+     */
+    private void lockEntry(String archivePath, String hash) throws WorkspaceException {
+        if (!usedEntries.add(hash)) {
+            return;
+        }
+
+        Path lockFile = entriesDirectory.resolve(hash + LOCK_FILE_SUFFIX);
+        synchronized (heldLocks) {
+            SharedLock sharedLock = heldLocks.get(lockFile);
+            if (sharedLock == null) {
+                FileChannel channel = null;
+                try {
+                    channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+                    channel.lock(0, Long.MAX_VALUE, true);
+                } catch (IOException e) {
+                    usedEntries.remove(hash);
+                    closeQuietly(channel);
+                    throw new WorkspaceException("Error while locking " + archivePath + " in the decompression cache!",
+                            e);
+                }
+                sharedLock = new SharedLock(channel);
+                heldLocks.put(lockFile, sharedLock);
+            }
+            sharedLock.holders++;
+        }
+    }
+
+    /**
+     * Releases the locks of the entries used by this run, so they can be evicted by the next runs. This should be
+     * called when the run is finished
+     */
+    void release() {
+        synchronized (heldLocks) {
+            for (String hash: usedEntries) {
+                Path lockFile = entriesDirectory.resolve(hash + LOCK_FILE_SUFFIX);
+                SharedLock sharedLock = heldLocks.get(lockFile);
+                if (sharedLock != null && --sharedLock.holders == 0) {
+                    heldLocks.remove(lockFile);
+                    closeQuietly(sharedLock.channel);
+                }
+            }
+            usedEntries.clear();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the size of the cache is at most the maximum size. The entries in
+     * use by the runs of this or any other process are never removed. The leftovers of interrupted decompressions and
+     * removals are also cleaned up.
+     */
+    synchronized void evict() {
+        if (!Files.isDirectory(entriesDirectory)) {
+            return;
+        }
+
+        List<Path> sizeFiles = new ArrayList<>();
+        try (Stream<Path> entries = Files.list(entriesDirectory)) {
+            for (Path path: (Iterable<Path>) entries::iterator) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(SIZE_FILE_SUFFIX)) {
+                    sizeFiles.add(path);
+                } else if ((name.contains(TEMP_ENTRY_INFIX) || name.contains(DELETED_ENTRY_INFIX))
+                        && System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis() > STALE_TEMP_ENTRY_AGE) {
+                    FileUtils.deleteQuietly(path.toFile());
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Error while listing the decompression cache entries", e);
+            return;
+        }
+
+        Map<Path, Long> sizes = new HashMap<>();
+        Map<Path, Long> lastUses = new HashMap<>();
+        long totalSize = 0;
+        for (Path sizeFile: sizeFiles) {
+            try {
+                long size = Long.parseLong(new String(Files.readAllBytes(sizeFile), StandardCharsets.UTF_8).trim());
+                sizes.put(sizeFile, size);
+                lastUses.put(sizeFile, Files.getLastModifiedTime(sizeFile).toMillis());
+                totalSize += size;
+            } catch (IOException | NumberFormatException e) {
+                logger.debug("Ignoring decompression cache entry {}", sizeFile, e);
+            }
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        List<Path> lruSizeFiles = new ArrayList<>(sizes.keySet());
+        lruSizeFiles.sort(Comparator.comparing(lastUses::get));
+        for (Path sizeFile: lruSizeFiles) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            String name = sizeFile.getFileName().toString();
+            String hash = name.substring(0, name.length() - SIZE_FILE_SUFFIX.length());
+            Path deletedEntry = retire(hash, sizeFile);
+            if (deletedEntry == null) {
+                continue;
+            }
+            FileUtils.deleteQuietly(deletedEntry.toFile());
+            logger.info("Evicted decompressed archive {} from the decompression cache", hash);
+            totalSize -= sizes.get(sizeFile);
+        }
+    }
+
+    /**
+     * Retires an entry which is not in use by holding an exclusive lock on its lock file. The size file is removed
+     * first, so the entry is not used anymore, and the entry is renamed, so it is never seen partially removed. The lock
+     * file is kept as another process may be waiting on it
+     * @param hash the hash of the entry
+     * @param sizeFile the size file of the entry
+     * @return the renamed entry to be removed or null if the entry is in use or retiring it fails
+     */
+    private Path retire(String hash, Path sizeFile) {
+        Path lockFile = entriesDirectory.resolve(hash + LOCK_FILE_SUFFIX);
+        synchronized (heldLocks) {
+            if (heldLocks.containsKey(lockFile)) {
+                return null;
+            }
+
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    logger.debug("Not evicting {} from the decompression cache as it is in use by another process",
+                            hash);
+                    return null;
+                }
+                Files.delete(sizeFile);
+                Path deletedEntry = entriesDirectory.resolve(hash + DELETED_ENTRY_INFIX + UUID.randomUUID());
+                Files.move(entriesDirectory.resolve(hash), deletedEntry, StandardCopyOption.ATOMIC_MOVE);
+                return deletedEntry;
+            } catch (OverlappingFileLockException e) {
+                return null;
+            } catch (IOException e) {
+                logger.warn("Error while evicting {} from the decompression cache", hash, e);
+                return null;
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Error while closing a decompression cache lock file", e);
+        }
+    }
+
+    private String hash(Path archive) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+        String stamp = attributes.size() + " " + attributes.lastModifiedTime().toMillis();
+        Path hashFile = hashesDirectory.resolve(toHex(newDigest().digest(
+                archive.toString().getBytes(StandardCharsets.UTF_8))));
+
+        if (Files.exists(hashFile)) {
+            String[] memo = new String(Files.readAllBytes(hashFile), StandardCharsets.UTF_8).trim().split(" ");
+            if (memo.length == 3 && stamp.equals(memo[0] + " " + memo[1])) {
+                return memo[2];
+            }
+        }
+
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream inputStream = Files.newInputStream(archive)) {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String hash = toHex(digest.digest());
+
+        Path tempHashFile = hashesDirectory.resolve(hashFile.getFileName() + TEMP_ENTRY_INFIX + UUID.randomUUID());
+        Files.write(tempHashFile, (stamp + " " + hash).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempHashFile, hashFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return hash;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b: bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static long directorySize(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static class SharedLock {
+        private final FileChannel channel;
+        private int holders; // the number of runs of this JVM using the entry
+
+        private SharedLock(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
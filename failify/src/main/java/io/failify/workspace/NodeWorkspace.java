@@ -33,12 +33,18 @@ public class NodeWorkspace {
     public static class PathMappingEntry {
         private final String source;
         private final String destination;
-        private final Boolean readOnly;
+        private final Boolean readOnly; // if the source is not a copy in the workspace and shouldn't be changed
+        private final Boolean mountReadOnly; // if the source should be mounted read-only in the node
 
         public PathMappingEntry(String source, String destination, Boolean readOnly) {
+            this(source, destination, readOnly, false);
+        }
+
+        public PathMappingEntry(String source, String destination, Boolean readOnly, Boolean mountReadOnly) {
             this.source = source;
             this.destination = destination;
             this.readOnly = readOnly;
+            this.mountReadOnly = mountReadOnly;
         }
 
         public String getSource() {
@@ -52,6 +58,10 @@ public class NodeWorkspace {
         public Boolean isReadOnly() {
             return readOnly;
         }
+
+        public Boolean isMountReadOnly() {
+            return mountReadOnly;
+        }
     }
 
     private final Set<String> instrumentablePaths;
@@ -63,12 +73,14 @@ public class NodeWorkspace {
     private final Map<String, String> logFilesMap;
     private final Map<String, String> sharedDirectoriesMap;
     private final List<PathMappingEntry> pathMappingList;
+    private final Set<String> tmpfsPaths; // the target paths to mount a tmpfs on in the node's container
+    private final String appCdsDirectory; // the directory of the class data sharing archives or null if disabled
 
 
     public NodeWorkspace(Set<String> instrumentablePaths, Set<String> libraryPaths, String workingDirectory,
                          String rootDirectory, String logDirectory, Map<String, String> logDirectoriesMap,
                          Map<String, String> logFilesMap, Map<String, String> sharedDirectoriesMap,
-                         List<PathMappingEntry> pathMappingList) {
+                         List<PathMappingEntry> pathMappingList, Set<String> tmpfsPaths, String appCdsDirectory) {
         this.instrumentablePaths = instrumentablePaths;
         this.libraryPaths = libraryPaths;
         this.workingDirectory = workingDirectory;
@@ -78,6 +90,8 @@ public class NodeWorkspace {
         this.logFilesMap = logFilesMap;
         this.sharedDirectoriesMap = sharedDirectoriesMap;
         this.pathMappingList = pathMappingList;
+        this.tmpfsPaths = tmpfsPaths;
+        this.appCdsDirectory = appCdsDirectory;
     }
 
     public Set<String> getInstrumentablePaths() {
@@ -115,4 +129,12 @@ public class NodeWorkspace {
     public List<PathMappingEntry> getPathMappingList() {
         return pathMappingList;
     }
+
+    public Set<String> getTmpfsPaths() {
+        return tmpfsPaths;
+    }
+
+    public String getAppCdsDirectory() {
+        return appCdsDirectory;
+    }
 }
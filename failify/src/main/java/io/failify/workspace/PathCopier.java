@@ -0,0 +1,187 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.workspace;
+
+import io.failify.dsl.entities.WorkspaceCopyStrategy;
+import io.failify.util.FileUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class copies over the application paths to the nodes' workspaces based on the deployment's workspace copy
+ * strategy. Whether reflinks are supported is detected on the first copy from each file system and is remembered for the
+ * next copies.
+ */
+class PathCopier {
+    private final static Logger logger = LoggerFactory.getLogger(PathCopier.class);
+
+    private final WorkspaceCopyStrategy strategy;
+    private final Map<FileStore, Boolean> reflinkSupportMap;
+
+    PathCopier(WorkspaceCopyStrategy strategy) {
+        this.strategy = strategy;
+        this.reflinkSupportMap = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Copies a file or directory over to the given target path
+     * @param source the file or directory to be copied
+     * @param target the path to copy the source to
+     * @param noHardLinks if true, the copy is never hard linked e.g. because it is going to be modified in place by
+     *                    Failify or its source is shared with the other runs
+     * @throws IOException if something goes wrong while copying
+     */
+    void copy(Path source, Path target, boolean noHardLinks) throws IOException {
+        if (strategy == WorkspaceCopyStrategy.AUTO || strategy == WorkspaceCopyStrategy.REFLINK
+                || (strategy == WorkspaceCopyStrategy.HARDLINK && noHardLinks)) {
+            if (reflinkCopy(source, target)) {
+                return;
+            }
+        } else if (strategy == WorkspaceCopyStrategy.HARDLINK) {
+            hardLinkCopy(source, target);
+            return;
+        }
+
+        fullCopy(source, target);
+    }
+
+    /**
+     * Replaces the hard linked files in the given path with full copies, so they can be modified in place without
+     * affecting the source files
+     * @param path the file or directory to materialize the files of
+     * @throws IOException if something goes wrong while copying
+     */
+    void materialize(Path path) throws IOException {
+        if (strategy != WorkspaceCopyStrategy.HARDLINK || !Files.exists(path)) {
+            return;
+        }
+
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && isHardLinked(file)) {
+                    Path tempFile = file.resolveSibling(file.getFileName() + ".failify_tmp");
+                    Files.copy(file, tempFile, StandardCopyOption.COPY_ATTRIBUTES,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean isHardLinked(Path file) {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            // The number of links is not known, so the file is treated as a linked one
+            return true;
+        }
+    }
+
+    private void fullCopy(Path source, Path target) throws IOException {
+        if (Files.isDirectory(source)) {
+            FileUtil.copyDirectory(source, target);
+        } else {
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private boolean reflinkCopy(Path source, Path target) throws IOException {
+        FileStore fileStore = Files.getFileStore(source);
+        // reflinks can't cross file systems
+        if (Boolean.FALSE.equals(reflinkSupportMap.get(fileStore))
+                || !fileStore.equals(Files.getFileStore(target.toAbsolutePath().getParent()))) {
+            return false;
+        }
+
+        String output;
+        int exitCode;
+        try {
+            Process cpProcess = new ProcessBuilder().command("cp", "-R", "-L", "-T", "--preserve=mode,timestamps",
+                    "--reflink=always", source.toString(), target.toString()).redirectErrorStream(true).start();
+            output = IOUtils.toString(cpProcess.getInputStream(), StandardCharsets.UTF_8).trim();
+            exitCode = cpProcess.waitFor();
+        } catch (IOException e) {
+            output = e.getMessage();
+            exitCode = -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying " + source + " to " + target, e);
+        }
+
+        if (exitCode == 0) {
+            reflinkSupportMap.putIfAbsent(fileStore, true);
+            return true;
+        }
+
+        if (reflinkSupportMap.put(fileStore, false) == null) {
+            logger.info("Reflink copies are not supported on {}. Falling back to full copies: {}", fileStore, output);
+        }
+        FileUtils.deleteQuietly(target.toFile());
+        return false;
+    }
+
+    // The directories are created, and the files which can't be hard linked e.g. because of crossing file systems are
+    // fully copied
+    private void hardLinkCopy(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path targetDir = target.resolve(source.relativize(dir).toString());
+                if (!Files.isDirectory(targetDir)) {
+                    Files.copy(dir, targetDir, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path targetFile = Files.isDirectory(source) ? target.resolve(source.relativize(file).toString())
+                        : target;
+                Files.deleteIfExists(targetFile);
+                try {
+                    Files.createLink(targetFile, file.toRealPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
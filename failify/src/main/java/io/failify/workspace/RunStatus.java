@@ -0,0 +1,233 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.workspace;
+
+import io.failify.Constants;
+import io.failify.exceptions.WorkspaceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class records the status of a run in a file in its working directory, so the retention policies can tell the
+ * successful runs from the failed ones. While a run is in progress, its status file is locked, so other runs never remove
+ * its working directory and a run which is left in the running state without the lock is known to be crashed.
+ */
+class RunStatus {
+    private final static Logger logger = LoggerFactory.getLogger(RunStatus.class);
+    private final static String STATE_PROPERTY = "state";
+    private final static String START_TIME_PROPERTY = "startTime";
+    // The runs of this JVM which are in progress. Their status files are never opened by the collector, as closing any
+    // channel to a file releases all the locks of the JVM on that file
+    private final static Set<Path> activeRuns = ConcurrentHashMap.newKeySet();
+
+    enum State {
+        RUNNING,
+        FINISHED, // stopped without its outcome being known
+        SUCCEEDED,
+        FAILED
+    }
+
+    private final Path runDirectory;
+    private final long startTime;
+    private State state;
+    private State outcome; // the outcome the run is marked with, which is recorded when the run is finished
+    private FileChannel channel;
+
+    RunStatus(Path runDirectory) {
+        this(runDirectory, null, System.currentTimeMillis());
+    }
+
+    private RunStatus(Path runDirectory, State state, long startTime) {
+        this.runDirectory = runDirectory;
+        this.state = state;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Marks the run as running and locks its status file until the run is finished
+     * @throws WorkspaceException if something goes wrong while writing the status file
+     */
+    synchronized void start() throws WorkspaceException {
+        activeRuns.add(runDirectory);
+        try {
+            channel = FileChannel.open(runDirectory.resolve(Constants.RUN_STATUS_FILE_NAME),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (channel.tryLock() == null) {
+                logger.warn("The status file of run {} is locked by another process", runDirectory);
+            }
+            write(State.RUNNING);
+        } catch (IOException e) {
+            throw new WorkspaceException("Error while writing the status of run " + runDirectory + "!", e);
+        }
+    }
+
+    /**
+     * Marks the run with its outcome. While the run is in progress, the outcome is only recorded when the run is
+     * finished, so the status file stays locked. If the run is already finished, the outcome is recorded right away. A
+     * failed run can't be marked as succeeded afterwards
+     * @param outcome the outcome of the run which is either succeeded or failed
+     */
+    synchronized void mark(State outcome) {
+        if (this.outcome == State.FAILED || this.outcome == outcome) {
+            return;
+        }
+        this.outcome = outcome;
+        if (state != null && state != State.RUNNING) {
+            record(outcome);
+        }
+    }
+
+    /**
+     * Marks the run as finished, records its outcome or finished without a known outcome if it is not marked, and
+     * releases the lock of its status file. This should only be called when the run is not using its working directory
+     * anymore
+     */
+    synchronized void finish() {
+        if (state != State.RUNNING) {
+            return;
+        }
+        record(outcome == null ? State.FINISHED : outcome);
+    }
+
+    private void record(State state) {
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(runDirectory.resolve(Constants.RUN_STATUS_FILE_NAME),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            write(state);
+        } catch (IOException e) {
+            logger.warn("Error while writing the status of run {}", runDirectory, e);
+        } finally {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                logger.debug("Error while closing the status file of run {}", runDirectory, e);
+            }
+            channel = null;
+            activeRuns.remove(runDirectory);
+        }
+    }
+
+    private void write(State state) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(STATE_PROPERTY, state.name());
+        properties.setProperty(START_TIME_PROPERTY, String.valueOf(startTime));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        properties.store(outputStream, null);
+
+        channel.truncate(0);
+        ByteBuffer buffer = ByteBuffer.wrap(outputStream.toByteArray());
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        this.state = state;
+    }
+
+    /**
+     * @return the state of the run or null if the run is not started yet
+     */
+    synchronized State state() {
+        return state;
+    }
+
+    /**
+     * @return the start time of the run in milliseconds
+     */
+    long startTime() {
+        return startTime;
+    }
+
+    /**
+     * Reads the status of a run from its working directory. This should only be called for runs which are not in use
+     * @param runDirectory the working directory of the run
+     * @return the status of the run or null if it has no valid status file
+     */
+    static RunStatus read(Path runDirectory) {
+        Path statusFile = runDirectory.resolve(Constants.RUN_STATUS_FILE_NAME);
+        if (!Files.isRegularFile(statusFile)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(statusFile)) {
+            properties.load(inputStream);
+            return new RunStatus(runDirectory, State.valueOf(properties.getProperty(STATE_PROPERTY)),
+                    Long.parseLong(properties.getProperty(START_TIME_PROPERTY)));
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Ignoring the invalid status file of run {}", runDirectory, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param runDirectory the working directory of a run
+     * @return true if the run is in progress in this or another process, otherwise false
+     */
+    static boolean isInUse(Path runDirectory) {
+        if (activeRuns.contains(runDirectory)) {
+            return true;
+        }
+
+        Path statusFile = runDirectory.resolve(Constants.RUN_STATUS_FILE_NAME);
+        if (!Files.isRegularFile(statusFile)) {
+            return false;
+        }
+
+        try (FileChannel statusChannel = FileChannel.open(statusFile, StandardOpenOption.WRITE)) {
+            FileLock lock = statusChannel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            // when in doubt, the run is considered in use so it is not removed
+            logger.debug("Error while checking the lock of run {}", runDirectory, e);
+            return true;
+        }
+    }
+}
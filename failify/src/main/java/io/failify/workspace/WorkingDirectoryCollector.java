@@ -0,0 +1,235 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.workspace;
+
+import io.failify.Constants;
+import io.failify.dsl.entities.Deployment;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * This class enforces the retention policies of the deployment on the working directories of the previous runs in the
+ * top level working directory. The runs which are in progress, the decompression cache and the class data sharing
+ * archives are never touched. The working directories to be removed are first renamed, so they are never seen partially
+ * removed, and the leftovers of interrupted removals are removed by the next collection.
+ */
+class WorkingDirectoryCollector implements Runnable {
+    private final static Logger logger = LoggerFactory.getLogger(WorkingDirectoryCollector.class);
+    private final static String DELETED_DIRECTORY_INFIX = ".deleted-";
+
+    private final Path topLevelWorkingDirectory;
+    private final Path currentRunDirectory;
+    private final Deployment deployment;
+
+    /**
+     * A previous run in the top level working directory
+     */
+    private static class Run {
+        final Path directory;
+        final boolean failed;
+        final long startTime;
+
+        Run(Path directory, boolean failed, long startTime) {
+            this.directory = directory;
+            this.failed = failed;
+            this.startTime = startTime;
+        }
+    }
+
+    WorkingDirectoryCollector(Path topLevelWorkingDirectory, Path currentRunDirectory, Deployment deployment) {
+        this.topLevelWorkingDirectory = topLevelWorkingDirectory;
+        this.currentRunDirectory = currentRunDirectory;
+        this.deployment = deployment;
+    }
+
+    /**
+     * Starts the collection in a background thread
+     */
+    void start() {
+        Thread thread = new Thread(this, "failify-workspace-gc");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            collect();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Error while removing the old working directories", e);
+        }
+    }
+
+    void collect() throws IOException {
+        if (!Files.isDirectory(topLevelWorkingDirectory)) {
+            return;
+        }
+
+        List<Run> runs = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(topLevelWorkingDirectory)) {
+            for (Path path: (Iterable<Path>) paths::iterator) {
+                String name = path.getFileName().toString();
+                if (name.contains(DELETED_DIRECTORY_INFIX)) {
+                    FileUtils.deleteQuietly(path.toFile());
+                } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && !path.equals(currentRunDirectory)
+                        && !name.equals(Constants.DECOMPRESSION_CACHE_DIRECTORY_NAME)
+                        && !name.equals(Constants.APPCDS_DIRECTORY_NAME) && !RunStatus.isInUse(path)) {
+                    runs.add(toRun(path));
+                }
+            }
+        }
+        removeInMemoryLeftovers(runs);
+        // newest first
+        runs.sort(Comparator.comparingLong((Run run) -> run.startTime).reversed());
+
+        List<Run> keptRuns = new ArrayList<>();
+        for (Run run: runs) {
+            if (deployment.isKeepFailedRunsOnly() && !run.failed) {
+                remove(run);
+            } else if (deployment.getWorkingDirectoryRetention() != null
+                    && keptRuns.size() >= deployment.getWorkingDirectoryRetention() - 1) {
+                remove(run);
+            } else {
+                keptRuns.add(run);
+            }
+        }
+
+        if (deployment.isKeepOnlyLogs()) {
+            for (Run run: keptRuns) {
+                removeAllButLogs(run);
+            }
+        }
+
+        if (deployment.getWorkingDirectoryMaxSize() != null) {
+            Map<Run, Long> sizes = new HashMap<>();
+            long totalSize = 0;
+            for (Run run: keptRuns) {
+                sizes.put(run, directorySize(run.directory));
+                totalSize += sizes.get(run);
+            }
+            for (int i = keptRuns.size() - 1; i >= 0 && totalSize > deployment.getWorkingDirectoryMaxSize(); i--) {
+                remove(keptRuns.get(i));
+                totalSize -= sizes.get(keptRuns.get(i));
+            }
+        }
+    }
+
+    // The memory-backed directories of the runs which are not in use anymore are left over by crashed runs
+    private void removeInMemoryLeftovers(List<Run> runs) throws IOException {
+        Path inMemoryRoot = Paths.get(Constants.IN_MEMORY_WORKSPACE_ROOT);
+        if (runs.isEmpty() || !Files.isDirectory(inMemoryRoot)) {
+            return;
+        }
+
+        Set<String> runNames = new HashSet<>();
+        for (Run run: runs) {
+            runNames.add(run.directory.getFileName().toString());
+        }
+        try (Stream<Path> paths = Files.list(inMemoryRoot)) {
+            for (Path path: (Iterable<Path>) paths::iterator) {
+                String name = path.getFileName().toString();
+                int separatorIndex = name.lastIndexOf('_');
+                if (separatorIndex > 0 && runNames.contains(name.substring(0, separatorIndex))) {
+                    FileUtils.deleteQuietly(path.toFile());
+                    logger.info("Removed the left over in-memory directory {}", path);
+                }
+            }
+        }
+    }
+
+    private Run toRun(Path directory) throws IOException {
+        RunStatus runStatus = RunStatus.read(directory);
+        if (runStatus == null) {
+            // the run status is unknown, so it is considered failed to be on the safe side
+            return new Run(directory, true, Files.getLastModifiedTime(directory).toMillis());
+        }
+        // a run which is left running without holding the lock of its status file has crashed, and a run which is
+        // finished without a known outcome may have failed
+        return new Run(directory, runStatus.state() != RunStatus.State.SUCCEEDED, runStatus.startTime());
+    }
+
+    private void remove(Run run) {
+        Path deletedDirectory = run.directory.resolveSibling(run.directory.getFileName() + DELETED_DIRECTORY_INFIX
+                + UUID.randomUUID());
+        try {
+            Files.move(run.directory, deletedDirectory, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Error while removing the working directory {}", run.directory, e);
+            return;
+        }
+        FileUtils.deleteQuietly(deletedDirectory.toFile());
+        logger.info("Removed the working directory {}", run.directory);
+    }
+
+    // Only the status file and the log directories of the nodes are kept
+    private void removeAllButLogs(Run run) throws IOException {
+        try (Stream<Path> paths = Files.list(run.directory)) {
+            for (Path path: (Iterable<Path>) paths::iterator) {
+                if (path.getFileName().toString().equals(Constants.RUN_STATUS_FILE_NAME)) {
+                    continue;
+                }
+                if (Files.isDirectory(path.resolve(Constants.NODE_LOG_DIRECTORY_NAME), LinkOption.NOFOLLOW_LINKS)) {
+                    try (Stream<Path> nodePaths = Files.list(path)) {
+                        for (Path nodePath: (Iterable<Path>) nodePaths::iterator) {
+                            if (!nodePath.getFileName().toString().equals(Constants.NODE_LOG_DIRECTORY_NAME)) {
+                                FileUtils.deleteQuietly(nodePath.toFile());
+                            }
+                        }
+                    }
+                } else {
+                    FileUtils.deleteQuietly(path.toFile());
+                }
+            }
+        }
+    }
+
+    private static long directorySize(Path directory) throws IOException {
+        long[] size = {0};
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    size[0] += attributes.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+}
@@ -25,14 +25,17 @@
 package io.failify.workspace;
 
 import io.failify.Constants;
-import io.failify.util.FileUtil;
-import io.failify.util.ZipUtil;
+import io.failify.util.GlobExpander;
+import io.failify.util.ArchiveUtil;
+import io.failify.util.DockerUtil;
+import io.failify.util.OsUtil;
 import io.failify.dsl.entities.Deployment;
 import io.failify.dsl.entities.Node;
 import io.failify.dsl.entities.PathEntry;
 import io.failify.dsl.entities.Service;
+import io.failify.dsl.entities.WorkspaceCopyStrategy;
 import io.failify.exceptions.WorkspaceException;
-import net.lingala.zip4j.exception.ZipException;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,16 +44,31 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class WorkspaceManager {
     private final static Logger logger = LoggerFactory.getLogger(WorkspaceManager.class);
 
     private final Deployment deployment;
+    private final Path topLevelWorkingDirectory;
     private final Path workingDirectory;
+    private final RunStatus runStatus;
+    private final PathCopier pathCopier;
+    private final DecompressionCache decompressionCache;
+    private final GlobExpander globExpander; // caches the lib path expansions of the run
+    private final Map<Path, Path> inMemoryLogDirectories; // memory-backed log directory -> its copy in the working directory
+    private Path inMemoryDirectory; // the memory-backed directory of the run which is created on first use
+    private Boolean inMemoryDirectoryUnsupported;
     private Map<String, String> fakeTimePathMap;
     private Map<String, Map<String, String>> serviceToMapOfCompressedToDecompressedMap;
     private Map<String, String> sharedDirectoriesMap;
+    private Path stagedClasspathDirectory;
+    private final Path appCdsDirectory; // the class data sharing archives shared between the runs
 
     public WorkspaceManager(Deployment deployment) {
         this(deployment, Constants.DEFAULT_WORKING_DIRECTORY_NAME);
@@ -59,8 +77,118 @@ public class WorkspaceManager {
     public WorkspaceManager(Deployment deployment, String topLevelWorkingDirectory) {
         this.deployment = deployment;
         SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MMM-dd_HH-mm-ss-SSS");
-        this.workingDirectory = Paths.get(".", topLevelWorkingDirectory, deployment.getName() + "_" +
-                simpleDateFormat.format(new Date())).toAbsolutePath().normalize();
+        this.topLevelWorkingDirectory = Paths.get(".", topLevelWorkingDirectory).toAbsolutePath().normalize();
+        this.workingDirectory = this.topLevelWorkingDirectory.resolve(deployment.getName() + "_" +
+                simpleDateFormat.format(new Date()));
+        this.runStatus = new RunStatus(workingDirectory);
+        this.globExpander = new GlobExpander();
+        this.appCdsDirectory = this.topLevelWorkingDirectory.resolve(Constants.APPCDS_DIRECTORY_NAME);
+        this.inMemoryLogDirectories = new HashMap<>();
+        this.inMemoryDirectoryUnsupported = false;
+        this.pathCopier = new PathCopier(deployment.getWorkspaceCopyStrategy());
+        this.decompressionCache = deployment.getDecompressionCacheSize() > 0 ? new DecompressionCache(
+                this.topLevelWorkingDirectory.resolve(Constants.DECOMPRESSION_CACHE_DIRECTORY_NAME),
+                deployment.getDecompressionCacheSize()) : null;
+    }
+
+    /**
+     * Enforces the retention policies of the deployment on the working directories of the previous runs in the
+     * background. The working directory of the current run is never touched
+     */
+    public void collectGarbage() {
+        if (deployment.isWorkingDirectoryRetentionEnabled()) {
+            logger.info("Enforcing the retention policies on the previous working directories in the background ...");
+            new WorkingDirectoryCollector(topLevelWorkingDirectory, workingDirectory, deployment).start();
+        }
+    }
+
+    /**
+     * Copies over the memory-backed log directories to the working directory if they should be persisted and removes the
+     * memory-backed directory of the run
+     */
+    public synchronized void releaseInMemoryWorkspace() {
+        if (inMemoryDirectory == null) {
+            return;
+        }
+
+        if (deployment.isPersistInMemoryLogs()) {
+            logger.info("Persisting the in-memory logs into {}", workingDirectory);
+            for (Map.Entry<Path, Path> logDirectory: inMemoryLogDirectories.entrySet()) {
+                try {
+                    FileUtils.copyDirectory(logDirectory.getKey().toFile(), logDirectory.getValue().toFile());
+                } catch (IOException e) {
+                    logger.warn("Error while persisting the in-memory log directory {}", logDirectory.getKey(), e);
+                }
+            }
+        }
+
+        FileUtils.deleteQuietly(inMemoryDirectory.toFile());
+        inMemoryLogDirectories.clear();
+        inMemoryDirectory = null;
+    }
+
+    // Returns null if memory-backed directories are not supported in the current environment
+    private synchronized Path getInMemoryDirectory() throws WorkspaceException {
+        if (inMemoryDirectory == null && !inMemoryDirectoryUnsupported) {
+            Path inMemoryRoot = Paths.get(Constants.IN_MEMORY_WORKSPACE_ROOT);
+            // Docker can't bind mount a memory-backed directory of a client running inside a container
+            if (OsUtil.getOS() != OsUtil.OS.LINUX || DockerUtil.isRunningInsideDocker()
+                    || !Files.isDirectory(inMemoryRoot)) {
+                logger.warn("Memory-backed directories are not supported in this environment. Using the disk instead!");
+                inMemoryDirectoryUnsupported = true;
+                return null;
+            }
+            try {
+                inMemoryDirectory = Files.createTempDirectory(inMemoryRoot, workingDirectory.getFileName() + "_");
+                logger.info("Creating the in-memory working directory at {}", inMemoryDirectory.toString());
+            } catch (IOException e) {
+                throw new WorkspaceException("Error in creating Failify in-memory working directory at " + inMemoryRoot, e);
+            }
+        }
+        return inMemoryDirectory;
+    }
+
+    // The directory to create the nodes' working directories and the shared directories in
+    private Path getWorkspaceRoot() throws WorkspaceException {
+        if (deployment.isInMemoryWorkspace()) {
+            Path inMemoryWorkspaceRoot = getInMemoryDirectory();
+            if (inMemoryWorkspaceRoot != null) {
+                return inMemoryWorkspaceRoot;
+            }
+        }
+        return workingDirectory;
+    }
+
+    private synchronized void addInMemoryLogDirectory(Path inMemoryLogDirectory, Path logDirectory) {
+        inMemoryLogDirectories.put(inMemoryLogDirectory, logDirectory);
+    }
+
+    /**
+     * Marks the current run as finished and records its outcome, or finished without a known outcome if it is not
+     * marked. The working directory and the cached decompressed archives of the run are not protected from the other
+     * runs afterwards, so this should only be called after the nodes are stopped
+     */
+    public void markFinished() {
+        runStatus.finish();
+        if (decompressionCache != null) {
+            decompressionCache.release();
+        }
+    }
+
+    /**
+     * Marks the current run as succeeded unless it is already marked as failed. The outcome is recorded when the run is
+     * finished
+     */
+    public void markSucceeded() {
+        runStatus.mark(RunStatus.State.SUCCEEDED);
+    }
+
+    /**
+     * Marks the current run as failed, so its working directory is kept if only the failed runs are to be kept. The
+     * outcome is recorded when the run is finished
+     */
+    public void markFailed() {
+        runStatus.mark(RunStatus.State.FAILED);
     }
 
     public Map<String, NodeWorkspace> createWorkspace() throws WorkspaceException {
@@ -73,10 +201,17 @@ public class WorkspaceManager {
         } catch (IOException e) {
             throw new WorkspaceException("Error in creating Failify working directory at " + workingDirectory.toString(), e);
         }
+        runStatus.start();
 
         // Creates the shared directories
         sharedDirectoriesMap = createSharedDirectories();
 
+        // Stages the class path entries of the services
+        stagedClasspathDirectory = stageClasspathEntries();
+
+        // Prepares the class data sharing archives directory
+        prepareAppCdsDirectory();
+
         // Decompress compressed application paths in services
         serviceToMapOfCompressedToDecompressedMap = decompressCompressedApplicationPaths();
 
@@ -84,13 +219,76 @@ public class WorkspaceManager {
         fakeTimePathMap = copyOverLibFakeTime(workingDirectory);
 
         // Creates the nodes' workspaces
+        SortedMap<String, WorkspaceTask<NodeWorkspace>> nodeWorkspaceTasks = new TreeMap<>();
         for (Node node: deployment.getNodes().values()) {
-            retMap.put(node.getName(), createNodeWorkspace(node));
+            nodeWorkspaceTasks.put(node.getName(), () -> createNodeWorkspace(node));
         }
+        retMap.putAll(runInParallel(nodeWorkspaceTasks));
 
         return Collections.unmodifiableMap(retMap);
     }
 
+    private interface WorkspaceTask<T> {
+        T call() throws WorkspaceException;
+    }
+
+    /**
+     * Runs the given tasks on a bounded thread pool. As the tasks are mostly disk-bound, the number of threads is limited
+     * by the number of cpus and a cap regardless of the number of tasks. All of the tasks are waited for, and if any of
+     * them fails, the error of the first failed task in the order of the keys is thrown with the other errors suppressed,
+     * so the reported error doesn't depend on the timing of the tasks.
+     * @param tasks the tasks to run sorted by a key
+     * @return the map of the keys to the tasks' results
+     * @throws WorkspaceException if any of the tasks fails
+     */
+    private <T> Map<String, T> runInParallel(SortedMap<String, WorkspaceTask<T>> tasks) throws WorkspaceException {
+        Map<String, T> results = new HashMap<>();
+        if (tasks.isEmpty()) {
+            return results;
+        }
+
+        int threads = Math.min(tasks.size(), Math.min(Constants.MAX_WORKSPACE_THREADS,
+                Math.max(2, Runtime.getRuntime().availableProcessors())));
+        ExecutorService executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "failify-workspace");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            Map<String, Future<T>> futureMap = new LinkedHashMap<>();
+            for (Map.Entry<String, WorkspaceTask<T>> task: tasks.entrySet()) {
+                futureMap.put(task.getKey(), executorService.submit(() -> task.getValue().call()));
+            }
+
+            WorkspaceException error = null;
+            for (Map.Entry<String, Future<T>> futureEntry: futureMap.entrySet()) {
+                try {
+                    results.put(futureEntry.getKey(), futureEntry.getValue().get());
+                } catch (ExecutionException e) {
+                    WorkspaceException taskError = e.getCause() instanceof WorkspaceException ?
+                            (WorkspaceException) e.getCause() :
+                            new WorkspaceException("Unexpected error while creating " + futureEntry.getKey(), e.getCause());
+                    if (error == null) {
+                        error = taskError;
+                    } else {
+                        error.addSuppressed(taskError);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new WorkspaceException("Interrupted while creating the workspace!", e);
+                }
+            }
+
+            if (error != null) {
+                throw error;
+            }
+            return results;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
     /**
      * This method replaces slashes in a path without slashes to be used as file or directory name
      * @param path to replace slashes in
@@ -104,7 +302,7 @@ public class WorkspaceManager {
         Map<String, String> sharedDirectoriesMap = new HashMap<>();
 
         // Creating the shared directories
-        Path sharedDirectoriesRoot = workingDirectory.resolve(Constants.SHAERD_DIRECTORIES_ROOT_NAME);
+        Path sharedDirectoriesRoot = getWorkspaceRoot().resolve(Constants.SHAERD_DIRECTORIES_ROOT_NAME);
         try {
             Files.createDirectory(sharedDirectoriesRoot);
         } catch (IOException e) {
@@ -126,6 +324,65 @@ public class WorkspaceManager {
         return sharedDirectoriesMap;
     }
 
+    // The class path entries are hard linked when possible, as the staged directory is mounted read-only
+    private Path stageClasspathEntries() throws WorkspaceException {
+        Path classpathDirectory = workingDirectory.resolve(Constants.STAGED_CLASSPATH_DIRECTORY_NAME);
+        try {
+            Files.createDirectory(classpathDirectory);
+        } catch (IOException e) {
+            throw new WorkspaceException("Error in creating staged class path directory at " + classpathDirectory, e);
+        }
+
+        PathCopier linkingCopier = new PathCopier(WorkspaceCopyStrategy.HARDLINK);
+        SortedMap<String, WorkspaceTask<Void>> stagingTasks = new TreeMap<>();
+        for (Service service: deployment.getServices().values()) {
+            for (Map.Entry<String, String> classpathEntry: service.getClasspathEntries().entrySet()) {
+                Path source = Paths.get(classpathEntry.getKey());
+                Path target = classpathDirectory.resolve(Paths.get(classpathEntry.getValue()).getFileName());
+                if (!Files.exists(source)) {
+                    logger.debug("Ignoring non-existing class path entry {}", source);
+                    continue;
+                }
+                stagingTasks.put(target.getFileName().toString(), () -> {
+                    try {
+                        linkingCopier.copy(source, target, false);
+                    } catch (IOException e) {
+                        throw new WorkspaceException("Error while staging class path entry " + source, e);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        logger.info("Staging {} class path entries ...", stagingTasks.size());
+        runInParallel(stagingTasks);
+        return classpathDirectory;
+    }
+
+    // The archives are touched by the nodes when they are used, so the least recently used ones are removed
+    private void prepareAppCdsDirectory() throws WorkspaceException {
+        if (deployment.getServices().values().stream().noneMatch(Service::isAppCdsEnabled)) {
+            return;
+        }
+
+        List<Path> archives = new ArrayList<>();
+        try {
+            Files.createDirectories(appCdsDirectory);
+            try (Stream<Path> paths = Files.list(appCdsDirectory)) {
+                paths.filter(Files::isRegularFile).forEach(archives::add);
+            }
+            archives.sort(Comparator.comparing((Path archive) -> archive.toFile().lastModified()).reversed());
+        } catch (IOException e) {
+            throw new WorkspaceException("Error in preparing class data sharing archives directory at "
+                    + appCdsDirectory, e);
+        }
+
+        for (Path archive: archives.subList(Math.min(archives.size(), Constants.MAX_APPCDS_ARCHIVES), archives.size())) {
+            logger.info("Removing class data sharing archive {}", archive);
+            FileUtils.deleteQuietly(archive.toFile());
+        }
+    }
+
     private Map<String, Map<String, String>> decompressCompressedApplicationPaths() throws WorkspaceException {
         Map<String, Map<String, String>> retMap = new HashMap<>();
         Path decompressedDirectory = workingDirectory.resolve(Constants.DECOMPRESSED_DIRECTORIES_ROOT_NAME);
@@ -136,30 +393,52 @@ public class WorkspaceManager {
             throw new WorkspaceException("Error in creating decompressed directory at " + decompressedDirectory, e);
         }
 
+        // The archives are verified before any decompression starts
+        SortedMap<String, WorkspaceTask<String>> decompressionTasks = new TreeMap<>();
+        Map<String, String[]> taskKeyMap = new HashMap<>(); // task key -> service name and archive path
         for (Service service: deployment.getServices().values()) {
             retMap.put(service.getName(), new HashMap<>());
             for (PathEntry pathEntry: service.getApplicationPaths().values()) {
                 if (pathEntry.shouldBeDecompressed()) {
-                    if (pathEntry.getPath().endsWith(".zip")) {
+                    if (ArchiveUtil.isSupported(pathEntry.getPath())) {
                         File targetDir = decompressedDirectory.resolve(service.getName())
                                 .resolve(pathToStringWithoutSlashes(pathEntry.getPath())).toFile();
-
-                        try {
-                            ZipUtil.unzip(pathEntry.getPath(), targetDir.toString());
-                        } catch (InterruptedException | IOException | ZipException e) {
-                            throw new WorkspaceException("Error while unzipping " + pathEntry.getPath(), e);
-                        }
-                        retMap.get(service.getName()).put(pathEntry.getPath(), targetDir.toString());
+                        String taskKey = service.getName() + ":" + pathEntry.getPath();
+                        taskKeyMap.put(taskKey, new String[]{service.getName(), pathEntry.getPath()});
+                        decompressionTasks.put(taskKey, () -> {
+                            if (decompressionCache != null) {
+                                return decompressionCache.get(pathEntry.getPath(), this::decompress);
+                            }
+                            decompress(pathEntry.getPath(), targetDir.toString());
+                            return targetDir.toString();
+                        });
                     } else {
-                        throw new WorkspaceException("Decompression is only supported for zip files!"
-                                + pathEntry.getPath() + " is not a zip file.");
+                        throw new WorkspaceException("Decompression is only supported for zip and tar.gz files! "
+                                + pathEntry.getPath() + " is not a zip or tar.gz file.");
                     }
                 }
             }
         }
+
+        for (Map.Entry<String, String> decompressed: runInParallel(decompressionTasks).entrySet()) {
+            String[] serviceAndPath = taskKeyMap.get(decompressed.getKey());
+            retMap.get(serviceAndPath[0]).put(serviceAndPath[1], decompressed.getValue());
+        }
+
+        if (decompressionCache != null) {
+            decompressionCache.evict();
+        }
         return retMap;
     }
 
+    private void decompress(String archivePath, String targetDirectory) throws WorkspaceException {
+        try {
+            ArchiveUtil.extract(archivePath, targetDirectory);
+        } catch (IOException e) {
+            throw new WorkspaceException("Error while decompressing " + archivePath, e);
+        }
+    }
+
     // TODO should this be public?
     public NodeWorkspace createNodeWorkspace(Node node)
             throws WorkspaceException {
@@ -168,7 +447,7 @@ public class WorkspaceManager {
         Map<String, String> compressedToDecompressedMap = serviceToMapOfCompressedToDecompressedMap.get(node.getServiceName());
 
         // Creates the node's working directory
-        Path nodeWorkingDirectory = workingDirectory.resolve(node.getName());
+        Path nodeWorkingDirectory = getWorkspaceRoot().resolve(node.getName());
         try {
             Files.createDirectory(nodeWorkingDirectory);
         } catch (IOException e) {
@@ -193,6 +472,10 @@ public class WorkspaceManager {
             throw new WorkspaceException("Error in creating Failify node log directory \""
                     + node.getName() + "\"!", e);
         }
+        if (!nodeLogDirectory.startsWith(workingDirectory)) {
+            addInMemoryLogDirectory(nodeLogDirectory, workingDirectory.resolve(node.getName())
+                    .resolve(Constants.NODE_LOG_DIRECTORY_NAME));
+        }
 
         // Creates the node's log files
         Map<String, String> logFilesMap = createLogFiles(node, nodeLogDirectory);
@@ -206,10 +489,33 @@ public class WorkspaceManager {
         List<NodeWorkspace.PathMappingEntry> pathMappingList = copyOverNodePathsAndMakePathMappingList(node, nodeService,
                 nodeRootDirectory, compressedToDecompressedMap);
 
+        // Adds the staged class path directory to the path mapping
+        if (!nodeService.getClasspathEntries().isEmpty()) {
+            // The staged class path directory is mounted read-only as its files may be hard linked to the original ones
+            pathMappingList.add(new NodeWorkspace.PathMappingEntry(stagedClasspathDirectory.toString(),
+                    Constants.STAGED_CLASSPATH_TARGET_PATH, true, true));
+        }
+
         // Adds fakeTimeLib paths to the path mapping
         fakeTimePathMap.entrySet().stream().forEach(e -> pathMappingList.add(
                 new NodeWorkspace.PathMappingEntry(e.getKey(), e.getValue(), true)));
 
+        // Determines the paths to be backed by a tmpfs in the node's container
+        Set<String> tmpfsPaths = getNodeInMemoryPaths(node);
+        tmpfsPaths.removeAll(getNodeLogDirectories(node));
+        for (PathEntry pathEntry: nodeService.getApplicationPaths().values()) {
+            if (tmpfsPaths.contains(pathEntry.getTargetPath())) {
+                throw new WorkspaceException("In-memory path " + pathEntry.getTargetPath() + " of node "
+                        + node.getName() + " can't be an application path!");
+            }
+        }
+        for (PathEntry pathEntry: node.getApplicationPaths().values()) {
+            if (tmpfsPaths.contains(pathEntry.getTargetPath())) {
+                throw new WorkspaceException("In-memory path " + pathEntry.getTargetPath() + " of node "
+                        + node.getName() + " can't be an application path!");
+            }
+        }
+
         // Determines the instrumentable paths
         Set<String> instrumentablePaths = new HashSet<>();
         for (String instrumentablePath: nodeService.getInstrumentablePaths()) {
@@ -226,7 +532,9 @@ public class WorkspaceManager {
                 logDirectoriesMap,
                 logFilesMap,
                 sharedDirectoriesMap,
-                pathMappingList);
+                pathMappingList,
+                tmpfsPaths,
+                nodeService.isAppCdsEnabled() ? appCdsDirectory.toString() : null);
     }
 
     private Map<String, String> createLogFiles(Node node, Path nodeLogDirectory) throws WorkspaceException {
@@ -248,10 +556,23 @@ public class WorkspaceManager {
     private Map<String, String> createLogDirectories(Node node, Path nodeLogDirectory) throws WorkspaceException {
         Map<String, String> logDirectoriesMap = new HashMap<>();
 
+        Set<String> inMemoryPaths = getNodeInMemoryPaths(node);
         for (String path: getNodeLogDirectories(node)) {
             Path logDirectory = nodeLogDirectory.resolve(pathToStringWithoutSlashes(path));
             try {
-                Files.createDirectory(logDirectory);
+                // An in-memory log directory of a node whose working directory is on the disk is created in the
+                // memory-backed directory of the run and is persisted into its place in the node's log directory
+                Path inMemoryDirectory = nodeLogDirectory.startsWith(workingDirectory) && inMemoryPaths.contains(path)
+                        ? getInMemoryDirectory() : null;
+                if (inMemoryDirectory != null) {
+                    Path persistedLogDirectory = logDirectory;
+                    logDirectory = inMemoryDirectory.resolve(node.getName()).resolve(Constants.NODE_LOG_DIRECTORY_NAME)
+                            .resolve(pathToStringWithoutSlashes(path));
+                    Files.createDirectories(logDirectory);
+                    addInMemoryLogDirectory(logDirectory, persistedLogDirectory);
+                } else {
+                    Files.createDirectory(logDirectory);
+                }
                 logDirectoriesMap.put(logDirectory.toString(), path);
             } catch (IOException e) {
                 throw new WorkspaceException("Error while creating log directory " + logDirectory, e);
@@ -273,36 +594,52 @@ public class WorkspaceManager {
         return logDirectories;
     }
 
+    protected Set<String> getNodeInMemoryPaths(Node node) {
+        Set<String> inMemoryPaths = new HashSet<>(deployment.getService(node.getServiceName()).getInMemoryPaths());
+        inMemoryPaths.addAll(node.getInMemoryPaths());
+        return inMemoryPaths;
+    }
+
     private Set<String> getNodeLibPaths(Service nodeService, List<NodeWorkspace.PathMappingEntry> pathMappingList) throws WorkspaceException {
-        Set<String> libPaths = new HashSet<>();
+        List<String> localLibPaths = new ArrayList<>();
 
-        // Adds application paths that are library to the set
+        // Adds application paths that are library to the list
         for (PathEntry pathEntry : nodeService.getApplicationPaths().values()) {
             if (pathEntry.isLibrary()) {
                 String localLibPath = getLocalPathFromNodeTargetPath(pathMappingList, pathEntry.getTargetPath(),
                         false);
                 if (localLibPath != null) {
-                    try {
-                        libPaths.addAll(FileUtil.findAllMatchingPaths(localLibPath));
-                    } catch (IOException e) {
-                        throw new WorkspaceException("Error while trying to expand lib path " + pathEntry.getTargetPath(), e);
-                    }
+                    localLibPaths.add(localLibPath);
                 }
             }
         }
 
+        // Adds staged class path entries
+        for (String classpathEntry : nodeService.getClasspathEntries().values()) {
+            String localLibPath = getLocalPathFromNodeTargetPath(pathMappingList, classpathEntry, false);
+            if (localLibPath != null && new File(localLibPath).exists()) {
+                localLibPaths.add(localLibPath);
+            }
+        }
+
         // Adds marked library paths
         for (String libPath : nodeService.getLibraryPaths()) {
             String localLibPath = getLocalPathFromNodeTargetPath(pathMappingList, libPath, false);
             if (localLibPath != null) {
-                try {
-                    libPaths.addAll(FileUtil.findAllMatchingPaths(localLibPath));
-                } catch (IOException e) {
-                    throw new WorkspaceException("Error while trying to expand lib path " + libPath, e);
-                }
+                localLibPaths.add(localLibPath);
             }
         }
 
+        // All the lib paths are expanded in a single walk of the file system
+        Set<String> libPaths = new HashSet<>();
+        try {
+            for (Set<String> expandedLibPaths: globExpander.expand(localLibPaths).values()) {
+                libPaths.addAll(expandedLibPaths);
+            }
+        } catch (IOException e) {
+            throw new WorkspaceException("Error while trying to expand lib paths of service " + nodeService.getName(), e);
+        }
+
         return libPaths;
     }
 
@@ -330,21 +667,18 @@ public class WorkspaceManager {
                     .collect(Collectors.toList())) {
                 Path sourcePath = Paths.get(pathEntry.shouldBeDecompressed()?
                         compressedToDecompressedMap.get(pathEntry.getPath()):pathEntry.getPath());
+                // The decompression cache entries are shared by the other nodes and runs, so they are never hard linked
+                // or mounted writable
+                boolean cacheBacked = pathEntry.shouldBeDecompressed() && decompressionCache != null;
 
                 if (pathEntry.shouldCopyOverToWorkspace()) {
                     Path destPath = nodeRootDirectory.resolve(pathToStringWithoutSlashes(pathEntry.getPath()));
-                    if (sourcePath.toFile().isDirectory()) {
-                        FileUtil.copyDirectory(sourcePath, destPath);
-                    } else {
-                        Files.copy(sourcePath, destPath,
-                                StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
-                    }
+                    pathCopier.copy(sourcePath, destPath, cacheBacked);
                     pathMap.add(new NodeWorkspace.PathMappingEntry(destPath.toString(), pathEntry.getTargetPath(),
                             false));
                 } else {
                     pathMap.add(new NodeWorkspace.PathMappingEntry(sourcePath.toString(), pathEntry.getTargetPath(),
-                            true));
-
+                            true, cacheBacked));
                 }
             }
 
@@ -355,12 +689,7 @@ public class WorkspaceManager {
                 if (pathEntry.shouldCopyOverToWorkspace()) {
                     Path sourcePath = Paths.get(pathEntry.getPath());
                     Path destPath = nodeRootDirectory.resolve(pathToStringWithoutSlashes(pathEntry.getPath()));
-                    if (sourcePath.toFile().isDirectory()) {
-                        FileUtil.copyDirectory(sourcePath, destPath);
-                    } else {
-                        Files.copy(sourcePath, destPath,
-                                StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
-                    }
+                    pathCopier.copy(sourcePath, destPath, false);
                     pathMap.add(new NodeWorkspace.PathMappingEntry(destPath.toString(), pathEntry.getTargetPath(),
                             false));
                 } else {
@@ -374,7 +703,10 @@ public class WorkspaceManager {
                 String localInstrumentablePath = getLocalPathFromNodeTargetPath(pathMap,
                         instrumentablePath, true);
 
-                if (localInstrumentablePath == null) {
+                if (localInstrumentablePath != null) {
+                    // The instrumented files are written in place
+                    pathCopier.materialize(Paths.get(localInstrumentablePath));
+                } else {
                     localInstrumentablePath = getLocalPathFromNodeTargetPath(pathMap,
                             instrumentablePath, false);
 
@@ -387,12 +719,7 @@ public class WorkspaceManager {
 
                     Path destPath = nodeRootDirectory.resolve("Instrumentable_" + pathToStringWithoutSlashes(
                             instrumentablePath));
-                    if (new File(localInstrumentablePath).isDirectory()) {
-                        FileUtil.copyDirectory(localInstrumentablePathObj, destPath);
-                    } else {
-                        Files.copy(localInstrumentablePathObj, destPath,
-                                StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
-                    }
+                    pathCopier.copy(localInstrumentablePathObj, destPath, true);
                     pathMap.add(new NodeWorkspace.PathMappingEntry(destPath.toString(), instrumentablePath,
                             false));
                 }
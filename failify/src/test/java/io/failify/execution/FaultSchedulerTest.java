@@ -0,0 +1,218 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import io.failify.Constants;
+import io.failify.exceptions.RuntimeEngineException;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FaultSchedulerTest {
+
+    @Test
+    public void occurrencesArePlannedRelativeToTheStartOfTheSchedule() throws Exception {
+        FaultScheduler faultScheduler = new FaultScheduler(FaultSchedule.builder()
+                .every(0, 50, 3, "every", runtimeEngine -> { })
+                .toggle(10, 40, 2, "toggle", runtimeEngine -> { }, runtimeEngine -> { })
+                .build(), null);
+        faultScheduler.await(10);
+
+        List<FaultEvent> events = faultScheduler.events();
+        assertEquals(7, events.size());
+        assertPlannedTimes(events, "every", 0, 50, 100);
+        assertPlannedTimes(events, "toggle", 10, 50, 90, 130);
+        for (FaultEvent event: events) {
+            // The lateness is rounded from nanoseconds, so it may be slightly negative
+            assertTrue(event.toString(), event.lateness() > -1);
+        }
+        assertTrue(faultScheduler.isFinished());
+    }
+
+    @Test
+    public void toggleAlternatesBetweenTheOnAndOffActions() throws Exception {
+        AtomicInteger faultState = new AtomicInteger();
+        FaultScheduler faultScheduler = new FaultScheduler(FaultSchedule.builder()
+                .toggle(0, 20, 3, "toggle", runtimeEngine -> assertEquals(1, faultState.incrementAndGet()),
+                        runtimeEngine -> assertEquals(0, faultState.decrementAndGet()))
+                .build(), null);
+        faultScheduler.await(10);
+
+        List<FaultEvent> events = faultScheduler.events();
+        assertEquals(6, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i, events.get(i).occurrence());
+            assertEquals(i % 2 == 0 ? "on" : "off", events.get(i).action());
+        }
+        assertEquals(0, faultState.get());
+    }
+
+    @Test
+    public void stopUndoesTheFaultsThatAreLeftOn() throws Exception {
+        CountDownLatch onLatch = new CountDownLatch(1);
+        AtomicInteger offCount = new AtomicInteger();
+        FaultScheduler faultScheduler = new FaultScheduler(FaultSchedule.builder()
+                .toggle(0, 60000, null, "toggle", runtimeEngine -> onLatch.countDown(),
+                        runtimeEngine -> offCount.incrementAndGet())
+                .build(), null);
+        assertTrue(onLatch.await(10, TimeUnit.SECONDS));
+
+        faultScheduler.stop();
+
+        assertEquals(1, offCount.get());
+        assertEquals("undo on", faultScheduler.events().get(1).action());
+        assertTrue(faultScheduler.isFinished());
+    }
+
+    @Test
+    public void stopDoesNotUndoTheFaultsThatAreTurnedOff() throws Exception {
+        CountDownLatch offLatch = new CountDownLatch(1);
+        AtomicInteger offCount = new AtomicInteger();
+        FaultScheduler faultScheduler = new FaultScheduler(FaultSchedule.builder()
+                .toggle(0, 100, null, "toggle", runtimeEngine -> { }, runtimeEngine -> {
+                    offCount.incrementAndGet();
+                    offLatch.countDown();
+                })
+                .build(), null);
+        assertTrue(offLatch.await(10, TimeUnit.SECONDS));
+
+        faultScheduler.stop();
+
+        assertEquals(1, offCount.get());
+        assertEquals(2, faultScheduler.events().size());
+    }
+
+    @Test
+    public void stopNowInterruptsTheRunningActionsWithoutUndoingThem() throws Exception {
+        CountDownLatch onLatch = new CountDownLatch(1);
+        AtomicInteger offCount = new AtomicInteger();
+        FaultScheduler faultScheduler = new FaultScheduler(FaultSchedule.builder()
+                .toggle(0, 60000, null, "toggle", runtimeEngine -> {
+                    onLatch.countDown();
+                    await(new CountDownLatch(1));
+                }, runtimeEngine -> offCount.incrementAndGet())
+                .build(), null);
+        assertTrue(onLatch.await(10, TimeUnit.SECONDS));
+
+        long startMillis = System.currentTimeMillis();
+        faultScheduler.stopNow();
+
+        assertTrue(System.currentTimeMillis() - startMillis < Constants.FAULT_SCHEDULER_STOP_TIMEOUT);
+        assertEquals(0, offCount.get());
+        assertFalse(faultScheduler.events().get(0).succeeded());
+        assertTrue(faultScheduler.isFinished());
+    }
+
+    @Test
+    public void stopCanBeCalledFromAnAction() throws Exception {
+        AtomicReference<FaultScheduler> faultSchedulerReference = new AtomicReference<>();
+        CountDownLatch startLatch = new CountDownLatch(1);
+        AtomicInteger offCount = new AtomicInteger();
+        faultSchedulerReference.set(new FaultScheduler(FaultSchedule.builder()
+                .toggle(0, 60000, null, "toggle", runtimeEngine -> { }, runtimeEngine -> offCount.incrementAndGet())
+                .at(50, "stop", runtimeEngine -> {
+                    await(startLatch);
+                    faultSchedulerReference.get().stop();
+                })
+                .build(), null));
+        startLatch.countDown();
+
+        faultSchedulerReference.get().await(10);
+
+        assertEquals(1, offCount.get());
+    }
+
+    @Test
+    public void finishedScheduleReleasesItsThreadsWithoutBeingAwaited() throws Exception {
+        AtomicReference<Thread> actionThread = new AtomicReference<>();
+        AtomicInteger finishCount = new AtomicInteger();
+        CountDownLatch finishLatch = new CountDownLatch(1);
+        FaultScheduler faultScheduler = new FaultScheduler(FaultSchedule.builder()
+                .every(0, 10, 2, "every", runtimeEngine -> actionThread.set(Thread.currentThread()))
+                .build(), null, finishedScheduler -> {
+                    finishCount.incrementAndGet();
+                    finishLatch.countDown();
+                });
+        assertTrue(finishLatch.await(10, TimeUnit.SECONDS));
+
+        actionThread.get().join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(actionThread.get().isAlive());
+        assertTrue(faultScheduler.isFinished());
+
+        faultScheduler.stop();
+        assertEquals(1, finishCount.get());
+    }
+
+    @Test
+    public void stoppedScheduleNotifiesItsFinishListener() throws Exception {
+        AtomicInteger finishCount = new AtomicInteger();
+        FaultScheduler faultScheduler = new FaultScheduler(FaultSchedule.builder()
+                .every(60000, 60000, null, "every", runtimeEngine -> { })
+                .build(), null, finishedScheduler -> finishCount.incrementAndGet());
+
+        faultScheduler.stop();
+        faultScheduler.stop();
+
+        assertEquals(1, finishCount.get());
+    }
+
+    @Test(expected = RuntimeEngineException.class)
+    public void awaitThrowsIfAnActionFails() throws Exception {
+        FaultScheduler faultScheduler = new FaultScheduler(FaultSchedule.builder()
+                .at(0, "fail", runtimeEngine -> {
+                    throw new RuntimeEngineException("Injected failure!");
+                })
+                .build(), null);
+        faultScheduler.await(10);
+    }
+
+    private static void await(CountDownLatch latch) throws RuntimeEngineException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeEngineException("Interrupted!", e);
+        }
+    }
+
+    private void assertPlannedTimes(List<FaultEvent> events, String name, double... plannedTimes) {
+        int occurrence = 0;
+        for (FaultEvent event: events) {
+            if (event.name().equals(name)) {
+                assertEquals(occurrence, event.occurrence());
+                assertEquals(plannedTimes[occurrence], event.plannedTime(), 0);
+                occurrence++;
+            }
+        }
+        assertEquals(plannedTimes.length, occurrence);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class LogRotatorTest {
+    private Path segmentDirectory;
+    private LogRotator logRotator;
+
+    @Before
+    public void setUp() throws IOException {
+        segmentDirectory = Files.createTempDirectory("failify-log-rotator-test");
+        logRotator = new LogRotator(null, null, 2, false, false, new LogTailer());
+    }
+
+    @After
+    public void tearDown() {
+        logRotator.stop();
+        FileUtils.deleteQuietly(segmentDirectory.toFile());
+    }
+
+    @Test
+    public void segmentsRotatedInTheSameMillisecondArePrunedByTheirCounter() throws IOException {
+        createSegments("app.log.20200101-000000-000.gz", "app.log.20200101-000000-000-1.gz",
+                "app.log.20200101-000000-000-2");
+
+        logRotator.pruneSegments(segmentDirectory, "app.log");
+
+        assertFalse(Files.exists(segmentDirectory.resolve("app.log.20200101-000000-000.gz")));
+        assertTrue(Files.exists(segmentDirectory.resolve("app.log.20200101-000000-000-1.gz")));
+        assertTrue(Files.exists(segmentDirectory.resolve("app.log.20200101-000000-000-2")));
+    }
+
+    @Test
+    public void olderSegmentsArePrunedFirst() throws IOException {
+        createSegments("app.log.20200101-000000-000-9.gz", "app.log.20200101-000000-001.gz",
+                "app.log.20200102-000000-000", "app.log.1", "other.log.20190101-000000-000.gz");
+
+        logRotator.pruneSegments(segmentDirectory, "app.log");
+
+        assertFalse(Files.exists(segmentDirectory.resolve("app.log.20200101-000000-000-9.gz")));
+        assertTrue(Files.exists(segmentDirectory.resolve("app.log.20200101-000000-001.gz")));
+        assertTrue(Files.exists(segmentDirectory.resolve("app.log.20200102-000000-000")));
+        assertTrue(Files.exists(segmentDirectory.resolve("app.log.1")));
+        assertTrue(Files.exists(segmentDirectory.resolve("other.log.20190101-000000-000.gz")));
+    }
+
+    private void createSegments(String... names) throws IOException {
+        for (String name: names) {
+            Files.createFile(segmentDirectory.resolve(name));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NetOpTest {
+    @Test
+    public void percentageOperationsShareTheirNetemOptionsAndRemoval() {
+        assertEquals("reorder 25% 50%", NetOp.reorder(25).correlation(50).build().getNetemString());
+        assertEquals("duplicate 10%", NetOp.duplicate(10).build().getNetemString());
+        assertEquals("corrupt 5% 1%", NetOp.corrupt(5).correlation(1).build().getNetemString());
+        assertEquals("packet corruption (5%, 1%) to nodes [n1]",
+                NetOp.corrupt(5).correlation(1).toNodes("n1").build().toString());
+
+        NetOp removeDuplicate = NetOp.removeDuplicate().build();
+        assertTrue(removeDuplicate.isRemoval());
+        assertEquals(NetOp.Kind.DUPLICATE, removeDuplicate.getKind());
+        assertEquals("remove packet duplication", removeDuplicate.toString());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void percentageOperationsRejectInvalidCorrelations() {
+        NetOp.duplicate(10).correlation(101).build();
+    }
+
+    @Test
+    public void defaultBurstIsTheBytesSentInTenMilliseconds() {
+        assertEquals(12500, NetOp.bandwidth(10000).build().getBurst());
+    }
+
+    @Test
+    public void defaultBurstIsAtLeastTheMtu() {
+        assertEquals(1600, NetOp.bandwidth(100).build().getBurst());
+    }
+
+    @Test
+    public void defaultBurstDoesNotOverflowOnMultiGigabitRates() {
+        NetOp.Bandwidth bandwidth = NetOp.bandwidth(10000000).build();
+
+        assertEquals(12500000, bandwidth.getBurst());
+        assertEquals("rate 10000000kbit burst 12500000 latency 50ms", bandwidth.getTbfString());
+    }
+
+    @Test
+    public void defaultBurstIsClampedOnTheMaximumRate() {
+        assertEquals(Integer.MAX_VALUE, NetOp.bandwidth(Integer.MAX_VALUE).build().getBurst());
+    }
+}
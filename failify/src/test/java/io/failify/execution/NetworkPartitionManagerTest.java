@@ -0,0 +1,222 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class NetworkPartitionManagerTest {
+    private final static Pattern RULE_PATTERN = Pattern.compile("-([AD]) INPUT -s 10\\.0\\.0\\.(\\d+) -j DROP");
+    private final static List<String> NODES = Arrays.asList("n1", "n2", "n3", "n4", "n5");
+
+    // host -> blocked nodes, as the iptables rules in the hosts would block them. The commands are run in the manager's
+    // worker threads
+    private Map<String, Set<String>> rulesMap;
+    private AtomicInteger ruleChanges;
+    private AtomicInteger runningCommands;
+    private NetworkPartitionManager networkPartitionManager;
+
+    @Before
+    public void setUp() {
+        rulesMap = new ConcurrentHashMap<>();
+        for (String node: NODES) {
+            rulesMap.put(node, Collections.synchronizedSet(new TreeSet<>()));
+        }
+        ruleChanges = new AtomicInteger();
+        runningCommands = new AtomicInteger();
+        networkPartitionManager = new NetworkPartitionManager((LimitedRuntimeEngine) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{LimitedRuntimeEngine.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "nodeNames":
+                            return new HashSet<>(NODES);
+                        case "ip":
+                            return "10.0.0." + args[0].toString().substring(1);
+                        case "runCommandInNode":
+                            return runCommand((String) args[0], (String) args[1]);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+    }
+
+    @Test
+    public void blockedNodesMatchTheSetBasedCalculation() throws Exception {
+        List<NetPart> netParts = Arrays.asList(
+                NetPart.partitions("n1,n2", "n3,n4,n5").build(),
+                NetPart.partitions("n1", "n2").build(),
+                NetPart.partitions("n1", "n2", "n3").connect(1, 2).build(),
+                NetPart.partitions("n1", "n2,n3").connect(1, 2, false).connect(NetPart.REST, 2).build());
+
+        for (NetPart netPart: netParts) {
+            networkPartitionManager.networkPartition(netPart);
+            assertRules(netPart.getPartitionsString(), calculateBlockedNodes(netPart));
+
+            networkPartitionManager.removeNetworkPartition(netPart);
+            assertRules(netPart.getPartitionsString(), calculateBlockedNodes(null));
+        }
+    }
+
+    @Test
+    public void overlappingPartitionsKeepTheSharedBlockagesUntilBothAreRemoved() throws Exception {
+        NetPart netPart1 = NetPart.partitions("n1", "n2,n3").build();
+        NetPart netPart2 = NetPart.partitions("n1,n4", "n2").build();
+
+        networkPartitionManager.networkPartition(netPart1);
+        networkPartitionManager.networkPartition(netPart2);
+        assertRules(union(calculateBlockedNodes(netPart1), calculateBlockedNodes(netPart2)));
+
+        networkPartitionManager.removeNetworkPartition(netPart1);
+        assertRules(calculateBlockedNodes(netPart2));
+        assertTrue(rulesMap.get("n2").contains("n1"));
+
+        networkPartitionManager.removeNetworkPartition(netPart2);
+        assertRules(calculateBlockedNodes(null));
+    }
+
+    @Test
+    public void transitionOnlyChangesTheDifferingBlockages() throws Exception {
+        NetPart from = NetPart.partitions("n1,n2", "n3").build();
+        NetPart to = NetPart.partitions("n1", "n2", "n3").build();
+
+        networkPartitionManager.transitionPartition(null, from);
+        assertRules(calculateBlockedNodes(from));
+
+        ruleChanges.set(0);
+        networkPartitionManager.transitionPartition(from, to);
+        assertRules(calculateBlockedNodes(to));
+        // Only n1 and n2 start blocking each other. The rest of the blockages are left as they are
+        assertEquals(2, ruleChanges.get());
+
+        networkPartitionManager.transitionPartition(to, null);
+        assertRules(calculateBlockedNodes(null));
+    }
+
+    @Test
+    public void transitionKeepsTheBlockagesOfOtherPartitions() throws Exception {
+        NetPart other = NetPart.partitions("n4", "n5").build();
+        NetPart from = NetPart.partitions("n4", "n1").build();
+        NetPart to = NetPart.partitions("n2", "n3").build();
+
+        networkPartitionManager.networkPartition(other);
+        networkPartitionManager.transitionPartition(null, from);
+        networkPartitionManager.transitionPartition(from, to);
+        assertRules(union(calculateBlockedNodes(other), calculateBlockedNodes(to)));
+
+        networkPartitionManager.transitionPartition(to, null);
+        assertRules(calculateBlockedNodes(other));
+    }
+
+    private CommandResults runCommand(String host, String command) {
+        runningCommands.incrementAndGet();
+        try {
+            if (command.startsWith("ipset")) {
+                // Falls back to plain iptables rules
+                return new CommandResults(host, command, 1, "", "ipset: command not found");
+            }
+
+            Matcher matcher = RULE_PATTERN.matcher(command);
+            while (matcher.find()) {
+                String node = "n" + matcher.group(2);
+                boolean changed = matcher.group(1).equals("A") ? rulesMap.get(host).add(node)
+                        : rulesMap.get(host).remove(node);
+                assertTrue("Rule of " + node + " in " + host + " is applied twice or removed while missing", changed);
+                ruleChanges.incrementAndGet();
+            }
+            return new CommandResults(host, command, 0, "", "");
+        } finally {
+            runningCommands.decrementAndGet();
+        }
+    }
+
+    // The manager should have waited for all of its commands before returning
+    private void assertRules(Map<String, Set<String>> expectedRulesMap) {
+        assertRules(null, expectedRulesMap);
+    }
+
+    private void assertRules(String message, Map<String, Set<String>> expectedRulesMap) {
+        assertEquals("Commands are still running after the manager returned", 0, runningCommands.get());
+        Map<String, Set<String>> actualRulesMap = new HashMap<>();
+        for (Map.Entry<String, Set<String>> hostRules: rulesMap.entrySet()) {
+            synchronized (hostRules.getValue()) {
+                actualRulesMap.put(hostRules.getKey(), new TreeSet<>(hostRules.getValue()));
+            }
+        }
+        assertEquals(message, expectedRulesMap, actualRulesMap);
+    }
+
+    // The set-based calculation the bit matrix replaced. A host in a partition blocks all of the nodes in another
+    // partition unless that partition is connected to the host's partition
+    private Map<String, Set<String>> calculateBlockedNodes(NetPart netPart) {
+        Map<String, Set<String>> blockedMap = new HashMap<>();
+        for (String node: NODES) {
+            blockedMap.put(node, new TreeSet<>());
+        }
+        if (netPart == null) {
+            return blockedMap;
+        }
+
+        List<Set<String>> partitions = new ArrayList<>();
+        Set<String> restOfNodes = new HashSet<>(NODES);
+        for (String partition: netPart.getPartitions()) {
+            Set<String> nodes = new HashSet<>(Arrays.asList(partition.split(",")));
+            restOfNodes.removeAll(nodes);
+            partitions.add(nodes);
+        }
+        partitions.add(0, restOfNodes);
+
+        for (int partNum1 = 0; partNum1 < partitions.size(); partNum1++) {
+            for (int partNum2 = 0; partNum2 < partitions.size(); partNum2++) {
+                if (partNum1 != partNum2 && !netPart.getConnections().getOrDefault(partNum1, new HashSet<>())
+                        .contains(partNum2)) {
+                    for (String host: partitions.get(partNum2)) {
+                        blockedMap.get(host).addAll(partitions.get(partNum1));
+                    }
+                }
+            }
+        }
+        return blockedMap;
+    }
+
+    private Map<String, Set<String>> union(Map<String, Set<String>> map1, Map<String, Set<String>> map2) {
+        Map<String, Set<String>> unionMap = new HashMap<>();
+        for (String node: NODES) {
+            unionMap.put(node, new TreeSet<>(map1.get(node)));
+            unionMap.get(node).addAll(map2.get(node));
+        }
+        return unionMap;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution.single_node;
+
+import io.failify.workspace.NodeWorkspace;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class AppCdsArchiveTest {
+    private Path workingDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDirectory = Files.createTempDirectory("failify-appcds-test");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(workingDirectory.toFile());
+    }
+
+    @Test
+    public void archiveIsIdentifiedByTheContentOfTheClassPath() throws IOException {
+        Path app = Files.createDirectories(workingDirectory.resolve("app"));
+        Files.write(app.resolve("lib.jar"), "lib".getBytes());
+        String snippet = snippet(node("node1", app, null));
+
+        app.resolve("lib.jar").toFile().setLastModified(1000);
+        assertEquals(snippet, snippet(node("node2", app, null)));
+
+        Files.write(app.resolve("lib.jar"), "lib2".getBytes());
+        assertNotEquals(snippet, snippet(node("node1", app, null)));
+    }
+
+    @Test
+    public void instrumentedJarsAreIdentifiedByTheirContentBeforeWeaving() throws IOException {
+        Path app = Files.createDirectories(workingDirectory.resolve("app"));
+        Files.write(app.resolve("lib.jar"), "lib".getBytes());
+        app.resolve("lib.jar").toFile().setLastModified(1000);
+
+        Path woven1 = workingDirectory.resolve("woven1.jar");
+        Files.write(woven1, "woven at 1".getBytes());
+        String snippet = snippet(node("node1", app, woven1));
+        assertEquals(1000, woven1.toFile().lastModified());
+
+        Path woven2 = workingDirectory.resolve("woven2.jar");
+        Files.write(woven2, "woven at 2".getBytes());
+        assertEquals(snippet, snippet(node("node1", app, woven2)));
+        assertEquals(1000, woven2.toFile().lastModified());
+    }
+
+    @Test
+    public void theDumpIsPublishedOnlyIfItCanBeMapped() throws IOException {
+        Path app = Files.createDirectories(workingDirectory.resolve("app"));
+        Files.write(app.resolve("lib.jar"), "lib".getBytes());
+        String snippet = snippet(node("node1", app, null));
+
+        assertTrue(snippet.contains("-Xshare:on -version"));
+        assertTrue(snippet.indexOf("-Xshare:on") < snippet.indexOf("mv -f"));
+    }
+
+    @Test
+    public void theDumpIsCheckedWithTheClassPathOfTheNode() throws IOException {
+        Path app = Files.createDirectories(workingDirectory.resolve("app"));
+        Files.write(app.resolve("lib.jar"), "lib".getBytes());
+        String snippet = new AppCdsArchive("image", "/app/lib.jar:/app/conf", node("node1", app, null))
+                .getJvmOptionsSnippet("node1");
+
+        String check = snippet.substring(snippet.indexOf("java "), snippet.indexOf("-version"));
+        assertTrue(check.contains("-cp '/app/lib.jar:/app/conf'"));
+        assertTrue(check.contains("-Xshare:on"));
+    }
+
+    private String snippet(NodeWorkspace nodeWorkspace) throws IOException {
+        return new AppCdsArchive("image", "/app/lib.jar", nodeWorkspace).getJvmOptionsSnippet("node1");
+    }
+
+    private NodeWorkspace node(String name, Path app, Path woven) throws IOException {
+        Path rootDirectory = Files.createDirectories(workingDirectory.resolve(name));
+        List<NodeWorkspace.PathMappingEntry> pathMappingList = new ArrayList<>();
+        pathMappingList.add(new NodeWorkspace.PathMappingEntry(app.toString(), "/app", true));
+        Set<String> instrumentablePaths = new HashSet<>();
+        if (woven != null) {
+            pathMappingList.add(new NodeWorkspace.PathMappingEntry(woven.toString(), "/app/lib.jar", false));
+            instrumentablePaths.add(woven.toString());
+        }
+        return new NodeWorkspace(instrumentablePaths, new HashSet<>(), rootDirectory.toString(),
+                rootDirectory.toString(), rootDirectory.toString(), new HashMap<>(), new HashMap<>(), new HashMap<>(),
+                pathMappingList, new HashSet<>(), workingDirectory.toString());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.execution.single_node;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CpuPartitionPlannerTest {
+
+    @Test
+    public void splitsTheAvailableCpusIntoEqualGroups() {
+        Map<String, String> plan = new CpuPartitionPlanner(cpus(0, 1, 2, 3, 4, 5, 6, 7), 1)
+                .plan(nodeCpuSets("n1", null, "n2", null, "n3", null, "pinned", "2"));
+
+        assertEquals(3, plan.size());
+        assertEquals("1,3", plan.get("n1"));
+        assertEquals("4-5", plan.get("n2"));
+        assertEquals("6-7", plan.get("n3"));
+    }
+
+    @Test
+    public void partitionsOnlyTheAllowedCpus() {
+        // e.g. the docker daemon is limited to cpus 2-3 and 8-11
+        Map<String, String> plan = new CpuPartitionPlanner(CpuPartitionPlanner.parseCpuSet("2-3,8-11"), 2)
+                .plan(nodeCpuSets("n1", null, "n2", null, "n3", null));
+
+        assertEquals("8-9", plan.get("n1"));
+        assertEquals("10", plan.get("n2"));
+        assertEquals("11", plan.get("n3"));
+    }
+
+    @Test
+    public void sharesTheCpusInRoundRobinWhenThereAreMoreNodes() {
+        Map<String, String> plan = new CpuPartitionPlanner(cpus(4, 5, 6), 0)
+                .plan(nodeCpuSets("n1", null, "n2", null, "n3", null, "n4", null, "n5", null));
+
+        assertEquals("4", plan.get("n1"));
+        assertEquals("5", plan.get("n2"));
+        assertEquals("6", plan.get("n3"));
+        assertEquals("4", plan.get("n4"));
+        assertEquals("5", plan.get("n5"));
+    }
+
+    @Test
+    public void fallsBackToAllTheAllowedCpusWhenNoneIsLeft() {
+        Map<String, String> plan = new CpuPartitionPlanner(cpus(0, 1), 1).plan(nodeCpuSets("n1", null, "n2", "1"));
+
+        assertEquals(Collections.singletonMap("n1", "0-1"), plan);
+    }
+
+    @Test
+    public void doesNotPlanThePinnedNodes() {
+        assertTrue(new CpuPartitionPlanner(cpus(0, 1), 0).plan(nodeCpuSets("n1", "0", "n2", "1")).isEmpty());
+    }
+
+    @Test
+    public void parsesCpuSets() {
+        assertEquals(cpus(0, 1, 2, 4, 6, 7), CpuPartitionPlanner.parseCpuSet("0-2,4,6-7"));
+        assertEquals(cpus(3), CpuPartitionPlanner.parseCpuSet("3\n"));
+        assertEquals(cpus(), CpuPartitionPlanner.parseCpuSet(""));
+    }
+
+    @Test
+    public void formatsCpuSets() {
+        assertEquals("0-2,4,6-7", CpuPartitionPlanner.formatCpuSet(Arrays.asList(7, 0, 2, 1, 4, 6)));
+        assertEquals("5", CpuPartitionPlanner.formatCpuSet(Collections.singleton(5)));
+        assertEquals("", CpuPartitionPlanner.formatCpuSet(Collections.emptyList()));
+        assertEquals("0-3,8-11", CpuPartitionPlanner.formatCpuSet(CpuPartitionPlanner.parseCpuSet("0-3,8-11")));
+    }
+
+    private static SortedSet<Integer> cpus(Integer... cpus) {
+        return new TreeSet<>(Arrays.asList(cpus));
+    }
+
+    private static Map<String, String> nodeCpuSets(String... nodesAndCpuSets) {
+        Map<String, String> nodeCpuSets = new HashMap<>();
+        for (int i = 0; i < nodesAndCpuSets.length; i += 2) {
+            nodeCpuSets.put(nodesAndCpuSets[i], nodesAndCpuSets[i + 1]);
+        }
+        return nodeCpuSets;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.execution.single_node;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class DockerResourceManagerTest {
+    private static final String CONTAINER_ID = "0123456789abcdef";
+
+    private Path cgroupRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        cgroupRoot = Files.createTempDirectory("failify-cgroup-test");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(cgroupRoot.toFile());
+    }
+
+    @Test
+    public void throttleIsWrittenIntoTheBlkioControllerOnCgroupV1() throws IOException, InterruptedException {
+        Path containerCgroup = Files.createDirectories(cgroupRoot.resolve("blkio/docker/" + CONTAINER_ID));
+
+        assertEquals(0, runScript(DockerResourceManager.blkioCgroupScript(cgroupRoot.toString(), CONTAINER_ID,
+                "8:0", 1048576L, null, null, 10L)));
+
+        assertEquals("8:0 1048576", readCgroupFile(containerCgroup.resolve("blkio.throttle.read_bps_device")));
+        assertEquals("8:0 0", readCgroupFile(containerCgroup.resolve("blkio.throttle.write_bps_device")));
+        assertEquals("8:0 0", readCgroupFile(containerCgroup.resolve("blkio.throttle.read_iops_device")));
+        assertEquals("8:0 10", readCgroupFile(containerCgroup.resolve("blkio.throttle.write_iops_device")));
+    }
+
+    @Test
+    public void throttleIsWrittenIntoTheIoControllerOnCgroupV2() throws IOException, InterruptedException {
+        Files.write(cgroupRoot.resolve("cgroup.controllers"), "cpu io memory".getBytes());
+        Path containerCgroup = Files.createDirectories(
+                cgroupRoot.resolve("system.slice/docker-" + CONTAINER_ID + ".scope"));
+
+        assertEquals(0, runScript(DockerResourceManager.blkioCgroupScript(cgroupRoot.toString(), CONTAINER_ID,
+                "259:0", 5000000000L, null, 100L, null)));
+
+        assertEquals("259:0 rbps=5000000000 wbps=max riops=100 wiops=max",
+                readCgroupFile(containerCgroup.resolve("io.max")));
+    }
+
+    @Test
+    public void missingContainerCgroupFailsTheScript() throws IOException, InterruptedException {
+        Files.createDirectories(cgroupRoot.resolve("blkio/docker/fedcba9876543210"));
+
+        assertNotEquals(0, runScript(DockerResourceManager.blkioCgroupScript(cgroupRoot.toString(), CONTAINER_ID,
+                "8:0", null, null, null, null)));
+    }
+
+    private int runScript(String script) throws IOException, InterruptedException {
+        return new ProcessBuilder("/bin/sh", "-c", script).inheritIO().start().waitFor();
+    }
+
+    private String readCgroupFile(Path path) throws IOException {
+        return new String(Files.readAllBytes(path)).trim();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.util;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ArchiveUtilTest {
+    private Path testDirectory;
+    private Path destination;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("failify-archive-util-test");
+        destination = testDirectory.resolve("destination");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(testDirectory.toFile());
+    }
+
+    @Test
+    public void zipPreservesPermissionsAndModificationTimes() throws IOException {
+        Path archive = testDirectory.resolve("archive.zip");
+        try (ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(archive.toFile())) {
+            addZipFile(zipOutputStream, "bin/run.sh", 0755, "#!/bin/sh");
+            addZipFile(zipOutputStream, "conf/secret", 0600, "secret");
+        }
+
+        ArchiveUtil.extract(archive.toString(), destination.toString());
+
+        assertEquals("rwxr-xr-x", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(destination.resolve("bin/run.sh"))));
+        assertEquals("rw-------", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(destination.resolve("conf/secret"))));
+        assertEquals(1500000000000L, Files.getLastModifiedTime(destination.resolve("conf/secret")).toMillis());
+        assertEquals("secret", new String(Files.readAllBytes(destination.resolve("conf/secret")),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void tarGzPreservesPermissionsAndSymbolicLinks() throws IOException {
+        Path archive = testDirectory.resolve("archive.tar.gz");
+        try (TarArchiveOutputStream tarOutputStream = newTarGz(archive)) {
+            addTarFile(tarOutputStream, "lib/v1/app.jar", 0640, "jar");
+            addTarLink(tarOutputStream, "lib/current", "v1");
+        }
+
+        ArchiveUtil.extract(archive.toString(), destination.toString());
+
+        assertEquals("rw-r-----", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(destination.resolve("lib/v1/app.jar"))));
+        assertTrue(Files.isSymbolicLink(destination.resolve("lib/current")));
+        assertTrue(Files.exists(destination.resolve("lib/current/app.jar")));
+    }
+
+    @Test
+    public void zipRejectsPathTraversal() throws IOException {
+        Path archive = testDirectory.resolve("archive.zip");
+        try (ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(archive.toFile())) {
+            addZipFile(zipOutputStream, "../escaped", 0644, "escaped");
+        }
+
+        assertExtractionFails(archive);
+        assertFalse(Files.exists(testDirectory.resolve("escaped")));
+    }
+
+    @Test
+    public void zipRejectsSymbolicLinksToOutside() throws IOException {
+        Path archive = testDirectory.resolve("archive.zip");
+        try (ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(archive.toFile())) {
+            ZipArchiveEntry entry = new ZipArchiveEntry("lib");
+            entry.setUnixMode(UnixStat.LINK_FLAG | 0777);
+            writeEntry(zipOutputStream, entry, testDirectory.toString());
+            addZipFile(zipOutputStream, "lib/sub/escaped", 0644, "escaped");
+        }
+
+        assertExtractionFails(archive);
+        assertFalse(Files.exists(testDirectory.resolve("sub")));
+    }
+
+    @Test
+    public void tarGzRejectsSymbolicLinksToOutside() throws IOException {
+        Path archive = testDirectory.resolve("archive.tar.gz");
+        try (TarArchiveOutputStream tarOutputStream = newTarGz(archive)) {
+            addTarLink(tarOutputStream, "lib", "..");
+            addTarFile(tarOutputStream, "lib/sub/escaped", 0644, "escaped");
+        }
+
+        assertExtractionFails(archive);
+        assertFalse(Files.exists(testDirectory.resolve("sub")));
+    }
+
+    @Test
+    public void tarGzDoesNotWriteThroughSymbolicLinks() throws IOException {
+        // Each link points inside the destination directory on its own, but together they point to its parent
+        Path archive = testDirectory.resolve("archive.tar.gz");
+        try (TarArchiveOutputStream tarOutputStream = newTarGz(archive)) {
+            addTarLink(tarOutputStream, "self", ".");
+            addTarLink(tarOutputStream, "parent", "self/..");
+            addTarFile(tarOutputStream, "parent/sub/escaped", 0644, "escaped");
+        }
+
+        assertExtractionFails(archive);
+        assertFalse(Files.exists(testDirectory.resolve("sub")));
+    }
+
+    private void assertExtractionFails(Path archive) {
+        try {
+            ArchiveUtil.extract(archive.toString(), destination.toString());
+            fail("Extracting " + archive.getFileName() + " should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void addZipFile(ZipArchiveOutputStream zipOutputStream, String name, int mode, String content)
+            throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setUnixMode(UnixStat.FILE_FLAG | mode);
+        entry.setTime(1500000000000L);
+        writeEntry(zipOutputStream, entry, content);
+    }
+
+    private static TarArchiveOutputStream newTarGz(Path archive) throws IOException {
+        OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(archive));
+        return new TarArchiveOutputStream(outputStream);
+    }
+
+    private static void addTarFile(TarArchiveOutputStream tarOutputStream, String name, int mode, String content)
+            throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setMode(TarArchiveEntry.DEFAULT_FILE_MODE & ~0777 | mode);
+        entry.setSize(content.length());
+        writeEntry(tarOutputStream, entry, content);
+    }
+
+    private static void addTarLink(TarArchiveOutputStream tarOutputStream, String name, String linkName)
+            throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name, TarArchiveEntry.LF_SYMLINK);
+        entry.setLinkName(linkName);
+        writeEntry(tarOutputStream, entry, "");
+    }
+
+    private static void writeEntry(ArchiveOutputStream outputStream, ArchiveEntry entry, String content)
+            throws IOException {
+        outputStream.putArchiveEntry(entry);
+        outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+        outputStream.closeArchiveEntry();
+    }
+}
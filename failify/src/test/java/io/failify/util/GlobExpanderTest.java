@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GlobExpanderTest {
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("failify-glob-expander-test").toRealPath();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(root.toFile());
+    }
+
+    @Test
+    public void prunesTheDirectoriesNotMatchingThePatternComponents() {
+        GlobExpander.Glob glob = new GlobExpander.Glob(root + "/app*/lib/*.jar");
+
+        assertEquals(root, glob.root);
+        assertTrue(glob.mayMatchBelow(root.resolve("app1"), 1));
+        assertFalse(glob.mayMatchBelow(root.resolve("other"), 1));
+        assertTrue(glob.mayMatchBelow(root.resolve("app1/lib"), 2));
+        assertFalse(glob.mayMatchBelow(root.resolve("app1/conf"), 2));
+        // the files can only be directly in the lib directories
+        assertFalse(glob.mayMatchBelow(root.resolve("app1/lib/sub"), 3));
+    }
+
+    @Test
+    public void doesNotPruneBelowARecursiveComponent() {
+        GlobExpander.Glob glob = new GlobExpander.Glob(root + "/app*/**/*.jar");
+
+        assertTrue(glob.mayMatchBelow(root.resolve("app1"), 1));
+        assertFalse(glob.mayMatchBelow(root.resolve("other"), 1));
+        assertTrue(glob.mayMatchBelow(root.resolve("app1/lib"), 2));
+        assertTrue(glob.mayMatchBelow(root.resolve("app1/lib/sub/deeper"), 4));
+    }
+
+    @Test
+    public void groupsTheNestedRootsIntoASingleWalk() throws IOException {
+        Files.createDirectories(root.resolve("a/b"));
+        Files.createDirectories(root.resolve("c"));
+        GlobExpander.Glob outer = new GlobExpander.Glob(root + "/a/*.jar");
+        GlobExpander.Glob inner = new GlobExpander.Glob(root + "/a/b/*.jar");
+        GlobExpander.Glob sibling = new GlobExpander.Glob(root + "/c/*.jar");
+
+        Map<Path, List<GlobExpander.Glob>> walks = GlobExpander.groupByWalkRoot(Arrays.asList(inner, sibling, outer));
+
+        assertEquals(2, walks.size());
+        assertEquals(new HashSet<>(Arrays.asList(outer, inner)), new HashSet<>(walks.get(root.resolve("a"))));
+        assertEquals(Collections.singletonList(sibling), walks.get(root.resolve("c")));
+    }
+
+    @Test
+    public void doesNotGroupARootBehindASymbolicLink() throws IOException {
+        Files.createDirectories(root.resolve("a"));
+        Files.createDirectories(root.resolve("target"));
+        Files.createSymbolicLink(root.resolve("a/link"), root.resolve("target"));
+        GlobExpander.Glob outer = new GlobExpander.Glob(root + "/a/*.jar");
+        GlobExpander.Glob linked = new GlobExpander.Glob(root + "/a/link/*.jar");
+
+        Map<Path, List<GlobExpander.Glob>> walks = GlobExpander.groupByWalkRoot(Arrays.asList(outer, linked));
+
+        assertEquals(Collections.singletonList(outer), walks.get(root.resolve("a")));
+        assertEquals(Collections.singletonList(linked), walks.get(root.resolve("a/link")));
+    }
+
+    @Test
+    public void expandsNestedPatternsInASharedWalk() throws IOException {
+        touch("a/one.jar");
+        touch("a/b/two.jar");
+        touch("a/b/c/three.jar");
+        touch("a/other/four.jar");
+        touch("a/b/notes.txt");
+
+        Map<String, Set<String>> expansions = new GlobExpander().expand(Arrays.asList(root + "/a/*.jar",
+                root + "/a/b/*.jar", root + "/a/b/**.jar", root + "/a/missing/*.jar"));
+
+        assertEquals(paths("a/one.jar"), expansions.get(root + "/a/*.jar"));
+        assertEquals(paths("a/b/two.jar"), expansions.get(root + "/a/b/*.jar"));
+        assertEquals(paths("a/b/two.jar", "a/b/c/three.jar"), expansions.get(root + "/a/b/**.jar"));
+        assertEquals(Collections.emptySet(), expansions.get(root + "/a/missing/*.jar"));
+    }
+
+    @Test
+    public void doesNotExpandAnExistingPath() throws IOException {
+        touch("a/[1].jar");
+        touch("a/1.jar");
+
+        Map<String, Set<String>> expansions = new GlobExpander().expand(Collections.singleton(root + "/a/[1].jar"));
+
+        assertEquals(paths("a/[1].jar"), expansions.get(root + "/a/[1].jar"));
+    }
+
+    private void touch(String path) throws IOException {
+        Files.createDirectories(root.resolve(path).getParent());
+        Files.createFile(root.resolve(path));
+    }
+
+    private Set<String> paths(String... paths) {
+        Set<String> result = new HashSet<>();
+        for (String path: paths) {
+            result.add(root.resolve(path).toString());
+        }
+        return result;
+    }
+}
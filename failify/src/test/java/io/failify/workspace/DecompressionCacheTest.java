@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.workspace;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class DecompressionCacheTest {
+    private Path testDirectory;
+    private Path cacheDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("failify-decompression-cache-test");
+        cacheDirectory = testDirectory.resolve("cache");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(testDirectory.toFile());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntries() throws Exception {
+        DecompressionCache cache = new DecompressionCache(cacheDirectory, 250);
+        String first = cache.get(archive("first"), this::decompress);
+        String second = cache.get(archive("second"), this::decompress);
+        String third = cache.get(archive("third"), this::decompress);
+        cache.release();
+
+        // the first entry is the most recently used one
+        touch(second, 1000);
+        touch(third, 2000);
+        touch(first, 3000);
+
+        new DecompressionCache(cacheDirectory, 250).evict();
+
+        assertTrue(Files.isDirectory(Paths.get(first)));
+        assertFalse(Files.exists(Paths.get(second)));
+        assertTrue(Files.isDirectory(Paths.get(third)));
+    }
+
+    @Test
+    public void doesNotEvictTheEntriesInUse() throws Exception {
+        DecompressionCache cache = new DecompressionCache(cacheDirectory, 0);
+        String first = cache.get(archive("first"), this::decompress);
+        String second = cache.get(archive("second"), this::decompress);
+        cache.release();
+
+        DecompressionCache otherRunCache = new DecompressionCache(cacheDirectory, 0);
+        assertEquals(first, otherRunCache.get(archive("first"), this::decompress));
+        new DecompressionCache(cacheDirectory, 0).evict();
+
+        assertTrue(Files.isDirectory(Paths.get(first)));
+        assertFalse(Files.exists(Paths.get(second)));
+
+        otherRunCache.release();
+        new DecompressionCache(cacheDirectory, 0).evict();
+
+        assertFalse(Files.exists(Paths.get(first)));
+    }
+
+    @Test
+    public void reusesTheCachedEntryOfAnUnchangedArchive() throws Exception {
+        DecompressionCache cache = new DecompressionCache(cacheDirectory, 1000);
+        String archive = archive("archive");
+        String entry = cache.get(archive, this::decompress);
+        String cachedEntry = cache.get(archive, (archivePath, targetDirectory) -> fail("should not decompress again"));
+        cache.release();
+
+        assertEquals(entry, cachedEntry);
+    }
+
+    // Each archive is decompressed to a single file of 100 bytes
+    private void decompress(String archivePath, String targetDirectory) {
+        try {
+            Files.createDirectories(Paths.get(targetDirectory));
+            Files.write(Paths.get(targetDirectory, "file"), new byte[100]);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String archive(String name) throws IOException {
+        Path archive = testDirectory.resolve(name + ".zip");
+        if (!Files.exists(archive)) {
+            Files.write(archive, name.getBytes());
+        }
+        return archive.toString();
+    }
+
+    private void touch(String entry, long time) throws IOException {
+        Files.setLastModifiedTime(Paths.get(entry + ".size"), FileTime.fromMillis(time));
+    }
+}
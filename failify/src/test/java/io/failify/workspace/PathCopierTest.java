@@ -0,0 +1,73 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package io.failify.workspace;
+
+import io.failify.dsl.entities.WorkspaceCopyStrategy;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class PathCopierTest {
+    private Path testDirectory;
+    private Path source;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("failify-path-copier-test");
+        source = Files.createDirectories(testDirectory.resolve("source"));
+        Files.write(source.resolve("file"), "source".getBytes());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(testDirectory.toFile());
+    }
+
+    @Test
+    public void hardLinkCopiesShareTheSourceFiles() throws IOException {
+        Path target = testDirectory.resolve("target");
+        new PathCopier(WorkspaceCopyStrategy.HARDLINK).copy(source, target, false);
+
+        assertTrue(Files.isSameFile(source.resolve("file"), target.resolve("file")));
+    }
+
+    @Test
+    public void copiesWithoutHardLinksDoNotChangeTheSource() throws IOException {
+        Path target = testDirectory.resolve("target");
+        new PathCopier(WorkspaceCopyStrategy.HARDLINK).copy(source, target, true);
+
+        assertFalse(Files.isSameFile(source.resolve("file"), target.resolve("file")));
+        Files.write(target.resolve("file"), "target".getBytes());
+        assertEquals("source", new String(Files.readAllBytes(source.resolve("file"))));
+    }
+}
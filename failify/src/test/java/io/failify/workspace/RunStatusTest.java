@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.workspace;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class RunStatusTest {
+    private Path runDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        runDirectory = Files.createTempDirectory("failify-run-status-test");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(runDirectory.toFile());
+    }
+
+    @Test
+    public void markingTheOutcomeKeepsTheRunInUseUntilItIsFinished() throws Exception {
+        RunStatus runStatus = new RunStatus(runDirectory);
+        runStatus.start();
+        runStatus.mark(RunStatus.State.SUCCEEDED);
+
+        assertTrue(RunStatus.isInUse(runDirectory));
+        assertEquals(RunStatus.State.RUNNING, runStatus.state());
+
+        runStatus.finish();
+
+        assertFalse(RunStatus.isInUse(runDirectory));
+        assertEquals(RunStatus.State.SUCCEEDED, RunStatus.read(runDirectory).state());
+    }
+
+    @Test
+    public void aRunWithoutAnOutcomeIsFinished() throws Exception {
+        RunStatus runStatus = new RunStatus(runDirectory);
+        runStatus.start();
+        runStatus.finish();
+
+        assertEquals(RunStatus.State.FINISHED, RunStatus.read(runDirectory).state());
+    }
+
+    @Test
+    public void theOutcomeCanBeMarkedAfterTheRunIsFinished() throws Exception {
+        RunStatus runStatus = new RunStatus(runDirectory);
+        runStatus.start();
+        runStatus.finish();
+        runStatus.mark(RunStatus.State.FAILED);
+        runStatus.mark(RunStatus.State.SUCCEEDED);
+
+        assertFalse(RunStatus.isInUse(runDirectory));
+        assertEquals(RunStatus.State.FAILED, RunStatus.read(runDirectory).state());
+    }
+}
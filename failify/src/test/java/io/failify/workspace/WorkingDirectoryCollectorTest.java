@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2019 Armin Balalaie
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+
+package io.failify.workspace;
+
+import io.failify.Constants;
+import io.failify.dsl.entities.Deployment;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class WorkingDirectoryCollectorTest {
+    private Path topLevelWorkingDirectory;
+    private Path currentRunDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        topLevelWorkingDirectory = Files.createTempDirectory("failify-working-directory-collector-test");
+        currentRunDirectory = Files.createDirectory(topLevelWorkingDirectory.resolve("current"));
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(topLevelWorkingDirectory.toFile());
+    }
+
+    @Test
+    public void retentionIncludesTheCurrentRun() throws IOException {
+        addRun("run1", RunStatus.State.SUCCEEDED, 1000);
+        addRun("run2", RunStatus.State.FAILED, 2000);
+        addRun("run3", RunStatus.State.SUCCEEDED, 3000);
+        addRun("run4", RunStatus.State.FINISHED, 4000);
+
+        collect(Deployment.builder("test").workingDirectoryRetention(3).build());
+
+        assertEquals(new HashSet<>(Arrays.asList("current", "run3", "run4")), remainingDirectories());
+    }
+
+    @Test
+    public void retentionOfOneKeepsOnlyTheCurrentRun() throws IOException {
+        addRun("run1", RunStatus.State.SUCCEEDED, 1000);
+        addRun("run2", RunStatus.State.FAILED, 2000);
+
+        collect(Deployment.builder("test").workingDirectoryRetention(1).build());
+
+        assertEquals(new HashSet<>(Arrays.asList("current")), remainingDirectories());
+    }
+
+    @Test
+    public void keepFailedRunsOnlyRemovesOnlyTheSucceededRuns() throws IOException {
+        addRun("run1", RunStatus.State.SUCCEEDED, 1000);
+        addRun("run2", RunStatus.State.FAILED, 2000);
+        addRun("run3", RunStatus.State.FINISHED, 3000);
+        addRun("run4", RunStatus.State.RUNNING, 4000);
+        Files.createDirectory(topLevelWorkingDirectory.resolve("run5"));
+
+        collect(Deployment.builder("test").keepFailedRunsOnly(true).build());
+
+        assertEquals(new HashSet<>(Arrays.asList("current", "run2", "run3", "run4", "run5")),
+                remainingDirectories());
+    }
+
+    @Test
+    public void retentionOnlyCountsTheKeptFailedRuns() throws IOException {
+        addRun("run1", RunStatus.State.FAILED, 1000);
+        addRun("run2", RunStatus.State.FAILED, 2000);
+        addRun("run3", RunStatus.State.SUCCEEDED, 3000);
+
+        collect(Deployment.builder("test").keepFailedRunsOnly(true).workingDirectoryRetention(2).build());
+
+        assertEquals(new HashSet<>(Arrays.asList("current", "run2")), remainingDirectories());
+    }
+
+    private void addRun(String name, RunStatus.State state, long startTime) throws IOException {
+        Path runDirectory = Files.createDirectory(topLevelWorkingDirectory.resolve(name));
+        Files.write(runDirectory.resolve(Constants.RUN_STATUS_FILE_NAME), ("state=" + state.name() + "\nstartTime="
+                + startTime + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void collect(Deployment deployment) throws IOException {
+        new WorkingDirectoryCollector(topLevelWorkingDirectory, currentRunDirectory, deployment).collect();
+    }
+
+    private Set<String> remainingDirectories() throws IOException {
+        try (Stream<Path> paths = Files.list(topLevelWorkingDirectory)) {
+            return paths.map(path -> path.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+}